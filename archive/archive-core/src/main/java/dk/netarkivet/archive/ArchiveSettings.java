@@ -56,6 +56,13 @@ public class ArchiveSettings {
      */
     public static String ARCREPOSITORY_UPLOAD_RETRIES = "settings.archive.arcrepository.uploadRetries";
 
+    /**
+     * <b>settings.archive.arcrepository.storeThreads</b>: <br>
+     * The number of threads the arc repository handles store requests on. Files are spread over the threads by name,
+     * so different files are stored concurrently, while the requests for one file are handled in the order received.
+     */
+    public static String ARCREPOSITORY_STORE_THREADS = "settings.archive.arcrepository.storeThreads";
+
     /**
      * <b>settings.archive.bitarchive.minSpaceLeft</b>: <br>
      * The minimum amount of bytes left *in any dir* that we will allow a bitarchive machine to accept uploads with.
@@ -80,6 +87,21 @@ public class ArchiveSettings {
      */
     public static String BITARCHIVE_SERVER_FILEDIR = "settings.archive.bitarchive.baseFileDir";
 
+    /**
+     * <b>settings.archive.bitarchive.fileListRescanInterval</b>: <br>
+     * The interval in milliseconds between the background checks of the bitarchive directories against the in-memory
+     * index of archived files. Files added to or removed from the directories by other means than the bitarchive
+     * application are picked up by this check. A value of 0 or less disables the background check.
+     */
+    public static String BITARCHIVE_FILELIST_RESCAN_INTERVAL = "settings.archive.bitarchive.fileListRescanInterval";
+
+    /**
+     * <b>settings.archive.bitarchive.maxOpenArchiveFiles</b>: <br>
+     * The maximum number of archive files the bitarchive keeps open for answering get requests. The least recently used
+     * file is closed when more files are needed.
+     */
+    public static String BITARCHIVE_MAX_OPEN_ARCHIVE_FILES = "settings.archive.bitarchive.maxOpenArchiveFiles";
+
     /**
      * <b>settings.archive.bitarchive.heartbeatFrequency</b>: <br>
      * The frequency in milliseconds of heartbeats that are sent by each BitarchiveServer to the BitarchiveMonitor.
@@ -251,6 +273,13 @@ public class ArchiveSettings {
      */
     public static String DB_POOL_IDLE_CONN_TEST_QUERY = "settings.archive.admin.database.pool.idleConnTestQuery";
 
+    /**
+     * <b>settings.archive.admin.database.updateBatchSize</b>: <br>
+     * The number of replicafileinfo updates sent to the database in one JDBC batch and committed in one transaction,
+     * when the results of a checksum job or a file list job are added to the database. Default is 1000.
+     */
+    public static String DB_UPDATE_BATCH_SIZE = "settings.archive.admin.database.updateBatchSize";
+
     /**
      * The user name for login to the admin database. Default value is empty (no username passed to database
      * connection).
@@ -287,6 +316,13 @@ public class ArchiveSettings {
      * default, it is stored in a file
      */
     public static String CHECKSUM_ARCHIVE_CLASS = "settings.archive.checksum.archive.class";
+
+    /**
+     * <b>settings.archive.checksum.compactThreshold</b>: <br>
+     * Used by the CompactChecksumArchive. The number of entries in its append log, which is also held in memory, at
+     * which the log is merged into the sorted checksum table.
+     */
+    public static String CHECKSUM_COMPACT_THRESHOLD = "settings.archive.checksum.compactThreshold";
     
     /**
      * <b>settings.archive.checksum.usePrecomputedChecksum</b>: This decides whether or not use the pre-computed checksum sent as part of the StoreMessage and UploadMessage
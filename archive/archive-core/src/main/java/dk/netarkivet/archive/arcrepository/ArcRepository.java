@@ -25,9 +25,11 @@ package dk.netarkivet.archive.arcrepository;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,6 +73,10 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * through the JMSArcRepositoryClient that contacts the appropriate (typically nearest) replica and retrieves data from
  * this archive. Batch execution is sent to the bitarchive replica(s), since batch cannot be executed on checksum
  * replicas. Correction operations are typically only allowed on one replica.
+ * <p>
+ * The store operations of different files proceed concurrently. The state of the outstanding operations is kept in
+ * concurrent maps, and every state transition of a file is done holding the lock of that file, see
+ * {@link #lockFor(String)}. Thus the events of one file are processed one at a time, in the order they arrive.
  */
 @SuppressWarnings({"deprecation"})
 public class ArcRepository implements CleanupIF {
@@ -87,26 +93,80 @@ public class ArcRepository implements CleanupIF {
     /** The class which listens to messages sent to this instance of Arcrepository or its subclasses. */
     private ArcRepositoryServer arcReposhandler;
 
+    /** The number of locks that the files being stored are spread over. */
+    private static final int FILE_LOCK_STRIPES = 256;
+
     /** A Map of a Replica and their corresponding ReplicaClient. From this Map the relevant channels can be found. */
-    private final Map<Replica, ReplicaClient> connectedReplicas = new HashMap<Replica, ReplicaClient>();
+    private final Map<Replica, ReplicaClient> connectedReplicas = new ConcurrentHashMap<Replica, ReplicaClient>();
+
+    /**
+     * Map from MessageId to arcfiles for which there are outstanding checksum jobs. A request is registered after it is
+     * sent, so its reply may arrive first; see {@link #unmatchedChecksumReplies}. Whoever removes the entry of a
+     * request processes its reply.
+     */
+    private final ConcurrentMap<String, String> outstandingChecksumFiles = new ConcurrentHashMap<String, String>();
+
+    /** How long a checksum reply is kept waiting for its request to be registered, in milliseconds. */
+    private static final long UNMATCHED_REPLY_TIMEOUT = 60 * 1000L;
+
+    /**
+     * Map from MessageId of a checksum request to a reply that arrived before the request was registered. The reply is
+     * processed by the sender of the request once it is registered, or dropped after {@link #UNMATCHED_REPLY_TIMEOUT}
+     * if no such request is sent.
+     */
+    private final ConcurrentMap<String, UnmatchedReply> unmatchedChecksumReplies =
+            new ConcurrentHashMap<String, UnmatchedReply>();
+
+    /**
+     * Map from filenames to the state of store operations in process. Used for retrieving a remote file reference and
+     * counting upload retries while a store operation is in process.
+     */
+    private final ConcurrentMap<String, OutstandingStore> outstandingStores =
+            new ConcurrentHashMap<String, OutstandingStore>();
+
+    /** The locks guarding the state transitions of the files being stored. */
+    private final Object[] fileLocks = new Object[FILE_LOCK_STRIPES];
 
-    /** Map from MessageId to arcfiles for which there are outstanding checksum jobs. */
-    private final Map<String, String> outstandingChecksumFiles = new HashMap<String, String>();
-    
     /**
-     * Map from filenames to remote files. Used for retrieving a remote file reference while a store operation is in
-     * process.
+     * A checksum reply waiting for its request to be registered.
      */
-    private final Map<String, RemoteFile> outstandingRemoteFiles = new HashMap<String, RemoteFile>();
+    private static final class UnmatchedReply {
+        /** The reply, a BatchReplyMessage or a GetChecksumMessage. */
+        private final NetarkivetMessage reply;
+        /** The time the reply arrived. */
+        private final long received = System.currentTimeMillis();
+
+        /**
+         * @param reply The reply.
+         */
+        UnmatchedReply(NetarkivetMessage reply) {
+            this.reply = reply;
+        }
+    }
 
-    private final Map<String, String> outstandingRemoteFilesC = new HashMap<String, String>();
-    
-    
     /**
-     * Map from bitarchive names to Map from filenames to the number of times a file has been attempted uploaded to the
-     * the bitarchive.
+     * The state of a store operation in process. Package private for testing.
      */
-    private final Map<String, Map<String, Integer>> uploadRetries = new HashMap<String, Map<String, Integer>>();
+    static final class OutstandingStore {
+        /** The file being stored. */
+        private final RemoteFile remoteFile;
+        /** The checksum computed by the sender of the file. */
+        private final String precomputedChecksum;
+        /** Map from replica identification channel names to the number of upload retries to that replica. */
+        private final ConcurrentMap<String, AtomicInteger> uploadRetries;
+
+        /**
+         * @param remoteFile The file being stored.
+         * @param precomputedChecksum The checksum computed by the sender of the file.
+         * @param uploadRetries The upload retries made so far.
+         */
+        OutstandingStore(RemoteFile remoteFile, String precomputedChecksum,
+                ConcurrentMap<String, AtomicInteger> uploadRetries) {
+            this.remoteFile = remoteFile;
+            this.precomputedChecksum = precomputedChecksum;
+            this.uploadRetries = uploadRetries;
+        }
+    }
 
     /**
      * Constructor for the ArcRepository. Connects the ArcRepository to all BitArchives, and initialises admin data.
@@ -117,6 +177,9 @@ public class ArcRepository implements CleanupIF {
     protected ArcRepository() throws IOFailure, IllegalState {
         // UpdateableAdminData Throws IOFailure
         this.ad = AdminFactory.getInstance();
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
         this.arcReposhandler = new ArcRepositoryServer(this);
 
         initialiseReplicaClients();
@@ -187,20 +250,37 @@ public class ArcRepository implements CleanupIF {
      * @throws IOFailure If file couldn't be stored.
      * @throws ArgumentNotValid If a input parameter is null.
      */
-    public synchronized void store(RemoteFile rf, StoreMessage replyInfo) throws IOFailure, ArgumentNotValid {
+    public void store(RemoteFile rf, StoreMessage replyInfo) throws IOFailure, ArgumentNotValid {
         ArgumentNotValid.checkNotNull(rf, "rf");
         ArgumentNotValid.checkNotNull(replyInfo, "replyInfo");
 
+        final String filename = rf.getName();
+        synchronized (lockFor(filename)) {
+            storeFile(rf, replyInfo);
+        }
+    }
+
+    /**
+     * Stores a file in all known replicas. Must be called holding the lock of the file.
+     *
+     * @param rf The remotefile to be stored.
+     * @param replyInfo A StoreMessage used to reply with success or failure.
+     */
+    private void storeFile(RemoteFile rf, StoreMessage replyInfo) {
         final String filename = rf.getName();
         log.info("Store started: '{}'", filename);
 
         // Record, that store of this filename is in progress
         // needed for retrying uploads.
-        if (outstandingRemoteFiles.containsKey(filename)) {
+        OutstandingStore previous = outstandingStores.get(filename);
+        ConcurrentMap<String, AtomicInteger> retries;
+        if (previous != null) {
             log.info("File: '{}' was outstanding from the start.", filename);
+            retries = previous.uploadRetries;
+        } else {
+            retries = new ConcurrentHashMap<String, AtomicInteger>();
         }
-        outstandingRemoteFiles.put(filename, rf);
-        outstandingRemoteFilesC.put(filename, replyInfo.getPrecomputedChecksum()); // Hack
+        outstandingStores.put(filename, new OutstandingStore(rf, replyInfo.getPrecomputedChecksum(), retries));
 
         if (ad.hasEntry(filename)) {
             // Any valid entry (and all existing entries are now
@@ -234,7 +314,7 @@ public class ArcRepository implements CleanupIF {
      * @param replica The replica where RemoteFile is to be stored.
      * @param replyInfo 
      */
-    private synchronized void startUpload(RemoteFile rf, ReplicaClient replicaClient, Replica replica, StoreMessage replyInfo) {
+    private void startUpload(RemoteFile rf, ReplicaClient replicaClient, Replica replica, StoreMessage replyInfo) {
         final String filename = rf.getName();
         log.debug("Upload started of file '{}' to replica '{}'", filename, replica.getId());
 
@@ -281,13 +361,74 @@ public class ArcRepository implements CleanupIF {
      * @param replicaClient The client to retrieve the checksum of the file from.
      */
     private void sendChecksumRequestForFile(String filename, ReplicaClient replicaClient) {
-        NetarkivetMessage msg;
-
         // Retrieve the checksum of the file.
-        msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(), filename);
+        NetarkivetMessage msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(), filename);
+        String msgId = msg.getID();
+        outstandingChecksumFiles.put(msgId, filename);
+        log.debug("Checksum job message submitted for file '{}' with message id: '{}'", filename, msgId);
+
+        // The reply may have arrived before the request was registered. It is processed here unless the receiver of
+        // the reply found the request after all.
+        if (unmatchedChecksumReplies.containsKey(msgId) && outstandingChecksumFiles.remove(msgId, filename)) {
+            UnmatchedReply early = unmatchedChecksumReplies.remove(msgId);
+            if (early != null) {
+                log.debug("Processing the reply to message '{}', which arrived before the request was registered",
+                        msgId);
+                processChecksumReply(early.reply, filename);
+            }
+        }
+    }
 
-        outstandingChecksumFiles.put(msg.getID(), filename);
-        log.debug("Checksum job message submitted for file '{}' with message id: '{}'", filename, msg.getID());
+    /**
+     * Find the file of an outstanding checksum request, and remove the request. If the request is not registered yet,
+     * the reply is kept for the sender of the request, see {@link #sendChecksumRequestForFile(String, ReplicaClient)}.
+     *
+     * @param msgId The id of the request message.
+     * @param reply The reply to the request.
+     * @return The arcfile the request was for, or null if the reply is not to be processed by the caller.
+     */
+    private String claimChecksumReply(String msgId, NetarkivetMessage reply) {
+        String arcfileName = outstandingChecksumFiles.remove(msgId);
+        if (arcfileName != null) {
+            return arcfileName;
+        }
+        dropExpiredChecksumReplies();
+        unmatchedChecksumReplies.put(msgId, new UnmatchedReply(reply));
+        // The request may have been registered in the meantime, without the sender seeing the reply.
+        arcfileName = outstandingChecksumFiles.remove(msgId);
+        if (arcfileName != null) {
+            unmatchedChecksumReplies.remove(msgId);
+            return arcfileName;
+        }
+        return null;
+    }
+
+    /**
+     * Drop the checksum replies that have waited longer than {@link #UNMATCHED_REPLY_TIMEOUT} for their request.
+     */
+    private void dropExpiredChecksumReplies() {
+        long expired = System.currentTimeMillis() - UNMATCHED_REPLY_TIMEOUT;
+        for (Map.Entry<String, UnmatchedReply> entry : unmatchedChecksumReplies.entrySet()) {
+            if (entry.getValue().received < expired
+                    && unmatchedChecksumReplies.remove(entry.getKey(), entry.getValue())) {
+                log.debug("Dropping the reply to unknown message '{}', as no request for it has been registered",
+                        entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Process a checksum reply whose request has been removed from the outstanding requests.
+     *
+     * @param reply A BatchReplyMessage or a GetChecksumMessage.
+     * @param arcfileName The file the request was for.
+     */
+    private void processChecksumReply(NetarkivetMessage reply, String arcfileName) {
+        if (reply instanceof BatchReplyMessage) {
+            processBatchReply((BatchReplyMessage) reply, arcfileName);
+        } else {
+            processGetChecksumReply((GetChecksumMessage) reply, arcfileName);
+        }
     }
 
     /**
@@ -298,7 +439,7 @@ public class ArcRepository implements CleanupIF {
      *
      * @param arcFileName The arcfile we consider replying to.
      */
-    private synchronized void considerReplyingOnStore(String arcFileName) {
+    private void considerReplyingOnStore(String arcFileName) {
         if (ad.hasReplyInfo(arcFileName)) {
             if (isStoreCompleted(arcFileName)) {
                 replyOK(arcFileName, ad.removeReplyInfo(arcFileName));
@@ -314,10 +455,8 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyOK(String arcFileName, StoreMessage msg) {
-        outstandingRemoteFiles.remove(arcFileName);
-        outstandingRemoteFilesC.remove(arcFileName);
-        clearRetries(arcFileName);
+    private void replyOK(String arcFileName, StoreMessage msg) {
+        outstandingStores.remove(arcFileName);
         log.info("Store OK: '{}'", arcFileName);
         log.debug("Sending store OK reply to message '{}'", msg);
         JMSConnectionFactory.getInstance().reply(msg);
@@ -329,10 +468,8 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyNotOK(String arcFileName, StoreMessage msg) {
-        outstandingRemoteFiles.remove(arcFileName);
-        outstandingRemoteFilesC.remove(arcFileName);
-        clearRetries(arcFileName);
+    private void replyNotOK(String arcFileName, StoreMessage msg) {
+        outstandingStores.remove(arcFileName);
         msg.setNotOk("Failure while trying to store ARC file: " + arcFileName);
         log.warn("Store NOT OK: '{}'", arcFileName);
         log.debug("Sending store NOT OK reply to message '{}'", msg);
@@ -450,16 +587,18 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg an UploadMessage.
      */
-    public synchronized void onUpload(UploadMessage msg) {
+    public void onUpload(UploadMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("Received upload reply: {}", msg.toString());
 
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
 
-        if (msg.isOk()) {
-            processDataUploaded(msg.getArcfileName(), repChannelName);
-        } else {
-            processUploadFailed(msg.getArcfileName(), repChannelName);
+        synchronized (lockFor(msg.getArcfileName())) {
+            if (msg.isOk()) {
+                processDataUploaded(msg.getArcfileName(), repChannelName);
+            } else {
+                processUploadFailed(msg.getArcfileName(), repChannelName);
+            }
         }
     }
 
@@ -476,7 +615,7 @@ public class ArcRepository implements CleanupIF {
      * @param replicaChannelName The name of the identification channel for the replica that uploaded it (THE_BAMON for
      * bitarchive and THE_CR for checksum).
      */
-    private synchronized void processDataUploaded(String arcfileName, String replicaChannelName) {
+    private void processDataUploaded(String arcfileName, String replicaChannelName) {
         log.debug("Data uploaded '{}' ,{}", arcfileName, replicaChannelName);
         ad.setState(arcfileName, replicaChannelName, ReplicaStoreState.DATA_UPLOADED);
 
@@ -508,19 +647,27 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg a BatchReplyMessage.
      */
-    public synchronized void onBatchReply(BatchReplyMessage msg) {
+    public void onBatchReply(BatchReplyMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("BatchReplyMessage received: '{}'", msg);
 
-        if (!outstandingChecksumFiles.containsKey(msg.getReplyOfId())) {
-            // Message was NOT expected
-            log.warn("Received batchreply message with unknown originating ID {}\n{}\n. Known IDs are: {}",
-                    msg.getReplyOfId(), msg.toString(), outstandingChecksumFiles.keySet().toString());
+        String arcfileName = claimChecksumReply(msg.getReplyOfId(), msg);
+        if (arcfileName == null) {
+            log.warn("Received batchreply message with unknown originating ID {}\n{}\n. Known IDs are: {}\n"
+                    + "The reply is kept in case its request is not registered yet.", msg.getReplyOfId(), msg,
+                    outstandingChecksumFiles.keySet());
             return;
         }
+        processBatchReply(msg, arcfileName);
+    }
 
-        String arcfileName = outstandingChecksumFiles.remove(msg.getReplyOfId());
-
+    /**
+     * Process the reply to a checksum batch job.
+     *
+     * @param msg a BatchReplyMessage.
+     * @param arcfileName The file the checksum batch job was run on.
+     */
+    private void processBatchReply(BatchReplyMessage msg, String arcfileName) {
         // Check incoming message
         if (!msg.isOk()) {
             // Checksum job has ended with errors, but can contain checksum
@@ -575,9 +722,11 @@ public class ArcRepository implements CleanupIF {
         }
 
         // Process result
-        String orgCheckSum = ad.getCheckSum(arcfileName);
         String repChannel = resolveReplicaChannel(msg.getReplyTo().getName());
-        processCheckSum(arcfileName, repChannel, orgCheckSum, reportedChecksum, msg.isOk() && checksumReadOk);
+        synchronized (lockFor(arcfileName)) {
+            String orgCheckSum = ad.getCheckSum(arcfileName);
+            processCheckSum(arcfileName, repChannel, orgCheckSum, reportedChecksum, msg.isOk() && checksumReadOk);
+        }
     }
 
     /**
@@ -585,20 +734,29 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg The message containing the checksum of a specific file.
      */
-    public synchronized void onChecksumReply(GetChecksumMessage msg) {
+    public void onChecksumReply(GetChecksumMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
         log.debug("Received the reply to a GetChecksumMessage with ID: '{}'", msg.getID());
 
-        // handle the case when unwanted reply.
-        if (!outstandingChecksumFiles.containsKey(msg.getID())) {
-            log.warn("Received GetChecksumMessage with unknown originating ID {}\n{}\n. Known IDs are: {}",
-                    msg.getReplyOfId(), msg.toString(), outstandingChecksumFiles.keySet().toString());
+        // The reply is processed later, or dropped, if its request is not registered.
+        String arcfileName = claimChecksumReply(msg.getID(), msg);
+        if (arcfileName == null) {
+            log.warn("Received GetChecksumMessage with unknown originating ID {}\n{}\n. Known IDs are: {}\n"
+                    + "The reply is kept in case its request is not registered yet.", msg.getID(), msg,
+                    outstandingChecksumFiles.keySet());
             return;
         }
+        processGetChecksumReply(msg, arcfileName);
+    }
 
-        String arcfileName = outstandingChecksumFiles.remove(msg.getID());
-
+    /**
+     * Process the reply to a GetChecksumMessage.
+     *
+     * @param msg The message containing the checksum of a specific file.
+     * @param arcfileName The file the checksum was requested for.
+     */
+    private void processGetChecksumReply(GetChecksumMessage msg, String arcfileName) {
         // Check incoming message
         if (!msg.isOk()) {
             // Checksum job has ended with errors, but can contain checksum
@@ -620,12 +778,15 @@ public class ArcRepository implements CleanupIF {
         boolean checksumReadOk = true;
 
         // process the checksum.
-        String orgChecksum = ad.getCheckSum(arcfileName);
-        if (orgChecksum == null) {
-            throw new IllegalState("The admin checksum for file '" + arcfileName + "' is null. Should never happen.");
-        }
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
-        processCheckSum(arcfileName, repChannelName, orgChecksum, reportedChecksum, checksumReadOk);
+        synchronized (lockFor(arcfileName)) {
+            String orgChecksum = ad.getCheckSum(arcfileName);
+            if (orgChecksum == null) {
+                throw new IllegalState("The admin checksum for file '" + arcfileName
+                        + "' is null. Should never happen.");
+            }
+            processCheckSum(arcfileName, repChannelName, orgChecksum, reportedChecksum, checksumReadOk);
+        }
     }
 
     /**
@@ -714,7 +875,7 @@ public class ArcRepository implements CleanupIF {
     /**
      * Process reporting of a checksum from a bitarchive for a specific file as part of a store operation for the file.
      * Verify that the checksum is correct, update the BitArchiveStoreState state. Invariant: upload-state is changed or
-     * retry count is increased.
+     * retry count is increased. Must be called holding the lock of the file.
      *
      * @param arcFileName The file being stored.
      * @param replicaChannelName The id of the replica reporting a checksum.
@@ -723,7 +884,7 @@ public class ArcRepository implements CleanupIF {
      * (except reply NOT ok from replica).
      * @param checksumReadOk Tells whether the checksum was read ok by batch job.
      */
-    private synchronized void processCheckSum(String arcFileName, String replicaChannelName, String orgChecksum,
+    private void processCheckSum(String arcFileName, String replicaChannelName, String orgChecksum,
             String reportedChecksum, boolean checksumReadOk) {
         log.debug("Checksum received for file '{}'... processing", arcFileName);
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "String arcfileName");
@@ -733,7 +894,8 @@ public class ArcRepository implements CleanupIF {
 
         // Log if we do not find file outstanding
         // we proceed anyway in order to be sure to update stae of file
-        if (!outstandingRemoteFiles.containsKey(arcFileName)) {
+        OutstandingStore outstanding = outstandingStores.get(arcFileName);
+        if (outstanding == null) {
             log.warn("Could not find arc-file as outstanding remote file: '{}'", arcFileName);
         }
 
@@ -744,7 +906,7 @@ public class ArcRepository implements CleanupIF {
             ad.setState(arcFileName, replicaChannelName, ReplicaStoreState.UPLOAD_COMPLETED);
 
             // Find out if and how to make general reply on store()
-            // remove file from outstandingRemoteFiles if a reply is given
+            // remove file from outstandingStores if a reply is given
             considerReplyingOnStore(arcFileName);
             log.debug("Checksum processing for file '{}'... completed.", arcFileName);
             return;
@@ -753,10 +915,10 @@ public class ArcRepository implements CleanupIF {
         // Log error or retry upload
         if (reportedChecksum.isEmpty()) { // no checksum found
             if (checksumReadOk) { // no errors in finding no checksum
-                if (retryOk(replicaChannelName, arcFileName)) { // we can retry
-                    if (outstandingRemoteFiles.containsKey(arcFileName)) {
-                        RemoteFile rf = outstandingRemoteFiles.get(arcFileName);
-                        String preComputedChecksum = outstandingRemoteFilesC.get(arcFileName);
+                if (retryOk(replicaChannelName, outstanding)) { // we can retry
+                    if (outstanding != null) {
+                        RemoteFile rf = outstanding.remoteFile;
+                        String preComputedChecksum = outstanding.precomputedChecksum;
                         // Retry upload only if allowed and in case we are sure
                         // that the empty checksum means that the arcfile is not
                         // in the archive
@@ -765,7 +927,7 @@ public class ArcRepository implements CleanupIF {
                         // retrieve the replica from the name of the channel.
                         Replica rep = Channels.retrieveReplicaFromIdentifierChannel(replicaChannelName);
                         connectedReplicas.get(rep).sendUploadMessage(rf, preComputedChecksum);
-                        incRetry(replicaChannelName, arcFileName);
+                        incRetry(replicaChannelName, outstanding);
                         log.debug("Checksum processing for file '{}'... completed.", arcFileName);
                         return;
                     } // else logging was already done above
@@ -800,20 +962,19 @@ public class ArcRepository implements CleanupIF {
      * Keep track of upload retries of an arcfile to an archive.
      *
      * @param replicaChannelName The name of a given replica.
-     * @param arcfileName The name of a given ARC file
-     * @return true if it is ok to retry an upload of arcfileName to the replica through the replicaChannelName.
+     * @param outstanding The store operation of the file, or null if there is none in process.
+     * @return true if it is ok to retry an upload of the file to the replica through the replicaChannelName.
      */
-    private boolean retryOk(String replicaChannelName, String arcfileName) {
-        Map<String, Integer> bitarchiveRetries = uploadRetries.get(replicaChannelName);
-        if (bitarchiveRetries == null) {
+    private boolean retryOk(String replicaChannelName, OutstandingStore outstanding) {
+        if (outstanding == null) {
             return true;
         }
-        Integer retryCount = bitarchiveRetries.get(arcfileName);
+        AtomicInteger retryCount = outstanding.uploadRetries.get(replicaChannelName);
         if (retryCount == null) {
             return true;
         }
 
-        if (retryCount >= Settings.getInt(ArchiveSettings.ARCREPOSITORY_UPLOAD_RETRIES)) {
+        if (retryCount.get() >= Settings.getInt(ArchiveSettings.ARCREPOSITORY_UPLOAD_RETRIES)) {
             return false;
         }
 
@@ -824,34 +985,29 @@ public class ArcRepository implements CleanupIF {
      * Increment the number of upload retries.
      *
      * @param replicaChannelName The name of the identification channel for the replica.
-     * @param arcfileName The name of a given ARC file.
+     * @param outstanding The store operation of the file.
      */
-    private void incRetry(String replicaChannelName, String arcfileName) {
-        Map<String, Integer> replicaRetries = uploadRetries.get(replicaChannelName);
-        if (replicaRetries == null) {
-            replicaRetries = new HashMap<String, Integer>();
-            uploadRetries.put(replicaChannelName, replicaRetries);
-        }
-
-        Integer retryCount = replicaRetries.get(arcfileName);
+    private void incRetry(String replicaChannelName, OutstandingStore outstanding) {
+        AtomicInteger retryCount = outstanding.uploadRetries.get(replicaChannelName);
         if (retryCount == null) {
-            replicaRetries.put(arcfileName, Integer.valueOf(1));
-            return;
+            AtomicInteger first = new AtomicInteger();
+            retryCount = outstanding.uploadRetries.putIfAbsent(replicaChannelName, first);
+            if (retryCount == null) {
+                retryCount = first;
+            }
         }
-
-        replicaRetries.put(arcfileName, Integer.valueOf(retryCount + 1));
+        retryCount.incrementAndGet();
     }
 
     /**
-     * Remove all retry tracking information for the arcfile.
+     * Returns the lock guarding the state transitions of a file. The files are spread over a fixed number of locks, so
+     * files sharing a lock are processed one at a time, whereas other files proceed in parallel.
      *
-     * @param arcfileName The name of a given ARC file
+     * @param filename The name of the file.
+     * @return The lock of the file.
      */
-    private void clearRetries(String arcfileName) {
-        for (String replicaChannelName : uploadRetries.keySet()) {
-            Map<String, Integer> baretries = uploadRetries.get(replicaChannelName);
-            baretries.remove(arcfileName);
-        }
+    private Object lockFor(String filename) {
+        return fileLocks[(filename.hashCode() & Integer.MAX_VALUE) % fileLocks.length];
     }
 
     /**
@@ -883,14 +1039,16 @@ public class ArcRepository implements CleanupIF {
         log.warn(message);
         NotificationsFactory.getInstance().notify(message, NotificationType.WARNING);
 
-        if (msg.isChangeStoreState()) {
-            String replicaChannelName = Replica.getReplicaFromId(msg.getReplicaId()).getIdentificationChannel()
-                    .getName();
-            ad.setState(msg.getFileName(), replicaChannelName, msg.getNewvalue());
-        }
+        synchronized (lockFor(msg.getFileName())) {
+            if (msg.isChangeStoreState()) {
+                String replicaChannelName = Replica.getReplicaFromId(msg.getReplicaId()).getIdentificationChannel()
+                        .getName();
+                ad.setState(msg.getFileName(), replicaChannelName, msg.getNewvalue());
+            }
 
-        if (msg.isChangeChecksum()) {
-            ad.setCheckSum(msg.getFileName(), msg.getChecksum());
+            if (msg.isChangeChecksum()) {
+                ad.setCheckSum(msg.getFileName(), msg.getChecksum());
+            }
         }
     }
 
@@ -25,9 +25,12 @@ package dk.netarkivet.archive.arcrepository.distribute;
 import java.io.File;
 import java.util.Collections;
 
+import javax.jms.Message;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.arcrepository.ArcRepository;
 import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
@@ -40,24 +43,35 @@ import dk.netarkivet.archive.checksum.distribute.CorrectMessage;
 import dk.netarkivet.archive.checksum.distribute.GetAllChecksumsMessage;
 import dk.netarkivet.archive.checksum.distribute.GetAllFilenamesMessage;
 import dk.netarkivet.archive.checksum.distribute.GetChecksumMessage;
+import dk.netarkivet.archive.distribute.ArchiveMessage;
 import dk.netarkivet.archive.distribute.ArchiveMessageHandler;
 import dk.netarkivet.archive.distribute.ReplicaClient;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.ChannelID;
 import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.JMSConnection;
 import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.Settings;
 
 /**
  * Listens on the queue "TheArcrepos" and submits the messages to a corresponding visit method on BitarchiveClient.
+ * <p>
+ * Store messages are handled on {@link ArchiveSettings#ARCREPOSITORY_STORE_THREADS} threads, so different files are
+ * stored concurrently. The store messages of one file are always handled on the same thread, in the order received.
  */
 public class ArcRepositoryServer extends ArchiveMessageHandler {
 
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(ArcRepositoryServer.class);
+    /** The number of store messages that may wait for each store thread before receiving more messages blocks. */
+    private static final int STORE_QUEUE_SIZE = 1000;
+    /** The maximum time to wait for received store messages to be handled when closing, in milliseconds. */
+    private static final long STORE_SHUTDOWN_TIMEOUT = 60 * 1000L;
     /** The ArcRepository connected to this server. */
     private final ArcRepository ar;
+    /** The threads handling store messages. */
+    private final PerFileExecutor storeExecutor;
 
     /**
      * Creates and adds a ArcRepositoryMessageHandler as listener on the "TheArcrepos"-queue.
@@ -67,11 +81,47 @@ public class ArcRepositoryServer extends ArchiveMessageHandler {
     public ArcRepositoryServer(ArcRepository ar) {
         ArgumentNotValid.checkNotNull(ar, "ArcRepository ar");
         this.ar = ar;
+        storeExecutor = new PerFileExecutor("ArcRepositoryStore",
+                Settings.getInt(ArchiveSettings.ARCREPOSITORY_STORE_THREADS), STORE_QUEUE_SIZE);
         ChannelID channel = Channels.getTheRepos();
         log.info("Listening for arc repository messages on channel '{}'", channel);
         JMSConnectionFactory.getInstance().setListener(channel, this);
     }
 
+    /**
+     * Handle a received message. Store messages are handed to the store thread of their file, other messages are
+     * handled at once.
+     *
+     * @param msg The received message.
+     * @throws ArgumentNotValid If the message is null.
+     */
+    @Override
+    public void onMessage(Message msg) {
+        ArgumentNotValid.checkNotNull(msg, "Message msg");
+        log.trace("Message received:\n{}", msg.toString());
+        try {
+            final ArchiveMessage unpacked = (ArchiveMessage) JMSConnection.unpack(msg);
+            if (unpacked instanceof StoreMessage) {
+                storeExecutor.execute(((StoreMessage) unpacked).getArcfileName(), new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            unpacked.accept(ArcRepositoryServer.this);
+                        } catch (Throwable t) {
+                            log.warn("Error processing message '{}'", unpacked, t);
+                        }
+                    }
+                });
+            } else {
+                unpacked.accept(this);
+            }
+        } catch (ClassCastException e) {
+            log.warn("Invalid message type", e);
+        } catch (Throwable t) {
+            log.warn("Error processing message '{}'", msg, t);
+        }
+    }
+
     /**
      * Forwards the call to the ArcRepository.store() method with the StoreMessage as parameter. In case of exception
      * when calling store, a reply message is sent containing the message set as NotOK.
@@ -321,10 +371,11 @@ public class ArcRepositoryServer extends ArchiveMessageHandler {
     }
 
     /**
-     * Removes the ArcRepositoryMessageHandler as listener.
+     * Removes the ArcRepositoryMessageHandler as listener, and waits for the store messages received to be handled.
      */
     public void close() {
         JMSConnectionFactory.getInstance().removeListener(Channels.getTheRepos(), this);
+        storeExecutor.shutdown(STORE_SHUTDOWN_TIMEOUT);
     }
 
 }
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository.distribute;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Runs tasks concerning files on a fixed number of threads. The tasks of one file always run on the same thread, in the
+ * order they were given, while tasks of files on different threads run concurrently. Each thread has a bounded queue
+ * of tasks; when it is full, giving another task blocks until there is room.
+ */
+class PerFileExecutor {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(PerFileExecutor.class);
+
+    /** The executors, each running its tasks one at a time. */
+    private final ThreadPoolExecutor[] executors;
+
+    /**
+     * Create the threads of the executor.
+     *
+     * @param name The name of the threads, which are numbered.
+     * @param threads The number of threads.
+     * @param queueSize The number of tasks that may wait for each thread.
+     * @throws ArgumentNotValid If name is null or empty, or threads or queueSize is not positive.
+     */
+    PerFileExecutor(final String name, int threads, int queueSize) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        ArgumentNotValid.checkPositive(queueSize, "int queueSize");
+        RejectedExecutionHandler waitForRoom = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("The executor '" + name + "' is shut down");
+                }
+                try {
+                    executor.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for room for a task", e);
+                }
+            }
+        };
+        executors = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            final String threadName = name + "-" + i;
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, threadName);
+                        }
+                    }, waitForRoom);
+        }
+    }
+
+    /**
+     * Run a task on the thread of a file, after the tasks given earlier for the file.
+     *
+     * @param filename The name of the file the task concerns.
+     * @param task The task.
+     * @throws ArgumentNotValid If filename or task is null.
+     * @throws RejectedExecutionException If the executor is shut down.
+     */
+    void execute(String filename, Runnable task) throws ArgumentNotValid, RejectedExecutionException {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(task, "Runnable task");
+        executors[(filename.hashCode() & Integer.MAX_VALUE) % executors.length].execute(task);
+    }
+
+    /**
+     * Stop accepting tasks, and wait for the tasks given already to finish.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return true if all tasks finished, false if the time ran out or the waiting was interrupted.
+     */
+    boolean shutdown(long timeoutMillis) {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (ThreadPoolExecutor executor : executors) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    log.warn("Tasks were still running when the wait for them timed out");
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for tasks to finish", e);
+            return false;
+        }
+        return true;
+    }
+
+}
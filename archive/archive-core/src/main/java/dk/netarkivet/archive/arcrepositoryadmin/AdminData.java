@@ -134,7 +134,7 @@ public abstract class AdminData {
      * @param arcfileName A given arcfile
      * @return true, if there is an entry for the given arcfile
      */
-    public boolean hasEntry(String arcfileName) {
+    public synchronized boolean hasEntry(String arcfileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "arcfileName");
         return storeEntries.containsKey(arcfileName);
     }
@@ -145,7 +145,7 @@ public abstract class AdminData {
      * @param arcfileName a certain filename
      * @return the ArcRepositoryEntry for a certain arcfileName
      */
-    public ArcRepositoryEntry getEntry(String arcfileName) {
+    public synchronized ArcRepositoryEntry getEntry(String arcfileName) {
         return storeEntries.get(arcfileName);
     }
 
@@ -156,7 +156,7 @@ public abstract class AdminData {
      * @param arcfileName The arc file we want to reply a store request for.
      * @return Whether setReplyInfo() has been called (and the replyInfo hasn't been removed since).
      */
-    public boolean hasReplyInfo(String arcfileName) {
+    public synchronized boolean hasReplyInfo(String arcfileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "arcfileName");
         ArcRepositoryEntry entry = storeEntries.get(arcfileName);
         if (entry == null) {
@@ -173,7 +173,7 @@ public abstract class AdminData {
      * for.
      * @return true if BitArchiveStoreState is registered, false otherwise.
      */
-    public boolean hasState(String arcfileName, String replicaChannelName) {
+    public synchronized boolean hasState(String arcfileName, String replicaChannelName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "String arcfileName");
         ArgumentNotValid.checkNotNullOrEmpty(replicaChannelName, "String replicaChannelName");
         ArcRepositoryEntry entry = storeEntries.get(arcfileName);
@@ -192,7 +192,7 @@ public abstract class AdminData {
      * @return The storage state.
      * @throws UnknownID When no record exists.
      */
-    public ReplicaStoreState getState(String arcfileName, String replicaChannelName) throws UnknownID {
+    public synchronized ReplicaStoreState getState(String arcfileName, String replicaChannelName) throws UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "String arcfileName");
         ArgumentNotValid.checkNotNullOrEmpty(replicaChannelName, "String replicaChannelName");
         if (!hasState(arcfileName, replicaChannelName)) {
@@ -209,7 +209,7 @@ public abstract class AdminData {
      * @throws UnknownID if the file is not registered
      * @throws ArgumentNotValid If the arcFileName is either null or the empty string.
      */
-    public String getCheckSum(String arcfileName) throws ArgumentNotValid, UnknownID {
+    public synchronized String getCheckSum(String arcfileName) throws ArgumentNotValid, UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "arcfileName");
         if (!hasEntry(arcfileName)) {
             throw new UnknownID("Don't know anything about file '" + arcfileName + "'");
@@ -472,7 +472,7 @@ public abstract class AdminData {
      *
      * @return the set of files in the repository
      */
-    public Set<String> getAllFileNames() {
+    public synchronized Set<String> getAllFileNames() {
         Set<String> knownFiles = new HashSet<String>();
         for (Map.Entry<String, ArcRepositoryEntry> entry : storeEntries.entrySet()) {
             knownFiles.add(entry.getKey());
@@ -487,7 +487,7 @@ public abstract class AdminData {
      * @param state the state to look for, e.g. ReplicaStoreState.STATE_COMPLETED
      * @return the set of files in the repository with the given state
      */
-    public Set<String> getAllFileNames(Replica replica, ReplicaStoreState state) {
+    public synchronized Set<String> getAllFileNames(Replica replica, ReplicaStoreState state) {
         ArgumentNotValid.checkNotNull(replica, "Replica replica");
         ArgumentNotValid.checkNotNull(state, "BitArchiveStoreState state");
         String replicaKey = replica.getIdentificationChannel().getName();
@@ -505,7 +505,7 @@ public abstract class AdminData {
      *
      * @return info about current object as String.
      */
-    public String toString() {
+    public synchronized String toString() {
         StringBuffer out = new StringBuffer();
         out.append("\nAdminData:");
         out.append("\nKnown bitarchives:");
@@ -77,4 +77,14 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      * @return The name of a JDBC driver class
      */
     public abstract String getDriverClassName();
+
+    /**
+     * Get an SQL expression for a character column, which compares and orders the values of the column by their Unicode
+     * code points, regardless of the collation of the database. This is the order of
+     * {@link dk.netarkivet.common.utils.FileUtils#sortFile(File, File)} for UTF-8 files.
+     *
+     * @param column The name of the column.
+     * @return The expression to use in comparisons and ORDER BY clauses.
+     */
+    public abstract String getCodePointOrderExpression(String column);
 }
@@ -22,10 +22,10 @@
  */
 package dk.netarkivet.archive.arcrepositoryadmin;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.common.distribute.Channels;
@@ -46,7 +46,7 @@ public final class DatabaseAdmin implements Admin {
     /** The current instance of this class, to avoid multiple instantiations. */
     private static DatabaseAdmin instance;
     /** Administration of store messages. */
-    private Map<String, StoreMessage> storeEntries = new HashMap<String, StoreMessage>();
+    private Map<String, StoreMessage> storeEntries = new ConcurrentHashMap<String, StoreMessage>();
 
     /**
      * Constructor. Initialises the access to the database.
@@ -35,4 +35,16 @@ import org.slf4j.LoggerFactory;
 public abstract class DerbySpecifics extends DBSpecifics {
     /** The log. */
     protected static final Logger log = LoggerFactory.getLogger(DerbySpecifics.class);
+
+    /**
+     * Derby databases compare by Unicode code points with the default collation, UCS_BASIC, which is used by the
+     * archive database.
+     *
+     * @param column The name of the column.
+     * @return The column itself.
+     */
+    @Override
+    public String getCodePointOrderExpression(String column) {
+        return column;
+    }
 }
@@ -51,4 +51,15 @@ public class MySQLSpecifics extends DBSpecifics {
         return "com.mysql.jdbc.Driver";
     }
 
+    /**
+     * Compares the bytes of the column, which for UTF-8 is the order of the code points.
+     *
+     * @param column The name of the column.
+     * @return The column as a binary string.
+     */
+    @Override
+    public String getCodePointOrderExpression(String column) {
+        return "BINARY " + column;
+    }
+
 }
@@ -60,4 +60,15 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         return "org.postgresql.Driver";
     }
 
+    /**
+     * Uses the "C" collation, which compares the bytes of the values, and for UTF-8 thus the code points.
+     *
+     * @param column The name of the column.
+     * @return The column with the "C" collation.
+     */
+    @Override
+    public String getCodePointOrderExpression(String column) {
+        return column + " COLLATE \"C\"";
+    }
+
 }
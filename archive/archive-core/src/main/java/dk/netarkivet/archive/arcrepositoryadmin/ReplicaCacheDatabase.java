@@ -726,9 +726,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         FileUtils.sortFile(checksumOutputFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
 
-        Set<Long> missingReplicaRFIs = null;
         Connection con = ArchiveDBConnection.get();
-        LineIterator lineIterator = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -737,13 +735,44 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 log.warn(msg);
                 throw new IOFailure(msg);
             }
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
+
+        log.info("Starting processing of {} checksum entries for replica {}", datasize, replica.getId());
+
+        if (!new ReplicaFileInfoReconciler(replica, LOGGING_ENTRY_INTERVAL).reconcileChecksums(sortedResult)) {
+            log.warn("Could not merge the checksum entries with the database for replica {}. "
+                    + "Processing them one at a time instead.", replica.getId());
+            addChecksumInformationPerEntry(sortedResult, replica);
+        }
+
+        con = ArchiveDBConnection.get();
+        try {
+            // update the checksum updated date for this replica.
+            ReplicaCacheHelpers.updateChecksumDateForReplica(replica, con);
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
 
-            log.info("Starting processing of {} checksum entries for replica {}", datasize, replica.getId());
+            log.info("Finished processing of {} checksum entries for replica {}", datasize, replica.getId());
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
+    }
 
+    /**
+     * Add the sorted output of a checksum job to the database one entry at a time. The set of replicafileinfo entries
+     * for the replica is held in memory to find the missing ones. Used when the output cannot be merged with the
+     * database by {@link ReplicaFileInfoReconciler}.
+     *
+     * @param sortedResult The sorted output of a checksum job.
+     * @param replica The replica this checksum job is for.
+     */
+    private void addChecksumInformationPerEntry(File sortedResult, Replica replica) {
+        Set<Long> missingReplicaRFIs = null;
+        Connection con = ArchiveDBConnection.get();
+        LineIterator lineIterator = null;
+        try {
             // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should the datastructure
-            // (missingReplicaRFIs) be disk-bound in some way, or optimized
-            // in some way, e.g. using it.unimi.dsi.fastutil.longs.LongArrayList
             missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
 
             // Initialize the String iterator
@@ -804,25 +833,11 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             LineIterator.closeQuietly(lineIterator);
         }
 
-        con = ArchiveDBConnection.get();
-        try {
-            // go through the not found replicafileinfo for this replica to change
-            // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
-            }
-
-            // update the checksum updated date for this replica.
-            ReplicaCacheHelpers.updateChecksumDateForReplica(replica, con);
-            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
-
-            log.info("Finished processing of {} checksum entries for replica {}", datasize, replica.getId());
-        } finally {
-            ArchiveDBConnection.release(con);
+        // go through the not found replicafileinfo for this replica to change
+        // their filelist_status to missing.
+        if (missingReplicaRFIs.size() > 0) {
+            log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
+            markMissingFromFilelist(missingReplicaRFIs, replica);
         }
     }
 
@@ -857,8 +872,6 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         final long datasize = FileUtils.countLines(sortedResult);
 
         Connection con = ArchiveDBConnection.get();
-        Set<Long> missingReplicaRFIs = null;
-        LineIterator lineIterator = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -867,12 +880,41 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 log.warn(errorMsg);
                 throw new UnknownID(errorMsg);
             }
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
 
-            log.info("Starting processing of {} filelist entries for replica {}", datasize, replica.getId());
+        log.info("Starting processing of {} filelist entries for replica {}", datasize, replica.getId());
 
+        if (!new ReplicaFileInfoReconciler(replica, LOGGING_ENTRY_INTERVAL).reconcileFilelist(sortedResult)) {
+            log.warn("Could not merge the filelist entries with the database for replica {}. "
+                    + "Processing them one at a time instead.", replica.getId());
+            addFileListInformationPerEntry(sortedResult, replica);
+        }
+
+        con = ArchiveDBConnection.get();
+        try {
+            // Update the date for filelist update for this replica.
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
+    }
+
+    /**
+     * Add a sorted list of filenames to the database one entry at a time. The set of replicafileinfo entries for the
+     * replica is held in memory to find the missing ones. Used when the list cannot be merged with the database by
+     * {@link ReplicaFileInfoReconciler}.
+     *
+     * @param sortedResult The sorted list of filenames.
+     * @param replica The replica, which the FilelistBatchjob has run upon.
+     */
+    private void addFileListInformationPerEntry(File sortedResult, Replica replica) {
+        Connection con = ArchiveDBConnection.get();
+        Set<Long> missingReplicaRFIs = null;
+        LineIterator lineIterator = null;
+        try {
             // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should this datastructure
-            // (missingReplicaRFIs) be disk-bound in some way.
             missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
 
             // Initialize String iterator
@@ -911,22 +953,36 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             LineIterator.closeQuietly(lineIterator);
         }
 
-        con = ArchiveDBConnection.get();
+        // go through the not found replicafileinfo for this replica to change
+        // their filelist_status to missing.
+        if (missingReplicaRFIs.size() > 0) {
+            log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
+            markMissingFromFilelist(missingReplicaRFIs, replica);
+        }
+    }
+
+    /**
+     * Set the given replicafileinfo entries to missing, in batches.
+     *
+     * @param missingReplicaRFIs The guids of the replicafileinfo entries.
+     * @param replica The replica of the entries.
+     */
+    private void markMissingFromFilelist(Set<Long> missingReplicaRFIs, Replica replica) {
+        Connection con = ArchiveDBConnection.get();
+        ReplicaFileInfoBatchUpdater updater = new ReplicaFileInfoBatchUpdater(con);
         try {
-            // go through the not found replicafileinfo for this replica to change
-            // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+            for (long rfi : missingReplicaRFIs) {
+                // set the replicafileinfo in the database to missing.
+                updater.updateMissingFromFilelist(rfi);
             }
-            // Update the date for filelist update for this replica.
-            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
         } finally {
-            ArchiveDBConnection.release(con);
+            try {
+                updater.close();
+            } finally {
+                ArchiveDBConnection.release(con);
+            }
         }
+        log.info("Marked missing files for replica {}. Executed {}", replica.getId(), updater);
     }
 
     /**
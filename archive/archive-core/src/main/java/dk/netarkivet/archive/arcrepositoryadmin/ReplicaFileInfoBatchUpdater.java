@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Queues updates of entries in the replicafileinfo table and executes them as JDBC batches. The updates are the same
+ * as those done one at a time by {@link ReplicaCacheHelpers#updateReplicaFileInfoChecksum(long, String, Connection)},
+ * {@link ReplicaCacheHelpers#updateReplicaFileInfoFilelist(long, Connection)} and
+ * {@link ReplicaCacheHelpers#updateReplicaFileInfoMissingFromFilelist(long, Connection)}.
+ * <p>
+ * The statements are prepared once and reused for all updates. Each batch of updates is executed and committed as
+ * one transaction, so a failing batch is rolled back without affecting the batches before it. The connection is not
+ * released by this class.
+ * <p>
+ * The number of updates executed and the time spent executing them are measured, see {@link #getExecutedUpdates()}
+ * and {@link #getUpdatesPerSecond()}.
+ */
+final class ReplicaFileInfoBatchUpdater {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFileInfoBatchUpdater.class);
+
+
+    /** The update of the checksum of an entry found in a checksum job. */
+    private static final String UPDATE_CHECKSUM_SQL = "UPDATE replicafileinfo SET checksum = ?, upload_status = ?, "
+            + "filelist_status = ?, checksum_status = ?, checksum_checkdatetime = ?, filelist_checkdatetime = ? "
+            + "WHERE replicafileinfo_guid = ?";
+
+    /** The update of an entry found in a file list job. */
+    private static final String UPDATE_FILELIST_SQL = "UPDATE replicafileinfo SET filelist_status = ?, "
+            + "filelist_checkdatetime = ? WHERE replicafileinfo_guid = ?";
+
+    /** The update of an entry missing from a file list or checksum job. */
+    private static final String UPDATE_MISSING_SQL = "UPDATE replicafileinfo SET filelist_status = ?, "
+            + "filelist_checkdatetime = ?, upload_status = ? WHERE replicafileinfo_guid = ?";
+
+    /** The connection to write to. */
+    private Connection con;
+
+    /** The statement for checksum updates, or null if not yet prepared. */
+    private PreparedStatement checksumStatement;
+    /** The statement for filelist updates, or null if not yet prepared. */
+    private PreparedStatement filelistStatement;
+    /** The statement for missing updates, or null if not yet prepared. */
+    private PreparedStatement missingStatement;
+
+    /** The number of updates queued before they are executed. */
+    private final int batchSize;
+
+    /** The number of updates queued since last flush. */
+    private int pending = 0;
+
+    /** The number of updates executed and committed. */
+    private long executedUpdates = 0;
+
+    /** The number of batches executed and committed. */
+    private long executedBatches = 0;
+
+    /** The time spent executing and committing batches, in nanoseconds. */
+    private long executionNanos = 0;
+
+    /**
+     * Create an updater with the batch size given by the setting {@link ArchiveSettings#DB_UPDATE_BATCH_SIZE}. Auto
+     * commit is disabled on the connection.
+     *
+     * @param con An open connection to the archive database.
+     * @throws IOFailure If auto commit cannot be disabled.
+     */
+    ReplicaFileInfoBatchUpdater(Connection con) {
+        this(con, Settings.getInt(ArchiveSettings.DB_UPDATE_BATCH_SIZE));
+    }
+
+    /**
+     * Create an updater with the given batch size. Auto commit is disabled on the connection.
+     *
+     * @param con An open connection to the archive database.
+     * @param batchSize The number of updates queued before they are executed.
+     * @throws IOFailure If auto commit cannot be disabled.
+     */
+    ReplicaFileInfoBatchUpdater(Connection con, int batchSize) {
+        ArgumentNotValid.checkNotNull(con, "Connection con");
+        ArgumentNotValid.checkPositive(batchSize, "int batchSize");
+        this.con = con;
+        this.batchSize = batchSize;
+        try {
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new IOFailure("Could not start a transaction for replicafileinfo updates\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+    }
+
+    /**
+     * Queue an update of the checksum of an entry. Sets checksum, upload_status = UPLOAD_COMPLETED, filelist_status =
+     * OK, checksum_status = UNKNOWN and both check dates to now.
+     *
+     * @param replicafileinfoGuid The id of the replicafileinfo entry.
+     * @param checksum The checksum of the file on the replica.
+     */
+    void updateChecksum(long replicafileinfoGuid, String checksum) {
+        try {
+            if (checksumStatement == null) {
+                checksumStatement = con.prepareStatement(UPDATE_CHECKSUM_SQL);
+            }
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            checksumStatement.setString(1, checksum);
+            checksumStatement.setInt(2, ReplicaStoreState.UPLOAD_COMPLETED.ordinal());
+            checksumStatement.setInt(3, FileListStatus.OK.ordinal());
+            checksumStatement.setInt(4, ChecksumStatus.UNKNOWN.ordinal());
+            checksumStatement.setTimestamp(5, now);
+            checksumStatement.setTimestamp(6, now);
+            checksumStatement.setLong(7, replicafileinfoGuid);
+            checksumStatement.addBatch();
+        } catch (SQLException e) {
+            throw new IOFailure("Problems queueing checksum update of replicafileinfo " + replicafileinfoGuid, e);
+        }
+        queued();
+    }
+
+    /**
+     * Queue an update of an entry found in a file list. Sets filelist_status = OK and filelist_checkdatetime to now.
+     *
+     * @param replicafileinfoGuid The id of the replicafileinfo entry.
+     */
+    void updateFilelist(long replicafileinfoGuid) {
+        try {
+            if (filelistStatement == null) {
+                filelistStatement = con.prepareStatement(UPDATE_FILELIST_SQL);
+            }
+            filelistStatement.setInt(1, FileListStatus.OK.ordinal());
+            filelistStatement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            filelistStatement.setLong(3, replicafileinfoGuid);
+            filelistStatement.addBatch();
+        } catch (SQLException e) {
+            throw new IOFailure("Problems queueing filelist update of replicafileinfo " + replicafileinfoGuid, e);
+        }
+        queued();
+    }
+
+    /**
+     * Queue an update of an entry missing from a file list. Sets filelist_status = MISSING, upload_status =
+     * UPLOAD_FAILED and filelist_checkdatetime to now.
+     *
+     * @param replicafileinfoGuid The id of the replicafileinfo entry.
+     */
+    void updateMissingFromFilelist(long replicafileinfoGuid) {
+        try {
+            if (missingStatement == null) {
+                missingStatement = con.prepareStatement(UPDATE_MISSING_SQL);
+            }
+            missingStatement.setInt(1, FileListStatus.MISSING.ordinal());
+            missingStatement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            missingStatement.setInt(3, ReplicaStoreState.UPLOAD_FAILED.ordinal());
+            missingStatement.setLong(4, replicafileinfoGuid);
+            missingStatement.addBatch();
+        } catch (SQLException e) {
+            throw new IOFailure("Problems queueing missing update of replicafileinfo " + replicafileinfoGuid, e);
+        }
+        queued();
+    }
+
+    /**
+     * Count a queued update, and execute the queued updates if the batch is full.
+     */
+    private void queued() {
+        ++pending;
+        if (pending >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Execute and commit all queued updates.
+     *
+     * @throws IOFailure If the updates fail. The transaction is rolled back.
+     */
+    void flush() {
+        if (pending == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            for (PreparedStatement statement : new PreparedStatement[] {checksumStatement, filelistStatement,
+                    missingStatement}) {
+                if (statement != null) {
+                    statement.executeBatch();
+                }
+            }
+            con.commit();
+            log.trace("Committed {} replicafileinfo updates", pending);
+            executedUpdates += pending;
+            ++executedBatches;
+            pending = 0;
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                log.warn("Failed to roll back replicafileinfo updates", e1);
+            }
+            throw new IOFailure("Problems executing " + pending + " replicafileinfo updates\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            executionNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Discard all queued updates, and roll back the transaction.
+     */
+    void rollback() {
+        try {
+            for (PreparedStatement statement : new PreparedStatement[] {checksumStatement, filelistStatement,
+                    missingStatement}) {
+                if (statement != null) {
+                    statement.clearBatch();
+                }
+            }
+            con.rollback();
+            if (pending > 0) {
+                log.debug("Rolled back {} replicafileinfo updates", pending);
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to roll back {} replicafileinfo updates", pending, e);
+        } finally {
+            pending = 0;
+        }
+    }
+
+    /**
+     * Execute the queued updates, and continue with another connection. The statements of the current connection are
+     * closed, but the connection is not released. Used to avoid holding a connection for a long time.
+     *
+     * @param newCon An open connection to the archive database.
+     * @throws IOFailure If the queued updates fail, or auto commit cannot be disabled on the new connection.
+     */
+    void useConnection(Connection newCon) {
+        ArgumentNotValid.checkNotNull(newCon, "Connection newCon");
+        close();
+        con = newCon;
+        try {
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new IOFailure("Could not start a transaction for replicafileinfo updates\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+    }
+
+    /**
+     * @return The number of updates executed and committed.
+     */
+    long getExecutedUpdates() {
+        return executedUpdates;
+    }
+
+    /**
+     * @return The number of updates executed and committed per second spent executing them, or 0 if none were.
+     */
+    double getUpdatesPerSecond() {
+        if (executionNanos == 0) {
+            return 0;
+        }
+        return executedUpdates * 1e9 / executionNanos;
+    }
+
+    /**
+     * @return A summary of the updates executed, for logging.
+     */
+    @Override
+    public String toString() {
+        return String.format("%d replicafileinfo updates in %d batches, %.1f ms, %.0f updates/s", executedUpdates,
+                executedBatches, executionNanos / 1e6, getUpdatesPerSecond());
+    }
+
+    /**
+     * Execute the queued updates and close the statements.
+     */
+    void close() {
+        try {
+            flush();
+        } finally {
+            DBUtils.closeStatementIfOpen(checksumStatement);
+            DBUtils.closeStatementIfOpen(filelistStatement);
+            DBUtils.closeStatementIfOpen(missingStatement);
+            checksumStatement = null;
+            filelistStatement = null;
+            missingStatement = null;
+        }
+    }
+
+}
@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.LineIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Reconciles the sorted output of a checksum job or a file list job with the replicafileinfo entries of a replica.
+ * <p>
+ * The entries of the replica are read from the database in pages ordered by filename, and merged with the sorted file.
+ * An entry matching a line is updated as found, an entry without a line is marked as missing at once, and a line
+ * without an entry is handed to {@link ReplicaCacheHelpers}, which creates the missing entries. Thus neither the file
+ * nor the set of entries for the replica is held in memory, and the updates are written in JDBC batches. No connection
+ * is held for long: each page is read with a connection of its own, and the connection used for updates is renewed
+ * for every page size of updates.
+ * <p>
+ * The merge requires that the database and the file agree on the ordering of filenames. Both are compared by Unicode
+ * code points: the file is sorted by {@link dk.netarkivet.common.utils.FileUtils#sortFile(File, File)}, which uses
+ * byte order, and the database orders by {@link DBSpecifics#getCodePointOrderExpression(String)}. The order of the
+ * whole file is checked before the merge, and the order of each page of entries is checked before it is used. If
+ * either input is found out of order, the queued updates are rolled back, the reconciliation is abandoned, and false
+ * is returned. All updates are idempotent, so the caller can then process the file entry by entry.
+ */
+final class ReplicaFileInfoReconciler {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFileInfoReconciler.class);
+
+    /** The default number of entries read from the database at a time. */
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /** The replica to reconcile. */
+    private final Replica replica;
+
+    /** The number of lines between each progress log entry. */
+    private final int loggingInterval;
+
+    /** The number of entries read from the database at a time, and of updates between renewals of the connection. */
+    private final int pageSize;
+
+    /** Select a page of the replicafileinfo entries of a replica ordered by filename, after a given filename. */
+    private final String selectPageSql;
+
+    /** The filenames of the current page of entries. */
+    private final List<String> pageFilenames = new ArrayList<String>();
+    /** The replicafileinfo_guids of the current page of entries. */
+    private final List<Long> pageGuids = new ArrayList<Long>();
+    /** The index of the current entry in the page. */
+    private int pageIndex;
+    /** Whether the current page is the last one. */
+    private boolean lastPage;
+    /** The filename of the last entry read from the database. */
+    private String lastReadFilename;
+    /** The filename of the current entry, or null if there are no more entries. */
+    private String entryFilename;
+    /** The replicafileinfo_guid of the current entry. */
+    private long entryGuid;
+
+    /** The connection used for updates. */
+    private Connection writeCon;
+    /** The updater queueing the updates. */
+    private ReplicaFileInfoBatchUpdater updater;
+    /** The number of updates since the connection for updates was renewed. */
+    private int updatesOnConnection;
+
+    /** The number of lines matched with an entry. */
+    private long found;
+    /** The number of entries not found among the lines. */
+    private long missing;
+    /** The number of lines without an entry. */
+    private long unknown;
+
+    /**
+     * @param replica The replica whose entries are reconciled.
+     * @param loggingInterval The number of lines between each progress log entry.
+     */
+    ReplicaFileInfoReconciler(Replica replica, int loggingInterval) {
+        this(replica, loggingInterval, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param replica The replica whose entries are reconciled.
+     * @param loggingInterval The number of lines between each progress log entry.
+     * @param pageSize The number of entries read from the database at a time.
+     */
+    ReplicaFileInfoReconciler(Replica replica, int loggingInterval, int pageSize) {
+        ArgumentNotValid.checkNotNull(replica, "Replica replica");
+        ArgumentNotValid.checkPositive(loggingInterval, "int loggingInterval");
+        ArgumentNotValid.checkPositive(pageSize, "int pageSize");
+        this.replica = replica;
+        this.loggingInterval = loggingInterval;
+        this.pageSize = pageSize;
+        String orderedFilename = DBSpecifics.getInstance().getCodePointOrderExpression("file.filename");
+        this.selectPageSql = "SELECT file.filename, replicafileinfo.replicafileinfo_guid "
+                + "FROM replicafileinfo JOIN file ON replicafileinfo.file_id = file.file_id "
+                + "WHERE replicafileinfo.replica_id = ? AND " + orderedFilename + " > ? ORDER BY " + orderedFilename;
+    }
+
+    /**
+     * Reconcile the sorted output of a checksum job.
+     *
+     * @param sortedChecksumFile The output of a checksum job, sorted.
+     * @return True if the file was reconciled, false if it must be processed entry by entry.
+     * @throws IOFailure If the file cannot be read, or the database cannot be updated.
+     */
+    boolean reconcileChecksums(File sortedChecksumFile) {
+        return reconcile(sortedChecksumFile, true);
+    }
+
+    /**
+     * Reconcile a sorted list of filenames.
+     *
+     * @param sortedFilelistFile A list of filenames, sorted.
+     * @return True if the file was reconciled, false if it must be processed entry by entry.
+     * @throws IOFailure If the file cannot be read, or the database cannot be updated.
+     */
+    boolean reconcileFilelist(File sortedFilelistFile) {
+        return reconcile(sortedFilelistFile, false);
+    }
+
+    /**
+     * Merge the lines of the sorted file with the entries of the replica.
+     *
+     * @param sortedFile The sorted file.
+     * @param withChecksums Whether the lines are checksum job output, or plain filenames.
+     * @return True if the file was reconciled, false if the inputs were found out of order.
+     */
+    private boolean reconcile(File sortedFile, boolean withChecksums) {
+        ArgumentNotValid.checkExistsNormalFile(sortedFile, "File sortedFile");
+        if (!isSorted(sortedFile, withChecksums)) {
+            return false;
+        }
+        found = 0;
+        missing = 0;
+        unknown = 0;
+        pageFilenames.clear();
+        pageGuids.clear();
+        pageIndex = 0;
+        lastPage = false;
+        lastReadFilename = "";
+        entryFilename = null;
+        updatesOnConnection = 0;
+        writeCon = ArchiveDBConnection.get();
+        updater = new ReplicaFileInfoBatchUpdater(writeCon);
+        boolean completed = false;
+        LineIterator lineIterator = null;
+        try {
+            if (!nextEntry()) {
+                return false;
+            }
+            lineIterator = new LineIterator(new FileReader(sortedFile));
+
+            String lastFilename = null;
+            String lastChecksum = null;
+            long i = 0;
+            while (lineIterator.hasNext()) {
+                String line = lineIterator.next();
+                if ((i % loggingInterval) == 0) {
+                    log.info("Reconciled list entry number {} for replica {}", i, replica);
+                }
+                ++i;
+
+                final String filename;
+                final String checksum;
+                if (withChecksums) {
+                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
+                    filename = entry.getKey();
+                    checksum = entry.getValue();
+                } else {
+                    filename = line;
+                    checksum = null;
+                }
+
+                if (filename.equals(lastFilename)) {
+                    reportDuplicate(filename, lastChecksum, checksum);
+                    continue;
+                }
+                lastFilename = filename;
+                lastChecksum = checksum;
+
+                // Entries before this line are missing from the list.
+                // The cursor is moved off an entry before it is updated.
+                while (entryFilename != null && compareCodePoints(entryFilename, filename) < 0) {
+                    long guid = entryGuid;
+                    if (!nextEntry()) {
+                        return false;
+                    }
+                    updater.updateMissingFromFilelist(guid);
+                    ++missing;
+                    updated();
+                }
+
+                if (filename.equals(entryFilename)) {
+                    long guid = entryGuid;
+                    if (!nextEntry()) {
+                        return false;
+                    }
+                    if (withChecksums) {
+                        updater.updateChecksum(guid, checksum);
+                    } else {
+                        updater.updateFilelist(guid);
+                    }
+                    ++found;
+                } else {
+                    // Unknown to the replica: let the helpers create the entries, after the queued updates.
+                    updater.flush();
+                    if (withChecksums) {
+                        ReplicaCacheHelpers.processChecksumline(filename, checksum, replica, writeCon);
+                    } else {
+                        ReplicaCacheHelpers.addFileInformation(filename, replica, writeCon);
+                    }
+                    ++unknown;
+                }
+                updated();
+            }
+
+            // The remaining entries are missing from the list.
+            while (entryFilename != null) {
+                long guid = entryGuid;
+                if (!nextEntry()) {
+                    return false;
+                }
+                updater.updateMissingFromFilelist(guid);
+                ++missing;
+                updated();
+            }
+            updater.flush();
+            completed = true;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read list entries from file '" + sortedFile + "'", e);
+        } finally {
+            LineIterator.closeQuietly(lineIterator);
+            try {
+                if (!completed) {
+                    updater.rollback();
+                }
+                updater.close();
+            } finally {
+                ArchiveDBConnection.release(writeCon);
+                writeCon = null;
+            }
+        }
+
+        if (missing > 0) {
+            log.warn("Found {} missing files for replica '{}'.", missing, replica);
+        }
+        log.info("Reconciled list for replica {}: {} entries found, {} missing and {} unknown. Executed {}", replica,
+                found, missing, unknown, updater);
+        return true;
+    }
+
+    /**
+     * Check that the lines of a file are sorted by filename.
+     *
+     * @param sortedFile The file.
+     * @param withChecksums Whether the lines are checksum job output, or plain filenames.
+     * @return True if the file is sorted.
+     * @throws IOFailure If the file cannot be read.
+     */
+    private boolean isSorted(File sortedFile, boolean withChecksums) {
+        LineIterator lineIterator = null;
+        try {
+            lineIterator = new LineIterator(new FileReader(sortedFile));
+            String lastFilename = null;
+            while (lineIterator.hasNext()) {
+                String line = lineIterator.next();
+                String filename = withChecksums ? ChecksumJob.parseLine(line).getKey() : line;
+                if (lastFilename != null && compareCodePoints(filename, lastFilename) < 0) {
+                    log.warn("The list for replica {} is not in the expected order at '{}' after '{}'", replica,
+                            filename, lastFilename);
+                    return false;
+                }
+                lastFilename = filename;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read list entries from file '" + sortedFile + "'", e);
+        } finally {
+            LineIterator.closeQuietly(lineIterator);
+        }
+    }
+
+    /**
+     * Count an update, and renew the connection for updates when a page size of updates have been made on it.
+     */
+    private void updated() {
+        if (++updatesOnConnection < pageSize) {
+            return;
+        }
+        Connection oldCon = writeCon;
+        writeCon = ArchiveDBConnection.get();
+        try {
+            updater.useConnection(writeCon);
+        } finally {
+            ArchiveDBConnection.release(oldCon);
+        }
+        updatesOnConnection = 0;
+    }
+
+    /**
+     * Move to the next replicafileinfo entry, reading the next page of entries when needed. At the end of the
+     * entries, the current filename becomes null.
+     *
+     * @return False if the entries were found not to be ordered by filename.
+     * @throws IOFailure If the entries cannot be read.
+     */
+    private boolean nextEntry() {
+        ++pageIndex;
+        if (pageIndex >= pageFilenames.size()) {
+            if (lastPage) {
+                entryFilename = null;
+                return true;
+            }
+            if (!readPage()) {
+                return false;
+            }
+            if (pageFilenames.isEmpty()) {
+                entryFilename = null;
+                return true;
+            }
+        }
+        entryFilename = pageFilenames.get(pageIndex);
+        entryGuid = pageGuids.get(pageIndex);
+        return true;
+    }
+
+    /**
+     * Read the next page of replicafileinfo entries, and check that they are ordered after the entries already read.
+     *
+     * @return False if the entries were found not to be ordered by filename.
+     * @throws IOFailure If the entries cannot be read.
+     */
+    private boolean readPage() {
+        pageFilenames.clear();
+        pageGuids.clear();
+        pageIndex = 0;
+        Connection readCon = ArchiveDBConnection.get();
+        PreparedStatement select = null;
+        ResultSet entries = null;
+        try {
+            select = DBUtils.prepareStatement(readCon, selectPageSql, replica.getId(), lastReadFilename);
+            select.setMaxRows(pageSize);
+            entries = select.executeQuery();
+            while (entries.next()) {
+                pageFilenames.add(entries.getString(1));
+                pageGuids.add(entries.getLong(2));
+            }
+        } catch (SQLException e) {
+            throw new IOFailure("Failed to read the replicafileinfo entries of replica '" + replica + "'\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            if (entries != null) {
+                try {
+                    entries.close();
+                } catch (SQLException e) {
+                    log.warn("Failed to close the replicafileinfo entries of replica {}", replica, e);
+                }
+            }
+            DBUtils.closeStatementIfOpen(select);
+            ArchiveDBConnection.release(readCon);
+        }
+        lastPage = pageFilenames.size() < pageSize;
+        for (String filename : pageFilenames) {
+            if (compareCodePoints(filename, lastReadFilename) <= 0) {
+                log.warn("The replicafileinfo entries of replica {} are not in the expected order at '{}' after '{}'",
+                        replica, filename, lastReadFilename);
+                return false;
+            }
+            lastReadFilename = filename;
+        }
+        return true;
+    }
+
+    /**
+     * Compare two strings by their Unicode code points, which is the order of the bytes of their UTF-8 encoding. This
+     * differs from {@link String#compareTo(String)} for characters outside the Basic Multilingual Plane.
+     *
+     * @param s1 The first string.
+     * @param s2 The second string.
+     * @return A negative number, zero or a positive number as s1 is before, equal to or after s2.
+     */
+    static int compareCodePoints(String s1, String s2) {
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < s1.length() && i2 < s2.length()) {
+            int c1 = s1.codePointAt(i1);
+            int c2 = s2.codePointAt(i2);
+            if (c1 != c2) {
+                return c1 < c2 ? -1 : 1;
+            }
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        return (s1.length() - i1) - (s2.length() - i2);
+    }
+
+    /**
+     * Log a duplicate line. Unidentical checksums are also notified.
+     *
+     * @param filename The duplicated filename.
+     * @param firstChecksum The checksum of the first instance, or null for file lists.
+     * @param checksum The checksum of this instance, or null for file lists.
+     */
+    private void reportDuplicate(String filename, String firstChecksum, String checksum) {
+        if (checksum == null) {
+            log.warn("There have been found multiple files with the name '{}'", filename);
+        } else if (!checksum.equals(firstChecksum)) {
+            String errMsg = "Unidentical duplicates of file '" + filename + "' with the checksums '" + firstChecksum
+                    + "' and '" + checksum + "'. First instance used.";
+            log.warn(errMsg);
+            NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
+        } else {
+            log.debug("Duplicates of the file '{}' found with the same checksum '{}'.", filename, checksum);
+        }
+    }
+
+}
@@ -95,7 +95,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @param replyInfo A replyInfo for this entry (may be null)
      * @param checksum The Checksum for this file
      */
-    public void addEntry(String filename, StoreMessage replyInfo, String checksum) {
+    public synchronized void addEntry(String filename, StoreMessage replyInfo, String checksum) {
         addEntry(filename, replyInfo, checksum, true);
     }
 
@@ -107,7 +107,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @param checksum The Checksum for this file
      * @param persistNow Shall we persist this entry now?
      */
-    public void addEntry(String filename, StoreMessage replyInfo, String checksum, boolean persistNow) {
+    public synchronized void addEntry(String filename, StoreMessage replyInfo, String checksum, boolean persistNow) {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
         storeEntries.put(filename, new ArcRepositoryEntry(filename, checksum, replyInfo));
@@ -125,7 +125,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @param replyInfo A StoreMessage object related to this filename.
      * @throws UnknownID if no info has been registered for the filename.
      */
-    public void setReplyInfo(String fileName, StoreMessage replyInfo) throws UnknownID {
+    public synchronized void setReplyInfo(String fileName, StoreMessage replyInfo) throws UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNull(replyInfo, "replyInfo");
         if (!hasEntry(fileName)) {
@@ -142,7 +142,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @return the replyInfo associated with arcfileName.
      * @throws UnknownID If the filename is not known. or no replyInfo is associated with arcfileName.
      */
-    public StoreMessage removeReplyInfo(String fileName) throws UnknownID {
+    public synchronized StoreMessage removeReplyInfo(String fileName) throws UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         if (!hasEntry(fileName)) {
             throw new UnknownID("Cannot get reply info for unregistered file '" + fileName + "'");
@@ -163,7 +163,8 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @throws UnknownID If the file does not have a store entry.
      * @throws ArgumentNotValid If the arguments are null or empty
      */
-    public void setState(String fileName, String replicaID, ReplicaStoreState state) throws UnknownID, ArgumentNotValid {
+    public synchronized void setState(String fileName, String replicaID, ReplicaStoreState state) throws UnknownID,
+            ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNullOrEmpty(replicaID, "String replicaID");
         ArgumentNotValid.checkNotNull(state, "ReplicaStoreState state");
@@ -191,7 +192,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @throws UnknownID if the file is not already registered.
      * @throws ArgumentNotValid If the arcfileName or the checksum is either null or the empty string.
      */
-    public void setCheckSum(String fileName, String checkSum) throws ArgumentNotValid, UnknownID {
+    public synchronized void setCheckSum(String fileName, String checkSum) throws ArgumentNotValid, UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNullOrEmpty(checkSum, "String checkSum");
         if (!hasEntry(fileName)) {
@@ -293,7 +294,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
     }
 
     /** Makes sure all data is written to disk. */
-    public void close() {
+    public synchronized void close() {
         if (instance != null) {
             write(); // This rewrites all admindata onto disk
         }
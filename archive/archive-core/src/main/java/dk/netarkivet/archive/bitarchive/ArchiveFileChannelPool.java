@@ -0,0 +1,302 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A bounded pool of open, read-only channels to archive files. The least recently used channel is closed when more than
+ * the maximum number of files are open. A channel in use is not closed until it has been released by all its users.
+ * <p>
+ * Reading is done with positional reads, so one channel can be shared by any number of concurrent readers.
+ */
+public class ArchiveFileChannelPool implements ArchiveFileChannelPoolStatistics {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileChannelPool.class);
+
+    /** The maximum number of open files. */
+    private final int maxOpenFiles;
+
+    /** The open channels in least recently used order. Guarded by this. */
+    private final LinkedHashMap<File, PooledChannel> channels = new LinkedHashMap<File, PooledChannel>(16, 0.75f,
+            true);
+
+    /** Number of requests for an already open file. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of requests which opened a file. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of files closed because of the size limit. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a pool.
+     *
+     * @param maxOpenFiles The maximum number of files to keep open.
+     * @throws ArgumentNotValid If maxOpenFiles is not positive.
+     */
+    public ArchiveFileChannelPool(int maxOpenFiles) throws ArgumentNotValid {
+        ArgumentNotValid.checkPositive(maxOpenFiles, "int maxOpenFiles");
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Open an InputStream reading the given file from the given offset. The stream uses a pooled channel, which is
+     * released when the stream is closed.
+     *
+     * @param file The archive file.
+     * @param offset The offset in the file to start reading from.
+     * @return An unbuffered InputStream reading from the offset.
+     * @throws IOException If the file could not be opened.
+     */
+    public InputStream getInputStream(File file, long offset) throws IOException {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        return new ChannelInputStream(acquire(file), offset);
+    }
+
+    /**
+     * Get the size of the given file through its pooled channel.
+     *
+     * @param file The archive file.
+     * @return The size of the file in bytes.
+     * @throws IOException If the file could not be opened.
+     */
+    public long size(File file) throws IOException {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        PooledChannel pooled = acquire(file);
+        try {
+            return pooled.channel.size();
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Get the channel of a file, opening it if necessary, and register one more user of it.
+     *
+     * @param file The file.
+     * @return The pooled channel.
+     * @throws IOException If the file could not be opened.
+     */
+    private synchronized PooledChannel acquire(File file) throws IOException {
+        PooledChannel pooled = channels.get(file);
+        if (pooled != null && pooled.channel.isOpen()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            pooled = new PooledChannel(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            channels.put(file, pooled);
+            Iterator<PooledChannel> eldest = channels.values().iterator();
+            while (channels.size() > maxOpenFiles) {
+                PooledChannel evicted = eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+                evicted.evicted = true;
+                closeIfUnused(evicted);
+            }
+        }
+        pooled.users++;
+        return pooled;
+    }
+
+    /**
+     * Unregister a user of a channel. The channel is closed if it has been evicted and has no more users.
+     *
+     * @param pooled The pooled channel.
+     */
+    private synchronized void release(PooledChannel pooled) {
+        pooled.users--;
+        closeIfUnused(pooled);
+    }
+
+    /**
+     * Close the channel if it is no longer in the pool and not in use.
+     *
+     * @param pooled The pooled channel.
+     */
+    private void closeIfUnused(PooledChannel pooled) {
+        if (pooled.evicted && pooled.users <= 0) {
+            try {
+                pooled.channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close channel for '{}'", pooled.file, e);
+            }
+        }
+    }
+
+    /**
+     * Remove the given file from the pool, e.g. because it is being moved away. The channel is closed once it is no
+     * longer in use.
+     *
+     * @param file The file.
+     */
+    public synchronized void evict(File file) {
+        PooledChannel pooled = channels.remove(file);
+        if (pooled != null) {
+            pooled.evicted = true;
+            closeIfUnused(pooled);
+        }
+    }
+
+    /**
+     * Close all files in the pool. Files in use are closed when they are released.
+     */
+    public synchronized void close() {
+        for (PooledChannel pooled : channels.values()) {
+            pooled.evicted = true;
+            closeIfUnused(pooled);
+        }
+        channels.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized int getOpenFiles() {
+        return channels.size();
+    }
+
+    @Override
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * An open channel together with its number of users.
+     */
+    private static class PooledChannel {
+        /** The file the channel reads. */
+        private final File file;
+        /** The channel. */
+        private final FileChannel channel;
+        /** The number of streams currently using the channel. Guarded by the pool. */
+        private int users;
+        /** Whether the channel has been removed from the pool. Guarded by the pool. */
+        private boolean evicted;
+
+        /**
+         * @param file The file the channel reads.
+         * @param channel The channel.
+         */
+        PooledChannel(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * An InputStream reading a pooled channel from a given position with positional reads.
+     */
+    private class ChannelInputStream extends InputStream {
+        /** The pooled channel, or null after close. */
+        private PooledChannel pooled;
+        /** The next position to read in the channel. */
+        private long position;
+
+        /**
+         * @param pooled The pooled channel, already acquired.
+         * @param position The position to start reading from.
+         */
+        ChannelInputStream(PooledChannel pooled, long position) {
+            this.pooled = pooled;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pooled == null) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = pooled.channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (pooled == null) {
+                throw new IOException("Stream closed");
+            }
+            long skipped = Math.max(0L, Math.min(n, pooled.channel.size() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (pooled == null) {
+                return 0;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, pooled.channel.size() - position));
+        }
+
+        @Override
+        public void close() {
+            if (pooled != null) {
+                release(pooled);
+                pooled = null;
+            }
+        }
+    }
+
+}
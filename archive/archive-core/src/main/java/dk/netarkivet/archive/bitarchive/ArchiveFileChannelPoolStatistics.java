@@ -0,0 +1,55 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+/**
+ * The statistics of an {@link ArchiveFileChannelPool}, as exposed over JMX.
+ */
+public interface ArchiveFileChannelPoolStatistics {
+
+    /**
+     * @return The number of requests answered with an archive file which was already open.
+     */
+    long getHits();
+
+    /**
+     * @return The number of requests which caused an archive file to be opened.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of archive files closed to keep the number of open files within the limit.
+     */
+    long getEvictions();
+
+    /**
+     * @return The number of archive files currently open in the pool.
+     */
+    int getOpenFiles();
+
+    /**
+     * @return The maximum number of archive files kept open in the pool.
+     */
+    int getMaxOpenFiles();
+
+}
@@ -22,10 +22,12 @@
  */
 package dk.netarkivet.archive.bitarchive;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.Date;
 
 import org.archive.io.ArchiveReader;
@@ -34,15 +36,22 @@ import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.distribute.HTTPStreamRemoteFile;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
+import dk.netarkivet.common.distribute.RemoteStreamSource;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
@@ -55,6 +64,15 @@ public class Bitarchive {
     /** Administrative data for the current bitarchive. */
     private BitarchiveAdmin admin;
 
+    /** The pool of open archive files used for answering get requests. */
+    private ArchiveFileChannelPool channelPool;
+
+    /** The JMX registration of the statistics of the channelPool, or null if not registered. */
+    private SingleMBeanObject<ArchiveFileChannelPoolStatistics> channelPoolMBean;
+
+    /** The size of the buffer used when reading a record from an archive file. */
+    private static final int RECORD_READ_BUFFER_SIZE = 16 * 1024;
+
     /** Logging output place. */
     protected static final Logger log = LoggerFactory.getLogger(Bitarchive.class);
 
@@ -70,18 +88,41 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        channelPool = new ArchiveFileChannelPool(Settings.getInt(ArchiveSettings.BITARCHIVE_MAX_OPEN_ARCHIVE_FILES));
+        try {
+            channelPoolMBean = new SingleMBeanObject<ArchiveFileChannelPoolStatistics>(
+                    "dk.netarkivet.archive.bitarchive", channelPool, ArchiveFileChannelPoolStatistics.class,
+                    ManagementFactory.getPlatformMBeanServer());
+            channelPoolMBean.getNameProperties().put("name", "ArchiveFileChannelPool");
+            channelPoolMBean.register();
+        } catch (Exception e) {
+            log.warn("Could not register the archive file pool statistics over JMX", e);
+            channelPoolMBean = null;
+        }
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        if (channelPoolMBean != null) {
+            try {
+                channelPoolMBean.unregister();
+            } catch (IOFailure e) {
+                log.warn("Could not unregister the archive file pool statistics", e);
+            }
+            channelPoolMBean = null;
+        }
+        channelPool.close();
         admin.close();
         instance = null;
     }
 
     /**
      * Get an ARC or WARC record out of the archive. Returns null if the archive file is not found in this bitarchive.
+     * <p>
+     * The archive file is read through a pool of open files, so repeated requests for records in the same file do not
+     * reopen it.
      *
      * @param arcfile The name of an Archive file.
      * @param index Index of the Archive record in the file
@@ -104,15 +145,26 @@ public class Bitarchive {
         ArchiveReader arcReader = null;
         ArchiveRecord arc = null;
         try {
-            if ((barc.getSize() <= index) || (index < 0)) {
-                log.warn("GET: index out of bounds: {}:{} > {}", arcfile, index, barc.getSize());
-                throw new ArgumentNotValid("GET: index out of bounds: " + arcfile + ":" + index + " > "
-                        + barc.getSize());
-            }
             File in = barc.getFilePath();
-            arcReader = ArchiveReaderFactory.get(in);
-            arc = arcReader.get(index);
-            BitarchiveRecord result = new BitarchiveRecord(arc, arcfile);
+            long size = channelPool.size(in);
+            if ((size <= index) || (index < 0)) {
+                log.warn("GET: index out of bounds: {}:{} > {}", arcfile, index, size);
+                throw new ArgumentNotValid("GET: index out of bounds: " + arcfile + ":" + index + " > " + size);
+            }
+            arcReader = ArchiveReaderFactory.get(arcfile, new BufferedInputStream(channelPool.getInputStream(in,
+                    index), RECORD_READ_BUFFER_SIZE), index == 0);
+            arc = arcReader.get();
+            BitarchiveRecord result;
+            long length = BitarchiveRecord.getPayloadLength(arc);
+            if (Settings.getBoolean(CommonSettings.BITARCHIVE_STREAM_LARGE_RECORDS)
+                    && length > Settings.getLong(CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE)) {
+                // Only send a handle. The record is read again when the receiver asks for the data.
+                log.info("GET: Streaming record {}:{} of {} bytes", arcfile, index, length);
+                result = new BitarchiveRecord(arcfile, index, length, new HTTPStreamRemoteFile(arcfile + ":" + index,
+                        length, new ArchiveRecordSource(in, arcfile, index, length)));
+            } else {
+                result = new BitarchiveRecord(arc, arcfile);
+            }
 
             // release resources locked
             log.info("GET: Got {} bytes of data from {}:{}", result.getLength(), arcfile, index);
@@ -168,6 +220,11 @@ public class Bitarchive {
 
         // Everything seems ok, initiate copy of file into archive
         copyRemoteFileToArchive(arcfile, fileName);
+        // A channel may still be pooled for an earlier file with this name, which has been moved to the attic
+        BitarchiveARCFile barc = admin.lookup(fileName);
+        if (barc != null) {
+            channelPool.evict(barc.getFilePath());
+        }
         log.info("Upload: completed uploading {}", fileName);
     }
 
@@ -281,6 +338,21 @@ public class Bitarchive {
         return path;
     }
 
+    /**
+     * Move a file in the bitarchive to the attic, and close the pooled channel of the file once it is no longer in use.
+     *
+     * @param existingFile A file in the archive, as returned by getFile().
+     * @return The full path of the file in the attic dir
+     * @throws ArgumentNotValid If existingFile is null.
+     * @throws IOFailure If the file could not be moved.
+     */
+    public File moveToAttic(File existingFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(existingFile, "File existingFile");
+        File atticFile = admin.moveToAttic(existingFile);
+        channelPool.evict(existingFile);
+        return atticFile;
+    }
+
     /**
      * Get the one instance of the bitarchive.
      *
@@ -294,4 +366,60 @@ public class Bitarchive {
         return instance;
     }
 
+    /**
+     * Source of the data of a record, which is read from the archive file when requested.
+     */
+    private class ArchiveRecordSource implements RemoteStreamSource {
+        /** The archive file. */
+        private final File file;
+        /** The name of the archive file. */
+        private final String arcfile;
+        /** The offset of the record in the archive file. */
+        private final long index;
+        /** The length of the data of the record. */
+        private final long length;
+
+        /**
+         * @param file The archive file.
+         * @param arcfile The name of the archive file.
+         * @param index The offset of the record in the archive file.
+         * @param length The length of the data of the record.
+         */
+        ArchiveRecordSource(File file, String arcfile, long index, long length) {
+            this.file = file;
+            this.arcfile = arcfile;
+            this.index = index;
+            this.length = length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ArchiveReader reader = ArchiveReaderFactory.get(arcfile, new BufferedInputStream(
+                    channelPool.getInputStream(file, index), RECORD_READ_BUFFER_SIZE), index == 0);
+            try {
+                ArchiveRecord record = reader.get();
+                try {
+                    byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
+                    long remaining = length;
+                    int bytesRead;
+                    // ARCRecord.read(buf, offset, length) is broken, see ARCUtils.readARCRecord()
+                    while (remaining > 0 && (bytesRead = record.read(buffer)) != -1) {
+                        int toWrite = (int) Math.min(bytesRead, remaining);
+                        out.write(buffer, 0, toWrite);
+                        remaining -= toWrite;
+                    }
+                } finally {
+                    record.close();
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return arcfile + ":" + index;
+        }
+    }
+
 }
@@ -28,9 +28,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -48,6 +54,11 @@ import dk.netarkivet.common.utils.Settings;
 
 /**
  * This class handles file lookup and encapsulates the actual placement of files.
+ * <p>
+ * The names of the archived files are kept in memory together with the archive directory they are stored in, so a
+ * lookup does not need to access the disk. The in-memory information is updated when files are moved into storage or to
+ * the attic, and is reconciled against the disk by a background check every
+ * {@link ArchiveSettings#BITARCHIVE_FILELIST_RESCAN_INTERVAL} milliseconds.
  */
 public final class BitarchiveAdmin {
 
@@ -67,6 +78,15 @@ public final class BitarchiveAdmin {
      */
     private Map<File, Long> archiveTime = Collections.synchronizedMap(new HashMap<File, Long>());
 
+    /**
+     * Index from the name of each archived file to the archive directory (the CanonicalFile) it is stored in. Kept in
+     * sync with archivedFiles.
+     */
+    private final Map<String, File> fileIndex = new ConcurrentHashMap<String, File>();
+
+    /** The timer running the background reconciliation of the file index, or null if not started. */
+    private Timer rescanTimer;
+
     /** Singleton instance. */
     private static BitarchiveAdmin instance;
 
@@ -135,6 +155,57 @@ public final class BitarchiveAdmin {
         } catch (IOException e) {
             throw new IOFailure("Could not retrieve Canonical files.", e);
         }
+
+        long rescanInterval = Settings.getLong(ArchiveSettings.BITARCHIVE_FILELIST_RESCAN_INTERVAL);
+        if (rescanInterval > 0) {
+            rescanTimer = new Timer("BitarchiveAdmin-rescan", true);
+            rescanTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        reconcileFileIndex();
+                    } catch (Exception e) {
+                        log.warn("Failed to reconcile the file index against the bitarchive directories", e);
+                    }
+                }
+            }, rescanInterval, rescanInterval);
+        }
+    }
+
+    /**
+     * Reconciles the in-memory file index against the disk. Directories that have been modified since the last update
+     * are reread, and files in directories which are no longer usable are removed from the index.
+     */
+    synchronized void reconcileFileIndex() {
+        for (File basedir : archivedFiles.keySet()) {
+            if (!checkArchiveDir(new File(basedir, Constants.FILE_DIRECTORY_NAME))) {
+                reindex(basedir, Collections.<String>emptyList());
+            }
+        }
+        verifyFilelistUpToDate();
+    }
+
+    /**
+     * Updates the file index, so the given filenames are exactly the files known to be in the given directory.
+     *
+     * @param basedir The CanonicalFile of the archive directory.
+     * @param filenames The names of the files in the directory.
+     */
+    private void reindex(File basedir, List<String> filenames) {
+        Set<String> present = new HashSet<String>(filenames);
+        Iterator<Map.Entry<String, File>> entries = fileIndex.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, File> entry = entries.next();
+            if (entry.getValue().equals(basedir) && !present.contains(entry.getKey())) {
+                entries.remove();
+            }
+        }
+        for (String filename : filenames) {
+            File previous = fileIndex.putIfAbsent(filename, basedir);
+            if (previous != null && !previous.equals(basedir)) {
+                log.warn("The file '{}' is found in both '{}' and '{}'. Using the first.", filename, previous, basedir);
+            }
+        }
     }
 
     /**
@@ -160,7 +231,7 @@ public final class BitarchiveAdmin {
      * @throws UnknownID If the basedir cannot be found both the archivedFiles map or the archiveTime map.
      * @throws IOFailure If it is not possible to retrieve the canonical file for the basedir.
      */
-    public void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
+    public synchronized void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
         ArgumentNotValid.checkNotNull(basedir, "File basedir");
         // ensure that it is the CanonicalFile for the directory.
         try {
@@ -194,6 +265,7 @@ public final class BitarchiveAdmin {
         }
         archivedFiles.put(basedir, filenames);
         archiveTime.put(basedir, filedir.lastModified());
+        reindex(basedir, filenames);
     }
 
     /**
@@ -249,6 +321,9 @@ public final class BitarchiveAdmin {
     /**
      * Moves a file from temporary storage to file storage.
      * <p>
+     * The move is synchronized with the updates of the filelists, so an update cannot list the directory before the
+     * move and then drop the moved file from the file index.
+     * <p>
      * Note: It is checked, if tempLocation resides in directory TEMPORARY_DIRECTORY_NAME and whether the parent of
      * tempLocation is a Bitarchive directory.
      *
@@ -259,7 +334,7 @@ public final class BitarchiveAdmin {
      * location.
      * @throws ArgumentNotValid If the tempLocation file is null.
      */
-    public File moveToStorage(File tempLocation) throws IOFailure, ArgumentNotValid {
+    public synchronized File moveToStorage(File tempLocation) throws IOFailure, ArgumentNotValid {
         ArgumentNotValid.checkNotNull(tempLocation, "tempLocation");
         try {
             tempLocation = tempLocation.getCanonicalFile();
@@ -305,6 +380,7 @@ public final class BitarchiveAdmin {
         }
         fileList.add(arcFileName);
         archiveTime.put(canonicalFile, storagePath.lastModified());
+        fileIndex.put(arcFileName, canonicalFile);
         return storageFile;
     }
 
@@ -398,26 +474,27 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Return the path that a given arc file can be found in.
+     * Return the path that a given arc file can be found in. The answer is found in the in-memory file index. Only if
+     * the file is not in the index are the archive directories checked for changes.
      *
      * @param arcFileName Name of an arc file (with no path)
      * @return A BitarchiveARCFile for the given file, or null if the file does not exist.
      */
     public BitarchiveARCFile lookup(String arcFileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFileName");
-        verifyFilelistUpToDate();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
-            if (checkArchiveDir(archiveDir)) {
-                File archiveFile = new File(archiveDir, arcFileName);
-                if (archiveFile.exists()) {
-                    return new BitarchiveARCFile(arcFileName, archiveFile);
-                }
-            }
+        File archivePath = fileIndex.get(arcFileName);
+        if (archivePath == null) {
+            // The file may have been placed in the archive since the last update of the filelists.
+            verifyFilelistUpToDate();
+            archivePath = fileIndex.get(arcFileName);
+        }
+        if (archivePath == null) {
+            // the arcfile named "arcFileName" does not exist in this bitarchive.
+            log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
+            return null;
         }
-        // the arcfile named "arcFileName" does not exist in this bitarchive.
-        log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
-        return null;
+        File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
+        return new BitarchiveARCFile(arcFileName, new File(archiveDir, arcFileName));
     }
 
     /**
@@ -489,8 +566,13 @@ public final class BitarchiveAdmin {
      * Close down the bitarchive admin. Currently has no data to store.
      */
     public void close() {
+        if (rescanTimer != null) {
+            rescanTimer.cancel();
+            rescanTimer = null;
+        }
         archivedFiles.clear();
         archiveTime.clear();
+        fileIndex.clear();
         instance = null;
     }
 
@@ -520,4 +602,29 @@ public final class BitarchiveAdmin {
         return new File(atticdir, arcFileName);
     }
 
+    /**
+     * Move a file in the bitarchive to the attic, and remove it from the list of archived files. Like
+     * {@link #moveToStorage(File)}, this is synchronized with the updates of the filelists.
+     *
+     * @param existingFile a File object for an existing file in the bitarchive
+     * @return The full path of the file in the attic dir
+     * @throws ArgumentNotValid If the file is null or does not belong to a bitarchive directory.
+     * @throws IOFailure If the file could not be moved.
+     */
+    public synchronized File moveToAttic(File existingFile) throws ArgumentNotValid, IOFailure {
+        File atticFile = getAtticPath(existingFile);
+        if (!existingFile.renameTo(atticFile)) {
+            throw new IOFailure("Failed to move the file:" + existingFile + "to attic");
+        }
+        File basedir = atticFile.getParentFile().getParentFile();
+        String arcFileName = atticFile.getName();
+        final List<String> fileList = archivedFiles.get(basedir);
+        if (fileList != null) {
+            fileList.remove(arcFileName);
+        }
+        fileIndex.remove(arcFileName, basedir);
+        archiveTime.put(basedir, new File(basedir, Constants.FILE_DIRECTORY_NAME).lastModified());
+        return atticFile;
+    }
+
 }
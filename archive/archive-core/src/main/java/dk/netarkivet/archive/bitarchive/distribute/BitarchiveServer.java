@@ -45,6 +45,7 @@ import dk.netarkivet.common.distribute.NullRemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.ChecksumCalculator;
@@ -327,10 +328,12 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
             }
 
             log.debug("Checksums matched - preparing to move and return file");
-            File moveTo = baa.getAtticPath(foundFile);
-            if (!foundFile.renameTo(moveTo)) {
+            File moveTo;
+            try {
+                moveTo = ba.moveToAttic(foundFile);
+            } catch (IOFailure e) {
                 final String message = "Failed to move the file:" + foundFile + "to attic";
-                log.warn(message);
+                log.warn(message, e);
                 msg.setNotOk(message);
                 return;
             }
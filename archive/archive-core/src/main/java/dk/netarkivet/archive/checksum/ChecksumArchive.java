@@ -33,6 +33,7 @@ import dk.netarkivet.common.exceptions.IllegalState;
 /**
  * This abstract class is the interface for the checksum archives, which can be one of the following: <br>
  * - <b>FileChecksumArchive</b> where the archive is placed in a single file. <br>
+ * - <b>CompactChecksumArchive</b> where the archive is placed in a sorted, memory-mapped table and an append log. <br>
  * - <b>DatabaseChecksumArchive</b> where the archive is placed in a database. <br>
  *
  * @see dk.netarkivet.archive.checksum.FileChecksumArchive
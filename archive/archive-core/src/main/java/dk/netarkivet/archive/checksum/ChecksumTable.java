@@ -0,0 +1,498 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+
+import org.apache.commons.io.IOUtils;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A read-only table of filenames and MD5 checksums, sorted by filename and memory-mapped from a file.
+ * <p>
+ * The file starts with a header: a magic number, a format version, the number of entries and the offset of the
+ * records. The header is followed by the UTF-8 bytes of all the filenames, without separators, and then by one
+ * fixed-width record per entry: the offset of the filename as a long, and the 16 bytes of the checksum. A filename ends
+ * where the next one starts, and the last one ends where the records start.
+ * <p>
+ * Lookups are binary searches over the records, which only touch the pages of the file that they read, so the table
+ * does not have to fit on the heap. The file is mapped in chunks of at most 1 GB, so it may be larger than 2 GB.
+ * <p>
+ * Tables are written by a {@link Writer}, which takes the entries in sorted order, and are never changed afterwards.
+ * Lookups are thread safe.
+ */
+final class ChecksumTable {
+
+    /** The number of bytes in an MD5 checksum. */
+    static final int DIGEST_LENGTH = 16;
+
+    /** The number of hexadecimal characters in an MD5 checksum. */
+    static final int HEX_DIGEST_LENGTH = 2 * DIGEST_LENGTH;
+
+    /** The charset of filenames in the table. */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Orders filenames by Unicode code point, which is the order of their UTF-8 bytes and thus the order of the table.
+     * This differs from {@link String#compareTo(String)} for characters outside the Basic Multilingual Plane.
+     */
+    static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String name1, String name2) {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < name1.length() && i2 < name2.length()) {
+                int c1 = name1.codePointAt(i1);
+                int c2 = name2.codePointAt(i2);
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            if (i1 < name1.length()) {
+                return 1;
+            }
+            return i2 < name2.length() ? -1 : 0;
+        }
+    };
+
+    /** The first four bytes of a table file, "NACT". */
+    private static final int MAGIC = 0x4e414354;
+
+    /** The version of the table format. */
+    private static final int VERSION = 1;
+
+    /** The size of the header: magic, version, number of entries and offset of the records. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    /** The size of a record: offset of the filename and checksum. */
+    private static final int RECORD_SIZE = 8 + DIGEST_LENGTH;
+
+    /** The base 2 logarithm of the size of the chunks the file is mapped in. */
+    private static final int CHUNK_SHIFT = 30;
+
+    /** The size of the chunks the file is mapped in. */
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    /** The hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The table file. */
+    private final File file;
+
+    /** The number of entries. */
+    private final long size;
+
+    /** The offset of the first record, which is also where the last filename ends. */
+    private final long recordsOffset;
+
+    /** The file mapped in consecutive chunks of {@link #CHUNK_SIZE} bytes, the last one possibly shorter. */
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Maps a table file.
+     *
+     * @param file The file written by a {@link Writer}.
+     * @param size The number of entries.
+     * @param recordsOffset The offset of the records.
+     * @param chunks The mapped file.
+     */
+    private ChecksumTable(File file, long size, long recordsOffset, MappedByteBuffer[] chunks) {
+        this.file = file;
+        this.size = size;
+        this.recordsOffset = recordsOffset;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Opens a table file. A missing or empty file is an empty table.
+     *
+     * @param file The file written by a {@link Writer}.
+     * @return The table.
+     * @throws IOFailure If the file cannot be read or is not a valid table file.
+     */
+    static ChecksumTable open(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        if (!file.exists() || file.length() == 0) {
+            return new ChecksumTable(file, 0, HEADER_SIZE, new MappedByteBuffer[0]);
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length < HEADER_SIZE || raf.readInt() != MAGIC) {
+                throw new IOFailure("The file '" + file + "' is not a checksum table");
+            }
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOFailure("The checksum table '" + file + "' has version " + version + ", expected "
+                        + VERSION);
+            }
+            long size = raf.readLong();
+            long recordsOffset = raf.readLong();
+            if (size < 0 || recordsOffset < HEADER_SIZE || recordsOffset + size * RECORD_SIZE != length) {
+                throw new IOFailure("The checksum table '" + file + "' is truncated or corrupt");
+            }
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, length
+                        - position));
+            }
+            // The mappings stay valid after the file is closed.
+            return new ChecksumTable(file, size, recordsOffset, chunks);
+        } catch (IOException e) {
+            throw new IOFailure("Could not open the checksum table '" + file + "'", e);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * @return The table file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Look up the checksum of a filename.
+     *
+     * @param filename The filename.
+     * @return The 16 bytes of the checksum, or null if the filename is not in the table.
+     */
+    byte[] find(String filename) {
+        byte[] key = filename.getBytes(UTF8);
+        long low = 0;
+        long high = size - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            int cmp = compareName(middle, key);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return getDigest(middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param index The index of an entry, from 0 to size() - 1.
+     * @return The filename of the entry.
+     */
+    String getName(long index) {
+        long start = nameStart(index);
+        byte[] name = new byte[(int) (nameEnd(index) - start)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = byteAt(start + i);
+        }
+        return new String(name, UTF8);
+    }
+
+    /**
+     * @param index The index of an entry, from 0 to size() - 1.
+     * @return The 16 bytes of the checksum of the entry.
+     */
+    byte[] getDigest(long index) {
+        long position = recordsOffset + index * RECORD_SIZE + 8;
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            digest[i] = byteAt(position + i);
+        }
+        return digest;
+    }
+
+    /**
+     * Compare the filename of an entry with a key, by unsigned bytes.
+     *
+     * @param index The index of the entry.
+     * @param key The UTF-8 bytes of the filename to look for.
+     * @return A negative number, zero or a positive number if the filename of the entry is before, equal to or after
+     * the key.
+     */
+    private int compareName(long index, byte[] key) {
+        long start = nameStart(index);
+        long length = nameEnd(index) - start;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int cmp = (byteAt(start + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length < key.length ? -1 : (length == key.length ? 0 : 1);
+    }
+
+    /**
+     * @param index The index of an entry.
+     * @return The offset of the first byte of the filename of the entry.
+     */
+    private long nameStart(long index) {
+        return longAt(recordsOffset + index * RECORD_SIZE);
+    }
+
+    /**
+     * @param index The index of an entry.
+     * @return The offset just after the last byte of the filename of the entry.
+     */
+    private long nameEnd(long index) {
+        return index + 1 < size ? nameStart(index + 1) : recordsOffset;
+    }
+
+    /**
+     * @param position An offset in the file.
+     * @return The byte at the offset.
+     */
+    private byte byteAt(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * @param position An offset in the file.
+     * @return The big-endian long starting at the offset, which may span two chunks.
+     */
+    private long longAt(long position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (byteAt(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Convert an MD5 checksum from hexadecimal, as calculated by the ChecksumCalculator, to bytes.
+     *
+     * @param checksum The checksum as 32 hexadecimal digits, in either case.
+     * @return The 16 bytes of the checksum.
+     * @throws ArgumentNotValid If the checksum is not 32 hexadecimal digits.
+     */
+    static byte[] toDigest(String checksum) {
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        if (checksum.length() != HEX_DIGEST_LENGTH) {
+            throw new ArgumentNotValid("The checksum '" + checksum + "' is not an MD5 checksum");
+        }
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            int high = Character.digit(checksum.charAt(2 * i), 16);
+            int low = Character.digit(checksum.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new ArgumentNotValid("The checksum '" + checksum + "' is not an MD5 checksum");
+            }
+            digest[i] = (byte) ((high << 4) | low);
+        }
+        return digest;
+    }
+
+    /**
+     * Convert an MD5 checksum from bytes to hexadecimal.
+     *
+     * @param digest The 16 bytes of the checksum.
+     * @return The checksum as 32 lower case hexadecimal digits.
+     */
+    static String toHex(byte[] digest) {
+        char[] hex = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Writes a table file. The entries must be added in strictly increasing order of filename, see
+     * {@link ChecksumTable#NAME_ORDER}. The records are collected in a temporary file next to the table file while the
+     * filenames are written, and appended when the table is finished.
+     */
+    static final class Writer implements Closeable {
+
+        /** The table file. */
+        private final File file;
+
+        /** The temporary file for the records. */
+        private final File recordsFile;
+
+        /** The table file, receiving the header and the filenames. */
+        private DataOutputStream names;
+
+        /** The temporary file receiving the records. */
+        private DataOutputStream records;
+
+        /** The offset in the table file of the next filename. */
+        private long position = HEADER_SIZE;
+
+        /** The number of entries added. */
+        private long size;
+
+        /** The UTF-8 bytes of the last filename added, or null if none has been added. */
+        private byte[] previous;
+
+        /**
+         * Start writing a table file, replacing any existing file.
+         *
+         * @param file The table file.
+         * @throws IOFailure If the files cannot be created.
+         */
+        Writer(File file) {
+            ArgumentNotValid.checkNotNull(file, "File file");
+            this.file = file;
+            this.recordsFile = new File(file.getPath() + ".records");
+            try {
+                names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                names.write(new byte[HEADER_SIZE]);
+                records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile)));
+            } catch (IOException e) {
+                close();
+                throw new IOFailure("Could not create the checksum table '" + file + "'", e);
+            }
+        }
+
+        /**
+         * Add an entry.
+         *
+         * @param filename The filename, after the filename of the previous entry.
+         * @param digest The 16 bytes of the checksum.
+         * @throws ArgumentNotValid If the filename is not after the previous one, or the checksum is not 16 bytes.
+         * @throws IOFailure If the entry cannot be written.
+         */
+        void add(String filename, byte[] digest) {
+            ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+            ArgumentNotValid.checkNotNull(digest, "byte[] digest");
+            ArgumentNotValid.checkTrue(digest.length == DIGEST_LENGTH, "The checksum must be " + DIGEST_LENGTH
+                    + " bytes");
+            byte[] name = filename.getBytes(UTF8);
+            if (previous != null && compareBytes(previous, name) >= 0) {
+                throw new ArgumentNotValid("The filename '" + filename + "' is not after the previous filename '"
+                        + new String(previous, UTF8) + "'");
+            }
+            try {
+                records.writeLong(position);
+                records.write(digest);
+                names.write(name);
+            } catch (IOException e) {
+                throw new IOFailure("Could not write to the checksum table '" + file + "'", e);
+            }
+            position += name.length;
+            size++;
+            previous = name;
+        }
+
+        /**
+         * @return The number of entries added.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Append the records and write the header, completing the table file.
+         *
+         * @throws IOFailure If the table cannot be written.
+         */
+        void finish() {
+            InputStream in = null;
+            try {
+                records.close();
+                records = null;
+                in = new BufferedInputStream(new FileInputStream(recordsFile));
+                IOUtils.copyLarge(in, names);
+                in.close();
+                names.close();
+                names = null;
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(VERSION);
+                    raf.writeLong(size);
+                    raf.writeLong(position);
+                    raf.getFD().sync();
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new IOFailure("Could not finish the checksum table '" + file + "'", e);
+            } finally {
+                IOUtils.closeQuietly(in);
+                close();
+            }
+        }
+
+        /**
+         * Close the files and remove the temporary file. A table that has not been finished is left incomplete.
+         */
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(names);
+            IOUtils.closeQuietly(records);
+            names = null;
+            records = null;
+            if (recordsFile.exists() && !recordsFile.delete()) {
+                recordsFile.deleteOnExit();
+            }
+        }
+
+        /**
+         * Compare two byte arrays by unsigned bytes.
+         *
+         * @param bytes1 The first array.
+         * @param bytes2 The second array.
+         * @return A negative number, zero or a positive number if the first array is before, equal to or after the
+         * second.
+         */
+        private static int compareBytes(byte[] bytes1, byte[] bytes2) {
+            for (int i = 0; i < bytes1.length && i < bytes2.length; i++) {
+                int cmp = (bytes1[i] & 0xff) - (bytes2[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return bytes1.length - bytes2.length;
+        }
+    }
+
+}
@@ -0,0 +1,785 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.ExternalSorter;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * A checksum archive for very many files, kept in a sorted table on disk instead of in memory.<br>
+ * <p>
+ * The archive consists of two files:
+ * <ul>
+ * <li>A {@link ChecksumTable}: the entries sorted by filename, with the MD5 checksums stored as 16 bytes. The table is
+ * memory-mapped, and lookups are binary searches in it.</li>
+ * <li>An append log: the entries added or corrected since the table was written, one per line in the format of a
+ * ChecksumJob, <b>'filename' + ## + 'checksum'</b>. The log is also held in memory, where it takes precedence over the
+ * table.</li>
+ * </ul>
+ * When the log reaches {@link ArchiveSettings#CHECKSUM_COMPACT_THRESHOLD} entries, it is merged with the table into a
+ * new table, and emptied. Only the log is thus ever held on the heap, and neither file is rewritten on every change.
+ * The whole archive is streamed from the two, in sorted order, when it is retrieved as a file.
+ * <p>
+ * Only MD5 checksums, which is what {@link #calculateChecksum(File)} calculates, can be stored.
+ * <p>
+ * If no table and no log exist when the class is instantiated, but a checksum file of the {@link FileChecksumArchive}
+ * does, the entries of that file are imported into a new table. The file itself is left untouched.
+ */
+public final class CompactChecksumArchive implements ChecksumArchive {
+
+    /** The prefix to the filenames. */
+    private static final String FILENAME_PREFIX = "checksum_";
+    /** The suffix to the filename of the table. */
+    private static final String TABLE_SUFFIX = ".table";
+    /** The suffix to the filename of the append log. */
+    private static final String LOG_SUFFIX = ".log";
+    /** The suffix to the filename of the checksum file of a FileChecksumArchive. */
+    private static final String LEGACY_SUFFIX = ".md5";
+    /** The suffix to the filename of a table being written. */
+    private static final String NEW_TABLE_SUFFIX = ".new";
+    /** The prefix to the removedEntryFile. */
+    private static final String WRONG_FILENAME_PREFIX = "removed_";
+    /** The suffix to the removedEntryFile. */
+    private static final String WRONG_FILENAME_SUFFIX = ".checksum";
+
+    /**
+     * Orders the numbered lines of an import by filename, and then by line number. The filename is compared as a whole,
+     * as the separator after it would otherwise be compared with the characters of longer filenames.
+     */
+    private static final Comparator<String> IMPORT_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String line1, String line2) {
+            int nameEnd1 = line1.indexOf(ChecksumJob.STRING_FILENAME_SEPARATOR);
+            int nameEnd2 = line2.indexOf(ChecksumJob.STRING_FILENAME_SEPARATOR);
+            int cmp = line1.substring(0, nameEnd1).compareTo(line2.substring(0, nameEnd2));
+            return cmp != 0 ? cmp : line1.substring(nameEnd1).compareTo(line2.substring(nameEnd2));
+        }
+    };
+
+    /** The logger used by this class. */
+    private static final Logger log = LoggerFactory.getLogger(CompactChecksumArchive.class);
+
+    /** The current instance of this class. */
+    private static CompactChecksumArchive instance;
+
+    /** The sorted table of the entries that were in the archive when the log was last emptied. */
+    private File tableFile;
+
+    /** The entries added or corrected since the table was written, one per line. */
+    private File logFile;
+
+    /**
+     * The file for storing all the deleted entries. Each entry should be: 'date :' + 'wrongEntry'.
+     */
+    private File wrongEntryFile;
+
+    /** The table, mapped from the table file. */
+    private ChecksumTable table;
+
+    /** The entries of the log. Map(file -> checksum), sorted like the table. */
+    private final Map<String, byte[]> recentEntries = new TreeMap<String, byte[]>(ChecksumTable.NAME_ORDER);
+
+    /**
+     * The last modified dates of the table file and the log when they were last read or written. Used for determining
+     * whether to reload the archive, if the files have been changed by someone else.
+     */
+    private long lastModifiedTable;
+    private long lastModifiedLog;
+
+    /** The minimum space left. */
+    private final long minSpaceLeft;
+
+    /** The number of entries in the log at which it is merged into the table. */
+    private final int compactThreshold;
+
+    /**
+     * Method for obtaining the current singleton instance of this class. If the instance of this class has not yet been
+     * constructed, then it will be initialised.
+     *
+     * @return The current instance of this class.
+     */
+    public static synchronized CompactChecksumArchive getInstance() {
+        if (instance == null) {
+            instance = new CompactChecksumArchive();
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor. Retrieves the settings, and opens or creates the archive files.
+     *
+     * @throws ArgumentNotValid If the minimum space left is smaller than zero, or the compact threshold is not
+     * positive.
+     * @throws IOFailure If the archive files cannot be created or read.
+     */
+    private CompactChecksumArchive() throws IOFailure, ArgumentNotValid {
+        minSpaceLeft = Settings.getLong(ArchiveSettings.CHECKSUM_MIN_SPACE_LEFT);
+        if (minSpaceLeft < 0) {
+            String msg = "Wrong setting of minSpaceRequired read from " + "Settings: int " + minSpaceLeft;
+            log.warn(msg);
+            throw new ArgumentNotValid(msg);
+        }
+        compactThreshold = Settings.getInt(ArchiveSettings.CHECKSUM_COMPACT_THRESHOLD);
+        ArgumentNotValid.checkPositive(compactThreshold, ArchiveSettings.CHECKSUM_COMPACT_THRESHOLD);
+
+        initializeFiles();
+    }
+
+    /**
+     * @return The path of the table file.
+     */
+    public String getTableFileName() {
+        return tableFile.getPath();
+    }
+
+    /**
+     * @return The path of the append log.
+     */
+    public String getLogFileName() {
+        return logFile.getPath();
+    }
+
+    /**
+     * Method for retrieving the name of the wrongEntryFile.
+     *
+     * @return The wrong entry file name.
+     */
+    public String getWrongEntryFilename() {
+        return wrongEntryFile.getPath();
+    }
+
+    /**
+     * Method for testing where there is enough space left on local drive.
+     *
+     * @return Whether there is enough space left.
+     */
+    @Override
+    public boolean hasEnoughSpace() {
+        return checkArchiveFile(logFile) && FileUtils.getBytesFree(logFile) > minSpaceLeft;
+    }
+
+    /**
+     * Creates the directory and the files of the archive if they do not exist, imports the checksum file of a
+     * FileChecksumArchive if there is one and the archive is new, and loads the archive.
+     */
+    private void initializeFiles() {
+        File checksumDir = new File(Settings.get(ArchiveSettings.CHECKSUM_BASEDIR));
+        if (!checksumDir.exists()) {
+            checksumDir.mkdir();
+        }
+        String replicaId = Settings.get(CommonSettings.USE_REPLICA_ID);
+        wrongEntryFile = new File(checksumDir, WRONG_FILENAME_PREFIX + replicaId + WRONG_FILENAME_SUFFIX);
+        tableFile = new File(checksumDir, FILENAME_PREFIX + replicaId + TABLE_SUFFIX);
+        logFile = new File(checksumDir, FILENAME_PREFIX + replicaId + LOG_SUFFIX);
+        File legacyFile = new File(checksumDir, FILENAME_PREFIX + replicaId + LEGACY_SUFFIX);
+
+        try {
+            wrongEntryFile.createNewFile();
+            if (!tableFile.exists() && !logFile.exists() && legacyFile.isFile()) {
+                importChecksumFile(legacyFile);
+            }
+            logFile.createNewFile();
+        } catch (IOException e) {
+            String msg = "Cannot create the files of the checksum archive in '" + checksumDir + "'";
+            log.error(msg);
+            throw new IOFailure(msg, e);
+        }
+        load();
+    }
+
+    /**
+     * Maps the table and reads the log into memory. Invalid lines in the log are put into the wrongEntryFile, and the
+     * log is then merged into the table, so the invalid lines are not read again. The log is also merged if it has
+     * reached the compact threshold.
+     */
+    private void load() {
+        table = ChecksumTable.open(tableFile);
+        recentEntries.clear();
+        boolean badEntries = false;
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), ChecksumTable.UTF8));
+            String record;
+            while ((record = in.readLine()) != null) {
+                try {
+                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
+                    recentEntries.put(entry.getKey(), ChecksumTable.toDigest(entry.getValue()));
+                } catch (ArgumentNotValid e) {
+                    log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.",
+                            record, e);
+                    appendWrongRecordToWrongEntryFile(record);
+                    badEntries = true;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the checksum log '" + logFile + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        lastModifiedTable = tableFile.lastModified();
+        lastModifiedLog = logFile.lastModified();
+        log.info("Loaded checksum archive with {} entries in '{}' and {} in '{}'", table.size(), tableFile,
+                recentEntries.size(), logFile);
+
+        if (badEntries || recentEntries.size() >= compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Merges the log into a new table, replaces the table with it, and empties the log. If there is not enough space
+     * left for the new table, the log is kept as it is, and merged later.
+     *
+     * @throws IOFailure If the new table cannot be written, or the log cannot be emptied.
+     */
+    private void compact() throws IOFailure {
+        long spaceNeeded = tableFile.length() + logFile.length() + minSpaceLeft;
+        if (spaceNeeded > FileUtils.getBytesFree(tableFile.getAbsoluteFile().getParentFile())) {
+            log.error("Not enough space left to merge the checksum log into the checksum table. {} entries are kept "
+                    + "in memory.", recentEntries.size());
+            return;
+        }
+        log.info("Merging {} entries from '{}' into '{}'", recentEntries.size(), logFile, tableFile);
+        File newTableFile = new File(tableFile.getPath() + NEW_TABLE_SUFFIX);
+        final ChecksumTable.Writer writer = new ChecksumTable.Writer(newTableFile);
+        boolean finished = false;
+        try {
+            forEachEntry(new EntryHandler() {
+                @Override
+                public void handle(String filename, byte[] digest) {
+                    writer.add(filename, digest);
+                }
+            });
+            writer.finish();
+            finished = true;
+        } catch (IOException e) {
+            throw new IOFailure("Could not merge the checksum log into '" + newTableFile + "'", e);
+        } finally {
+            writer.close();
+            if (!finished) {
+                FileUtils.remove(newTableFile);
+            }
+        }
+
+        // Once the new table is in place, the log holds nothing that is not in the table, so reading it again after a
+        // failure to empty it below does no harm.
+        FileUtils.moveFile(newTableFile, tableFile);
+        table = ChecksumTable.open(tableFile);
+        try {
+            new FileOutputStream(logFile).close();
+        } catch (IOException e) {
+            throw new IOFailure("Could not empty the checksum log '" + logFile + "'", e);
+        }
+        recentEntries.clear();
+        lastModifiedTable = tableFile.lastModified();
+        lastModifiedLog = logFile.lastModified();
+        log.info("The checksum table '{}' now has {} entries", tableFile, table.size());
+    }
+
+    /**
+     * Imports the checksum file of a FileChecksumArchive into a new table. The lines are sorted by filename on disk,
+     * so the file may be larger than the memory. If a file has more than one entry, the last one is used, as the
+     * FileChecksumArchive would. Invalid lines are put into the wrongEntryFile.
+     *
+     * @param checksumFile The checksum file.
+     * @throws IOFailure If the file cannot be read, or the table cannot be written.
+     */
+    private void importChecksumFile(File checksumFile) throws IOFailure {
+        log.info("Importing the checksum file '{}' into '{}'", checksumFile, tableFile);
+        // Number the lines, so the last entry of a file can be found after sorting. The numbers are fixed-width, so
+        // they sort in numerical order.
+        File numberedFile = new File(tableFile.getPath() + ".import");
+        File newTableFile = new File(tableFile.getPath() + NEW_TABLE_SUFFIX);
+        BufferedReader in = null;
+        Writer out = null;
+        ChecksumTable.Writer writer = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(checksumFile), ChecksumTable.UTF8));
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(numberedFile), ChecksumTable.UTF8));
+            String record;
+            long lineNumber = 0;
+            while ((record = in.readLine()) != null) {
+                try {
+                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
+                    ChecksumTable.toDigest(entry.getValue());
+                    out.write(entry.getKey() + ChecksumJob.STRING_FILENAME_SEPARATOR
+                            + String.format("%019d", lineNumber++) + ChecksumJob.STRING_FILENAME_SEPARATOR
+                            + entry.getValue() + "\n");
+                } catch (ArgumentNotValid e) {
+                    log.warn("An invalid entry in the imported file: '{}' This will be put in the wrong entry file.",
+                            record, e);
+                    appendWrongRecordToWrongEntryFile(record);
+                }
+            }
+            in.close();
+            out.close();
+
+            // The sorter handles the lines as ISO-8859-1, so the characters compared are the UTF-8 bytes.
+            InputStream sorted = ExternalSorter.fromSettings(IMPORT_ORDER, FileUtils.getTempDir()).openSortedStream(
+                    Collections.singletonList(numberedFile));
+            in = new BufferedReader(new InputStreamReader(sorted, ChecksumTable.UTF8));
+            writer = new ChecksumTable.Writer(newTableFile);
+            String filename = null;
+            String checksum = null;
+            while ((record = in.readLine()) != null) {
+                int nameEnd = record.indexOf(ChecksumJob.STRING_FILENAME_SEPARATOR);
+                String name = record.substring(0, nameEnd);
+                if (filename != null && !filename.equals(name)) {
+                    writer.add(filename, ChecksumTable.toDigest(checksum));
+                }
+                filename = name;
+                checksum = record.substring(record.lastIndexOf(ChecksumJob.STRING_FILENAME_SEPARATOR)
+                        + ChecksumJob.STRING_FILENAME_SEPARATOR.length());
+            }
+            if (filename != null) {
+                writer.add(filename, ChecksumTable.toDigest(checksum));
+            }
+            writer.finish();
+            FileUtils.moveFile(newTableFile, tableFile);
+            log.info("Imported {} entries from '{}'. It is no longer used and may be removed.", writer.size(),
+                    checksumFile);
+        } catch (IOException e) {
+            throw new IOFailure("Could not import the checksum file '" + checksumFile + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+            if (writer != null) {
+                writer.close();
+            }
+            FileUtils.remove(numberedFile);
+            FileUtils.remove(newTableFile);
+        }
+    }
+
+    /** Receives the entries of the archive from {@link #forEachEntry(EntryHandler)}. */
+    private interface EntryHandler {
+        /**
+         * @param filename The filename of an entry.
+         * @param digest The 16 bytes of its checksum.
+         * @throws IOException If the entry cannot be handled.
+         */
+        void handle(String filename, byte[] digest) throws IOException;
+    }
+
+    /**
+     * Goes through all the entries of the archive, sorted by filename, by merging the table and the log. An entry of
+     * the log replaces an entry of the table for the same file.
+     *
+     * @param handler The receiver of the entries.
+     * @throws IOException If the handler fails.
+     */
+    private void forEachEntry(EntryHandler handler) throws IOException {
+        Iterator<Map.Entry<String, byte[]>> recent = recentEntries.entrySet().iterator();
+        Map.Entry<String, byte[]> nextRecent = recent.hasNext() ? recent.next() : null;
+        long index = 0;
+        String nextName = table.size() > 0 ? table.getName(0) : null;
+        while (nextName != null || nextRecent != null) {
+            int cmp;
+            if (nextName == null) {
+                cmp = 1;
+            } else if (nextRecent == null) {
+                cmp = -1;
+            } else {
+                cmp = ChecksumTable.NAME_ORDER.compare(nextName, nextRecent.getKey());
+            }
+            if (cmp < 0) {
+                handler.handle(nextName, table.getDigest(index));
+            } else {
+                handler.handle(nextRecent.getKey(), nextRecent.getValue());
+                nextRecent = recent.hasNext() ? recent.next() : null;
+            }
+            if (cmp <= 0) {
+                index++;
+                nextName = index < table.size() ? table.getName(index) : null;
+            }
+        }
+    }
+
+    /**
+     * Method for validating a file for use as checksum file. It has to exist and be writable, but it may not be a
+     * directory.
+     *
+     * @param file The file to validate.
+     * @return Whether the file is valid.
+     */
+    private boolean checkArchiveFile(File file) {
+        if (!file.isFile()) {
+            log.warn("The file '{}' is not a valid file.", file.getAbsolutePath());
+            return false;
+        }
+        if (!file.canWrite()) {
+            log.warn("The file '{}' is not writable", file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds an entry to the log, and merges the log into the table if it has reached the compact threshold.
+     *
+     * @param filename The name of the file to add.
+     * @param checksum The checksum of the file to add.
+     * @param digest The checksum as bytes.
+     * @throws IOFailure If something is wrong when writing to the files.
+     */
+    private void addEntry(String filename, String checksum, byte[] digest) throws IOFailure {
+        String record = ChecksumJob.makeLine(filename, checksum) + "\n";
+        try {
+            OutputStream out = new FileOutputStream(logFile, true);
+            try {
+                out.write(record.getBytes(ChecksumTable.UTF8));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("An error occurred while appending an entry to the checksum log.", e);
+        }
+        lastModifiedLog = logFile.lastModified();
+        recentEntries.put(filename, digest);
+
+        if (recentEntries.size() >= compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Method for appending a 'wrong' entry in the wrongEntryFile. It will be written when the wrong entry was appended:
+     * date + " : " + wrongRecord.
+     *
+     * @param wrongRecord The record to append.
+     * @throws IOFailure If the wrong record cannot be appended correctly.
+     */
+    private void appendWrongRecordToWrongEntryFile(String wrongRecord) throws IOFailure {
+        try {
+            FileWriter fwrite = new FileWriter(wrongEntryFile, true);
+            try {
+                fwrite.append(new Date().toString() + " : " + wrongRecord + "\n");
+            } finally {
+                fwrite.close();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot put a bad record to the 'wrongEntryFile'.", e);
+            throw new IOFailure("Cannot put a bad record to the 'wrongEntryFile'.", e);
+        }
+    }
+
+    /**
+     * Looks up the checksum of a file, in the log first and then in the table.
+     *
+     * @param filename The name of the file.
+     * @return The checksum as bytes, or null if the file is not in the archive.
+     */
+    private byte[] findDigest(String filename) {
+        byte[] digest = recentEntries.get(filename);
+        return digest != null ? digest : table.find(filename);
+    }
+
+    /**
+     * The method for uploading a file to the archive. The checksum is calculated before the archive is locked.
+     *
+     * @param file The remote file containing the file to be uploaded.
+     * @param filename The name of the arcFile.
+     * @throws ArgumentNotValid If the RemoteFile is null or if the filename is not valid.
+     * @throws IllegalState If the file already within the archive but with a different checksum.
+     */
+    @Override
+    public void upload(RemoteFile file, String filename) throws ArgumentNotValid, IllegalState {
+        ArgumentNotValid.checkNotNull(file, "RemoteFile file");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        InputStream input = null;
+        String checksum;
+        try {
+            input = file.getInputStream();
+            checksum = calculateChecksum(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        upload(checksum, filename);
+    }
+
+    /**
+     * Upload a filename with a pre-computed checksum.
+     *
+     * @param checksum The MD5 checksum of the file.
+     * @param filename The name of the file.
+     * @throws ArgumentNotValid If the checksum is not an MD5 checksum or the filename is not valid.
+     * @throws IllegalState If the file already within the archive but with a different checksum.
+     */
+    @Override
+    public synchronized void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        byte[] digest = ChecksumTable.toDigest(checksum);
+
+        synchronizeMemoryWithFiles();
+        byte[] archivedDigest = findDigest(filename);
+        if (archivedDigest != null) {
+            String archivedChecksum = ChecksumTable.toHex(archivedDigest);
+            if (archivedChecksum.equalsIgnoreCase(checksum)) {
+                log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
+                        filename, checksum);
+            } else {
+                throw new IllegalState("Cannot upload arcfile '" + filename
+                        + "', it is already archived with different checksum." + " Archive checksum: '"
+                        + archivedChecksum + "' and the uploaded file has: '" + checksum + "'.");
+            }
+
+            // It is considered a success that it already is within the archive,
+            // thus do not throw an exception.
+            return;
+        }
+
+        addEntry(filename, ChecksumTable.toHex(digest), digest);
+    }
+
+    /**
+     * Method for retrieving the checksum of a record, based on the filename.
+     *
+     * @param filename The name of the file to have recorded in the archive.
+     * @return The checksum of a record, in lower case, or null if it was not found.
+     * @throws ArgumentNotValid If the filename is not valid (null or empty).
+     */
+    @Override
+    public synchronized String getChecksum(String filename) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        synchronizeMemoryWithFiles();
+        byte[] digest = findDigest(filename);
+        return digest == null ? null : ChecksumTable.toHex(digest);
+    }
+
+    /**
+     * Method for checking whether an entry exists within the archive.
+     *
+     * @param filename The name of the file whose entry in the archive should be determined.
+     * @return Whether an entry with the filename was found.
+     */
+    @Override
+    public synchronized boolean hasEntry(String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        return findDigest(filename) != null;
+    }
+
+    /**
+     * Method for calculating the checksum of a file.
+     *
+     * @param f The file to calculate the checksum of.
+     * @return The checksum of the file.
+     * @throws IOFailure If a IOException is caught during the calculation of the MD5-checksum.
+     */
+    @Override
+    public String calculateChecksum(File f) throws IOFailure {
+        return ChecksumCalculator.calculateMd5(f);
+    }
+
+    /**
+     * Method for calculating the checksum of a inputstream.
+     *
+     * @param is The inputstream to calculate the checksum of.
+     * @return The checksum of the inputstream.
+     * @throws IOFailure If a error occurs during the generation of the MD5 checksum.
+     */
+    @Override
+    public String calculateChecksum(InputStream is) throws IOFailure {
+        return ChecksumCalculator.calculateMd5(is);
+    }
+
+    /**
+     * Method for correcting a bad entry from the archive. The current incorrect entry is put into the wrongEntryFile,
+     * and the entry with the checksum of the correct file is added to the log, where it replaces the entry in the
+     * table.
+     *
+     * @param filename The name of the file whose record should be removed.
+     * @param correctFile The file that should replace the current entry
+     * @return A file containing the removed entry.
+     * @throws ArgumentNotValid If one of the arguments are not valid.
+     * @throws IOFailure If the entry cannot be corrected. Either the bad entry cannot be stored, or the new entry cannot
+     * be written. Or if a file for the removed entry cannot be created.
+     * @throws IllegalState If no such entry exists to be corrected, or if the entry has a different checksum than the
+     * incorrectChecksum.
+     */
+    @Override
+    public synchronized File correct(String filename, File correctFile) throws IOFailure, ArgumentNotValid,
+            IllegalState {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNull(correctFile, "File correctFile");
+
+        synchronizeMemoryWithFiles();
+
+        byte[] currentDigest = findDigest(filename);
+        if (currentDigest == null) {
+            String errMsg = "No file entry for file '" + filename + "'.";
+            log.error(errMsg);
+            throw new IllegalState(errMsg);
+        }
+        String currentChecksum = ChecksumTable.toHex(currentDigest);
+
+        // Calculate the new checksum and verify that it is different.
+        String newChecksum = calculateChecksum(correctFile);
+        if (newChecksum.equalsIgnoreCase(currentChecksum)) {
+            // This should never occur.
+            throw new IllegalState("The checksum of the old 'bad' entry is "
+                    + " the same as the checksum of the new correcting entry");
+        }
+
+        String badEntry = ChecksumJob.makeLine(filename, currentChecksum);
+        appendWrongRecordToWrongEntryFile(badEntry);
+
+        byte[] newDigest = ChecksumTable.toDigest(newChecksum);
+        addEntry(filename, ChecksumTable.toHex(newDigest), newDigest);
+
+        // Make the file containing the bad entry be returned in the
+        // CorrectMessage.
+        File removedEntryFile;
+        try {
+            removedEntryFile = File.createTempFile(filename, "tmp", FileUtils.getTempDir());
+            FileWriter fw = new FileWriter(removedEntryFile);
+            try {
+                fw.write(badEntry);
+            } finally {
+                fw.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to create return file for CorrectMessage", e);
+        }
+        return removedEntryFile;
+    }
+
+    /**
+     * Method for retrieving the archive as a temporary file containing the checksum entries. Each line contains one
+     * checksum entry in the format produced by the ChecksumJob, and the lines are sorted by filename. The file is
+     * written while the table and the log are merged, so the archive is not loaded into memory.
+     *
+     * @return A temporary checksum file.
+     * @throws IOFailure If problems occurs during the creation of the file.
+     */
+    @Override
+    public synchronized File getArchiveAsFile() throws IOFailure {
+        synchronizeMemoryWithFiles();
+        return writeEntries(true);
+    }
+
+    /**
+     * Method for retrieving the names of all the files within the archive as a temporary file.
+     *
+     * @return A temporary file containing the list of all the filenames. This file has one filename per line, sorted.
+     * @throws IOFailure If problems occurs during the creation of the file.
+     */
+    @Override
+    public synchronized File getAllFilenames() throws IOFailure {
+        synchronizeMemoryWithFiles();
+        return writeEntries(false);
+    }
+
+    /**
+     * Writes the entries of the archive to a temporary file, one per line.
+     *
+     * @param withChecksums Whether to write the checksums after the filenames, as ChecksumJob lines.
+     * @return The temporary file.
+     * @throws IOFailure If the file cannot be written.
+     */
+    private File writeEntries(final boolean withChecksums) throws IOFailure {
+        try {
+            File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
+            final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile),
+                    ChecksumTable.UTF8));
+            try {
+                forEachEntry(new EntryHandler() {
+                    @Override
+                    public void handle(String filename, byte[] digest) throws IOException {
+                        out.write(filename);
+                        if (withChecksums) {
+                            out.write(ChecksumJob.STRING_FILENAME_SEPARATOR);
+                            out.write(ChecksumTable.toHex(digest));
+                        }
+                        out.write("\n");
+                    }
+                });
+            } finally {
+                out.close();
+            }
+            return tempFile;
+        } catch (IOException e) {
+            String msg = "Cannot create the output file containing the entries of this archive.";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        }
+    }
+
+    /**
+     * Ensures that the archive in memory matches the files. If the table file or the log has been modified since it
+     * was last read or written by this instance, the archive is reloaded.
+     */
+    private void synchronizeMemoryWithFiles() {
+        if (tableFile.lastModified() > lastModifiedTable || logFile.lastModified() > lastModifiedLog) {
+            log.warn("Archive in memory out of sync with archive in files. Reloading.");
+            load();
+        }
+    }
+
+    /**
+     * The method for cleaning up when done. It releases the table and the log held in memory, and the instance.
+     */
+    @Override
+    public synchronized void cleanup() {
+        table = null;
+        recentEntries.clear();
+        instance = null;
+    }
+
+}
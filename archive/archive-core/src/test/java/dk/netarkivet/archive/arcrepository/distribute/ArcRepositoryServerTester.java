@@ -28,11 +28,14 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -508,6 +511,108 @@ public class ArcRepositoryServerTester {
         arcServ.close();
     }
 
+    /**
+     * Test that store messages for different files are handled concurrently, while the store messages for one file
+     * are handled one at a time in the order received.
+     */
+    @Test
+    public void testStoreMessagesHandledPerFile() throws Exception {
+        // get1.ARC and get2.ARC are handled on different threads.
+        Settings.set(ArchiveSettings.ARCREPOSITORY_STORE_THREADS, "2");
+        File file1 = new File(new File(BITARCHIVE_DIR, "filedir"), STORABLE_FILES.get(0));
+        File file2 = new File(new File(BITARCHIVE_DIR, "filedir"), STORABLE_FILES.get(1));
+        BlockingStoreTestArcRepository arc = new BlockingStoreTestArcRepository(file1.getName());
+        ArcRepositoryServer arcServ = new ArcRepositoryServer(arc);
+
+        String[] ids = {"first1", "second1", "first2"};
+        File[] files = {file1, file1, file2};
+        for (int i = 0; i < ids.length; i++) {
+            StoreMessage msg = new StoreMessage(Channels.getError(), files[i]);
+            JMSConnectionMockupMQ.updateMsgID(msg, ids[i]);
+            arcServ.onMessage(JMSConnectionMockupMQ.getObjectMessage(msg));
+        }
+
+        assertTrue("The first store of get1.ARC should start", arc.blockedStoreStarted.await(10, TimeUnit.SECONDS));
+        assertTrue("get2.ARC should be stored while get1.ARC is blocked", arc.storeOfOtherFileDone.await(10,
+                TimeUnit.SECONDS));
+        assertEquals("The second store of get1.ARC should wait for the first", Arrays.asList("start first1"),
+                filterEvents(arc.getEvents(), "1"));
+        assertEquals("get2.ARC should be stored", Arrays.asList("start first2", "end first2"),
+                filterEvents(arc.getEvents(), "2"));
+
+        arc.releaseStore.countDown();
+        arcServ.close();
+        assertEquals("The stores of get1.ARC should be handled in order",
+                Arrays.asList("start first1", "end first1", "start second1", "end second1"),
+                filterEvents(arc.getEvents(), "1"));
+        arc.close();
+    }
+
+    /**
+     * Get the events of the stores whose message id ends with the given suffix.
+     *
+     * @param events The events.
+     * @param suffix The suffix.
+     * @return The events of the matching stores, in order.
+     */
+    private static List<String> filterEvents(List<String> events, String suffix) {
+        List<String> result = new ArrayList<String>();
+        for (String event : events) {
+            if (event.endsWith(suffix)) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * An ArcRepository recording the stores, where the first store of one file blocks until released.
+     */
+    public class BlockingStoreTestArcRepository extends ArcRepository { // FIXME:MOCK
+
+        /** Counted down when the blocking store has started. */
+        public final CountDownLatch blockedStoreStarted = new CountDownLatch(1);
+        /** Counted down when a store of another file is done. */
+        public final CountDownLatch storeOfOtherFileDone = new CountDownLatch(1);
+        /** Counted down to let the blocking store finish. */
+        public final CountDownLatch releaseStore = new CountDownLatch(1);
+        /** The name of the file whose first store blocks. */
+        private final String blockingFilename;
+        /** The start and end of each store, with the id of its message. */
+        private final List<String> events = new ArrayList<String>();
+
+        public BlockingStoreTestArcRepository(String blockingFilename) {
+            super();
+            this.blockingFilename = blockingFilename;
+        }
+
+        public synchronized List<String> getEvents() {
+            return new ArrayList<String>(events);
+        }
+
+        private synchronized void addEvent(String event) {
+            events.add(event);
+        }
+
+        public void store(RemoteFile rf, StoreMessage replyInfo) {
+            addEvent("start " + replyInfo.getID());
+            if (replyInfo.getArcfileName().equals(blockingFilename)) {
+                if (blockedStoreStarted.getCount() > 0) {
+                    blockedStoreStarted.countDown();
+                    try {
+                        releaseStore.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // Go on
+                    }
+                }
+            }
+            addEvent("end " + replyInfo.getID());
+            if (!replyInfo.getArcfileName().equals(blockingFilename)) {
+                storeOfOtherFileDone.countDown();
+            }
+        }
+    }
+
     public class CountCallsTestArcRepository extends ArcRepository { // FIXME:MOCK
 
         public Map<String, Integer> calls = new HashMap<String, Integer>();
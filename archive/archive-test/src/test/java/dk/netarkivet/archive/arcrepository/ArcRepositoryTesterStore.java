@@ -32,6 +32,9 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Collections;
 import java.util.Map;
 
@@ -858,4 +861,64 @@ public class ArcRepositoryTesterStore {
     }
 
     // TODO: Check that tests are exhaustive, and check more than one BA
+
+    /**
+     * Tests that a checksum reply arriving before its request is registered is processed, as the request is sent
+     * without holding a lock the reply waits for.
+     */
+    @Test
+    public void testChecksumReplyBeforeRequestRegistered() throws Exception {
+        JMSConnectionMockupMQ con = (JMSConnectionMockupMQ) JMSConnectionMockupMQ.getInstance();
+        GenericMessageListener gmlHaco = new GenericMessageListener();
+        con.setListener(Channels.getThisReposClient(), gmlHaco);
+        final String checksum = ChecksumCalculator.calculateMd5(STORABLE_FILE);
+
+        // Set admin state
+        UpdateableAdminData adminData = AdminData.getUpdateableInstance();
+        StoreMessage message = new StoreMessage(Channels.getThisReposClient(), STORABLE_FILE);
+        JMSConnectionMockupMQ.updateMsgID(message, "Store-1");
+        adminData.addEntry(STORABLE_FILE.getName(), message, checksum);
+        for (String replicaId : new String[] {"ONE", "TWO", "THREE"}) {
+            adminData.setState(STORABLE_FILE.getName(), Channels.retrieveReplicaChannelNameFromReplicaId(replicaId),
+                    ReplicaStoreState.UPLOAD_COMPLETED);
+        }
+
+        // Make the replicas reply to checksum requests before the sending returns
+        Field f = ArcRepository.class.getDeclaredField("connectedReplicas");
+        f.setAccessible(true);
+        Map<Replica, ReplicaClient> connectedReplicas = (Map<Replica, ReplicaClient>) f.get(arcRepos);
+        for (Map.Entry<Replica, ReplicaClient> entry : connectedReplicas.entrySet()) {
+            final ReplicaClient client = entry.getValue();
+            entry.setValue((ReplicaClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {ReplicaClient.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            Object result = method.invoke(client, args);
+                            if (result instanceof GetChecksumMessage) {
+                                GetChecksumMessage reply = (GetChecksumMessage) result;
+                                reply.setChecksum(checksum);
+                                reply.setIsReply();
+                                arcRepos.onChecksumReply(reply);
+                            }
+                            return result;
+                        }
+                    }));
+        }
+
+        // Deliver message
+        UploadMessage msg = new UploadMessage(Channels.getAnyBa(), Channels.getTheRepos(),
+                RemoteFileFactory.getInstance(STORABLE_FILE, true, false, true));
+        JMSConnectionMockupMQ.updateMsgID(msg, "Msg-id-0");
+        arcRepos.onUpload(msg);
+        con.waitForConcurrentTasksToFinish();
+
+        // Check expected outcome: reply
+        assertEquals("One message should be replied", 1, gmlHaco.messagesReceived.size());
+        StoreMessage storeMsg = (StoreMessage) gmlHaco.messagesReceived.get(0);
+        MessageAsserts.assertMessageOk("The storeMsg should be okay", storeMsg);
+        // Without the early reply the uploading replica would be left with its data uploaded but unverified
+        assertEquals("Should have expected state", ReplicaStoreState.UPLOAD_COMPLETED,
+                adminData.getEntry(STORABLE_FILE.getName()).getGeneralStoreState().getState());
+    }
+
 }
@@ -31,6 +31,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -221,17 +223,19 @@ public class ArcRepositoryTesterStoreChecksum {
         ad.addEntry(arcFileName, null, correctChecksum);
         ad.setState(arcFileName, ba1Name, ReplicaStoreState.UPLOAD_STARTED);
         ad.setState(arcFileName, ba2Name, ReplicaStoreState.DATA_UPLOADED);
-        Field f = ArcRepository.class.getDeclaredField("outstandingRemoteFiles");
+        Field f = ArcRepository.class.getDeclaredField("outstandingStores");
         f.setAccessible(true);
-        Map<String, RemoteFile> outstandingRemoteFiles = (Map<String, RemoteFile>) f.get(arcRepos);
+        Map<String, ArcRepository.OutstandingStore> outstandingStores = (Map<String, ArcRepository.OutstandingStore>) f
+                .get(arcRepos);
         f = ArcRepository.class.getDeclaredField("connectedReplicas");
         f.setAccessible(true);
         Map<String, BitarchiveClient> connectedBitarchives = (Map<String, BitarchiveClient>) f.get(arcRepos);
         connectedBitarchives.put(ba1Name,
                 BitarchiveClient.getInstance(Channels.getAllBa(), Channels.getAnyBa(), Channels.getTheBamon()));
         // Have to use a real file here, as startUpload will grab the name
-        outstandingRemoteFiles.put(arcFileName, new TestRemoteFile(new File(ORIGINALS_DIR, STORABLE_FILES[1]), false,
-                false, false));
+        RemoteFile rf = new TestRemoteFile(new File(ORIGINALS_DIR, STORABLE_FILES[1]), false, false, false);
+        outstandingStores.put(arcFileName, new ArcRepository.OutstandingStore(rf, null,
+                new ConcurrentHashMap<String, AtomicInteger>()));
         m.invoke(arcRepos, new Object[] {arcFileName, ba1Name, correctChecksum, "wrong checksum", true});
         assertEquals("Wrong checksum should always result in upload failure", ReplicaStoreState.UPLOAD_FAILED,
                 ad.getState(STORABLE_FILES[1], ba1Name));
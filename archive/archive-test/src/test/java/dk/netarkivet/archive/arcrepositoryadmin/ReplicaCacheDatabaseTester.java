@@ -319,6 +319,25 @@ public class ReplicaCacheDatabaseTester {
         return res;
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFileListInformationInSmallBatches() throws Exception {
+        Settings.set(ArchiveSettings.DB_UPDATE_BATCH_SIZE, "1");
+        Replica replica = Replica.getReplicaFromId("ONE");
+
+        cache.addChecksumInformation(makeTemporaryChecksumFile1(), replica);
+        assertEquals("All files in the checksum output should be known", 4, cache.getNumberOfFiles(replica));
+        assertEquals("No files should be missing after the checksum output", 0,
+                cache.getNumberOfMissingFilesInLastUpdate(replica));
+
+        // TEST4 is not in the filelist.
+        cache.addFileListInformation(makeTemporaryFilelistFile(), replica);
+        assertEquals("The file absent from the filelist should be missing", 1,
+                cache.getNumberOfMissingFilesInLastUpdate(replica));
+        List<String> misFiles = IteratorUtils.toList(cache.getMissingFilesInLastUpdate(replica).iterator());
+        assertEquals("Only TEST4 should be missing", "[TEST4]", misFiles.toString());
+    }
+
     private File makeTemporaryFilelistFile() throws Exception {
         File res = new File(TestInfo.TEST_DIR, "filelist.out");
         FileWriter fw = new FileWriter(res);
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.PrintNotifications;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.ZipUtils;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests of the ReplicaFileInfoReconciler, which merges sorted file lists with the replicafileinfo entries of a replica.
+ */
+public class ReplicaFileInfoReconcilerTester {
+
+    private ReloadSettings rs = new ReloadSettings();
+    private MoveTestFiles mtf = new MoveTestFiles(TestInfo.ORIGINALS_DIR, TestInfo.TEST_DIR);
+    private ReplicaCacheDatabase cache;
+    private Replica replica;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        mtf.setUp();
+        Channels.reset();
+        ArchiveDBConnection.cleanup();
+
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance();
+        FileUtils.removeRecursively(TestInfo.DATABASE_DIR);
+        ZipUtils.unzip(TestInfo.DATABASE_FILE, TestInfo.DATABASE_DIR);
+
+        Settings.set(ArchiveSettings.BASEURL_ARCREPOSITORY_ADMIN_DATABASE, TestInfo.DATABASE_URL);
+        Settings.set(ArchiveSettings.MACHINE_ARCREPOSITORY_ADMIN_DATABASE, "");
+        Settings.set(ArchiveSettings.PORT_ARCREPOSITORY_ADMIN_DATABASE, "");
+        Settings.set(ArchiveSettings.DIR_ARCREPOSITORY_ADMIN_DATABASE, "");
+        Settings.set(CommonSettings.NOTIFICATIONS_CLASS, PrintNotifications.class.getName());
+        Settings.set(ArchiveSettings.DB_UPDATE_BATCH_SIZE, "2");
+        ReplicaCacheDatabase.getInstance().cleanup();
+
+        cache = ReplicaCacheDatabase.getInstance();
+        replica = Replica.getReplicaFromId("ONE");
+        // Upper case letters and '_' are ordered before lower case letters by code points, but not by most locales.
+        for (String filename : new String[] {"f.arc", "d.arc", "b.arc", "Z.arc"}) {
+            cache.insertNewFileForUpload(filename, "1234567890");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mtf.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Checks that entries missing from the list and lines unknown to the replica are handled, when they are
+     * interleaved with the found entries across several pages of entries.
+     */
+    @Test
+    public void testInterleavedMissingAndUnknownFiles() throws Exception {
+        File list = makeList("Z.arc", "_x.arc", "a.arc", "b.arc", "b.arc", "c.arc", "f.arc", "g.arc");
+        assertTrue("The list should be reconciled",
+                new ReplicaFileInfoReconciler(replica, 1, 2).reconcileFilelist(list));
+
+        for (String filename : new String[] {"Z.arc", "b.arc", "f.arc"}) {
+            assertEquals("The file " + filename + " should be found", FileListStatus.OK,
+                    cache.getReplicaFileInfo(filename, replica).getFileListState());
+        }
+        for (String filename : new String[] {"_x.arc", "a.arc", "c.arc", "g.arc"}) {
+            assertNotNull("An entry should be created for " + filename, cache.getReplicaFileInfo(filename, replica));
+        }
+        assertEquals("Only d.arc should be missing", FileListStatus.MISSING,
+                cache.getReplicaFileInfo("d.arc", replica).getFileListState());
+        assertEquals("Only d.arc should be missing", 1, cache.getNumberOfMissingFilesInLastUpdate(replica));
+    }
+
+    /**
+     * Checks that a list which is not sorted by code points is rejected before anything is updated.
+     */
+    @Test
+    public void testOutOfOrderList() throws Exception {
+        File list = makeList("a.arc", "c.arc", "b.arc", "Z.arc");
+        assertFalse("The list should not be reconciled",
+                new ReplicaFileInfoReconciler(replica, 1, 2).reconcileFilelist(list));
+
+        assertEquals("No entry should be marked as missing", 0, cache.getNumberOfMissingFilesInLastUpdate(replica));
+        assertNull("No entry should be created for a.arc", cache.getReplicaFileInfo("a.arc", replica));
+        for (String filename : new String[] {"Z.arc", "b.arc", "d.arc", "f.arc"}) {
+            assertFalse("The file " + filename + " should not have been updated",
+                    cache.getReplicaFileInfo(filename, replica).getFileListState() == FileListStatus.OK);
+        }
+    }
+
+    /**
+     * Checks that a list given to the cache is sorted by code points and reconciled.
+     */
+    @Test
+    public void testUnsortedListThroughCache() throws Exception {
+        cache.addFileListInformation(makeList("f.arc", "Z.arc", "b.arc"), replica);
+        assertEquals("Only d.arc should be missing", 1, cache.getNumberOfMissingFilesInLastUpdate(replica));
+        assertEquals(FileListStatus.MISSING, cache.getReplicaFileInfo("d.arc", replica).getFileListState());
+        assertEquals(FileListStatus.OK, cache.getReplicaFileInfo("Z.arc", replica).getFileListState());
+    }
+
+    /**
+     * Checks the ordering of filenames, which follows code points rather than UTF-16 chars.
+     */
+    @Test
+    public void testCompareCodePoints() {
+        assertTrue(ReplicaFileInfoReconciler.compareCodePoints("Z.arc", "a.arc") < 0);
+        assertTrue(ReplicaFileInfoReconciler.compareCodePoints("a.arc", "a.arc.gz") < 0);
+        assertEquals(0, ReplicaFileInfoReconciler.compareCodePoints("a.arc", "a.arc"));
+        // U+FFFD is before U+1F600, but its char is after the surrogate chars of U+1F600.
+        assertTrue(ReplicaFileInfoReconciler.compareCodePoints("\uFFFD", "\uD83D\uDE00") < 0);
+        assertTrue("\uFFFD".compareTo("\uD83D\uDE00") > 0);
+    }
+
+    /**
+     * Write a list of filenames.
+     *
+     * @param filenames The filenames.
+     * @return The file with the list.
+     */
+    private File makeList(String... filenames) throws Exception {
+        File list = new File(TestInfo.TEST_DIR, "filelist.out");
+        FileWriter fw = new FileWriter(list);
+        for (String filename : filenames) {
+            fw.append(filename).append("\n");
+        }
+        fw.close();
+        return list;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the ArchiveFileChannelPool.
+ */
+public class ArchiveFileChannelPoolTester {
+    private File dir;
+    private File[] files = new File[3];
+    private ArchiveFileChannelPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ArchiveFileChannelPoolTester").toFile();
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dir, "file" + i);
+            FileUtils.writeBinaryFile(files[i], ("0123456789-" + i).getBytes());
+        }
+        pool = new ArchiveFileChannelPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        FileUtils.removeRecursively(dir);
+    }
+
+    @Test
+    public void testReadFromOffset() throws IOException {
+        InputStream in = pool.getInputStream(files[1], 5);
+        try {
+            byte[] buffer = new byte[20];
+            int read = in.read(buffer);
+            assertEquals("Should read the rest of the file", "56789-1", new String(buffer, 0, read));
+            assertEquals("Should be at end of file", -1, in.read());
+        } finally {
+            in.close();
+        }
+        assertEquals("Size should be read through the pool", 12L, pool.size(files[1]));
+        assertEquals("Second access should reuse the open file", 1L, pool.getHits());
+        assertEquals("First access should open the file", 1L, pool.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        pool.size(files[0]);
+        pool.size(files[1]);
+        pool.size(files[0]);
+        pool.size(files[2]);
+        assertEquals("Should only keep two files open", 2, pool.getOpenFiles());
+        assertEquals("Should have evicted the least recently used file", 1L, pool.getEvictions());
+        pool.size(files[0]);
+        assertEquals("Recently used file should still be open", 2L, pool.getHits());
+        pool.size(files[1]);
+        assertEquals("Evicted file should be reopened", 4L, pool.getMisses());
+    }
+
+    @Test
+    public void testEvictedChannelReadableUntilClosed() throws IOException {
+        InputStream in = pool.getInputStream(files[0], 0);
+        try {
+            pool.size(files[1]);
+            pool.size(files[2]);
+            assertEquals("Should have evicted the file in use", 1L, pool.getEvictions());
+            assertEquals("Should still read from an evicted file in use", '0', in.read());
+        } finally {
+            in.close();
+        }
+    }
+}
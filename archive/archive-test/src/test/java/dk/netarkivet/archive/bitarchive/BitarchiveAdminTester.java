@@ -33,7 +33,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.junit.After;
@@ -296,6 +298,64 @@ public class BitarchiveAdminTester {
         assertNull("Should return null on non-existing file", file);
     }
 
+    @Test
+    public void testLookupFollowsFileIndex() throws Exception {
+        File newFile = new File(new File(BA_DIR_1, FILEDIR), "file5");
+        newFile.createNewFile();
+        // Make sure the change of the directory is noticed even on file systems with coarse timestamps
+        new File(BA_DIR_1, FILEDIR).setLastModified(System.currentTimeMillis() + 2000L);
+        assertNotNull("Should find file placed directly in the archive dir", ad.lookup("file5"));
+
+        File atticFile = ad.moveToAttic(ad.lookup("file1").getFilePath());
+        assertTrue("File should be in the attic", atticFile.isFile());
+        assertNull("Lookup should fail after moving file to attic", ad.lookup("file1"));
+
+        FileUtils.removeRecursively(BA_DIR_2);
+        ad.reconcileFileIndex();
+        assertNull("Lookup should fail after the archive dir has disappeared", ad.lookup("file3"));
+    }
+
+    /**
+     * Checks that files moved to storage while the filelists are updated are still found. An update that listed the
+     * directory before a move must not remove the moved file from the file index, since lookups only rescan the
+     * directory if its timestamp has changed.
+     */
+    @Test
+    public void testMoveToStorageDuringUpdate() throws Exception {
+        final AtomicBoolean moving = new AtomicBoolean(true);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread updater = new Thread() {
+            public void run() {
+                try {
+                    while (moving.get()) {
+                        ad.updateFileList(BA_DIR_1);
+                        ad.updateFileList(BA_DIR_2);
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }
+        };
+        updater.start();
+        List<String> movedFiles = new ArrayList<String>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                String filename = "moved" + i + ".arc";
+                File tempfile = ad.getTemporaryPath(filename, 1L);
+                FileUtils.writeBinaryFile(tempfile, "abc".getBytes());
+                ad.moveToStorage(tempfile);
+                movedFiles.add(filename);
+            }
+        } finally {
+            moving.set(false);
+            updater.join();
+        }
+        assertTrue("The filelists should be updated without errors: " + errors, errors.isEmpty());
+        for (String filename : movedFiles) {
+            assertNotNull("Should find the file " + filename + " moved to storage", ad.lookup(filename));
+        }
+    }
+
     @Test
     public void testGetInstance() throws Exception {
         ad.close();
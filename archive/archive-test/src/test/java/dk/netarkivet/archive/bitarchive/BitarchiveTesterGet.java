@@ -23,6 +23,7 @@
 package dk.netarkivet.archive.bitarchive;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -32,9 +33,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
@@ -56,6 +59,8 @@ public class BitarchiveTesterGet extends BitarchiveTestCase {
      * The name of the ARC file that we're reading. This file must not exist in the ARCHIVE_DIR directory.
      */
     static final String ARC_FILE_NAME = "Upload2.ARC";
+    /** Another ARC file in the ARCHIVE_DIR directory. */
+    static final String OTHER_ARC_FILE_NAME = "GetTest.ARC";
 
     protected File getOriginalsDir() {
         return ORIGINALS_DIR;
@@ -202,4 +207,28 @@ public class BitarchiveTesterGet extends BitarchiveTestCase {
         assertTrue("File should be deletable",
                 FileUtils.removeRecursively(new File(new File(TestInfo.WORKING_DIR, "filedir"), ARC_FILE_NAME)));
     }
+
+    /**
+     * Test that a file moved to the attic and replaced by an upload under the same name is read from the new file, and
+     * not through a channel kept open for the old file.
+     */
+    @Test
+    public void testGetAfterReplacingFile() {
+        BitarchiveRecord record = archive.get(ARC_FILE_NAME, 0);
+        byte[] oldContents = StreamUtils.inputStreamToBytes(record.getData(), (int) record.getLength());
+        record = archive.get(OTHER_ARC_FILE_NAME, 0);
+        byte[] newContents = StreamUtils.inputStreamToBytes(record.getData(), (int) record.getLength());
+        assertFalse("The two files should start with different records", Arrays.equals(oldContents, newContents));
+
+        File replacement = new File(TestInfo.WORKING_DIR, "replacement.ARC");
+        FileUtils.copyFile(archive.getFile(OTHER_ARC_FILE_NAME), replacement);
+        File atticFile = archive.moveToAttic(archive.getFile(ARC_FILE_NAME));
+        assertTrue("The file should be moved to the attic", atticFile.isFile());
+        archive.upload(RemoteFileFactory.getInstance(replacement, true, false, true), ARC_FILE_NAME);
+
+        record = archive.get(ARC_FILE_NAME, 0);
+        assertNotNull("ARC record should be non-null", record);
+        assertTrue("The record should be read from the replacing file",
+                Arrays.equals(newContents, StreamUtils.inputStreamToBytes(record.getData(), (int) record.getLength())));
+    }
 }
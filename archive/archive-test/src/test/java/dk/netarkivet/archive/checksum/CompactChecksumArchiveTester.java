@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.distribute.RemoteFileFactory;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.TestFileUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Tester class for the CompactChecksumArchive.
+ */
+public class CompactChecksumArchiveTester {
+    CompactChecksumArchive cca;
+    ReloadSettings rs = new ReloadSettings();
+    UseTestRemoteFile utrf = new UseTestRemoteFile();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        utrf.setUp();
+
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        FileUtils.removeRecursively(TestInfo.TMP_DIR);
+
+        TestFileUtils.copyDirectoryNonCVS(TestInfo.ORIGINAL_DIR, TestInfo.WORKING_DIR);
+
+        Settings.set(ArchiveSettings.CHECKSUM_BASEDIR, TestInfo.CHECKSUM_DIR.getAbsolutePath());
+        Settings.set(CommonSettings.USE_REPLICA_ID, "THREE");
+        Settings.set(ArchiveSettings.CHECKSUM_COMPACT_THRESHOLD, "3");
+        cca = CompactChecksumArchive.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        cca.cleanup();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        FileUtils.removeRecursively(TestInfo.TMP_DIR);
+        rs.tearDown();
+        utrf.tearDown();
+    }
+
+    /**
+     * Reopens the archive from its files.
+     */
+    private void reopen() {
+        cca.cleanup();
+        cca = CompactChecksumArchive.getInstance();
+    }
+
+    /**
+     * Checks that uploaded files can be looked up, also after the archive has been reopened.
+     */
+    @Test
+    public void testUploadAndLookup() {
+        assertTrue("The log file should exist", new File(cca.getLogFileName()).isFile());
+        assertTrue("There should be enough space", cca.hasEnoughSpace());
+
+        RemoteFile arcfile1 = RemoteFileFactory.getInstance(TestInfo.UPLOAD_FILE_1, false, false, false);
+        assertFalse("The archive should not already contain TEST1.arc", cca.hasEntry("TEST1.arc"));
+        cca.upload(arcfile1, "TEST1.arc");
+        RemoteFile arcfile2 = RemoteFileFactory.getInstance(TestInfo.UPLOAD_FILE_2, false, false, false);
+        cca.upload(arcfile2, "TEST2.arc");
+
+        assertEquals(TestInfo.TEST1_CHECKSUM, cca.getChecksum("TEST1.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, cca.getChecksum("TEST2.arc"));
+        assertNull("An unknown file should have no checksum", cca.getChecksum("TEST3.arc"));
+
+        reopen();
+        assertTrue("The archive should still contain TEST1.arc", cca.hasEntry("TEST1.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, cca.getChecksum("TEST2.arc"));
+        assertEquals(Arrays.asList("TEST1.arc", "TEST2.arc"), FileUtils.readListFromFile(cca.getAllFilenames()));
+    }
+
+    /**
+     * Checks that the log is merged into the table when it reaches the threshold, and that the entries of the table
+     * and of the log are all found and listed in order.
+     */
+    @Test
+    public void testCompaction() {
+        cca.upload(TestInfo.TEST2_CHECKSUM, "c.arc");
+        cca.upload(TestInfo.TEST1_CHECKSUM, "a.arc");
+        assertEquals("The table should not have been written yet", 0, new File(cca.getTableFileName()).length());
+        cca.upload(TestInfo.TEST1_CHECKSUM.toUpperCase(), "e.arc");
+        assertTrue("The table should have been written", new File(cca.getTableFileName()).length() > 0);
+        assertEquals("The log should have been emptied", 0, new File(cca.getLogFileName()).length());
+
+        cca.upload(TestInfo.TEST2_CHECKSUM, "b.arc");
+        cca.upload(TestInfo.TEST2_CHECKSUM, "\u00e6\u00f8\u00e5.arc");
+        reopen();
+
+        assertEquals("Checksums should be returned in lower case", TestInfo.TEST1_CHECKSUM, cca.getChecksum("e.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, cca.getChecksum("\u00e6\u00f8\u00e5.arc"));
+        assertNull("An unknown file should have no checksum", cca.getChecksum("d.arc"));
+        // The file is UTF-8, so only the ASCII lines are compared, as they are read in the default charset.
+        List<String> lines = FileUtils.readListFromFile(cca.getArchiveAsFile());
+        assertEquals("All entries should be listed", 5, lines.size());
+        assertEquals(Arrays.asList("a.arc##" + TestInfo.TEST1_CHECKSUM, "b.arc##" + TestInfo.TEST2_CHECKSUM, "c.arc##"
+                + TestInfo.TEST2_CHECKSUM, "e.arc##" + TestInfo.TEST1_CHECKSUM), lines.subList(0, 4));
+    }
+
+    /**
+     * Checks that uploading a file again with a different checksum fails.
+     */
+    @Test(expected = IllegalState.class)
+    public void testUploadWithDifferentChecksum() {
+        cca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+        cca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+        cca.upload(TestInfo.TEST2_CHECKSUM, "TEST1.arc");
+    }
+
+    /**
+     * Checks that only MD5 checksums are accepted.
+     */
+    @Test(expected = ArgumentNotValid.class)
+    public void testUploadOfInvalidChecksum() {
+        cca.upload("not a checksum", "TEST1.arc");
+    }
+
+    /**
+     * Checks that a corrected entry replaces the entry in the table, and that the old entry is kept in the wrong entry
+     * file.
+     */
+    @Test
+    public void testCorrect() throws Exception {
+        Settings.set(ArchiveSettings.CHECKSUM_COMPACT_THRESHOLD, "1");
+        reopen();
+        cca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+
+        File removed = cca.correct("TEST1.arc", TestInfo.UPLOAD_FILE_2);
+        assertEquals("The removed entry should be returned", "TEST1.arc##" + TestInfo.TEST1_CHECKSUM,
+                FileUtils.readFile(removed));
+        assertEquals(TestInfo.TEST2_CHECKSUM, cca.getChecksum("TEST1.arc"));
+        assertTrue("The removed entry should be in the wrong entry file", FileUtils.readFile(
+                new File(cca.getWrongEntryFilename())).contains("TEST1.arc##" + TestInfo.TEST1_CHECKSUM));
+
+        reopen();
+        assertEquals(TestInfo.TEST2_CHECKSUM, cca.getChecksum("TEST1.arc"));
+    }
+
+    /**
+     * Checks that the checksum file of a FileChecksumArchive is imported into a new archive. The last entry of a file
+     * is used, and invalid lines are put into the wrong entry file.
+     */
+    @Test
+    public void testImportOfChecksumFile() throws Exception {
+        cca.cleanup();
+        FileUtils.removeRecursively(TestInfo.CHECKSUM_DIR);
+        TestInfo.CHECKSUM_DIR.mkdirs();
+        FileWriter fw = new FileWriter(new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.md5"));
+        fw.write("b.arc##" + TestInfo.TEST1_CHECKSUM + "\n");
+        fw.write("a.arc##" + TestInfo.TEST1_CHECKSUM + "\n");
+        fw.write("invalid line\n");
+        fw.write("b.arc##" + TestInfo.TEST2_CHECKSUM + "\n");
+        fw.write("a!.arc##" + TestInfo.TEST2_CHECKSUM + "\n");
+        fw.close();
+        cca = CompactChecksumArchive.getInstance();
+
+        assertEquals(TestInfo.TEST1_CHECKSUM, cca.getChecksum("a.arc"));
+        assertEquals("The last entry of a file should be used", TestInfo.TEST2_CHECKSUM, cca.getChecksum("b.arc"));
+        assertEquals(Arrays.asList("a!.arc", "a.arc", "b.arc"), FileUtils.readListFromFile(cca.getAllFilenames()));
+        assertTrue("The invalid line should be in the wrong entry file", FileUtils.readFile(
+                new File(cca.getWrongEntryFilename())).contains("invalid line"));
+    }
+
+}
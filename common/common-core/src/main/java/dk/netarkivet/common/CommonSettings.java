@@ -105,6 +105,15 @@ public class CommonSettings {
      */
     public static String BATCH_LOGGING_INTERVAL = "settings.common.batch.loggingInterval";
 
+    /**
+     * <b>settings.common.batch.parallelThreads</b>: <br/>
+     * The maximum number of threads used by a bitarchive to run a batch job over its local files. Files are grouped by
+     * the directory they are stored in, and each group is processed by at most one thread. Only batch jobs which
+     * declare themselves parallelizable are run in parallel. The default value 1 means that all files are processed
+     * in turn on the calling thread.
+     */
+    public static String BATCH_PARALLEL_THREADS = "settings.common.batch.parallelThreads";
+
     /**
      * <b>settings.common.batch.defaultBatchTimeout</b>: <br/>
      * The default timeout for batchjobs. This will be used for batchjobs which has the batchJobTimeout set to -1
@@ -135,8 +144,8 @@ public class CommonSettings {
 
     /**
      * <b>settings.common.unixSort.useCommonTempDir</b>: <br>
-     * When using the Unix sort command, by default it stores temporary files in the system temp dir, but if this
-     * setting is set to true, then it will be configured to use the common temp dir defined by common.settings.tempDir.
+     * When sorting files, by default temporary files are stored in the system temp dir, but if this setting is set to
+     * true, then the common temp dir defined by common.settings.tempDir is used instead.
      * By default the value is false (use system temp), which is the legacy behavior. This setting is part of the fix
      * for Jira issue NAS-1995.
      *
@@ -144,6 +153,22 @@ public class CommonSettings {
      */
     public static String UNIX_SORT_USE_COMMON_TEMP_DIR = "settings.common.unixSort.useCommonTempDir";
 
+    /**
+     * <b>settings.common.sort.memoryBudget</b>: <br>
+     * The number of bytes of lines that the sorting of CDX files and crawl logs may hold in memory at once. Files
+     * larger than this are sorted in runs on disk, which are merged afterwards. The runs are stored in the same
+     * directory as the temporary files of the Unix sort command, see {@link #UNIX_SORT_USE_COMMON_TEMP_DIR}. By
+     * default the value is 67108864 (64 MB).
+     */
+    public static String SORT_MEMORY_BUDGET = "settings.common.sort.memoryBudget";
+
+    /**
+     * <b>settings.common.sort.threads</b>: <br>
+     * The number of threads each sorting of CDX files and crawl logs uses for sorting runs while the input is read. The
+     * memory budget is shared between the runs being sorted and the run being read. By default the value is 2.
+     */
+    public static String SORT_THREADS = "settings.common.sort.threads";
+
     /**
      * <b>settings.common.cacheDir</b>: <br>
      * The name of the directory where cache data global to the entire machine can be stored. Various kinds of caches
@@ -405,6 +430,16 @@ public class CommonSettings {
      */
     public static String BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE = "settings.common.repository.limitForRecordDatatransferInFile";
 
+    /**
+     * <b>settings.common.repository.streamLargeRecords</b>: <br>
+     * If true, records exceeding settings.common.repository.limitForRecordDatatransferInFile are not copied to a
+     * temporary file by the bitarchive. Instead the reply only carries a handle, and the receiver reads the record
+     * directly from the archive file through the HTTP remote file server of the bitarchive. This server is used whatever
+     * the remote file class is, so its port, settings.common.remoteFile.port, must be reachable on the bitarchive
+     * machines.
+     */
+    public static String BITARCHIVE_STREAM_LARGE_RECORDS = "settings.common.repository.streamLargeRecords";
+
     /**
      * <b>settings.common.replicas</b>: <br>
      * The entire settings for all replicas in the environment. NOTE: settings for checksum replicas are not use yet
@@ -77,6 +77,9 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
     /** Files to serve. */
     private final Map<URL, FileInfo> registeredFiles;
 
+    /** Stream sources to serve. */
+    private final Map<URL, RemoteStreamSource> registeredStreams;
+
     /** Instance to create random URLs. */
     private final Random random;
 
@@ -100,6 +103,7 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         port = Settings.getInt(HTTPRemoteFile.HTTPREMOTEFILE_PORT_NUMBER);
         localHostName = SystemUtils.getLocalHostName();
         registeredFiles = Collections.synchronizedMap(new HashMap<URL, FileInfo>());
+        registeredStreams = Collections.synchronizedMap(new HashMap<URL, RemoteStreamSource>());
         random = new Random();
         startServer();
         cleanupHook = new CleanupHook(this);
@@ -161,6 +165,37 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         if (!file.isFile() && file.canRead()) {
             throw new ArgumentNotValid("File '" + file + "' is not a readable file");
         }
+        URL url = newUrl(file.toString());
+        registeredFiles.put(url, new FileInfo(file, deletable));
+        log.debug("Registered file '{}' with URL '{}'", file.getPath(), url);
+        return url;
+    }
+
+    /**
+     * Register a stream source for serving to an endpoint. The source is asked to write its data every time the URL is
+     * requested, until the URL is cleaned up.
+     *
+     * @param source The source of the data.
+     * @return The URL it will be served as. It will be uniquely generated.
+     * @throws ArgumentNotValid on null source.
+     * @throws IOFailure on any trouble registerring the source
+     */
+    public URL registerStream(RemoteStreamSource source) {
+        ArgumentNotValid.checkNotNull(source, "RemoteStreamSource source");
+        URL url = newUrl(source.toString());
+        registeredStreams.put(url, source);
+        log.debug("Registered stream '{}' with URL '{}'", source, url);
+        return url;
+    }
+
+    /**
+     * Generate a random URL, which is not already registered.
+     *
+     * @param description Description of what is registered, for error messages.
+     * @return A new URL.
+     * @throws IOFailure if the URL could not be created.
+     */
+    private synchronized URL newUrl(String description) {
         String path;
         URL url;
         // ensure we get a random and unique URL.
@@ -169,12 +204,10 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
             try {
                 url = new URL(getProtocol(), localHostName, port, path);
             } catch (MalformedURLException e) {
-                throw new IOFailure("Unable to create URL for file '" + file + "'." + " '" + getProtocol() + "', '"
+                throw new IOFailure("Unable to create URL for '" + description + "'." + " '" + getProtocol() + "', '"
                         + localHostName + "', '" + port + "', '" + path + "''", e);
             }
-        } while (registeredFiles.containsKey(url));
-        registeredFiles.put(url, new FileInfo(file, deletable));
-        log.debug("Registered file '{}' with URL '{}'", file.getPath(), url);
+        } while (registeredFiles.containsKey(url) || registeredStreams.containsKey(url));
         return url;
     }
 
@@ -264,6 +297,7 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
             String urlString = httpServletRequest.getRequestURL().toString();
             if (urlString.endsWith(UNREGISTER_URL_POSTFIX)) {
                 URL url = new URL(urlString.substring(0, urlString.length() - UNREGISTER_URL_POSTFIX.length()));
+                registeredStreams.remove(url);
                 FileInfo fileInfo = registeredFiles.remove(url);
                 if (fileInfo != null && fileInfo.deletable && fileInfo.file.exists()) {
                     FileUtils.remove(fileInfo.file);
@@ -274,11 +308,17 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
             } else {
                 URL url = new URL(urlString);
                 FileInfo fileInfo = registeredFiles.get(url);
+                RemoteStreamSource source = registeredStreams.get(url);
                 if (fileInfo != null) {
                     httpServletResponse.setStatus(200);
                     FileUtils.writeFileToStream(fileInfo.file, httpServletResponse.getOutputStream());
                     request.setHandled(true);
                     log.debug("Served file '{}' with URL '{}'", fileInfo.file.getPath(), url);
+                } else if (source != null) {
+                    httpServletResponse.setStatus(200);
+                    source.writeTo(httpServletResponse.getOutputStream());
+                    request.setHandled(true);
+                    log.debug("Served stream '{}' with URL '{}'", source, url);
                 } else {
                     httpServletResponse.sendError(404);
                     log.debug("File not found for URL '{}'", url);
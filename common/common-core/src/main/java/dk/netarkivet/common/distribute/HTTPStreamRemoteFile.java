@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.StreamUtils;
+
+/**
+ * A remote file whose data is written directly from a {@link RemoteStreamSource} into the HTTP response of the
+ * {@link HTTPRemoteFileRegistry}, when the receiver reads it. Nothing is buffered on the sending side, and the receiver
+ * can read the data incrementally with {@link #getInputStream()}.
+ * <p>
+ * The data can only be read once; the registration is removed when the stream is closed.
+ */
+@SuppressWarnings({"serial"})
+public class HTTPStreamRemoteFile implements RemoteFile {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(HTTPStreamRemoteFile.class);
+
+    /** The name of the data. */
+    private final String name;
+    /** The number of bytes written by the source. */
+    private final long size;
+    /** The url that exposes the data, or null if there is no data. */
+    protected final URL url;
+
+    /**
+     * Register the source in the HTTP registry of this machine.
+     *
+     * @param name The name of the data, e.g. the file and offset of a record.
+     * @param size The number of bytes the source writes.
+     * @param source The source of the data.
+     * @throws ArgumentNotValid If name is null or empty, size is negative or source is null.
+     */
+    public HTTPStreamRemoteFile(String name, long size, RemoteStreamSource source) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        ArgumentNotValid.checkNotNegative(size, "long size");
+        ArgumentNotValid.checkNotNull(source, "RemoteStreamSource source");
+        this.name = name;
+        this.size = size;
+        if (size > 0) {
+            this.url = HTTPRemoteFileRegistry.getInstance().registerStream(source);
+        } else {
+            this.url = null;
+        }
+    }
+
+    /**
+     * Get an input stream reading the data from the sending machine. Closing the stream invalidates this remote file.
+     *
+     * @return An input stream for the data.
+     * @throws IOFailure on I/O trouble connecting to the sending machine.
+     */
+    public InputStream getInputStream() {
+        if (url == null) {
+            return new ByteArrayInputStream(new byte[] {});
+        }
+        try {
+            URLConnection urlConnection = HTTPRemoteFileRegistry.getInstance().openConnection(url);
+            urlConnection.setUseCaches(false);
+            return new FilterInputStream(urlConnection.getInputStream()) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        cleanup();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new IOFailure("Unable to get inputstream for '" + name + "' from '" + url + "'", e);
+        }
+    }
+
+    /**
+     * Copy the data to the given file.
+     *
+     * @param destFile The file to write the data to.
+     * @throws ArgumentNotValid on null destFile.
+     * @throws IOFailure on I/O trouble.
+     */
+    public void copyTo(File destFile) {
+        ArgumentNotValid.checkNotNull(destFile, "File destFile");
+        try {
+            OutputStream out = new FileOutputStream(destFile);
+            try {
+                appendTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write '" + name + "' to '" + destFile + "'", e);
+        }
+    }
+
+    /**
+     * Write the data to the given stream, which is not closed.
+     *
+     * @param out The stream to write to.
+     * @throws ArgumentNotValid on null out.
+     * @throws IOFailure on I/O trouble.
+     */
+    public void appendTo(OutputStream out) {
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        StreamUtils.copyInputStreamToOutputStream(getInputStream(), out);
+    }
+
+    /**
+     * Remove the registration of the data on the sending machine. Does not throw exceptions, but warns on errors.
+     */
+    public void cleanup() {
+        if (url == null) {
+            return;
+        }
+        try {
+            HTTPRemoteFileRegistry registry = HTTPRemoteFileRegistry.getInstance();
+            URLConnection urlConnection = registry.openConnection(registry.getCleanupUrl(url));
+            urlConnection.setUseCaches(false);
+            urlConnection.connect();
+            urlConnection.getInputStream().close();
+        } catch (IOException e) {
+            log.warn("Unable to cleanup '{}' with URL '{}'", name, url, e);
+        }
+    }
+
+    /** @return The name of the data. */
+    public String getName() {
+        return name;
+    }
+
+    /** @return null, as checksums are not calculated for streamed data. */
+    public String getChecksum() {
+        return null;
+    }
+
+    /** @return The number of bytes in the data. */
+    public long getSize() {
+        return size;
+    }
+
+}
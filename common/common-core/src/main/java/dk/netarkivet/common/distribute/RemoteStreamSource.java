@@ -0,0 +1,43 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A source of data which is not stored in a file of its own, but is written on request, e.g. a record read directly
+ * from an archive file. Used for serving data through the {@link HTTPRemoteFileRegistry} without copying it to a
+ * temporary file first.
+ */
+public interface RemoteStreamSource {
+
+    /**
+     * Write the data to the given stream. May be called more than once.
+     *
+     * @param out The stream to write to. It should not be closed by this method.
+     * @throws IOException If the data could not be read or written.
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+}
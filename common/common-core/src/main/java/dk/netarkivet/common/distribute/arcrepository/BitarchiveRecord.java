@@ -99,16 +99,7 @@ public class BitarchiveRecord implements Serializable {
         ArgumentNotValid.checkNotNull(filename, "String filename");
         this.fileName = filename;
         this.offset = record.getHeader().getOffset();
-        if (record instanceof ARCRecord) {
-            length = record.getHeader().getLength();
-        } else if (record instanceof WARCRecord) {
-            // The length of the payload of the warc-record is not getLength(),
-            // but getLength minus getContentBegin(), which is the number of
-            // bytes used for the record-header!
-            length = record.getHeader().getLength() - record.getHeader().getContentBegin();
-        } else {
-            throw new ArgumentNotValid("Unknown type of ArchiveRecord");
-        }
+        this.length = getPayloadLength(record);
         if (length > LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER) {
             // copy arc-data to local file and create a RemoteFile based on this
             log.info("Record exceeds limit of {} bytes. Length is {} bytes, Storing as instance of {}",
@@ -141,6 +132,49 @@ public class BitarchiveRecord implements Serializable {
         }
     }
 
+    /**
+     * Creates a BitarchiveRecord whose data is delivered by a RemoteFile, which is typically streamed directly from the
+     * archive file when the data is read.
+     *
+     * @param filename The filename of the ArchiveFile
+     * @param offset The offset of the record in the ArchiveFile
+     * @param length The length of the data
+     * @param data The data of the record
+     * @throws ArgumentNotValid If filename or data is null, or offset or length is negative.
+     */
+    public BitarchiveRecord(String filename, long offset, long length, RemoteFile data) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        ArgumentNotValid.checkNotNegative(length, "long length");
+        ArgumentNotValid.checkNotNull(data, "RemoteFile data");
+        this.fileName = filename;
+        this.offset = offset;
+        this.length = length;
+        this.objectAsRemoteFile = data;
+        this.isStoredAsRemoteFile = true;
+    }
+
+    /**
+     * Calculate the length of the data of an ArchiveRecord, as it is delivered by a BitarchiveRecord.
+     *
+     * @param record An ARCRecord or WARCRecord.
+     * @return The length of the payload of the record.
+     * @throws ArgumentNotValid If the record is neither an ARCRecord nor a WARCRecord.
+     */
+    public static long getPayloadLength(ArchiveRecord record) {
+        ArgumentNotValid.checkNotNull(record, "ArchiveRecord record");
+        if (record instanceof ARCRecord) {
+            return record.getHeader().getLength();
+        } else if (record instanceof WARCRecord) {
+            // The length of the payload of the warc-record is not getLength(),
+            // but getLength minus getContentBegin(), which is the number of
+            // bytes used for the record-header!
+            return record.getHeader().getLength() - record.getHeader().getContentBegin();
+        } else {
+            throw new ArgumentNotValid("Unknown type of ArchiveRecord");
+        }
+    }
+
     /**
      * Returns the file that this information was loaded from.
      *
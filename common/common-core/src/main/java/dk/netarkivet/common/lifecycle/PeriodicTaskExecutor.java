@@ -178,7 +178,7 @@ public final class PeriodicTaskExecutor {
     }
 
     /**
-     * Shuts down the executor, attempting to stop any ongoing task execution.
+     * Shuts down the executor, attempting to stop any ongoing task execution, and releases its threads.
      */
     public void shutdown() {
         alive = false;
@@ -186,6 +186,7 @@ public final class PeriodicTaskExecutor {
         for (PeriodicTask t : tasks) {
             t.future.cancel(true);
         }
+        exec.shutdown();
     }
 
 }
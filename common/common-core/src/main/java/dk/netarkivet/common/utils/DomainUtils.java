@@ -22,8 +22,6 @@
  */
 package dk.netarkivet.common.utils;
 
-import java.util.regex.Matcher;
-
 import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 
@@ -48,7 +46,8 @@ public final class DomainUtils {
      */
     public static boolean isValidDomainName(String domainName) {
         ArgumentNotValid.checkNotNull(domainName, "String domainName");
-        return TLD.getInstance().getValidDomainMatcher().matcher(domainName).matches();      
+        return TLD.getInstance().getSuffixTrie().isDomain(domainName)
+                || Constants.IP_KEY_REGEXP.matcher(domainName).matches();
     }
 
     /**
@@ -67,9 +66,9 @@ public final class DomainUtils {
         String result = hostname;
         // IP addresses are kept as-is, others are trimmed down.
         if (!Constants.IP_KEY_REGEXP.matcher(hostname).matches()) {
-            Matcher matcher = TLD.getInstance().getHostnamePattern().matcher(hostname);
-            if (matcher.matches()) {
-                result = matcher.group(2);
+            int domainStart = TLD.getInstance().getSuffixTrie().domainStart(hostname);
+            if (domainStart >= 0) {
+                result = hostname.substring(domainStart);
             }
         }
         if (isValidDomainName(result)) {
@@ -0,0 +1,740 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Sorts text files by lines inside the JVM, giving the same result as the Unix sort command run with LANG=C.
+ * <p>
+ * The input is read in chunks that fit in a part of the memory budget. Each chunk is sorted in memory and written to a
+ * temporary run file by a pool of threads, while the next chunk is read. The runs are then merged in one pass, or in
+ * several if there are more runs than can be merged at once. If the whole input fits in the first chunk, no temporary
+ * files are written at all.
+ * <p>
+ * Lines are separated by '\n' only. They are handled as ISO-8859-1, which maps every byte to the character with the
+ * same value, so the lines are written back byte for byte and comparing characters is comparing unsigned bytes like
+ * sort does in the C locale. A missing newline after the last line is added, as sort does.
+ */
+public class ExternalSorter {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ExternalSorter.class);
+
+    /** Orders whole lines by their bytes. This is the order of sort without options, used for CDX files. */
+    public static final Comparator<String> LINE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String line1, String line2) {
+            return line1.compareTo(line2);
+        }
+    };
+
+    /**
+     * Orders crawl.log lines by the part from the fourth field to the end of the line, ignoring leading blanks, and by
+     * the whole line when those parts are equal. This is the order of sort -k 4b, i.e. by URL.
+     */
+    public static final Comparator<String> CRAWL_LOG_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String line1, String line2) {
+            int result = compareFrom(line1, keyStart(line1, 3), line2, keyStart(line2, 3));
+            return result != 0 ? result : line1.compareTo(line2);
+        }
+    };
+
+    /** The estimated memory used by a line besides its characters: the String, its array and the reference to it. */
+    private static final int LINE_OVERHEAD = 64;
+
+    /** The largest number of runs merged at once. */
+    private static final int MAX_MERGE_FAN_IN = 64;
+
+    /** The size of the buffers used for reading and writing files. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The order to sort in. */
+    private final Comparator<String> comparator;
+
+    /** The memory in bytes that the lines held in memory may use. */
+    private final long memoryBudget;
+
+    /** The number of threads sorting chunks. */
+    private final int threads;
+
+    /** The directory for the temporary run files, or null for the default temporary-file directory. */
+    private final File tempDir;
+
+    /**
+     * Create a sorter.
+     *
+     * @param comparator The order to sort in, e.g. {@link #LINE_ORDER} or {@link #CRAWL_LOG_ORDER}.
+     * @param memoryBudget The memory in bytes that the lines held in memory may use. Must be positive.
+     * @param threads The number of threads sorting chunks. Must be positive.
+     * @param tempDir The directory for temporary files, or null for the default temporary-file directory.
+     * @throws ArgumentNotValid If the comparator is null, or the budget or the number of threads is not positive.
+     */
+    public ExternalSorter(Comparator<String> comparator, long memoryBudget, int threads, File tempDir) {
+        ArgumentNotValid.checkNotNull(comparator, "Comparator<String> comparator");
+        ArgumentNotValid.checkPositive(memoryBudget, "long memoryBudget");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.threads = threads;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Create a sorter using the memory budget and number of threads given by the settings
+     * {@link CommonSettings#SORT_MEMORY_BUDGET} and {@link CommonSettings#SORT_THREADS}.
+     *
+     * @param comparator The order to sort in.
+     * @param tempDir The directory for temporary files, or null for the default temporary-file directory.
+     * @return A new sorter.
+     */
+    public static ExternalSorter fromSettings(Comparator<String> comparator, File tempDir) {
+        return new ExternalSorter(comparator, Settings.getLong(CommonSettings.SORT_MEMORY_BUDGET),
+                Settings.getInt(CommonSettings.SORT_THREADS), tempDir);
+    }
+
+    /**
+     * Sort the lines of some files into one file.
+     *
+     * @param inputs The files to sort.
+     * @param output The file to write the sorted lines to. May be one of the inputs.
+     * @throws IOFailure If the files cannot be read or written.
+     */
+    public void sort(List<File> inputs, File output) {
+        ArgumentNotValid.checkNotNull(output, "File output");
+        writeAndClose(openSorted(inputs), output);
+    }
+
+    /**
+     * Merge files that are each sorted already into one sorted file, like sort -m.
+     *
+     * @param sortedInputs The sorted files.
+     * @param output The file to write the merged lines to. Must not be one of the inputs.
+     * @throws IOFailure If the files cannot be read or written.
+     */
+    public void merge(List<File> sortedInputs, File output) {
+        ArgumentNotValid.checkNotNull(sortedInputs, "List<File> sortedInputs");
+        ArgumentNotValid.checkNotNull(output, "File output");
+        List<LineSource> sources = new ArrayList<LineSource>();
+        LineSource merged;
+        try {
+            for (File input : sortedInputs) {
+                sources.add(new FileLineSource(input, false));
+            }
+            merged = new MergingLineSource(sources, comparator);
+        } catch (IOException e) {
+            closeAll(sources);
+            throw new IOFailure("Could not open the files to merge into '" + output + "'", e);
+        }
+        writeAndClose(merged, output);
+    }
+
+    /**
+     * Sort the lines of some files and stream the result. Nothing is written to the output file system other than
+     * temporary runs, which are removed when the stream is closed. This lets the sorted lines be read directly, e.g.
+     * by a CDX or crawl.log reader, without a sorted copy on disk.
+     *
+     * @param inputs The files to sort.
+     * @return A stream of the sorted lines, each ended by '\n'. Must be closed after use.
+     * @throws IOFailure If the files cannot be read or the runs cannot be written.
+     */
+    public InputStream openSortedStream(List<File> inputs) {
+        return new LineSourceInputStream(openSorted(inputs));
+    }
+
+    /**
+     * Sort the lines of some files into sorted runs and open a merge of them.
+     *
+     * @param inputs The files to sort.
+     * @return The sorted lines.
+     * @throws IOFailure If the files cannot be read or the runs cannot be written.
+     */
+    private LineSource openSorted(List<File> inputs) {
+        ArgumentNotValid.checkNotNull(inputs, "List<File> inputs");
+        // One chunk is read while the others are sorted, so the budget is shared by one more chunk than threads.
+        final long chunkBudget = Math.max(1, memoryBudget / (threads + 1));
+        final List<File> runs = new ArrayList<File>();
+        final List<Future<File>> pendingRuns = new ArrayList<Future<File>>();
+        ExecutorService executor = null;
+        boolean success = false;
+        try {
+            List<String> chunk = new ArrayList<String>();
+            long chunkSize = 0;
+            for (File input : inputs) {
+                FileLineSource source = new FileLineSource(input, false);
+                try {
+                    String line;
+                    while ((line = source.readLine()) != null) {
+                        chunk.add(line);
+                        chunkSize += 2L * line.length() + LINE_OVERHEAD;
+                        if (chunkSize >= chunkBudget) {
+                            if (executor == null) {
+                                executor = Executors.newFixedThreadPool(threads);
+                            }
+                            // Wait for the oldest chunk when all threads are busy, to stay within the budget.
+                            if (pendingRuns.size() >= threads) {
+                                runs.add(pendingRuns.remove(0).get());
+                            }
+                            pendingRuns.add(executor.submit(new RunWriter(chunk)));
+                            chunk = new ArrayList<String>();
+                            chunkSize = 0;
+                        }
+                    }
+                } finally {
+                    source.close();
+                }
+            }
+            for (Future<File> pendingRun : pendingRuns) {
+                runs.add(pendingRun.get());
+            }
+            pendingRuns.clear();
+
+            List<LineSource> sources = new ArrayList<LineSource>();
+            if (!chunk.isEmpty()) {
+                // The last chunk is merged directly from memory.
+                String[] lines = chunk.toArray(new String[chunk.size()]);
+                Arrays.sort(lines, comparator);
+                sources.add(new ArrayLineSource(lines));
+            }
+            LineSource result = mergeRuns(runs, sources);
+            success = true;
+            return result;
+        } catch (IOException e) {
+            throw new IOFailure("Could not sort " + inputs, e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Could not sort " + inputs, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while sorting " + inputs, e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (!success) {
+                for (Future<File> pendingRun : pendingRuns) {
+                    try {
+                        FileUtils.remove(pendingRun.get());
+                    } catch (Exception e) {
+                        log.debug("Unable to remove a run of a failed sort", e);
+                    }
+                }
+                for (File run : runs) {
+                    FileUtils.remove(run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge runs, reducing their number with intermediate merges to at most {@link #MAX_MERGE_FAN_IN} open files.
+     *
+     * @param runs Sorted temporary files. They are removed when the returned source is closed. Runs made by
+     * intermediate merges are added to the list, so the caller can remove all of them if this method fails.
+     * @param sources Sorted sources to merge with the runs.
+     * @return The merged lines.
+     * @throws IOException If the runs cannot be read or written.
+     */
+    private LineSource mergeRuns(List<File> runs, List<LineSource> sources) throws IOException {
+        List<File> remaining = new ArrayList<File>(runs);
+        try {
+            while (remaining.size() + sources.size() > MAX_MERGE_FAN_IN) {
+                List<File> batch = new ArrayList<File>(remaining.subList(0, MAX_MERGE_FAN_IN));
+                remaining.subList(0, MAX_MERGE_FAN_IN).clear();
+                File merged = createRunFile();
+                runs.add(merged);
+                remaining.add(merged);
+                List<LineSource> batchSources = new ArrayList<LineSource>();
+                try {
+                    for (File run : batch) {
+                        batchSources.add(new FileLineSource(run, true));
+                    }
+                    write(new MergingLineSource(batchSources, comparator), merged);
+                } finally {
+                    closeAll(batchSources);
+                }
+            }
+            for (File run : remaining) {
+                sources.add(new FileLineSource(run, true));
+            }
+            log.debug("Merging {} sorted runs", sources.size());
+            return new MergingLineSource(sources, comparator);
+        } catch (IOException e) {
+            closeAll(sources);
+            throw e;
+        }
+    }
+
+    /**
+     * @return A new empty temporary file for a run.
+     * @throws IOException If the file cannot be created.
+     */
+    private File createRunFile() throws IOException {
+        File run = File.createTempFile("sortrun", ".tmp", tempDir);
+        run.deleteOnExit();
+        return run;
+    }
+
+    /**
+     * Write lines to a file and close the source, also on failure.
+     *
+     * @param source The lines to write.
+     * @param output The file to write to.
+     * @throws IOFailure If the lines cannot be read or written.
+     */
+    private static void writeAndClose(LineSource source, File output) {
+        try {
+            write(source, output);
+        } catch (IOException e) {
+            closeAll(Collections.singletonList(source));
+            throw new IOFailure("Could not write sorted lines to '" + output + "'", e);
+        }
+    }
+
+    /**
+     * Write lines to a file, each ended by '\n', and close the source.
+     *
+     * @param source The lines to write.
+     * @param output The file to write to.
+     * @throws IOException If the lines cannot be read or written.
+     */
+    private static void write(LineSource source, File output) throws IOException {
+        try (Writer writer = openWriter(new FileOutputStream(output))) {
+            String line;
+            while ((line = source.readLine()) != null) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        source.close();
+    }
+
+    /**
+     * @param out The stream to write to.
+     * @return A buffered writer writing each character as one byte.
+     */
+    private static Writer openWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(new BufferedOutputStream(out, BUFFER_SIZE),
+                StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+    }
+
+    /**
+     * Close sources, logging rather than throwing failures, as this is done while handling another failure.
+     *
+     * @param sources The sources to close.
+     */
+    private static void closeAll(List<LineSource> sources) {
+        for (LineSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.debug("Unable to close a sort source", e);
+            }
+        }
+    }
+
+    /**
+     * Find where a sort key starts, the way sort finds it for a key starting with a field and having the b option.
+     * Fields are separated by the empty string between a non-blank and a blank character, so each field includes the
+     * blanks preceding it.
+     *
+     * @param line A line.
+     * @param fieldsToSkip The number of fields before the key, i.e. the key field number minus one.
+     * @return The index of the first non-blank character of the key field, or the length of the line if there is none.
+     */
+    static int keyStart(String line, int fieldsToSkip) {
+        int length = line.length();
+        int i = 0;
+        for (int field = 0; field < fieldsToSkip; field++) {
+            while (i < length && isBlank(line.charAt(i))) {
+                i++;
+            }
+            while (i < length && !isBlank(line.charAt(i))) {
+                i++;
+            }
+        }
+        while (i < length && isBlank(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param c A character.
+     * @return true if the character is blank in the C locale, i.e. a space or a tab.
+     */
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Compare the ends of two strings character by character.
+     *
+     * @param s1 The first string.
+     * @param start1 Where to start comparing in the first string.
+     * @param s2 The second string.
+     * @param start2 Where to start comparing in the second string.
+     * @return A negative number, zero or a positive number as the end of the first string is less than, equal to or
+     * greater than the end of the second string.
+     */
+    private static int compareFrom(String s1, int start1, String s2, int start2) {
+        int length1 = s1.length() - start1;
+        int length2 = s2.length() - start2;
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            char c1 = s1.charAt(start1 + i);
+            char c2 = s2.charAt(start2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /** Sorts a chunk of lines and writes them to a new run file. */
+    private final class RunWriter implements Callable<File> {
+        /** The lines to sort. */
+        private final List<String> chunk;
+
+        /**
+         * @param chunk The lines to sort. Must not be modified afterwards.
+         */
+        private RunWriter(List<String> chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public File call() throws IOException {
+            String[] lines = chunk.toArray(new String[chunk.size()]);
+            chunk.clear();
+            Arrays.sort(lines, comparator);
+            File run = createRunFile();
+            try {
+                write(new ArrayLineSource(lines), run);
+            } catch (IOException e) {
+                FileUtils.remove(run);
+                throw e;
+            }
+            return run;
+        }
+    }
+
+    /** A source of lines. */
+    private interface LineSource extends Closeable {
+        /**
+         * @return The next line without its line separator, or null if there are no more lines.
+         * @throws IOException If the line cannot be read.
+         */
+        String readLine() throws IOException;
+    }
+
+    /** Lines held in memory. */
+    private static final class ArrayLineSource implements LineSource {
+        /** The lines. */
+        private final String[] lines;
+        /** The index of the next line. */
+        private int next;
+
+        /**
+         * @param lines The lines.
+         */
+        private ArrayLineSource(String[] lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public String readLine() {
+            if (next == lines.length) {
+                return null;
+            }
+            String line = lines[next];
+            // Let the line be collected as soon as it is written.
+            lines[next++] = null;
+            return line;
+        }
+
+        @Override
+        public void close() {
+            next = lines.length;
+        }
+    }
+
+    /** Lines read from a file, separated by '\n'. */
+    private static final class FileLineSource implements LineSource {
+        /** The file. */
+        private final File file;
+        /** Whether to remove the file when closed. */
+        private final boolean removeOnClose;
+        /** The stream of the file. */
+        private final InputStream in;
+        /** The bytes read from the stream. */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        /** The index of the next unused byte in the buffer. */
+        private int position;
+        /** The number of bytes read into the buffer. */
+        private int limit;
+        /** The bytes of the line being read, when it spans more than one buffer. */
+        private byte[] pending = new byte[256];
+
+        /**
+         * @param file The file to read.
+         * @param removeOnClose Whether to remove the file when closed.
+         * @throws IOException If the file cannot be opened.
+         */
+        private FileLineSource(File file, boolean removeOnClose) throws IOException {
+            this.file = file;
+            this.removeOnClose = removeOnClose;
+            this.in = new FileInputStream(file);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            int pendingLength = 0;
+            boolean readAny = false;
+            while (true) {
+                if (position == limit) {
+                    int read = in.read(buffer, 0, buffer.length);
+                    if (read <= 0) {
+                        return readAny ? new String(pending, 0, pendingLength, StandardCharsets.ISO_8859_1) : null;
+                    }
+                    position = 0;
+                    limit = read;
+                }
+                readAny = true;
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                if (position < limit) {
+                    String line;
+                    if (pendingLength == 0) {
+                        line = new String(buffer, start, position - start, StandardCharsets.ISO_8859_1);
+                    } else {
+                        pendingLength = appendPending(start, pendingLength);
+                        line = new String(pending, 0, pendingLength, StandardCharsets.ISO_8859_1);
+                    }
+                    position++;
+                    return line;
+                }
+                pendingLength = appendPending(start, pendingLength);
+            }
+        }
+
+        /**
+         * Append the bytes of the buffer from start to the current position to the pending bytes.
+         *
+         * @param start The first byte to append.
+         * @param pendingLength The number of pending bytes.
+         * @return The new number of pending bytes.
+         */
+        private int appendPending(int start, int pendingLength) {
+            int length = position - start;
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+            }
+            System.arraycopy(buffer, start, pending, pendingLength, length);
+            return pendingLength + length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (removeOnClose) {
+                    FileUtils.remove(file);
+                }
+            }
+        }
+    }
+
+    /** A k-way merge of sorted sources. */
+    private static final class MergingLineSource implements LineSource {
+        /** The sources. */
+        private final List<LineSource> sources;
+        /** The sources that have more lines, ordered by their current line. */
+        private final PriorityQueue<Cursor> queue;
+
+        /**
+         * @param sources The sorted sources. They are closed when this source is closed.
+         * @param comparator The order the sources are sorted in.
+         * @throws IOException If the first line of a source cannot be read.
+         */
+        private MergingLineSource(List<LineSource> sources, final Comparator<String> comparator) throws IOException {
+            this.sources = sources;
+            this.queue = new PriorityQueue<Cursor>(Math.max(1, sources.size()), new Comparator<Cursor>() {
+                @Override
+                public int compare(Cursor cursor1, Cursor cursor2) {
+                    return comparator.compare(cursor1.line, cursor2.line);
+                }
+            });
+            for (LineSource source : sources) {
+                String line = source.readLine();
+                if (line != null) {
+                    queue.add(new Cursor(source, line));
+                }
+            }
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            Cursor cursor = queue.poll();
+            if (cursor == null) {
+                return null;
+            }
+            String line = cursor.line;
+            cursor.line = cursor.source.readLine();
+            if (cursor.line != null) {
+                queue.add(cursor);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue.clear();
+            IOException failure = null;
+            for (LineSource source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /** A source and its current line. */
+        private static final class Cursor {
+            /** The source. */
+            private final LineSource source;
+            /** The current line of the source. */
+            private String line;
+
+            /**
+             * @param source The source.
+             * @param line The current line of the source.
+             */
+            private Cursor(LineSource source, String line) {
+                this.source = source;
+                this.line = line;
+            }
+        }
+    }
+
+    /** The lines of a source as bytes, each line ended by '\n'. */
+    private static final class LineSourceInputStream extends InputStream {
+        /** The lines. */
+        private final LineSource source;
+        /** The bytes of the current line. */
+        private byte[] bytes = new byte[0];
+        /** The index of the next byte to return. */
+        private int position;
+        /** Whether the source has no more lines. */
+        private boolean exhausted;
+
+        /**
+         * @param source The lines. It is closed when this stream is closed.
+         */
+        private LineSourceInputStream(LineSource source) {
+            this.source = source;
+        }
+
+        /**
+         * Make sure there are bytes to return, unless the source is exhausted.
+         *
+         * @return true if there are bytes to return.
+         * @throws IOException If the next line cannot be read.
+         */
+        private boolean fill() throws IOException {
+            while (position == bytes.length && !exhausted) {
+                String line = source.readLine();
+                if (line == null) {
+                    exhausted = true;
+                } else {
+                    bytes = (line + '\n').getBytes(StandardCharsets.ISO_8859_1);
+                    position = 0;
+                }
+            }
+            return position < bytes.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < len && fill()) {
+                int n = Math.min(len - count, bytes.length - position);
+                System.arraycopy(bytes, position, b, off + count, n);
+                position += n;
+                count += n;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            exhausted = true;
+            source.close();
+        }
+    }
+
+}
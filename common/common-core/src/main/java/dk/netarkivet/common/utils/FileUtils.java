@@ -40,6 +40,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -934,33 +935,10 @@ public class FileUtils {
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
      */
     public static void sortCrawlLog(File file, File toFile) {
-        ArgumentNotValid.checkNotNull(file, "File file");
-        ArgumentNotValid.checkNotNull(toFile, "File toFile");
-        if (!file.exists()) {
-            String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = true;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        sortLines(file, toFile, ExternalSorter.CRAWL_LOG_ORDER, "crawl log");
     }
 
     /**
@@ -968,77 +946,103 @@ public class FileUtils {
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
      */
     public static void sortCrawlLogOnTimestamp(File file, File toFile) {
-        ArgumentNotValid.checkNotNull(file, "File file");
-        ArgumentNotValid.checkNotNull(toFile, "File toFile");
-        if (!file.exists()) {
-            String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = false;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        sortLines(file, toFile, ExternalSorter.LINE_ORDER, "crawl log");
     }
 
     /**
-     * Sort a CDX file according to our standard for CDX file sorting. This method depends on the Unix sort() command.
+     * Sort a CDX file according to our standard for CDX file sorting. The lines are sorted like the Unix sort command
+     * does with LANG=C, see {@link ExternalSorter}.
      *
      * @param file The raw unsorted CDX file.
      * @param toFile The file that the result will be put into.
      * @throws IOFailure If the file does not exist, or could not be sorted
      */
     public static void sortCDX(File file, File toFile) {
-        ArgumentNotValid.checkNotNull(file, "File file");
+        sortLines(file, toFile, ExternalSorter.LINE_ORDER, "cdx file");
+    }
+
+    /**
+     * Sort a file by whole lines, like the Unix sort command does with LANG=C.
+     *
+     * @param file the file that you want to sort.
+     * @param toFile The destination file.
+     */
+    public static void sortFile(File file, File toFile) {
+        sortCDX(file, toFile);
+    }
+
+    /**
+     * Sort a file and stream the sorted lines, without writing a sorted copy of the file. Temporary files needed to sort
+     * large files are removed when the stream is closed.
+     *
+     * @param file The file containing the unsorted data.
+     * @param crawlLogOrder Whether to sort like {@link #sortCrawlLog(File, File)} rather than by whole lines.
+     * @return A stream of the sorted lines. Must be closed after use.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
+     */
+    public static InputStream openSortedStream(File file, boolean crawlLogOrder) {
+        checkSortInput(file);
+        Comparator<String> order = crawlLogOrder ? ExternalSorter.CRAWL_LOG_ORDER : ExternalSorter.LINE_ORDER;
+        ExternalSorter sorter = ExternalSorter.fromSettings(order, getSortTempDir());
+        return sorter.openSortedStream(Collections.singletonList(file));
+    }
+
+    /**
+     * Sort the lines of a file into another file.
+     *
+     * @param file The file containing the unsorted data.
+     * @param toFile The file that the sorted data can be put into.
+     * @param order The order to sort the lines in.
+     * @param description What the file contains, used in error messages.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
+     */
+    private static void sortLines(File file, File toFile, Comparator<String> order, String description) {
         ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        checkSortInput(file);
+        try {
+            ExternalSorter.fromSettings(order, getSortTempDir()).sort(Collections.singletonList(file), toFile);
+        } catch (IOFailure e) {
+            final String errMsg = "Error sorting " + description + " '" + file.getAbsolutePath() + "'";
+            log.warn(errMsg, e);
+            throw new IOFailure(errMsg, e);
+        }
+    }
+
+    /**
+     * Check that a file to sort exists.
+     *
+     * @param file The file to sort.
+     * @throws IOFailure if the file does not exist.
+     */
+    private static void checkSortInput(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
         if (!file.exists()) {
             String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
             log.warn(errMsg);
             throw new IOFailure(errMsg);
         }
-        boolean sortLikeCrawllog = false;
+    }
+
+    /**
+     * Get the directory for the temporary files of a sort, as chosen by
+     * {@link CommonSettings#UNIX_SORT_USE_COMMON_TEMP_DIR}.
+     *
+     * @return The common temp dir, or null for the system temp dir.
+     */
+    private static File getSortTempDir() {
         File sortTempDir = null;
         if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
             sortTempDir = FileUtils.getTempDir();
             if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
+                log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist",
+                        sortTempDir.getAbsolutePath());
+                sortTempDir = null;
             }
-
         }
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting cdx file '" + file.getAbsolutePath() + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-    }
-
-    /**
-     * Sort a file using UNIX sort.
-     *
-     * @param file the file that you want to sort.
-     * @param toFile The destination file.
-     */
-    public static void sortFile(File file, File toFile) {
-        sortCDX(file, toFile);
+        return sortTempDir;
     }
 
     /**
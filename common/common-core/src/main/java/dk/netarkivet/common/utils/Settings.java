@@ -27,6 +27,8 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,11 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * specified by the system property {@link #SETTINGS_FILE_PROPERTY}, multiple files can be separated by
  * {@link File#pathSeparator}, that is ':' on linux and ';' on windows; or if that property is not set, the default
  * location is {@link #DEFAULT_SETTINGS_FILEPATH}.
+ * <p>
+ * Settings found in the XML files are cached, so only the first lookup of a key evaluates XPaths over the settings
+ * files, and later lookups, including the parsing done by the typed getters, cost a hash lookup without locking. The
+ * cache is discarded whenever the settings change through {@link #reload()}, {@link #set(String, String...)} or
+ * {@link #addDefaultClasspathSettings(String)}. System properties are checked on every lookup and are never cached.
  */
 public class Settings {
 
@@ -61,8 +68,15 @@ public class Settings {
      */
     private static final List<SimpleXml> defaultClasspathSettingsXmlList;
 
+    /**
+     * The settings looked up in the XML files since they last changed, including keys that were not found. Replaced by
+     * an empty map whenever the settings change, so lookups never need to lock.
+     */
+    private static volatile ConcurrentMap<String, CachedSetting> cachedSettings;
+
     static {
         // All static initialization in one place
+        cachedSettings = new ConcurrentHashMap<String, CachedSetting>();
         fileSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
         defaultClasspathSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
         // Perform an initial loading of the settings.
@@ -130,7 +144,37 @@ public class Settings {
         if (val != null) {
             return val;
         }
+        return getCachedSetting(key).getValue(key);
+    }
+
+    /**
+     * Get the cached setting for a key, looking it up in the XML files if it has not been looked up since the settings
+     * last changed.
+     *
+     * @param key name of the setting to retrieve
+     * @return the cached setting, which may represent a key that is not in the settings
+     */
+    private static CachedSetting getCachedSetting(String key) {
+        // Keep the map we look in, so a lookup racing with a change of settings ends up in the discarded map.
+        ConcurrentMap<String, CachedSetting> settings = cachedSettings;
+        CachedSetting setting = settings.get(key);
+        if (setting == null) {
+            setting = new CachedSetting(lookupString(key));
+            CachedSetting existing = settings.putIfAbsent(key, setting);
+            if (existing != null) {
+                setting = existing;
+            }
+        }
+        return setting;
+    }
 
+    /**
+     * Look a setting up in the loaded settings xml files, and then in the default settings files from classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved value, or null if no settings file has the key
+     */
+    private static String lookupString(String key) {
         // Key not in System.properties try loaded data instead
         synchronized (fileSettingsXmlList) {
             for (SimpleXml settingsXml : fileSettingsXmlList) {
@@ -148,11 +192,12 @@ public class Settings {
                 }
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return null;
     }
 
     /**
-     * Gets a setting as an int. This method calls get(key) and then parses the value as integer.
+     * Gets a setting as an int. This method looks the value up like get(key) and parses it as integer. Values from the
+     * settings files are only parsed once.
      *
      * @param key name of the setting to retrieve
      * @return the retrieved int
@@ -160,7 +205,23 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static int getInt(String key) throws UnknownID, ArgumentNotValid {
-        String value = get(key);
+        ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        String value = System.getProperty(key);
+        if (value == null) {
+            return getCachedSetting(key).getInt(key);
+        }
+        return parseInt(key, value);
+    }
+
+    /**
+     * Parse the value of a setting as an int.
+     *
+     * @param key name of the setting
+     * @param value the value of the setting
+     * @return the parsed int
+     * @throws ArgumentNotValid if the value is not parseable as an integer
+     */
+    private static int parseInt(String key, String value) throws ArgumentNotValid {
         try {
             return Integer.parseInt(value);
         } catch (NumberFormatException e) {
@@ -171,7 +232,8 @@ public class Settings {
     }
 
     /**
-     * Gets a setting as a long. This method calls get(key) and then parses the value as a long.
+     * Gets a setting as a long. This method looks the value up like get(key) and parses it as a long. Values from the
+     * settings files are only parsed once.
      *
      * @param key name of the setting to retrieve
      * @return the retrieved long
@@ -179,7 +241,23 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static long getLong(String key) throws UnknownID, ArgumentNotValid {
-        String value = get(key);
+        ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        String value = System.getProperty(key);
+        if (value == null) {
+            return getCachedSetting(key).getLong(key);
+        }
+        return parseLong(key, value);
+    }
+
+    /**
+     * Parse the value of a setting as a long.
+     *
+     * @param key name of the setting
+     * @param value the value of the setting
+     * @return the parsed long
+     * @throws ArgumentNotValid if the value is not parseable as a long
+     */
+    private static long parseLong(String key, String value) throws ArgumentNotValid {
         try {
             return Long.parseLong(value);
         } catch (NumberFormatException e) {
@@ -189,7 +267,8 @@ public class Settings {
     }
 
     /**
-     * Gets a setting as a double. This method calls get(key) and then parses the value as a double.
+     * Gets a setting as a double. This method looks the value up like get(key) and parses it as a double. Values from
+     * the settings files are only parsed once.
      *
      * @param key name of the setting to retrieve
      * @return the retrieved double
@@ -197,7 +276,23 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static double getDouble(String key) throws UnknownID, ArgumentNotValid {
-        String value = get(key);
+        ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        String value = System.getProperty(key);
+        if (value == null) {
+            return getCachedSetting(key).getDouble(key);
+        }
+        return parseDouble(key, value);
+    }
+
+    /**
+     * Parse the value of a setting as a double.
+     *
+     * @param key name of the setting
+     * @param value the value of the setting
+     * @return the parsed double
+     * @throws ArgumentNotValid if the value is not parseable as a double
+     */
+    private static double parseDouble(String key, String value) throws ArgumentNotValid {
         try {
             return Double.parseDouble(value);
         } catch (NumberFormatException e) {
@@ -221,7 +316,8 @@ public class Settings {
     }
 
     /**
-     * Gets a setting as a boolean. This method calls get(key) and then parses the value as a boolean.
+     * Gets a setting as a boolean. This method looks the value up like get(key) and parses it as a boolean. Values from
+     * the settings files are only parsed once.
      *
      * @param key name of the setting to retrieve
      * @return the retrieved boolean
@@ -230,7 +326,10 @@ public class Settings {
      */
     public static boolean getBoolean(String key) throws UnknownID, ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
-        String value = get(key);
+        String value = System.getProperty(key);
+        if (value == null) {
+            return getCachedSetting(key).getBoolean(key);
+        }
         return Boolean.parseBoolean(value);
     }
 
@@ -254,6 +353,18 @@ public class Settings {
         if (val != null) {
             return new String[] {val};
         }
+        return getCachedSetting(key).getValues(key);
+    }
+
+    /**
+     * Look a list of settings up in the loaded settings xml files, and then in the default settings files from
+     * classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved values (as a non-empty String array)
+     * @throws UnknownID if no setting loaded matches key
+     */
+    private static String[] lookupAll(String key) throws UnknownID {
         if (fileSettingsXmlList.isEmpty()) {
             System.out.print("The list of loaded data settings is empty. Is this OK?");
         }
@@ -311,11 +422,13 @@ public class Settings {
         } else {
             simpleXml.add(key, values);
         }
+        cachedSettings = new ConcurrentHashMap<String, CachedSetting>();
     }
 
     /**
      * Reloads the settings. This will reload the settings from disk, and forget all settings that were set with
-     * {@link #set}
+     * {@link #set} and all cached lookups. Call this after changing the settings files or the
+     * {@link #SETTINGS_FILE_PROPERTY} property for the changes to take effect.
      * <p>
      * The field {@link #lastModified} is updated to timestamp of the settings file that has been changed most recently.
      *
@@ -339,6 +452,7 @@ public class Settings {
             fileSettingsXmlList.clear();
             fileSettingsXmlList.addAll(simpleXmlList);
         }
+        cachedSettings = new ConcurrentHashMap<String, CachedSetting>();
     }
 
     /**
@@ -352,6 +466,7 @@ public class Settings {
                 .getResourceAsStream(defaultClasspathSettingsPath);
         if (stream != null) {
             defaultClasspathSettingsXmlList.add(new SimpleXml(stream));
+            cachedSettings = new ConcurrentHashMap<String, CachedSetting>();
         } else {
             log.warn("Unable to read the settings file represented by path: '{}'", defaultClasspathSettingsPath);
         }
@@ -384,4 +499,74 @@ public class Settings {
         throw new UnknownID("No match for key '" + path + "' in settings");
     }
 
+    /**
+     * A setting looked up in the XML files, with the parsed forms of its value computed on first use. The parsed forms
+     * are immutable objects, so a race between two threads computing one just computes it twice.
+     */
+    private static final class CachedSetting {
+        /** The value of the setting, or null if no settings file has the key. */
+        private final String value;
+        private volatile String[] values;
+        private Integer intValue;
+        private Long longValue;
+        private Double doubleValue;
+        private Boolean booleanValue;
+
+        private CachedSetting(String value) {
+            this.value = value;
+        }
+
+        private String getValue(String key) throws UnknownID {
+            if (value == null) {
+                throw new UnknownID("No match for key '" + key + "' in settings");
+            }
+            return value;
+        }
+
+        private String[] getValues(String key) throws UnknownID {
+            String[] result = values;
+            if (result == null) {
+                result = lookupAll(key);
+                values = result;
+            }
+            return result.clone();
+        }
+
+        private int getInt(String key) throws UnknownID, ArgumentNotValid {
+            Integer result = intValue;
+            if (result == null) {
+                result = parseInt(key, getValue(key));
+                intValue = result;
+            }
+            return result;
+        }
+
+        private long getLong(String key) throws UnknownID, ArgumentNotValid {
+            Long result = longValue;
+            if (result == null) {
+                result = parseLong(key, getValue(key));
+                longValue = result;
+            }
+            return result;
+        }
+
+        private double getDouble(String key) throws UnknownID, ArgumentNotValid {
+            Double result = doubleValue;
+            if (result == null) {
+                result = parseDouble(key, getValue(key));
+                doubleValue = result;
+            }
+            return result;
+        }
+
+        private boolean getBoolean(String key) throws UnknownID {
+            Boolean result = booleanValue;
+            if (result == null) {
+                result = Boolean.parseBoolean(getValue(key));
+                booleanValue = result;
+            }
+            return result;
+        }
+    }
+
 }
@@ -35,17 +35,21 @@ public class TLD {
 	
 	/**
      * A regular expression matching hostnames, and remembering the hostname in group 1 and the domain in group 2.
+     * Compiled on first use, since it is an alternation over all TLDs and is no longer used for domain lookups.
      */
-    private final Pattern HOSTNAME_REGEX; 
+    private Pattern HOSTNAME_REGEX; 
     
     /** A string for a regexp recognising a TLD  */
     private final String TLD_REGEX_STRING; 
 	
     /**
      * Regexp for matching a valid domain, that is a single domain-name part followed by a TLD from settings, or an IP
-     * address.
+     * address. Compiled on first use.
      */
-    private final Pattern VALID_DOMAIN_MATCHER;
+    private Pattern VALID_DOMAIN_MATCHER;
+
+    /** All TLDs stored back to front, used by {@link DomainUtils} to find and validate domains. */
+    private final TldSuffixTrie suffixTrie;
 
     /**
      * GetInstance method for the TLD. Ensures singleton usage of the TLD class.
@@ -76,7 +80,7 @@ public class TLD {
 	
 	/**
 	 * Private constructor of the TLD class. This constructor reads the TLDs from both settings and public suffix file.
-	 * both quoted and unquoted. Sets the TLD_REGEX_STRING,HOSTNAME_REGEX, and  VALID_DOMAIN_MATCHER.
+	 * both quoted and unquoted. Sets the TLD_REGEX_STRING and the suffix trie.
 	 */
 	private TLD() {
 		tldListQuoted = readTldsFromPublicSuffixFile(true);
@@ -86,10 +90,11 @@ public class TLD {
 		tldList.addAll(readTldsFromSettings(false));
 
 		TLD_REGEX_STRING = "\\.(" + StringUtils.conjoin("|", tldListQuoted) + ")";
-		HOSTNAME_REGEX = Pattern.compile("^(|.*?\\.)(" + DOMAINNAME_CHAR_REGEX_STRING + "+"
-	            + TLD_REGEX_STRING + ")");
-		VALID_DOMAIN_MATCHER = Pattern.compile("^(" + Constants.IP_REGEX_STRING + "|"
-	    		+ DOMAINNAME_CHAR_REGEX_STRING + "+" + TLD_REGEX_STRING + ")$");
+
+		suffixTrie = new TldSuffixTrie();
+		for (String tld : tldList) {
+			suffixTrie.add(tld);
+		}
 	}
 	
 	/**
@@ -188,7 +193,11 @@ public class TLD {
 	/**
      * @return the VALID_DOMAIN_MATCHER pattern.
      */
-	public Pattern getValidDomainMatcher() {
+	public synchronized Pattern getValidDomainMatcher() {
+		if (VALID_DOMAIN_MATCHER == null) {
+			VALID_DOMAIN_MATCHER = Pattern.compile("^(" + Constants.IP_REGEX_STRING + "|"
+		    		+ DOMAINNAME_CHAR_REGEX_STRING + "+" + TLD_REGEX_STRING + ")$");
+		}
 		return VALID_DOMAIN_MATCHER;
 	}
 
@@ -196,9 +205,20 @@ public class TLD {
 	 * 
 	 * @return the HOSTNAME_REGEX pattern.
 	 */
-	public Pattern getHostnamePattern() {
+	public synchronized Pattern getHostnamePattern() {
+		if (HOSTNAME_REGEX == null) {
+			HOSTNAME_REGEX = Pattern.compile("^(|.*?\\.)(" + DOMAINNAME_CHAR_REGEX_STRING + "+"
+		            + TLD_REGEX_STRING + ")");
+		}
 		return HOSTNAME_REGEX;
 	}
+
+	/**
+	 * @return the trie of all TLDs, which gives the same results as the patterns without regular expressions.
+	 */
+	TldSuffixTrie getSuffixTrie() {
+		return suffixTrie;
+	}
 	
 	/**
 	 * GetAllTlds method.
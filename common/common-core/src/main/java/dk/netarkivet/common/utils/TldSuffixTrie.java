@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.util.Arrays;
+
+/**
+ * A trie of TLDs stored back to front, used to find the domain of a hostname without regular expressions.
+ * <p>
+ * A hostname is walked once from its last character towards its first, following the trie. Every time the walk has
+ * consumed a whole TLD that is preceded by a dot, the label in front of that dot is a candidate domain name part. The
+ * longest TLD with a valid label in front of it gives the domain, which is what the hostname regular expression of
+ * {@link TLD} matches. Lookups allocate nothing.
+ * <p>
+ * The trie is filled while the TLDs are read and is only read afterwards, so it is safe for concurrent lookups once
+ * published.
+ */
+final class TldSuffixTrie {
+
+    /** A node of the trie. The children are kept sorted by character for binary search. */
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        /** Whether the characters on the path to this node, read backwards, form a TLD. */
+        private boolean terminal;
+
+        private Node getChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        private Node getOrAddChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newKeys[i] = c;
+            Node child = new Node();
+            newChildren[i] = child;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    /** The root, representing the empty suffix. */
+    private final Node root = new Node();
+
+    /** The number of distinct TLDs added. */
+    private int size;
+
+    /**
+     * Add a TLD.
+     *
+     * @param tld A TLD without leading dot, e.g. "dk" or "co.uk".
+     */
+    void add(String tld) {
+        Node node = root;
+        for (int i = tld.length() - 1; i >= 0; i--) {
+            node = node.getOrAddChild(tld.charAt(i));
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            size++;
+        }
+    }
+
+    /**
+     * @return The number of distinct TLDs in the trie.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find where the domain of a hostname starts. The domain is the longest suffix of the hostname consisting of one
+     * domain name part, a dot and a TLD, where the domain name part starts the hostname or follows a dot.
+     *
+     * @param hostname A hostname, e.g. "news.bbc.co.uk".
+     * @return The index of the domain in the hostname, e.g. 5 for "bbc.co.uk", or -1 if the hostname has no domain.
+     */
+    int domainStart(String hostname) {
+        int domainStart = -1;
+        Node node = root;
+        for (int i = hostname.length() - 1; i > 0; i--) {
+            node = node.getChild(hostname.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.terminal && hostname.charAt(i - 1) == '.') {
+                int labelStart = labelStart(hostname, i - 1);
+                if (labelStart >= 0) {
+                    domainStart = labelStart;
+                }
+            }
+        }
+        // The regular expression matches anything but line terminators in front of the domain.
+        for (int i = 0; i < domainStart; i++) {
+            if (isLineTerminator(hostname.charAt(i))) {
+                return -1;
+            }
+        }
+        return domainStart;
+    }
+
+    /**
+     * Check whether a name is a domain, that is one domain name part followed by a dot and a TLD.
+     *
+     * @param name A name, e.g. "bbc.co.uk".
+     * @return true if the name is a domain.
+     */
+    boolean isDomain(String name) {
+        int dot = name.indexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        for (int i = 0; i < dot; i++) {
+            if (!isDomainNameChar(name.charAt(i))) {
+                return false;
+            }
+        }
+        Node node = root;
+        for (int i = name.length() - 1; i > dot; i--) {
+            node = node.getChild(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    /**
+     * Find the start of the domain name part that ends right before a dot.
+     *
+     * @param hostname A hostname.
+     * @param dot The index of the dot ending the part.
+     * @return The index of the first character of the part, or -1 if the part is empty or has characters that are not
+     * allowed in domain names.
+     */
+    private static int labelStart(String hostname, int dot) {
+        int start = dot;
+        while (start > 0 && hostname.charAt(start - 1) != '.') {
+            if (!isDomainNameChar(hostname.charAt(start - 1))) {
+                return -1;
+            }
+            start--;
+        }
+        return start == dot ? -1 : start;
+    }
+
+    /**
+     * Check whether a character is allowed in a domain name part. This is the character class of
+     * {@link DomainUtils#DOMAINNAME_CHAR_REGEX_STRING}: letters, digits and hyphen in ASCII, and anything outside ASCII.
+     *
+     * @param c A character.
+     * @return true if the character is allowed.
+     */
+    static boolean isDomainNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c > '\u007f';
+    }
+
+    /**
+     * @param c A character.
+     * @return true if the character is a line terminator, which "." does not match in a regular expression.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A batch job that extracts metadata like {@link GetMetadataArchiveBatchJob}, but tells which archive file each piece of
+ * output comes from. This allows one batch job to extract metadata for many jobs at a time.
+ * <p>
+ * The output is a sequence of frames. Each frame is a header line with the name of the archive file, a space and the
+ * number of bytes of data, terminated by a newline and encoded in UTF-8, followed by that many bytes of data. A record
+ * may be split over several frames, and frames for the same file follow each other. Since frames are self-contained,
+ * the output of several bitarchives can be concatenated.
+ */
+@SuppressWarnings({"serial"})
+public class GetFramedMetadataArchiveBatchJob extends ArchiveBatchJob {
+
+    /** The encoding of frame headers. */
+    public static final Charset HEADER_CHARSET = Charset.forName("UTF-8");
+
+    /** The pattern for matching the urls. */
+    private final Pattern urlMatcher;
+    /** The pattern for the mimetype matcher. */
+    private final Pattern mimeMatcher;
+
+    /**
+     * Constructor.
+     *
+     * @param urlMatcher A pattern for matching URLs of the desired entries.
+     * @param mimeMatcher A pattern for matching mime-types of the desired entries.
+     * <p>
+     * The batchJobTimeout is set to one day.
+     */
+    public GetFramedMetadataArchiveBatchJob(Pattern urlMatcher, Pattern mimeMatcher) {
+        this.urlMatcher = urlMatcher;
+        this.mimeMatcher = mimeMatcher;
+
+        batchJobTimeout = Constants.ONE_DAY_IN_MILLIES;
+    }
+
+    /**
+     * Initialize method. Run before the arc-records are being processed. Currently does nothing.
+     *
+     * @param os The output stream to print any pre-processing data.
+     */
+    @Override
+    public void initialize(OutputStream os) {
+    }
+
+    /**
+     * Write the body of a matching record as frames.
+     *
+     * @param record The arc-record to process.
+     * @param os The output stream to write the results of the processing.
+     * @throws IOFailure In an IOException is caught during handling of the arc record.
+     */
+    @Override
+    public void processRecord(ArchiveRecordBase record, OutputStream os) throws IOFailure {
+        ArchiveHeaderBase header = record.getHeader();
+        InputStream in = record.getInputStream();
+
+        if (header.getUrl() == null) {
+            return;
+        }
+        if (urlMatcher.matcher(header.getUrl()).matches() && mimeMatcher.matcher(header.getMimetype()).matches()) {
+            String filename = header.getArchiveFile().getName();
+            try {
+                byte[] buf = new byte[Constants.IO_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buf)) != -1) {
+                    if (bytesRead > 0) {
+                        os.write((filename + " " + bytesRead + "\n").getBytes(HEADER_CHARSET));
+                        os.write(buf, 0, bytesRead);
+                    }
+                }
+            } catch (IOException e) {
+                String message = "Error writing body of Archive entry '" + header.getArchiveFile() + "' offset '"
+                        + header.getOffset() + "'";
+                throw new IOFailure(message, e);
+            }
+        }
+
+        try {
+            in.close();
+        } catch (IOException e) {
+            String message = "Error closing Archive input stream";
+            throw new IOFailure(message, e);
+        }
+    }
+
+    /**
+     * Method for post-processing the data. Currently does nothing.
+     *
+     * @param os The output stream to write the results of the post-processing data.
+     */
+    @Override
+    public void finish(OutputStream os) {
+    }
+
+    /**
+     * Humanly readable description of this instance.
+     *
+     * @return The human readable description of this instance.
+     */
+    @Override
+    public String toString() {
+        return getClass().getName() + ", with arguments: URLMatcher = " + urlMatcher + ", mimeMatcher = " + mimeMatcher;
+    }
+
+}
@@ -23,10 +23,26 @@
 
 package dk.netarkivet.common.utils.batch;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,11 +50,18 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.BatchTermination;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 
 /**
  * Class for running FileBatchJobs on a set of local files. The constructor takes an array of files to be processed and
  * the run() method takes a FileBatchJob and applies it to each file in turn.
+ * <p>
+ * If the job is parallelizable (see {@link FileBatchJob#isParallelizable()}) and the setting
+ * {@link CommonSettings#BATCH_PARALLEL_THREADS} is larger than 1, the files are instead grouped by the directory they
+ * are stored in, and each group is processed by one worker thread writing to its own output segment. The segments are
+ * concatenated in order to the real output stream before the job is finished.
  */
 public class BatchLocalFiles {
 
@@ -82,37 +105,15 @@ public class BatchLocalFiles {
         job.filesFailed = new HashSet<File>();
         try {
             job.initialize(os);
-            // count the files (used for logging).
-            int fileCount = 0;
             // the time in milliseconds between the status logging
             long logInterval = Settings.getLong(CommonSettings.BATCH_LOGGING_INTERVAL);
             // get the time for starting the batchjob (used for logging).
             startTime = new Date().getTime();
-            // Process each file:
-            for (File file : files) {
-                fileCount++;
-                if (job.getFilenamePattern().matcher(file.getName()).matches()) {
-                    long currentTime = new Date().getTime();
-                    // perform logging if necessary.
-                    if (lastLoggingDate + logInterval < currentTime) {
-                        log.info(
-                                "The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
-                                job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileCount,
-                                files.length);
-                        // set that we have just logged.
-                        lastLoggingDate = currentTime;
-                    }
-                    processFile(job, file, os);
-                }
-
-                // check whether the batchjob should stop.
-                if (Thread.currentThread().isInterrupted()) {
-                    // log and throw an error (not exception, they are caught!)
-                    String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
-                    log.warn(errMsg);
-                    // TODO make new exception to thrown instead.
-                    throw new BatchTermination(errMsg);
-                }
+            int maxThreads = Settings.getInt(CommonSettings.BATCH_PARALLEL_THREADS);
+            if (maxThreads > 1 && job.isParallelizable()) {
+                runParallel(job, os, logInterval, maxThreads);
+            } else {
+                runSequential(job, os, logInterval);
             }
         } catch (Exception e) {
             // TODO Consider adding this initialization exception to the list
@@ -142,6 +143,178 @@ public class BatchLocalFiles {
         }
     }
 
+    /**
+     * Process the files one at a time on the calling thread.
+     *
+     * @param job The job that does the processing
+     * @param os Where to put the output.
+     * @param logInterval The time in milliseconds between status logging.
+     */
+    private void runSequential(FileBatchJob job, OutputStream os, long logInterval) {
+        // count the files (used for logging).
+        int fileCount = 0;
+        // Process each file:
+        for (File file : files) {
+            fileCount++;
+            if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                logProgress(job, file, fileCount, logInterval);
+                processFile(job, file, os);
+            }
+            checkInterrupted(job);
+        }
+    }
+
+    /**
+     * Process the files in parallel. The matching files are grouped by their parent directory, and each group is
+     * processed in turn by one worker thread, so a storage directory is only read by one thread at a time. Each group
+     * writes to a temporary segment file, and the segments are written to the given OutputStream in the order the
+     * groups were first seen in the file list. Output offsets in exceptions recorded by the job are moved to match the
+     * concatenated output.
+     *
+     * @param job The job that does the processing
+     * @param os Where to put the output.
+     * @param logInterval The time in milliseconds between status logging.
+     * @param maxThreads The maximum number of worker threads.
+     * @throws IOException If the segments could not be created or copied to the output.
+     */
+    private void runParallel(final FileBatchJob job, OutputStream os, final long logInterval, int maxThreads)
+            throws IOException {
+        Map<File, List<File>> groups = new LinkedHashMap<File, List<File>>();
+        for (File file : files) {
+            if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                File dir = file.getAbsoluteFile().getParentFile();
+                List<File> group = groups.get(dir);
+                if (group == null) {
+                    group = new ArrayList<File>();
+                    groups.put(dir, group);
+                }
+                group.add(file);
+            }
+        }
+        if (groups.size() < 2) {
+            runSequential(job, os, logInterval);
+            return;
+        }
+        int noOfThreads = Math.min(maxThreads, groups.size());
+        log.info("Running batchjob '{}' on {} directories using {} threads", job.getClass(), groups.size(),
+                noOfThreads);
+
+        job.exceptions = Collections.synchronizedList(job.exceptions);
+        final AtomicInteger fileCount = new AtomicInteger(0);
+        List<File> segments = new ArrayList<File>();
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+        try {
+            for (final List<File> group : groups.values()) {
+                final File segment = File.createTempFile("BatchSegment", "", FileUtils.getTempDir());
+                segments.add(segment);
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        OutputStream segmentOs = new BufferedOutputStream(new FileOutputStream(segment));
+                        try {
+                            for (File file : group) {
+                                logProgress(job, file, fileCount.incrementAndGet(), logInterval);
+                                processFile(job, file, segmentOs);
+                                checkInterrupted(job);
+                            }
+                        } finally {
+                            segmentOs.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                waitFor(job, result);
+            }
+
+            // Concatenate the segments, remembering where the output of each file starts.
+            Map<String, Long> outputBase = new HashMap<String, Long>();
+            long written = 0;
+            int i = 0;
+            for (List<File> group : groups.values()) {
+                File segment = segments.get(i++);
+                for (File file : group) {
+                    outputBase.put(file.getName(), written);
+                }
+                Files.copy(segment.toPath(), os);
+                written += segment.length();
+            }
+            List<FileBatchJob.ExceptionOccurrence> moved = new ArrayList<FileBatchJob.ExceptionOccurrence>();
+            for (FileBatchJob.ExceptionOccurrence occurrence : job.exceptions) {
+                Long base = occurrence.getFileName() == null ? null : outputBase.get(occurrence.getFileName());
+                moved.add(base == null ? occurrence : occurrence.withOutputOffsetMovedBy(base));
+            }
+            job.exceptions = moved;
+        } finally {
+            executor.shutdownNow();
+            for (File segment : segments) {
+                FileUtils.remove(segment);
+            }
+        }
+    }
+
+    /**
+     * Wait for a worker to complete. If the waiting thread is interrupted, the batch job is terminated.
+     *
+     * @param job The job being run.
+     * @param result The result of the worker.
+     * @throws IOException If the worker failed writing its output segment.
+     */
+    private void waitFor(FileBatchJob job, Future<Void> result) throws IOException {
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            throw new BatchTermination(errMsg, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BatchTermination) {
+                throw (BatchTermination) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOFailure("Worker of batchjob '" + job.toString() + "' failed", cause);
+        }
+    }
+
+    /**
+     * Log the progress of the job, if more than the logging interval has passed since last time.
+     *
+     * @param job The job being run.
+     * @param file The file which is about to be processed.
+     * @param fileCount The number of the file.
+     * @param logInterval The time in milliseconds between status logging.
+     */
+    private synchronized void logProgress(FileBatchJob job, File file, int fileCount, long logInterval) {
+        long currentTime = new Date().getTime();
+        // perform logging if necessary.
+        if (lastLoggingDate + logInterval < currentTime) {
+            log.info("The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
+                    job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileCount, files.length);
+            // set that we have just logged.
+            lastLoggingDate = currentTime;
+        }
+    }
+
+    /**
+     * Check whether the batchjob should stop.
+     *
+     * @param job The job being run.
+     * @throws BatchTermination If the current thread has been interrupted.
+     */
+    private void checkInterrupted(FileBatchJob job) throws BatchTermination {
+        if (Thread.currentThread().isInterrupted()) {
+            // log and throw an error (not exception, they are caught!)
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            // TODO make new exception to thrown instead.
+            throw new BatchTermination(errMsg);
+        }
+    }
+
     /**
      * Process a single file.
      *
@@ -160,9 +333,11 @@ public class BatchLocalFiles {
             // job.addException(currentFile, currentOffset, outputOffset, e)
             log.warn("Exception while processing file {} with job {}", file, job, e);
         }
-        job.noOfFilesProcessed++;
-        if (!success) {
-            job.filesFailed.add(file);
+        synchronized (job) {
+            job.noOfFilesProcessed++;
+            if (!success) {
+                job.filesFailed.add(file);
+            }
         }
     }
 
@@ -141,6 +141,17 @@ public class ChecksumJob extends FileBatchJob {
                 + "; Files  failed = " + noOfFailedFiles + "]");
     }
 
+    /**
+     * A ChecksumJob keeps no state between files, so files can be processed in parallel.
+     *
+     * @return true
+     * @see FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * Invoke default method for deserializing object, and reinitialise the logger.
      *
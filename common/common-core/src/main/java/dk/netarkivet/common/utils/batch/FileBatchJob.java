@@ -283,6 +283,18 @@ public abstract class FileBatchJob implements Serializable {
         return exceptions.size() >= ExceptionOccurrence.MAX_EXCEPTIONS;
     }
 
+    /**
+     * Tells whether processFile() of this job may be called concurrently from several threads, each thread writing to
+     * its own OutputStream. Jobs that keep state between files, or that write to other destinations than the given
+     * OutputStream, must not override this. initialize() and finish() are always called from a single thread.
+     *
+     * @return true if the job can be run in parallel over several files; false by default.
+     * @see BatchLocalFiles#run(FileBatchJob, OutputStream)
+     */
+    public boolean isParallelizable() {
+        return false;
+    }
+
     /**
      * Override predefined timeout period for batchjob.
      *
@@ -370,6 +382,41 @@ public abstract class FileBatchJob implements Serializable {
             this.exception = exception;
         }
 
+        /**
+         * Create a copy of this ExceptionOccurrence with the output offset moved by the given amount. Used when the
+         * output of a batch job has been written to several segments, which are concatenated afterwards.
+         *
+         * @param delta The number of bytes to add to the output offset.
+         * @return A new ExceptionOccurrence, or this object if the output offset is unknown.
+         */
+        ExceptionOccurrence withOutputOffsetMovedBy(long delta) {
+            if (outputOffset == UNKNOWN_OFFSET || delta == 0) {
+                return this;
+            }
+            return new ExceptionOccurrence(fileName, fileOffset, outputOffset + delta, exception, inInitialize,
+                    inFinish);
+        }
+
+        /**
+         * Constructor setting all fields directly.
+         *
+         * @param fileName The name of the file that caused the exception, or null.
+         * @param fileOffset The offset in the file.
+         * @param outputOffset The offset in the output stream.
+         * @param exception The exception thrown.
+         * @param inInitialize True if the exception happened in initialize().
+         * @param inFinish True if the exception happened in finish().
+         */
+        private ExceptionOccurrence(String fileName, long fileOffset, long outputOffset, Exception exception,
+                boolean inInitialize, boolean inFinish) {
+            this.fileName = fileName;
+            this.fileOffset = fileOffset;
+            this.outputOffset = outputOffset;
+            this.exception = exception;
+            this.inInitialize = inInitialize;
+            this.inFinish = inFinish;
+        }
+
         /**
          * Get the name of the file that this exception occurred in.
          *
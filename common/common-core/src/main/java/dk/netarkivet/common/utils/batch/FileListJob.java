@@ -56,6 +56,17 @@ public class FileListJob extends FileBatchJob {
     public void initialize(OutputStream os) {
     }
 
+    /**
+     * A FileListJob keeps no state between files, so files can be processed in parallel.
+     *
+     * @return true
+     * @see FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * Invoke default method for deserializing object, and reinitialise the logger.
      *
@@ -23,9 +23,12 @@
 package dk.netarkivet.common.utils.cdx;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
 
 import org.jwat.common.ByteCountingPushBackInputStream;
 import org.jwat.common.ContentType;
@@ -47,6 +50,11 @@ import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
  * A CDX file contains sorted lines of metadata from the ARC/WARC files, with each line followed by the file and offset
  * the record was found at, and optionally a checksum. The timeout of this job is 7 days. See
  * http://www.archive.org/web/researcher/cdx_file_format.php
+ * <p>
+ * The fields of each line are written straight into a buffer that is reused for all records. The checksum is the MD5
+ * of the payload of the record. If a WARC record already carries an MD5 payload or block digest, that digest is used
+ * and the payload is not read at all. Otherwise, the MD5 is calculated with a digest and read buffer that are also
+ * reused for all records.
  */
 @SuppressWarnings({"serial", "unused"})
 public class ArchiveExtractCDXJob extends ArchiveBatchJob {
@@ -60,12 +68,39 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     /** An encoding for the standard included metadata fields with checksum. */
     private static final String[] STD_FIELDS_INCL_CHECKSUM = {"A", "e", "b", "m", "n", "g", "v", "c"};
 
+    /** The WARC header field with the digest of the payload of a record. */
+    private static final String WARC_PAYLOAD_DIGEST = "WARC-Payload-Digest";
+
+    /** The WARC header field with the digest of the whole block of a record. */
+    private static final String WARC_BLOCK_DIGEST = "WARC-Block-Digest";
+
+    /** The hexadecimal digits used for writing checksums. */
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(Charset.forName("US-ASCII"));
+
+    /** The UTF-8 charset the CDX lines are written in. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     /** The fields to be included in CDX output. */
     private String[] fields;
 
     /** True if we put an MD5 in each CDX line as well. */
     private boolean includeChecksum;
 
+    /** True if MD5 digests found in WARC headers are used instead of calculating the checksum. */
+    private boolean useRecordDigests = true;
+
+    /** The buffer each CDX line is built in. */
+    private transient byte[] line;
+
+    /** The number of bytes of the current CDX line in the buffer. */
+    private transient int lineLength;
+
+    /** The digest used for calculating checksums. */
+    private transient MessageDigest md5;
+
+    /** The buffer used for reading payloads when calculating checksums. */
+    private transient byte[] readBuffer;
+
     /**
      * Constructs a new job for extracting CDX indexes.
      *
@@ -84,6 +119,16 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
         this(true);
     }
 
+    /**
+     * Decide whether MD5 digests found in WARC headers are used as checksums. This is the default. If not, the checksum
+     * of every record is calculated from its payload.
+     *
+     * @param useRecordDigests True if digests from WARC headers are used.
+     */
+    public void setUseRecordDigests(boolean useRecordDigests) {
+        this.useRecordDigests = useRecordDigests;
+    }
+
     /**
      * Filters out the NON-RESPONSE records.
      *
@@ -96,12 +141,18 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     }
 
     /**
-     * Initialize any data needed (none).
+     * Initialize the buffers and the digest reused for all records.
      *
      * @see dk.netarkivet.common.utils.archive.ArchiveBatchJob#initialize(OutputStream)
      */
     @Override
     public void initialize(OutputStream os) {
+        line = new byte[1024];
+        lineLength = 0;
+        if (includeChecksum) {
+            md5 = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+            readBuffer = new byte[Constants.IO_BUFFER_SIZE];
+        }
     }
 
     /**
@@ -113,17 +164,10 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     @Override
     public void processRecord(ArchiveRecordBase record, OutputStream os) {
         log.trace("Processing Archive Record with offset: {}", record.getHeader().getOffset());
-        /*
-         * Fields are stored in a map so that it's easy to pull them out when looking at the fieldarray.
-         */
+        if (line == null) {
+            initialize(os);
+        }
         ArchiveHeaderBase header = record.getHeader();
-        Map<String, String> fieldsread = new HashMap<String, String>();
-        fieldsread.put("A", header.getUrl());
-        fieldsread.put("e", header.getIp());
-        fieldsread.put("b", header.getArcDateStr());
-        fieldsread.put("n", Long.toString(header.getLength()));
-        fieldsread.put("g", record.getHeader().getArchiveFile().getName());
-        fieldsread.put("v", Long.toString(record.getHeader().getOffset()));
 
         String mimeType = header.getMimetype();
         String msgType;
@@ -141,9 +185,12 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
             }
             mimeType = contentType.toStringShort();
         }
-        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(record.getInputStream(), 8192);
+
+        // The payload is only read if the HTTP header must be parsed or the checksum calculated.
+        ByteCountingPushBackInputStream pbin = null;
         HttpHeader httpResponse = null;
         if (bResponse) {
+            pbin = new ByteCountingPushBackInputStream(record.getInputStream(), 8192);
             try {
                 httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE, pbin, header.getLength(), null);
                 if (httpResponse != null && httpResponse.contentType != null) {
@@ -156,14 +203,54 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
                 throw new IOFailure("Error reading httpresponse header", e);
             }
         }
-        fieldsread.put("m", mimeType);
 
-        /* Only include checksum if necessary: */
-        if (includeChecksum) {
-            // InputStream instream = sar; //Note: ARCRecord extends InputStream
-            // fieldsread.put("c", MD5.generateMD5(instream));
-            fieldsread.put("c", ChecksumCalculator.calculateMd5(pbin));
+        lineLength = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                append((byte) ' ');
+            }
+            switch (fields[i].charAt(0)) {
+            case 'A':
+                append(header.getUrl());
+                break;
+            case 'e':
+                append(header.getIp());
+                break;
+            case 'b':
+                append(header.getArcDateStr());
+                break;
+            case 'm':
+                append(mimeType);
+                break;
+            case 'n':
+                append(header.getLength());
+                break;
+            case 'g':
+                append(header.getArchiveFile().getName());
+                break;
+            case 'v':
+                append(header.getOffset());
+                break;
+            case 'c':
+                // Only include checksum if necessary
+                byte[] digest = null;
+                if (useRecordDigests && header.bIsWarc) {
+                    if (httpResponse != null) {
+                        digest = getMd5FromDigestField(header.getHeaderStringValue(WARC_PAYLOAD_DIGEST));
+                    } else if (!bResponse) {
+                        digest = getMd5FromDigestField(header.getHeaderStringValue(WARC_BLOCK_DIGEST));
+                    }
+                }
+                if (digest == null) {
+                    digest = calculateMd5(pbin != null ? pbin : record.getInputStream());
+                }
+                appendHex(digest);
+                break;
+            default:
+                append((String) null);
+            }
         }
+        append((byte) '\n');
 
         if (httpResponse != null) {
             try {
@@ -173,7 +260,12 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
             }
         }
 
-        printFields(fieldsread, os);
+        try {
+            os.write(line, 0, lineLength);
+        } catch (IOException e) {
+            throw new IOFailure("Error writing CDX line '" + new String(line, 0, lineLength, UTF8)
+                    + "' to batch outstream", e);
+        }
     }
 
     /**
@@ -186,24 +278,190 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     }
 
     /**
-     * Print the values found for a set of fields. Prints the '-' character for any null values.
+     * Calculate the MD5 digest of the rest of a stream.
      *
-     * @param fieldsread A hashtable of values indexed by field letters
-     * @param outstream The outputstream to write the values to
+     * @param in The stream to read.
+     * @return The digest.
+     * @throws IOFailure If the stream cannot be read.
      */
-    private void printFields(Map<String, String> fieldsread, OutputStream outstream) {
-        StringBuffer sb = new StringBuffer();
+    private byte[] calculateMd5(InputStream in) {
+        md5.reset();
+        int bytesRead;
+        try {
+            while ((bytesRead = in.read(readBuffer)) != -1) {
+                md5.update(readBuffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Error making a 'MD5' digest on the inputstream", e);
+        }
+        return md5.digest();
+    }
 
-        for (int i = 0; i < fields.length; i++) {
-            Object o = fieldsread.get(fields[i]);
-            sb.append((i > 0) ? " " : "");
-            sb.append((o == null) ? "-" : o.toString());
+    /**
+     * Get the MD5 digest held by a WARC digest header field, like <code>md5:KUJD4A2ZH6LS5CXXQPNBKLUYEM</code>. The
+     * digest may be encoded in base32, base16 or base64.
+     *
+     * @param value The value of the header field, or null.
+     * @return The digest, or null if the value is null, invalid or a digest of another algorithm.
+     */
+    static byte[] getMd5FromDigestField(String value) {
+        if (value == null) {
+            return null;
+        }
+        int colon = value.indexOf(':');
+        if (colon < 0 || !"md5".equalsIgnoreCase(value.substring(0, colon).trim())) {
+            return null;
         }
-        sb.append("\n");
+        String encoded = value.substring(colon + 1).trim();
+        byte[] digest;
         try {
-            outstream.write(sb.toString().getBytes("UTF-8"));
-        } catch (IOException e) {
-            throw new IOFailure("Error writing CDX line '" + sb + "' to batch outstream", e);
+            if (encoded.length() == 32 && encoded.indexOf('=') < 0) {
+                digest = decodeBase16(encoded);
+            } else if (encoded.length() == 24 && encoded.endsWith("==")) {
+                digest = Base64.getDecoder().decode(encoded);
+            } else {
+                digest = decodeBase32(encoded);
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring invalid digest '{}'", value);
+            return null;
+        }
+        return digest != null && digest.length == 16 ? digest : null;
+    }
+
+    /**
+     * Decode a base16 string.
+     *
+     * @param encoded The base16 string, in upper or lower case.
+     * @return The decoded bytes, or null if the string is not valid base16.
+     */
+    private static byte[] decodeBase16(String encoded) {
+        byte[] result = new byte[encoded.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(encoded.charAt(2 * i), 16);
+            int low = Character.digit(encoded.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    /**
+     * Decode a base32 string, as used for digests in WARC files.
+     *
+     * @param encoded The base32 string, possibly padded with '='.
+     * @return The decoded bytes, or null if the string is not valid base32.
+     */
+    private static byte[] decodeBase32(String encoded) {
+        int end = encoded.length();
+        while (end > 0 && encoded.charAt(end - 1) == '=') {
+            end--;
+        }
+        byte[] result = new byte[end * 5 / 8];
+        int buffer = 0;
+        int bits = 0;
+        int index = 0;
+        for (int i = 0; i < end; i++) {
+            char c = Character.toUpperCase(encoded.charAt(i));
+            int value;
+            if (c >= 'A' && c <= 'Z') {
+                value = c - 'A';
+            } else if (c >= '2' && c <= '7') {
+                value = c - '2' + 26;
+            } else {
+                return null;
+            }
+            buffer = (buffer << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                result[index++] = (byte) (buffer >> bits);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Make room for more bytes in the line buffer.
+     *
+     * @param extra The number of bytes to make room for.
+     */
+    private void ensureCapacity(int extra) {
+        if (lineLength + extra > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + extra));
+        }
+    }
+
+    /**
+     * Append a byte to the line buffer.
+     *
+     * @param b The byte.
+     */
+    private void append(byte b) {
+        ensureCapacity(1);
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Append a field value to the line buffer in UTF-8. Writes the '-' character for null values.
+     *
+     * @param value The value, or null.
+     */
+    private void append(String value) {
+        if (value == null) {
+            append((byte) '-');
+            return;
+        }
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Not plain ASCII, so leave the encoding to the charset.
+                byte[] bytes = value.substring(i).getBytes(UTF8);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, line, lineLength, bytes.length);
+                lineLength += bytes.length;
+                return;
+            }
+            line[lineLength++] = (byte) c;
+        }
+    }
+
+    /**
+     * Append a number to the line buffer.
+     *
+     * @param value The number.
+     */
+    private void append(long value) {
+        if (value < 0) {
+            append(Long.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = lineLength + digits - 1; i >= lineLength; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        lineLength += digits;
+    }
+
+    /**
+     * Append bytes to the line buffer as lower case hexadecimal digits.
+     *
+     * @param bytes The bytes.
+     */
+    private void appendHex(byte[] bytes) {
+        ensureCapacity(bytes.length * 2);
+        for (byte b : bytes) {
+            line[lineLength++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            line[lineLength++] = HEX_DIGITS[b & 0x0F];
         }
     }
 
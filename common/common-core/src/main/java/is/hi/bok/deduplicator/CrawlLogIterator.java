@@ -80,6 +80,18 @@ public class CrawlLogIterator extends CrawlDataIterator {
         in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(source))));
     }
 
+    /**
+     * Create a new CrawlLogIterator that reads items from an already opened crawl.log, e.g. one that is sorted while it
+     * is read.
+     *
+     * @param source A description of where the crawl.log comes from, e.g. its path.
+     * @param in A reader of the crawl.log. It is closed by {@link #close()}.
+     */
+    public CrawlLogIterator(String source, BufferedReader in) {
+        super(source);
+        this.in = in;
+    }
+
     /**
      * Returns true if there are more items available.
      *
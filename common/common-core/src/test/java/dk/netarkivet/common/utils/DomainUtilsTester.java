@@ -6,13 +6,20 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import dk.netarkivet.common.Constants;
+
 public class DomainUtilsTester {
 	@Test
 	public void canRetrieveTLDsFromPublisuffixFile() {
@@ -98,6 +105,81 @@ public class DomainUtilsTester {
     	TLD.reset();
     }
     
+    /**
+     * Test that the suffix trie used by DomainUtils finds the same domains as the TLD regular expressions.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testSuffixTrieAgreesWithRegexps() {
+        String[] hostnames = new String[] {"foo.dk", "news.bbc.co.uk", "x.y.baz.aero", "www.bl.uk", "192.168.0.dk",
+                "192.168.0.3", "3.192.168.0.5", "dk", ".dk", "dk.", "[].dk", "x..co.uk", "a.[].co.uk", "a b.dk",
+                "line\nbreak.dk", "æøå.dk", "foo.1", "foo.d", "FOO.DK", "a.b.c.blogspot.com", "www.ck",
+                "a.www.ck", "foo.kommune.no", "foo.bar.kommune.no", "a-b.co.uk", "-.dk", "..", "."};
+        TLD tld = TLD.getInstance();
+        for (String hostname : hostnames) {
+            String expected = hostname;
+            Matcher matcher = tld.getHostnamePattern().matcher(hostname);
+            if (!Constants.IP_KEY_REGEXP.matcher(hostname).matches() && matcher.matches()) {
+                expected = matcher.group(2);
+            }
+            if (!tld.getValidDomainMatcher().matcher(expected).matches()) {
+                expected = null;
+            }
+            assertEquals("Domain of " + hostname, expected, DomainUtils.domainNameFromHostname(hostname));
+            assertEquals("Validity of " + hostname, tld.getValidDomainMatcher().matcher(hostname).matches(),
+                    DomainUtils.isValidDomainName(hostname));
+        }
+    }
+
+    /**
+     * Compares the time taken to find the domains of a few thousand hostnames with the suffix trie and with the TLD
+     * hostname regular expression, which DomainUtils used before. The results must be the same.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testBenchmarkAgainstRegexps() {
+        TLD tld = TLD.getInstance();
+        List<String> tlds = tld.getAllTlds(false);
+        Random random = new Random(42);
+        List<String> hostnames = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder hostname = new StringBuilder();
+            for (int labels = random.nextInt(3); labels >= 0; labels--) {
+                hostname.append(random.nextBoolean() ? "www" : "host" + random.nextInt(1000)).append('.');
+            }
+            // Some hostnames end in something that is not a TLD.
+            hostname.append(random.nextInt(10) == 0 ? "invalid" : tlds.get(random.nextInt(tlds.size())));
+            hostnames.add(hostname.toString());
+        }
+        // Compile the pattern before timing.
+        Pattern hostnamePattern = tld.getHostnamePattern();
+        Pattern validDomainPattern = tld.getValidDomainMatcher();
+
+        long start = System.nanoTime();
+        List<String> regexpDomains = new ArrayList<String>();
+        for (String hostname : hostnames) {
+            String domain = hostname;
+            Matcher matcher = hostnamePattern.matcher(hostname);
+            if (!Constants.IP_KEY_REGEXP.matcher(hostname).matches() && matcher.matches()) {
+                domain = matcher.group(2);
+            }
+            regexpDomains.add(validDomainPattern.matcher(domain).matches() ? domain : null);
+        }
+        long regexpNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<String> trieDomains = new ArrayList<String>();
+        for (String hostname : hostnames) {
+            trieDomains.add(DomainUtils.domainNameFromHostname(hostname));
+        }
+        long trieNanos = System.nanoTime() - start;
+
+        System.out.println("Finding the domains of " + hostnames.size() + " hostnames took " + regexpNanos / 1000000
+                + " ms with the TLD regexps and " + trieNanos / 1000000 + " ms with the suffix trie");
+        assertEquals("Both ways should find the same domains", regexpDomains, trieDomains);
+        assertTrue("Some hostnames should have a domain", Collections.frequency(trieDomains, null) < hostnames.size());
+    }
+
     /**
      * Find a test resource for a given path.
      * @param path the path relative to resources directory eg. path is mypackage/YourFile.csv 
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.StreamUtils;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/** Tests for HTTPStreamRemoteFile, RemoteStreamSource and the registration of streams in HTTPRemoteFileRegistry. */
+public class HTTPStreamRemoteFileTester {
+    MoveTestFiles mtf = new MoveTestFiles(TestInfo.ORIGINALS_DIR, TestInfo.WORKING_DIR);
+    ReloadSettings rs = new ReloadSettings();
+    /** The data written by the source. */
+    private byte[] data;
+    /** The source, which counts how many times it has written its data. */
+    private CountingSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        mtf.setUp();
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+        data = FileUtils.readFile(TestInfo.FILE1).getBytes();
+        source = new CountingSource(data);
+    }
+
+    @After
+    public void tearDown() {
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+        mtf.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Test that a registered stream is served every time it is requested, until it is unregistered.
+     */
+    @Test
+    public void testRegisterStream() throws Exception {
+        HTTPRemoteFileRegistry registry = HTTPRemoteFileRegistry.getInstance();
+        URL url = registry.registerStream(source);
+        assertEquals("The data should be served", new String(data), read(url.openConnection().getInputStream()));
+        assertEquals("The data should be served again", new String(data), read(url.openConnection().getInputStream()));
+        assertEquals("The source should write its data for each request", 2, source.writes.get());
+
+        registry.openConnection(registry.getCleanupUrl(url)).getInputStream().close();
+        assertNotAvailable(url);
+        assertEquals("The source should not be asked for its data after cleanup", 2, source.writes.get());
+    }
+
+    /**
+     * Test that the data of a remote file is copied, and that it can only be read once.
+     */
+    @Test
+    public void testCopyTo() throws Exception {
+        HTTPStreamRemoteFile rf = new HTTPStreamRemoteFile("record", data.length, source);
+        assertEquals("The size should be known before reading", data.length, rf.getSize());
+        File tempFile = File.createTempFile("TEST", "COPYTO", TestInfo.WORKING_DIR);
+        rf.copyTo(tempFile);
+        assertEquals("Files should be equal", FileUtils.readFile(TestInfo.FILE1), FileUtils.readFile(tempFile));
+        assertNotAvailable(rf.url);
+        // should not throw exception
+        rf.cleanup();
+    }
+
+    /**
+     * Test that the data is read incrementally, and that closing the stream before the end unregisters it.
+     */
+    @Test
+    public void testPartialRead() throws Exception {
+        HTTPStreamRemoteFile rf = new HTTPStreamRemoteFile("record", data.length, source);
+        InputStream in = rf.getInputStream();
+        assertEquals("The first byte should be read", data[0], (byte) in.read());
+        in.close();
+        assertNotAvailable(rf.url);
+    }
+
+    /**
+     * Test that nothing is read from the source if the receiver never reads the data, and that cleaning up unregisters
+     * the data.
+     */
+    @Test
+    public void testReceiverNeverReads() throws Exception {
+        HTTPStreamRemoteFile rf = new HTTPStreamRemoteFile("record", data.length, source);
+        assertEquals("The source should not write before the data is read", 0, source.writes.get());
+        rf.cleanup();
+        assertNotAvailable(rf.url);
+        assertEquals("The source should never write", 0, source.writes.get());
+    }
+
+    /**
+     * Test that empty data is not registered.
+     */
+    @Test
+    public void testEmptyData() throws Exception {
+        HTTPStreamRemoteFile rf = new HTTPStreamRemoteFile("record", 0, source);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rf.appendTo(out);
+        assertEquals("No data should be read", 0, out.size());
+        assertEquals("The source should never write", 0, source.writes.get());
+        // should not throw exception
+        rf.cleanup();
+    }
+
+    /**
+     * Check that an URL is no longer served.
+     *
+     * @param url The URL.
+     */
+    private static void assertNotAvailable(URL url) throws IOException {
+        try {
+            url.openConnection().getInputStream();
+            fail("Should not be available any longer");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Read a stream, which is closed afterwards.
+     *
+     * @param in The stream.
+     * @return The contents as a string.
+     */
+    private static String read(InputStream in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyInputStreamToOutputStream(in, out);
+        return new String(out.toByteArray());
+    }
+
+    /** A source of some bytes, which counts how many times it has written them. */
+    private static class CountingSource implements RemoteStreamSource {
+        /** The data. */
+        private final byte[] data;
+        /** The number of times the data has been written. */
+        final AtomicInteger writes = new AtomicInteger();
+
+        CountingSource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            writes.incrementAndGet();
+            out.write(data);
+        }
+    }
+}
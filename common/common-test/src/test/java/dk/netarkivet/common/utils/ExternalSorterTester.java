@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+public class ExternalSorterTester {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("externalsorter").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testSortsLikeUnixSortInTheCLocale() throws IOException {
+        // Upper case before lower case, '\r' kept in the line, bytes above 127 last, missing last newline added.
+        File input = writeFile("in", "b\nB\n\na\r\n\u00e6\n\tz\na\n!");
+        File output = new File(dir, "out");
+        new ExternalSorter(ExternalSorter.LINE_ORDER, 1000000, 2, dir).sort(Collections.singletonList(input), output);
+        assertEquals("\n\tz\n!\nB\na\na\r\nb\n\u00e6\n", read(output));
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        File output = new File(dir, "out");
+        new ExternalSorter(ExternalSorter.LINE_ORDER, 1000, 1, dir).sort(
+                Collections.singletonList(writeFile("in", "")), output);
+        assertEquals("", read(output));
+    }
+
+    @Test
+    public void testSortsInRunsWithinTheBudget() throws IOException {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(Long.toString(random.nextLong(), 36));
+        }
+        File input = writeFile("in", join(lines));
+        File output = new File(dir, "out");
+        // A budget this small puts a few lines in each run, so the runs must be merged in more than one pass.
+        new ExternalSorter(ExternalSorter.LINE_ORDER, 1000, 3, dir).sort(Collections.singletonList(input), output);
+        Collections.sort(lines);
+        assertEquals(join(lines), read(output));
+        assertEquals("Only the input and output should be left", 2, dir.list().length);
+    }
+
+    @Test
+    public void testCrawlLogOrder() throws IOException {
+        String line1 = "2017-01-01T00:00:02.000Z   200  10 http://b.example/ L http://a.example/";
+        String line2 = "2017-01-01T00:00:01.000Z   200  10 http://a.example/ L http://c.example/";
+        String line3 = "2017-01-01T00:00:00.000Z   404 9 http://a.example/ L http://c.example/";
+        String line4 = "2017-01-01T00:00:03.000Z    -1 - http://a.example/x - -";
+        File input = writeFile("in", line1 + "\n" + line2 + "\n" + line3 + "\n" + line4 + "\n");
+        File output = new File(dir, "out");
+        new ExternalSorter(ExternalSorter.CRAWL_LOG_ORDER, 1000000, 1, dir).sort(Collections.singletonList(input),
+                output);
+        // Sorted from the URL to the end of the line, and by the whole line when those parts are equal.
+        assertEquals(join(Arrays.asList(line3, line2, line4, line1)), read(output));
+    }
+
+    @Test
+    public void testKeyStart() {
+        assertEquals(8, ExternalSorter.keyStart("a b  c \td e", 3));
+        assertEquals(2, ExternalSorter.keyStart("  a", 0));
+        assertEquals(3, ExternalSorter.keyStart("a b", 3));
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        File input1 = writeFile("in1", "a\nc\ne\n");
+        File input2 = writeFile("in2", "b\nd");
+        File output = new File(dir, "out");
+        new ExternalSorter(ExternalSorter.LINE_ORDER, 1000, 1, dir).merge(Arrays.asList(input1, input2), output);
+        assertEquals("a\nb\nc\nd\ne\n", read(output));
+    }
+
+    @Test
+    public void testSortedStream() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            lines.add("line " + ((i * 7919) % 500));
+        }
+        File input = writeFile("in", join(lines));
+        ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+        try (InputStream in = new ExternalSorter(ExternalSorter.LINE_ORDER, 2000, 2, dir).openSortedStream(
+                Collections.singletonList(input))) {
+            StreamUtils.copyInputStreamToOutputStream(in, sorted);
+        }
+        Collections.sort(lines);
+        assertArrayEquals(join(lines).getBytes(StandardCharsets.ISO_8859_1), sorted.toByteArray());
+        assertEquals("The runs should be removed when the stream is closed", 1, dir.list().length);
+    }
+
+    @Test(expected = IOFailure.class)
+    public void testMissingInput() {
+        new ExternalSorter(ExternalSorter.LINE_ORDER, 1000, 1, dir).sort(
+                Collections.singletonList(new File(dir, "missing")), new File(dir, "out"));
+    }
+
+}
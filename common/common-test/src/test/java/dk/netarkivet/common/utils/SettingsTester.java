@@ -192,6 +192,40 @@ public class SettingsTester {
         }
     }
 
+    /**
+     * Test that cached and parsed values follow changes made with set, reload and system properties.
+     */
+    @Test
+    public void testCachedValuesFollowChanges() {
+        String key = "settings.for.test.purposes6";
+        try {
+            Settings.getInt(key);
+            fail("Should throw UnknownID for invented key " + key);
+        } catch (UnknownID e) {
+            // expected
+        }
+        Settings.set(key, "17");
+        assertEquals("Should see value set after a failed lookup", 17, Settings.getInt(key));
+        assertEquals("Should see value set after a failed lookup", "17", Settings.get(key));
+        Settings.set(key, "42");
+        assertEquals("Should see new value", 42, Settings.getInt(key));
+        assertEquals("Should see new value", 42L, Settings.getLong(key));
+        System.setProperty(key, "7");
+        try {
+            assertEquals("System property should override cached value", 7, Settings.getInt(key));
+        } finally {
+            System.clearProperty(key);
+        }
+        assertEquals("Should see value from settings again", 42, Settings.getInt(key));
+        Settings.reload();
+        try {
+            Settings.get(key);
+            fail("Reload should forget the value set for " + key);
+        } catch (UnknownID e) {
+            // expected
+        }
+    }
+
     /**
      * Test that getBoolean returns true, when it can be parsed as some upper/lowercase combination of the string "true"
      */
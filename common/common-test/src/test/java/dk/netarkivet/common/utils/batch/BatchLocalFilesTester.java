@@ -27,14 +27,24 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 /**
  * Unit test for BatchLocalFiles.
  */
@@ -61,8 +71,11 @@ public class BatchLocalFilesTester {
     // Output stream for batch job
     OutputStream os;
 
+    ReloadSettings rs = new ReloadSettings();
+
     @Before
     public void setUp() throws Exception {
+        rs.setUp();
         initialized = 0;
         processed = 0;
         finished = 0;
@@ -74,6 +87,11 @@ public class BatchLocalFilesTester {
         os = new ByteArrayOutputStream();
     }
 
+    @After
+    public void tearDown() {
+        rs.tearDown();
+    }
+
     /**
      * Tests ordinary, non-failing execution of a batch job.
      */
@@ -201,6 +219,75 @@ public class BatchLocalFilesTester {
         assertEquals(1, finished);
     }
 
+    /**
+     * Verify that a parallelizable job run with several threads processes every file once, writes the output of each
+     * directory as one contiguous segment, and gets the output offsets of its exceptions moved to the final output.
+     */
+    @Test
+    public void testParallelRun() throws IOException {
+        Settings.set(CommonSettings.BATCH_PARALLEL_THREADS, "3");
+        File baseDir = Files.createTempDirectory("BatchLocalFilesTester").toFile();
+        try {
+            List<File> files = new ArrayList<File>();
+            for (String dir : new String[] {"a", "b", "c", "d"}) {
+                File subDir = new File(baseDir, dir);
+                subDir.mkdirs();
+                for (int i = 0; i < 5; i++) {
+                    File file = new File(subDir, dir + i + ".arc");
+                    file.createNewFile();
+                    files.add(file);
+                }
+            }
+            ParallelTestBatchJob job = new ParallelTestBatchJob();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BatchLocalFiles(files.toArray(new File[files.size()])).run(job, out);
+
+            assertEquals("Should have processed all files", files.size(), job.getNoOfFilesProcessed());
+            assertEquals("Should have one failed file", 1, job.getFilesFailed().size());
+            String output = out.toString();
+            StringBuilder expected = new StringBuilder();
+            for (File file : files) {
+                expected.append(file.getName()).append("\n");
+            }
+            assertEquals("Segments should be concatenated in directory order", expected.toString(), output);
+            assertEquals("Should have one exception collected", 1, job.getExceptions().size());
+            assertEquals("Output offset should refer to the concatenated output", output.indexOf("c2.arc"), job
+                    .getExceptions().get(0).getOutputOffset());
+        } finally {
+            FileUtils.removeRecursively(baseDir);
+        }
+    }
+
+    /**
+     * A parallelizable FileBatchJob that writes the name of each file, and fails on the file named c2.arc.
+     */
+    private static class ParallelTestBatchJob extends FileBatchJob {
+
+        public void initialize(OutputStream os) {
+        }
+
+        public void finish(OutputStream os) {
+        }
+
+        public boolean processFile(File file, OutputStream os) {
+            if (file.getName().equals("c2.arc")) {
+                // "c0.arc\nc1.arc\n" precedes this file in the output segment of its directory
+                addException(file, 0, 14, new IOException("Test failure"));
+            }
+            try {
+                os.write((file.getName() + "\n").getBytes());
+            } catch (IOException e) {
+                return false;
+            }
+            return !file.getName().equals("c2.arc");
+        }
+
+        @Override
+        public boolean isParallelizable() {
+            return true;
+        }
+    }
+
     /**
      * A very simple FileBatchJob that simply counts relevant method calls in the parents class's designated fields.
      */
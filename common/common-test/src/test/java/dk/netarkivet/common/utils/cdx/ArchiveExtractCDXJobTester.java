@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.jwat.common.ByteCountingPushBackInputStream;
+import org.jwat.common.ContentType;
+import org.jwat.common.HttpHeader;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
+import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
+import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+
+/**
+ * Unit tests for the class ArchiveExtractCDXJob.
+ */
+@SuppressWarnings({"serial"})
+public class ArchiveExtractCDXJobTester {
+
+    /** The ARC and WARC files used as corpus. */
+    private static final File[] CORPUS = {TestInfo.ARC_FILE1, TestInfo.ARC_FILE2, TestInfo.ARC_FILE3,
+            TestInfo.WARC_FILE1, TestInfo.WARC_FILE2, TestInfo.WARC_FILE3};
+
+    @Before
+    public void setUp() {
+        FileUtils.createDir(TestInfo.CDX_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.CDX_DIR);
+    }
+
+    /**
+     * Checks that MD5 digests are read from WARC digest fields in the different encodings, and that other digests are
+     * ignored.
+     */
+    @Test
+    public void testGetMd5FromDigestField() {
+        byte[] expected = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5).digest("abc".getBytes());
+        assertArrayEquals(expected, ArchiveExtractCDXJob.getMd5FromDigestField("md5:SAAVBGB42JH3BVUWH56SRYL7OI"));
+        assertArrayEquals(expected, ArchiveExtractCDXJob.getMd5FromDigestField("md5:SAAVBGB42JH3BVUWH56SRYL7OI======"));
+        assertArrayEquals(expected, ArchiveExtractCDXJob.getMd5FromDigestField("MD5:900150983cd24fb0d6963f7d28e17f72"));
+        assertArrayEquals(expected, ArchiveExtractCDXJob.getMd5FromDigestField("md5:kAFQmDzST7DWlj99KOF/cg=="));
+        assertNull(ArchiveExtractCDXJob.getMd5FromDigestField(null));
+        assertNull(ArchiveExtractCDXJob.getMd5FromDigestField("sha1:SJXA45HOAGK6LVRDJWKTXOQXKU2MJQAC"));
+        assertNull(ArchiveExtractCDXJob.getMd5FromDigestField("md5:not a digest"));
+    }
+
+    /**
+     * Checks that the job writes the same CDX lines as the job did when it stored the fields in a map.
+     */
+    @Test
+    public void testSameOutputAsMapBasedJob() {
+        assertEquals(runJob(new MapBasedExtractCDXJob(true), CORPUS), runJob(new ArchiveExtractCDXJob(true), CORPUS));
+        assertEquals(runJob(new MapBasedExtractCDXJob(false), CORPUS), runJob(new ArchiveExtractCDXJob(false),
+                CORPUS));
+    }
+
+    /**
+     * Checks that an MD5 payload digest in a WARC header is used as checksum instead of the MD5 of the payload.
+     */
+    @Test
+    public void testUsesMd5PayloadDigest() throws IOException {
+        File warc = new File(TestInfo.CDX_DIR, TestInfo.WARC_FILE1.getName());
+        String contents = new String(FileUtils.readBinaryFile(TestInfo.WARC_FILE1), "ISO-8859-1");
+        contents = contents.replaceAll("WARC-Payload-Digest: sha1:[A-Z2-7]+",
+                "WARC-Payload-Digest: md5:AAAAAAAAAAAAAAAAAAAAAAAAAA");
+        FileUtils.writeBinaryFile(warc, contents.getBytes("ISO-8859-1"));
+
+        String output = runJob(new ArchiveExtractCDXJob(true), new File[] {warc});
+        assertTrue("The digest from the header should be used", output.contains(" 00000000000000000000000000000000\n"));
+
+        ArchiveExtractCDXJob job = new ArchiveExtractCDXJob(true);
+        job.setUseRecordDigests(false);
+        assertEquals("The checksums should be calculated when digests are not used",
+                runJob(new ArchiveExtractCDXJob(true), new File[] {TestInfo.WARC_FILE1}).replace(
+                        TestInfo.WARC_FILE1.getName(), warc.getName()), runJob(job, new File[] {warc}));
+    }
+
+    /**
+     * Compares the time taken to extract CDX lines with checksums from the corpus with this job and with the job that
+     * stored the fields in a map.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testBenchmarkAgainstMapBasedJob() {
+        final int rounds = 20;
+        long start = System.nanoTime();
+        String mapBasedOutput = null;
+        for (int i = 0; i < rounds; i++) {
+            mapBasedOutput = runJob(new MapBasedExtractCDXJob(true), CORPUS);
+        }
+        long mapBasedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        String output = null;
+        for (int i = 0; i < rounds; i++) {
+            output = runJob(new ArchiveExtractCDXJob(true), CORPUS);
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.println("Extracting CDX lines from " + CORPUS.length + " files " + rounds + " times took "
+                + mapBasedNanos / 1000000 + " ms with the map based job and " + nanos / 1000000
+                + " ms with ArchiveExtractCDXJob");
+        assertEquals("Both jobs should write the same CDX lines", mapBasedOutput, output);
+    }
+
+    /**
+     * Run a CDX job on some files.
+     *
+     * @param job The job.
+     * @param files The files.
+     * @return The output of the job.
+     */
+    private static String runJob(ArchiveExtractCDXJob job, File[] files) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BatchLocalFiles(files).run(job, os);
+        assertTrue("The job should not fail: " + job.getExceptions(), job.getExceptions().isEmpty());
+        try {
+            return os.toString("UTF-8");
+        } catch (IOException e) {
+            throw new IOFailure("UTF-8 not supported", e);
+        }
+    }
+
+    /**
+     * The CDX job as it was when the fields of each record were stored in a map before being written.
+     */
+    private static class MapBasedExtractCDXJob extends ArchiveExtractCDXJob {
+
+        private final String[] fields;
+
+        private final boolean includeChecksum;
+
+        MapBasedExtractCDXJob(boolean includeChecksum) {
+            super(includeChecksum);
+            this.includeChecksum = includeChecksum;
+            this.fields = includeChecksum ? new String[] {"A", "e", "b", "m", "n", "g", "v", "c"} : new String[] {"A",
+                    "e", "b", "m", "n", "g", "v"};
+        }
+
+        @Override
+        public void processRecord(ArchiveRecordBase record, OutputStream os) {
+            ArchiveHeaderBase header = record.getHeader();
+            Map<String, String> fieldsread = new HashMap<String, String>();
+            fieldsread.put("A", header.getUrl());
+            fieldsread.put("e", header.getIp());
+            fieldsread.put("b", header.getArcDateStr());
+            fieldsread.put("n", Long.toString(header.getLength()));
+            fieldsread.put("g", record.getHeader().getArchiveFile().getName());
+            fieldsread.put("v", Long.toString(record.getHeader().getOffset()));
+
+            String mimeType = header.getMimetype();
+            ContentType contentType = ContentType.parseContentType(mimeType);
+            boolean bResponse = false;
+            if (contentType != null) {
+                if ("application".equals(contentType.contentType) && "http".equals(contentType.mediaType)) {
+                    bResponse = "response".equals(contentType.getParameter("msgtype"));
+                }
+                mimeType = contentType.toStringShort();
+            }
+            ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(record.getInputStream(), 8192);
+            HttpHeader httpResponse = null;
+            try {
+                if (bResponse) {
+                    httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE, pbin, header.getLength(), null);
+                    if (httpResponse != null && httpResponse.contentType != null) {
+                        contentType = ContentType.parseContentType(httpResponse.contentType);
+                        if (contentType != null) {
+                            mimeType = contentType.toStringShort();
+                        }
+                    }
+                }
+                fieldsread.put("m", mimeType);
+                if (includeChecksum) {
+                    fieldsread.put("c", ChecksumCalculator.calculateMd5(pbin));
+                }
+                if (httpResponse != null) {
+                    httpResponse.close();
+                }
+                StringBuffer sb = new StringBuffer();
+                for (int i = 0; i < fields.length; i++) {
+                    Object o = fieldsread.get(fields[i]);
+                    sb.append((i > 0) ? " " : "");
+                    sb.append((o == null) ? "-" : o.toString());
+                }
+                sb.append("\n");
+                os.write(sb.toString().getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IOFailure("Error extracting CDX line", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,7 @@
+CREATE TABLE job_files (
+	job_id BIGINT NOT NULL,
+	filename VARCHAR(300) NOT NULL,
+	ismetadata BOOLEAN NOT NULL,
+	cdx LONGTEXT NULL,
+	PRIMARY KEY (job_id, filename)
+);
@@ -106,6 +106,8 @@ INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_attribute', 1);
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_type_attribute', 1);
+INSERT INTO schemaversions ( tablename, version )
+    VALUES ( 'job_files', 1);
 
 
 
@@ -658,6 +660,17 @@ GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE eav_attribute TO netarchivesuite;
 GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE eav_type_attribute TO netarchivesuite;
 GRANT USAGE ON SEQUENCE eav_attribute_seq TO netarchivesuite;
 
+-- -----------------------------------------------------------------------------
+CREATE TABLE job_files (
+    job_id bigint NOT NULL,
+    filename varchar(300) NOT NULL,
+    ismetadata boolean NOT NULL,
+    cdx text NULL,
+    PRIMARY KEY (job_id, filename)
+);
+
+GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE job_files TO netarchivesuite;
+
 --
 -- INSERT INTO eav_type_attribute(tree_id, id, name, class_namespace, class_name, datatype, viewtype, def_int, def_datetime, def_varchar, def_text)
 -- VALUES(1, 1, 'MAX_HOPS', 'dk.netarkivet.harvester.datamodel.eav', 'ContentAttrType_Generic', 1, 1, 20, null, null, null);
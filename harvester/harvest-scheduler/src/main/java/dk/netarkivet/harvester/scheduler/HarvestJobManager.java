@@ -36,6 +36,7 @@ import dk.netarkivet.harvester.datamodel.HarvestChannelDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDBConnection;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.JobDAO;
+import dk.netarkivet.harvester.datamodel.JobFileDAO;
 
 /**
  * Handles the dispatching of scheduled harvest to the harvest servers based on the harvests defined in the database.
@@ -60,7 +61,8 @@ public class HarvestJobManager extends LifeCycleComponent {
                 getJMSConnectionProvider(),
                 getJobDAOProvider(),
                 getHarvestDefinitionDAOProvider(),
-                getNotificationsProvider()
+                getNotificationsProvider(),
+                getJobFileDAOProvider()
         ));
 
         addChild(new JobSupervisor(getJobDAOProvider(), Settings.getLong(HarvesterSettings.JOB_TIMEOUT_TIME)));
@@ -118,5 +120,13 @@ public class HarvestJobManager extends LifeCycleComponent {
                 return NotificationsFactory.getInstance();
             }};
     }
+    public static Provider<JobFileDAO> getJobFileDAOProvider() {
+        return new Provider<JobFileDAO>() {
+
+            @Override
+            public JobFileDAO get() {
+                return JobFileDAO.getInstance();
+            }};
+    }
  
 }
@@ -24,6 +24,7 @@
 package dk.netarkivet.harvester.scheduler;
 
 import java.util.Date;
+import java.util.List;
 
 import javax.inject.Provider;
 import javax.jms.MessageListener;
@@ -41,6 +42,8 @@ import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.Job;
 import dk.netarkivet.harvester.datamodel.JobDAO;
+import dk.netarkivet.harvester.datamodel.JobFile;
+import dk.netarkivet.harvester.datamodel.JobFileDAO;
 import dk.netarkivet.harvester.datamodel.JobStatus;
 import dk.netarkivet.harvester.distribute.HarvesterChannels;
 import dk.netarkivet.harvester.distribute.HarvesterMessageHandler;
@@ -62,16 +65,19 @@ public class HarvestSchedulerMonitorServer
     private final Provider<JobDAO> jobDAOProvider;
     private final Provider<HarvestDefinitionDAO> harvestDefinitionDAOProvider;
     private final Provider<Notifications> notificationsProvider;
+    private final Provider<JobFileDAO> jobFileDAOProvider;
 
     public HarvestSchedulerMonitorServer(
             Provider<JMSConnection> jmsConnectionProvider,
             Provider<JobDAO> jobDAOProvider,
             Provider<HarvestDefinitionDAO> harvestDefinitionDAOProvider,
-            Provider<Notifications> notificationsProvider) {
+            Provider<Notifications> notificationsProvider,
+            Provider<JobFileDAO> jobFileDAOProvider) {
         this.jmsConnectionProvider = jmsConnectionProvider;
         this.jobDAOProvider = jobDAOProvider;
         this.harvestDefinitionDAOProvider = harvestDefinitionDAOProvider;
         this.notificationsProvider = notificationsProvider;
+        this.jobFileDAOProvider = jobFileDAOProvider;
     }
 
     @Override
@@ -82,6 +88,7 @@ public class HarvestSchedulerMonitorServer
     /**
      * Updates the job status with the information in the message and notifies the HarvestMonitor.
      * If a DomainHarvestReport is included in either a DOne or FAILED message, the DomainHarvestReport is processed.
+     * Files reported as uploaded in either message are added to the catalog of job files.
      */
     private void processCrawlStatusMessage(CrawlStatusMessage cmsg) {
         long jobID = cmsg.getJobID();
@@ -156,6 +163,10 @@ public class HarvestSchedulerMonitorServer
                 cmsg.getDomainHarvestReport().postProcess(job);
             }
 
+            if (cmsg.getUploadedFiles() != null) {
+                addUploadedFiles(jobID, cmsg.getUploadedFiles());
+            }
+
             notifyRunningJobMonitor(new JobEndedMessage(job.getJobID(), newStatus));
             break;
         default:
@@ -165,6 +176,21 @@ public class HarvestSchedulerMonitorServer
         }
     }
 
+    /**
+     * Add the files uploaded by a job to the catalog of job files. The catalog only saves the QA pages from searching
+     * the archive, so a failure is logged and otherwise ignored.
+     *
+     * @param jobID The ID of the job.
+     * @param uploadedFiles The files uploaded by the job.
+     */
+    private void addUploadedFiles(long jobID, List<JobFile> uploadedFiles) {
+        try {
+            jobFileDAOProvider.get().addFiles(jobID, uploadedFiles);
+        } catch (Exception e) {
+            log.warn("Unable to add the {} files uploaded by job {} to the catalog", uploadedFiles.size(), jobID, e);
+        }
+    }
+
     private void notifyRunningJobMonitor(NetarkivetMessage message) {
         jmsConnectionProvider.get().send(message);
     }
@@ -26,13 +26,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
@@ -45,6 +53,7 @@ import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.PartialHarvest;
 import dk.netarkivet.harvester.datamodel.Schedule;
 import dk.netarkivet.harvester.datamodel.SeedList;
@@ -57,7 +66,9 @@ import dk.netarkivet.harvester.datamodel.eav.EAV;
  * <p>
  * The base algorithm iterates over domain configurations within the harvest definition, and according to the
  * configuration ({@link HarvesterSettings#JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE}, constitutes a subset of domain
- * configurations from which one or more jobs will be generated.
+ * configurations from which one or more jobs will be generated. The next subset is read and sorted in the background
+ * while the current one is processed, and finished jobs are stored in batches of
+ * {@link HarvesterSettings#JOBGEN_JOB_CREATION_BATCH_SIZE} (see {@link #storeJob(HarvestDefinition, Job)}).
  */
 abstract class AbstractJobGenerator implements JobGenerator {
 
@@ -69,11 +80,18 @@ abstract class AbstractJobGenerator implements JobGenerator {
      */
     private final long DOMAIN_CONFIG_SUBSET_SIZE = Settings.getLong(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE);
 
+    /** How many finished jobs to store in the database in one transaction. */
+    private final int JOB_CREATION_BATCH_SIZE = Math.max(1,
+            Settings.getInt(HarvesterSettings.JOBGEN_JOB_CREATION_BATCH_SIZE));
+
+    /** Finished jobs not stored yet, by the id of their harvest definition. Also used as the lock for itself. */
+    private final Map<Long, List<Job>> unsavedJobs = new HashMap<Long, List<Job>>();
+
     /** Is deduplication enabled or disabled in the settings* */
     private final boolean DEDUPLICATION_ENABLED = Settings.getBoolean(HarvesterSettings.DEDUPLICATION_ENABLED);
 
     @Override
-    public int generateJobs(HarvestDefinition harvest) {
+    public int generateJobs(final HarvestDefinition harvest) {
         log.info("Generating jobs for harvestdefinition #{}", harvest.getOid());
         int jobsMade = 0;
         final Iterator<DomainConfiguration> domainConfigurations = harvest.getDomainConfigurations();
@@ -81,19 +99,26 @@ abstract class AbstractJobGenerator implements JobGenerator {
         if (harvest.isSnapShot()) {
             HarvestDefinitionDAO.getInstance().update(harvest);
         }
-        while (domainConfigurations.hasNext()) {
-            List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
-            while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
-                subset.add(domainConfigurations.next());
+        // The next subset is read and sorted on another thread while the current one is made into jobs. The subsets
+        // are still processed one at a time and in order, so the jobs made are the same as without read-ahead.
+        ExecutorService subsetReader = Executors.newSingleThreadExecutor();
+        try {
+            Callable<List<DomainConfiguration>> readNextSubset = new Callable<List<DomainConfiguration>>() {
+                @Override
+                public List<DomainConfiguration> call() {
+                    return readSortedSubset(harvest, domainConfigurations);
+                }
+            };
+            List<DomainConfiguration> subset = waitForSubset(harvest, subsetReader.submit(readNextSubset));
+            while (!subset.isEmpty()) {
+                Future<List<DomainConfiguration>> nextSubset = subsetReader.submit(readNextSubset);
+                jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
+                subset = waitForSubset(harvest, nextSubset);
             }
-
-            final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
-                    harvest);
-            log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
-            Collections.sort(subset, domainConfigurationSubsetComparator);
-            log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
-                    harvest.getOid());
-            jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
+            flushJobs(harvest);
+        } finally {
+            subsetReader.shutdownNow();
+            discardJobs(harvest);
         }
 
         if (!harvest.isSnapShot()) {
@@ -129,6 +154,111 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Reads the next subset of at most {@link #DOMAIN_CONFIG_SUBSET_SIZE} configurations and sorts it.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfigurations the configurations of the harvest not read yet.
+     * @return the sorted subset, empty if all configurations have been read.
+     */
+    private List<DomainConfiguration> readSortedSubset(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfigurations) {
+        List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
+        while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
+            subset.add(domainConfigurations.next());
+        }
+
+        final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
+                harvest);
+        log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
+        Collections.sort(subset, domainConfigurationSubsetComparator);
+        log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
+                harvest.getOid());
+        return subset;
+    }
+
+    /**
+     * Waits for a subset being read by {@link #readSortedSubset(HarvestDefinition, Iterator)}.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the subset being read.
+     * @return the sorted subset.
+     * @throws IOFailure if interrupted while waiting or reading the subset failed with a checked exception.
+     */
+    private List<DomainConfiguration> waitForSubset(HarvestDefinition harvest,
+            Future<List<DomainConfiguration>> subset) {
+        try {
+            return subset.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while reading domain configurations for harvest #" + harvest.getOid(),
+                    e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOFailure("Could not read domain configurations for harvest #" + harvest.getOid(), e);
+        }
+    }
+
+    /**
+     * Stores a finished job. Jobs are stored in batches of {@link #JOB_CREATION_BATCH_SIZE}, so the job may not be in
+     * the database, and have no ID, until {@link #flushJobs(HarvestDefinition)} is called.
+     *
+     * @param harvest the {@link HarvestDefinition} the job was made for.
+     * @param job the finished job.
+     */
+    protected void storeJob(HarvestDefinition harvest, Job job) {
+        List<Job> batch;
+        synchronized (unsavedJobs) {
+            batch = unsavedJobs.get(harvest.getOid());
+            if (batch == null) {
+                batch = new ArrayList<Job>();
+                unsavedJobs.put(harvest.getOid(), batch);
+            }
+            batch.add(job);
+            if (batch.size() < JOB_CREATION_BATCH_SIZE) {
+                return;
+            }
+            unsavedJobs.remove(harvest.getOid());
+        }
+        JobDAO.getInstance().create(batch);
+    }
+
+    /**
+     * Stores the jobs given to {@link #storeJob(HarvestDefinition, Job)} that are not stored yet.
+     *
+     * @param harvest the {@link HarvestDefinition} the jobs were made for.
+     */
+    protected void flushJobs(HarvestDefinition harvest) {
+        List<Job> batch;
+        synchronized (unsavedJobs) {
+            batch = unsavedJobs.remove(harvest.getOid());
+        }
+        if (batch != null && !batch.isEmpty()) {
+            JobDAO.getInstance().create(batch);
+        }
+    }
+
+    /**
+     * Forgets the jobs given to {@link #storeJob(HarvestDefinition, Job)} that are not stored yet. Used when job
+     * generation fails.
+     *
+     * @param harvest the {@link HarvestDefinition} the jobs were made for.
+     */
+    protected void discardJobs(HarvestDefinition harvest) {
+        List<Job> batch;
+        synchronized (unsavedJobs) {
+            batch = unsavedJobs.remove(harvest.getOid());
+        }
+        if (batch != null && !batch.isEmpty()) {
+            log.warn("Discarding {} jobs not stored for harvest #{}", batch.size(), harvest.getOid());
+        }
+    }
+
     /**
      * Instantiates a new job.
      *
@@ -36,7 +36,6 @@ import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.Job;
-import dk.netarkivet.harvester.datamodel.JobDAO;
 
 /**
  * Job generator implementation. Generates jobs with a fixed number of domain configurations. Configuration allows to
@@ -150,9 +149,6 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
      */
     private Map<Long, HarvestJobGenerationState> state;
 
-    /** The job DAO instance (singleton). */
-    private JobDAO dao = JobDAO.getInstance();
-
     private FixedDomainConfigurationCountJobGenerator() {
         this.state = new HashMap<Long, HarvestJobGenerationState>();
     }
@@ -191,15 +187,17 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
                 for (Job job : jobsUnderConstruction.values()) {
                     // The job is ready, post-process and store it in DB
                     editJobOrderXml(job);
-                    dao.create(job);
+                    storeJob(harvest, job);
 
                     // Increment counter
                     ++jobsComplete;
                 }
             }
+            flushJobs(harvest);
 
             return jobsComplete;
         } finally {
+            discardJobs(harvest);
             dropStateForHarvest(harvest);
         }
     }
@@ -234,7 +232,7 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
                 } else {
                     // The job is ready, post-process and store it in DB
                     editJobOrderXml(match);
-                    dao.create(match);
+                    storeJob(harvest, match);
 
                     // Increment counter
                     ++jobsComplete;
@@ -26,6 +26,7 @@ package dk.netarkivet.harvester.scheduler;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -43,10 +44,13 @@ import org.mockito.ArgumentCaptor;
 
 import ch.qos.logback.classic.Level;
 import dk.netarkivet.common.distribute.JMSConnection;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Notifications;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.Job;
 import dk.netarkivet.harvester.datamodel.JobDAO;
+import dk.netarkivet.harvester.datamodel.JobFile;
+import dk.netarkivet.harvester.datamodel.JobFileDAO;
 import dk.netarkivet.harvester.datamodel.JobStatus;
 import dk.netarkivet.harvester.datamodel.JobStub;
 import dk.netarkivet.harvester.distribute.HarvesterChannels;
@@ -100,8 +104,19 @@ public class HarvestSchedulerMonitorServerTest {
 
     };
 
+    private final JobFileDAO jobFileDAOMock = mock(JobFileDAO.class);
+    private final Provider<JobFileDAO> jobFileDAOProvider = new Provider<JobFileDAO>() {
+
+        @Override
+        public JobFileDAO get() {
+            return jobFileDAOMock;
+        }
+
+    };
+
     private final HarvestSchedulerMonitorServer harvestStatusMonitor = new HarvestSchedulerMonitorServer(
-            jmsConnectionProvider, jobDAOProvider, harvestDefinitionDAOProvider, notificationsProvider
+            jmsConnectionProvider, jobDAOProvider, harvestDefinitionDAOProvider, notificationsProvider,
+            jobFileDAOProvider
     );
 
     private LogbackRecorder logRecorder;
@@ -345,6 +360,58 @@ public class HarvestSchedulerMonitorServerTest {
         //});
     }
 
+    /**
+     * Test that the files reported as uploaded in a Done message are added to the catalog of job files.
+     */
+    @Test
+    public void testUploadedFilesAddedToCatalog() {
+        job1.setStatus(JobStatus.STARTED);
+        List<JobFile> uploadedFiles = Arrays.asList(JobFile.forArchiveFile("1-1-20080601120000-00000-dev.warc"),
+                new JobFile("1-metadata-1.warc", true, null));
+        CrawlStatusMessage crawlStatusMessage = new CrawlStatusMessage(job1.getJobID(), JobStatus.DONE);
+        crawlStatusMessage.setUploadedFiles(uploadedFiles);
+
+        harvestStatusMonitor.start();
+        harvestStatusMonitor.visit(crawlStatusMessage);
+
+        verify(jobFileDAOMock).addFiles(job1.getJobID(), uploadedFiles);
+        verifyNoMoreInteractions(jobFileDAOMock);
+    }
+
+    /**
+     * Test that a failure to add the uploaded files to the catalog is logged, and the job is still updated.
+     */
+    @Test
+    public void testUploadedFilesCatalogFailureIgnored() {
+        job1.setStatus(JobStatus.STARTED);
+        List<JobFile> uploadedFiles = Arrays.asList(JobFile.forArchiveFile("1-1-20080601120000-00000-dev.warc"));
+        doThrow(new IOFailure("No database")).when(jobFileDAOMock).addFiles(job1.getJobID(), uploadedFiles);
+        CrawlStatusMessage crawlStatusMessage = new CrawlStatusMessage(job1.getJobID(), JobStatus.DONE);
+        crawlStatusMessage.setUploadedFiles(uploadedFiles);
+
+        harvestStatusMonitor.start();
+        harvestStatusMonitor.visit(crawlStatusMessage);
+
+        ArgumentCaptor<Job> jobArgumentCaptor = ArgumentCaptor.forClass(Job.class);
+        verify(jobDAOMock).update(jobArgumentCaptor.capture());
+        assertEquals(JobStatus.DONE, jobArgumentCaptor.getValue().getStatus());
+        verify(jmsConnectionMock).send(ArgumentCaptor.forClass(JobEndedMessage.class).capture());
+        logRecorder.assertLogContains(Level.WARN, "Unable to add the 1 files uploaded by job 1 to the catalog");
+    }
+
+    /**
+     * Test that nothing is added to the catalog of job files when no uploaded files are reported.
+     */
+    @Test
+    public void testNoUploadedFiles() {
+        job1.setStatus(JobStatus.STARTED);
+
+        harvestStatusMonitor.start();
+        harvestStatusMonitor.visit(new CrawlStatusMessage(job1.getJobID(), JobStatus.DONE));
+
+        verifyNoMoreInteractions(jobFileDAOMock);
+    }
+
     /**
      * The following tests validate that the related job is updated with error details for jobs in state
      * NEW, SUBMITTED, RESUBMITTED or STARTED when receiving a DONE or FAILED message.
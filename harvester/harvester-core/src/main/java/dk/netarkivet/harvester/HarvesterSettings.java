@@ -96,6 +96,13 @@ public class HarvesterSettings {
      * Default schedule for selective harvesting,. No default by default.
      */
     public static String DOMAIN_CONFIG_SCHEDULE = "settings.harvester.datamodel.domain.defaultSchedule";
+
+    /**
+     * <b>settings.harvester.datamodel.domain.iteratorPageSize</b>: <br>
+     * The number of domains read from the database at a time when iterating over all domains, e.g. during snapshot
+     * job generation. Default is 1000.
+     */
+    public static String DOMAIN_ITERATOR_PAGE_SIZE = "settings.harvester.datamodel.domain.iteratorPageSize";
     
     /**
      * <b>settings.harvester.scheduler.jobGen.config.errorFactorPrevResult</b>: <br>
@@ -160,6 +167,22 @@ public class HarvesterSettings {
      */
     public static String JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE = "settings.harvester.scheduler.jobGen.domainConfigSubsetSize";
 
+    /**
+     * <b>settings.harvester.scheduler.jobGen.jobCreationBatchSize</b>: <br>
+     * How many generated jobs are stored in the database together, in one transaction. The next subset of domain
+     * configurations is read and sorted while the jobs of the current subset are generated and stored.
+     */
+    public static String JOBGEN_JOB_CREATION_BATCH_SIZE = "settings.harvester.scheduler.jobGen.jobCreationBatchSize";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.crawlerTrapsDecideRule</b>: <br>
+     * The class of the decide rule that Heritrix 3 jobs match crawler traps with. When crawler traps are inserted into a
+     * template, the MatchesListRegexDecideRule bean holding them is changed to this class. The default,
+     * dk.netarkivet.harvester.harvesting.CrawlerTrapsDecideRule, matches all traps at once instead of one at a time. If
+     * empty, the bean is left as it is in the template.
+     */
+    public static String JOBGEN_CRAWLER_TRAPS_DECIDE_RULE = "settings.harvester.scheduler.jobGen.crawlerTrapsDecideRule";
+
     /**
      * <b>settings.harvester.scheduler.jobGen.config.fixedDomainCountFocused</b>: <br>
      * If the job generator is {@link FixedDomainConfigurationCountJobGenerator}, then this parameter represents the
@@ -300,6 +323,20 @@ public class HarvesterSettings {
      */
     public static String HARVEST_MONITOR_DISPLAYED_FRONTIER_QUEUE_SIZE = "settings.harvester.monitor.displayedFrontierQueuesSize";
 
+    /**
+     * <b>settings.harvester.monitor.historyBufferSize</b>:<br>
+     * Maximum number of history records kept in memory for each running job. When a job has more, the oldest records
+     * are thinned out. Default value is 1000.
+     */
+    public static String HARVEST_MONITOR_HISTORY_BUFFER_SIZE = "settings.harvester.monitor.historyBufferSize";
+
+    /**
+     * <b>settings.harvester.monitor.persistInterval</b>:<br>
+     * Time interval in seconds between writing the running job infos received since the last write to the DB. Default
+     * value is 30 seconds.
+     */
+    public static String HARVEST_MONITOR_PERSIST_INTERVAL = "settings.harvester.monitor.persistInterval";
+
     /**
      * <b>settings.harvester.harvesting.heritrix.crawlLoopWaitTime</b>:<br>
      * Time interval in seconds to wait during a crawl loop in the harvest controller. Default value is 20 seconds.
@@ -697,6 +734,22 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_LOOKFORDATAINOTHERBITARCHIVEREPLICAS = "settings.harvester.indexserver.lookfordataInAllBitarchiveReplicas";
 
+    /**
+     * <b>settings.harvester.indexserver.bulkMetadataJobs</b>: <br>
+     * The largest number of jobs whose metadata is extracted with a single batch job when the index server needs data
+     * for many jobs. Jobs the bulk extraction finds no data for are extracted one at a time. A value of 1 or less
+     * disables bulk extraction. The default is 1000.
+     */
+    public static String INDEXSERVER_INDEXING_BULK_METADATA_JOBS = "settings.harvester.indexserver.bulkMetadataJobs";
+
+    /**
+     * <b>settings.harvester.indexserver.reuseJobIndices</b>: <br>
+     * Whether the Lucene index made for each job while building a deduplication index is kept in the cache, so later
+     * indices for overlapping sets of jobs only need to index the jobs that are new to them. The kept indices take
+     * about as much disk space as the combined indices. The default is true.
+     */
+    public static String INDEXSERVER_INDEXING_REUSE_JOB_INDICES = "settings.harvester.indexserver.reuseJobIndices";
+
     /***************************/
     /* Viewerproxy - settings. */
     /***************************/
@@ -733,6 +786,29 @@ public class HarvesterSettings {
      */
     public static String MAX_CRAWLLOG_IN_BROWSER = "settings.harvester.webinterface.maxCrawlLogInBrowser";
 
+    /**
+     * <b>settings.harvester.webinterface.useJobFileCatalog</b>: <br>
+     * If true, the QA pages look up the files of a job and the records of its metadata files in the catalog of job
+     * files kept in the harvest database, and read the records directly from the archive. Jobs which are not in the
+     * catalog are searched for with batch jobs. If false, batch jobs are always used. The default is true.
+     */
+    public static String USE_JOB_FILE_CATALOG = "settings.harvester.webinterface.useJobFileCatalog";
+
+    /**
+     * <b>settings.harvester.webinterface.crawlLogIndex.dir</b>: <br>
+     * The directory where the QA pages keep the indices of the crawl logs of the jobs searched recently. The default is
+     * crawllogindex.
+     */
+    public static String CRAWL_LOG_INDEX_DIR = "settings.harvester.webinterface.crawlLogIndex.dir";
+
+    /**
+     * <b>settings.harvester.webinterface.crawlLogIndex.maxJobs</b>: <br>
+     * The number of jobs whose crawl log index is kept. The index of the job searched least recently is removed when a
+     * new job is indexed. If 0, no indices are made, and the crawl logs are searched with batch jobs. The default is
+     * 20.
+     */
+    public static String CRAWL_LOG_INDEX_MAX_JOBS = "settings.harvester.webinterface.crawlLogIndex.maxJobs";
+
    /**
      * <b>settings.harvester.harvesting.heritrix</b>: <br>
      * The path to the Heritrix3 SETTINGS.
@@ -159,6 +159,8 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
             upgradeEavTypeAttributeTable(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.EAVATTRIBUTE.getTablename())) {
             upgradeEavAttributeTable(currentVersion, toVersion);
+        } else if (tableName.equals(HarvesterDatabaseTables.JOBFILES.getTablename())) {
+            upgradeJobFilesTable(currentVersion, toVersion);
         } else {
             // Add new if else when other tables need to be upgraded
             throw new NotImplementedException("No method exists for migrating table '" + tableName + "' to version "
@@ -739,4 +741,26 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract void createEavAttributeTable(int toVersion);
 
+    /**
+     * Migrate the job_files table.
+     * @param currentVersion the current version of the job_files table
+     * @param toVersion the required version of the job_files table
+     */
+    public void upgradeJobFilesTable(int currentVersion, int toVersion) {
+        if (currentVersion == 0 && toVersion >= 1) {
+            createJobFilesTable(1);
+            currentVersion = 1;
+        }
+        if (currentVersion > HarvesterDatabaseTables.JOBFILES.getRequiredVersion()) {
+            throw new NotImplementedException("No method exists for migrating table '"
+                    + HarvesterDatabaseTables.JOBFILES.getTablename() + "' from version " + currentVersion
+                    + " to version " + toVersion);
+        }
+    }
+
+    /**
+     * Create the job_files table in the database.
+     */
+    public abstract void createJobFilesTable(int toVersion);
+
 }
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The ID and harvest limits of a domain configuration, read without reading the domain it belongs to. This class is
+ * immutable.
+ */
+public class DomainConfigurationLimits {
+
+    /** Name of domain this is a configuration for. */
+    private final String domainName;
+    /** Name of the configuration. */
+    private final String configurationName;
+    /** ID of the configuration in the database. */
+    private final long configurationID;
+    /** The maximum number of bytes to harvest with the configuration. */
+    private final long maxBytes;
+    /** The maximum number of objects to harvest with the configuration. */
+    private final long maxObjects;
+
+    /**
+     * Create the limits of a configuration.
+     *
+     * @param domainName Name of domain this is a configuration for.
+     * @param configurationName Name of the configuration.
+     * @param configurationID ID of the configuration in the database.
+     * @param maxBytes The maximum number of bytes to harvest with the configuration.
+     * @param maxObjects The maximum number of objects to harvest with the configuration.
+     * @throws ArgumentNotValid if either name is null or empty.
+     */
+    public DomainConfigurationLimits(String domainName, String configurationName, long configurationID,
+            long maxBytes, long maxObjects) {
+        ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
+        ArgumentNotValid.checkNotNullOrEmpty(configurationName, "configurationName");
+        this.domainName = domainName;
+        this.configurationName = configurationName;
+        this.configurationID = configurationID;
+        this.maxBytes = maxBytes;
+        this.maxObjects = maxObjects;
+    }
+
+    /**
+     * @return The name of the domain this is a configuration for.
+     */
+    public String getDomainName() {
+        return domainName;
+    }
+
+    /**
+     * @return The name of the configuration.
+     */
+    public String getConfigurationName() {
+        return configurationName;
+    }
+
+    /**
+     * @return The ID of the configuration in the database.
+     */
+    public long getConfigurationID() {
+        return configurationID;
+    }
+
+    /**
+     * @return The maximum number of bytes to harvest with the configuration.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The maximum number of objects to harvest with the configuration.
+     */
+    public long getMaxObjects() {
+        return maxObjects;
+    }
+
+    /**
+     * @return A string representation of the limits.
+     */
+    public String toString() {
+        return "Limits of configuration '" + configurationName + "' of domain '" + domainName + "': " + maxBytes
+                + " bytes, " + maxObjects + " objects";
+    }
+
+}
@@ -23,8 +23,10 @@
 package dk.netarkivet.harvester.datamodel;
 
 import java.sql.Connection;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.UnknownID;
@@ -279,6 +281,29 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
      */
     public abstract HarvestInfo getDomainJobInfo(Job job, String domainName, String configName);
 
+    /**
+     * Get the IDs and limits of the domain configurations used by a job. All configurations are read with one query,
+     * without reading the domains they belong to.
+     *
+     * @param jobID The ID of a job.
+     * @return Map from the name of each domain in the job to the limits of the configuration it is harvested with. The
+     * map is empty if the job is unknown.
+     * @throws ArgumentNotValid if jobID is null.
+     */
+    public abstract Map<String, DomainConfigurationLimits> getJobConfigurationLimits(Long jobID);
+
+    /**
+     * Add the harvest info of a job to the history of the harvested domains. The harvest info is inserted in batches
+     * in one transaction, without reading or updating the domains themselves. The configuration of each harvest info
+     * is looked up among the configurations used by the job.
+     *
+     * @param jobID The ID of the job the harvest info was made for.
+     * @param harvestInfos The harvest info to add. The IDs of the harvest info are not set.
+     * @throws ArgumentNotValid if either argument is null, or a harvest info is not for the given job.
+     * @throws UnknownID if a harvest info is for a domain configuration that is not used by the job.
+     */
+    public abstract void addHarvestInfo(Long jobID, Collection<HarvestInfo> harvestInfos);
+
     /**
      * Get a list of info about harvests performed on a given domain.
      * <p>
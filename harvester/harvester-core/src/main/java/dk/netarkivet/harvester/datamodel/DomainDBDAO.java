@@ -33,6 +33,7 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -53,6 +54,7 @@ import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FilterIterator;
 import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
@@ -74,6 +76,9 @@ public class DomainDBDAO extends DomainDAO {
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(DomainDBDAO.class);
 
+    /** The number of harvest info rows inserted with each batch in {@link #addHarvestInfo(Long, Collection)}. */
+    private static final int HARVEST_INFO_BATCH_SIZE = 1000;
+
     /**
      * Creates a database-based implementation of the DomainDAO. Will check that all schemas have correct versions, and
      * update the ones that haven't.
@@ -775,24 +780,7 @@ public class DomainDBDAO extends DomainDAO {
             String alias = res.getString(6);
             Date lastAliasUpdate = DBUtils.getDateMaybeNull(res, 7);
             s.close();
-            Domain d = new Domain(domainName);
-            d.setComments(comments);
-            // don't throw exception if illegal regexps are found.
-            boolean strictMode = false; 
-            String[] traps = crawlertraps.split("\n");
-            List<String> insertList = new ArrayList<String>();
-            for (String trap: traps) {
-                if (!trap.isEmpty()) { // Ignore empty traps (NAS-2480)
-                    insertList.add(trap);
-                }
-            }
-            log.debug("Found {} crawlertraps for domain '{}' in database", insertList.size(), domainName);
-            d.setCrawlerTraps(insertList, strictMode);
-            d.setID(domainId);
-            d.setEdition(edition);
-            if (alias != null) {
-                d.setAliasInfo(new AliasInfo(domainName, alias, lastAliasUpdate));
-            }
+            Domain d = newDomain(domainName, domainId, comments, crawlertraps, edition, alias, lastAliasUpdate);
 
             readSeedlists(c, d);
             readPasswords(c, d);
@@ -810,6 +798,42 @@ public class DomainDBDAO extends DomainDAO {
         return result;
     }
 
+    /**
+     * Make a Domain from the columns of its row in the domains table. Seedlists, passwords, configurations, owner info
+     * and history must be added afterwards.
+     *
+     * @param domainName The name of the domain
+     * @param domainId The id of the domain
+     * @param comments The comments of the domain
+     * @param crawlertraps The crawler traps of the domain, one per line
+     * @param edition The edition of the domain
+     * @param alias The name of the domain this domain is an alias of, or null
+     * @param lastAliasUpdate The date of the last alias update, or null
+     * @return a Domain with the given values
+     */
+    static Domain newDomain(String domainName, long domainId, String comments, String crawlertraps, long edition,
+            String alias, Date lastAliasUpdate) {
+        Domain d = new Domain(domainName);
+        d.setComments(comments);
+        // don't throw exception if illegal regexps are found.
+        boolean strictMode = false; 
+        String[] traps = crawlertraps.split("\n");
+        List<String> insertList = new ArrayList<String>();
+        for (String trap: traps) {
+            if (!trap.isEmpty()) { // Ignore empty traps (NAS-2480)
+                insertList.add(trap);
+            }
+        }
+        log.debug("Found {} crawlertraps for domain '{}' in database", insertList.size(), domainName);
+        d.setCrawlerTraps(insertList, strictMode);
+        d.setID(domainId);
+        d.setEdition(edition);
+        if (alias != null) {
+            d.setAliasInfo(new AliasInfo(domainName, alias, lastAliasUpdate));
+        }
+        return d;
+    }
+
     /**
      * Read the configurations for the domain. This should not be called until after passwords and seedlists are read.
      *
@@ -1014,7 +1038,7 @@ public class DomainDBDAO extends DomainDAO {
      * @return a SeedList based on ResultSet entry.
      * @throws SQLException if unable to get data from database
      */
-    private SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
+    static SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
         final long seedlistId = res.getLong(1);
         final String seedlistName = res.getString(2);
         String seedlistComments = res.getString(3);
@@ -1070,58 +1094,45 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    /**
+     * Gets all domains ordered by name. The domains are read lazily, a page at a time, so only one page of domains is
+     * kept in memory.
+     *
+     * @return an iterator of all domains with valid names
+     * @see HarvesterSettings#DOMAIN_ITERATOR_PAGE_SIZE
+     */
     @Override
-    public synchronized Iterator<Domain> getAllDomains() {
-        Connection c = HarvestDBConnection.get();
-        try {
-            List<String> domainNames = DBUtils.selectStringList(c, "SELECT name FROM domains ORDER BY name");
-            List<Domain> orderedDomains = new LinkedList<Domain>();
-            for (String name : domainNames) {
-                if (DomainUtils.isValidDomainName(name)) {
-                    orderedDomains.add(read(c, name));
-                }
-            }
-            return orderedDomains.iterator();
-        } finally {
-            HarvestDBConnection.release(c);
-        }
+    public Iterator<Domain> getAllDomains() {
+        return new DomainPageIterator(DomainPageIterator.DomainOrder.NAME);
     }
 
+    /**
+     * Gets all domains in snapshot harvest order. The domains whose default configuration has attributes come first,
+     * ordered by name, so they are handled first. Then come the other domains, ordered by template name, then byte
+     * limit (descending), then domain name. The domains are read lazily, a page at a time, so only one page of domains
+     * is kept in memory.
+     *
+     * @return an iterator of all domains with valid names
+     * @see HarvesterSettings#DOMAIN_ITERATOR_PAGE_SIZE
+     */
     @Override
     public Iterator<Domain> getAllDomainsInSnapshotHarvestOrder() {
-        Connection c = HarvestDBConnection.get();
-        try {
-            log.info("Starting a select of all domains used for Snapshot harvesting");
-            // Note: maxbytes are ordered with largest first for symmetry
-            // with HarvestDefinition.CompareConfigDesc
-            List<String> domainNames = DBUtils.selectStringList(c, "SELECT domains.name"
-                    + " FROM domains, configurations, ordertemplates"
-                    + " WHERE domains.defaultconfig=configurations.config_id" + " AND configurations.template_id"
-                    + "=ordertemplates.template_id" + " ORDER BY" + " ordertemplates.name,"
-                    + " configurations.maxbytes DESC," + " domains.name");
-            log.info("Retrieved all {} domains used for Snapshot harvesting without searching for attributes for their default configs", domainNames.size());
-            List<String> domainNamesWithAttributes = DBUtils.selectStringList(c, // Don't order this - it will be ordered later
-                    "SELECT DISTINCT domains.name"
-                            + " FROM domains, configurations, eav_attribute"
-                            + " WHERE domains.defaultconfig=configurations.config_id"
-                            + " AND configurations.config_id=eav_attribute.entity_id");
-            log.info("Retrieved all {} domains used for Snapshot harvesting that has attributes for their default configs", domainNamesWithAttributes.size());
-            domainNames = domainNames.stream().filter(DomainUtils::isValidDomainName).collect(Collectors.toList());
-            //  Remove the content of domainNamesWithAttributes from domainNames
-            domainNames.removeAll(domainNamesWithAttributes);
-            log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
-            // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
-            domainNamesWithAttributes.addAll(domainNames);
-            log.info("Remainder of total list merged with list of domains w/ attributes");
-
-            return new FilterIterator<String, Domain>(domainNamesWithAttributes.iterator()) {
-                public Domain filter(String s) {
-                    return readKnown(s);
-                }
-            };
-        } finally {
-            HarvestDBConnection.release(c);
-        }
+        log.info("Starting an iteration of all domains used for Snapshot harvesting");
+        final Iterator<Domain> withAttributes = new DomainPageIterator(
+                DomainPageIterator.DomainOrder.WITH_ATTRIBUTES);
+        final Iterator<Domain> withoutAttributes = new DomainPageIterator(
+                DomainPageIterator.DomainOrder.SNAPSHOT_WITHOUT_ATTRIBUTES);
+        return new Iterator<Domain>() {
+            @Override
+            public boolean hasNext() {
+                return withAttributes.hasNext() || withoutAttributes.hasNext();
+            }
+
+            @Override
+            public Domain next() {
+                return withAttributes.hasNext() ? withAttributes.next() : withoutAttributes.next();
+            }
+        };
     }
 
     @Override
@@ -1344,6 +1355,104 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    @Override
+    public Map<String, DomainConfigurationLimits> getJobConfigurationLimits(Long jobID) {
+        ArgumentNotValid.checkNotNull(jobID, "Long jobID");
+        Connection connection = HarvestDBConnection.get();
+        try {
+            return readJobConfigurationLimits(connection, jobID);
+        } catch (SQLException e) {
+            throw new IOFailure("SQL error reading the configuration limits of job " + jobID + "\n", e);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Read the IDs and limits of the domain configurations used by a job with one joined query.
+     *
+     * @param c A connection to the database
+     * @param jobID The ID of a job.
+     * @return Map from the name of each domain in the job to the limits of the configuration it is harvested with.
+     * @throws SQLException If any database problems occur while reading the configurations.
+     */
+    private Map<String, DomainConfigurationLimits> readJobConfigurationLimits(Connection c, long jobID)
+            throws SQLException {
+        Map<String, DomainConfigurationLimits> result = new HashMap<String, DomainConfigurationLimits>();
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement("SELECT domains.name, configurations.name, configurations.config_id, "
+                    + "configurations.maxbytes, configurations.maxobjects "
+                    + "FROM domains, configurations, job_configs " + "WHERE job_configs.job_id = ?"
+                    + "  AND job_configs.config_id = configurations.config_id"
+                    + "  AND configurations.domain_id = domains.domain_id");
+            s.setLong(1, jobID);
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                String domainName = res.getString(1);
+                result.put(domainName, new DomainConfigurationLimits(domainName, res.getString(2), res.getLong(3),
+                        res.getLong(4), res.getLong(5)));
+            }
+            return result;
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    @Override
+    public void addHarvestInfo(Long jobID, Collection<HarvestInfo> harvestInfos) {
+        ArgumentNotValid.checkNotNull(jobID, "Long jobID");
+        ArgumentNotValid.checkNotNull(harvestInfos, "Collection<HarvestInfo> harvestInfos");
+        if (harvestInfos.isEmpty()) {
+            return;
+        }
+        Connection connection = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            // The config_ids are all resolved up front, so no domain needs to be read.
+            Map<String, DomainConfigurationLimits> configurations = readJobConfigurationLimits(connection, jobID);
+            connection.setAutoCommit(false);
+            s = connection.prepareStatement("INSERT INTO historyinfo " + "( stopreason, objectcount, bytecount, "
+                    + "config_id, job_id, harvest_id, harvest_time ) " + "VALUES ( ?, ?, ?, ?, ?, ?, ? )");
+            int batchCount = 0;
+            for (HarvestInfo hi : harvestInfos) {
+                ArgumentNotValid.checkTrue(jobID.equals(hi.getJobID()), "Harvest info " + hi + " is not for job "
+                        + jobID);
+                DomainConfigurationLimits configuration = configurations.get(hi.getDomainName());
+                if (configuration == null
+                        || !configuration.getConfigurationName().equals(hi.getDomainConfigurationName())) {
+                    throw new UnknownID("The configuration '" + hi.getDomainConfigurationName() + "' of domain '"
+                            + hi.getDomainName() + "' is not used by job " + jobID);
+                }
+                s.setInt(1, hi.getStopReason().ordinal());
+                s.setLong(2, hi.getCountObjectRetrieved());
+                s.setLong(3, hi.getSizeDataRetrieved());
+                s.setLong(4, configuration.getConfigurationID());
+                s.setLong(5, jobID);
+                s.setLong(6, hi.getHarvestID());
+                s.setTimestamp(7, new Timestamp(hi.getDate().getTime()));
+                s.addBatch();
+                if (++batchCount == HARVEST_INFO_BATCH_SIZE) {
+                    s.executeBatch();
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {
+                s.executeBatch();
+            }
+            connection.commit();
+            log.debug("Added {} harvest info for job {}", harvestInfos.size(), jobID);
+        } catch (SQLException e) {
+            String message = "SQL error adding harvest info for job " + jobID + " in database" + "\n";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            DBUtils.rollbackIfNeeded(connection, "adding harvest info for job", jobID);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
     @Override
     public List<DomainHarvestInfo> listDomainHarvestInfo(String domainName, String orderBy, boolean asc) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
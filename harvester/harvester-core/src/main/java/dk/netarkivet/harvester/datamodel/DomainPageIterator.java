@@ -0,0 +1,523 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.eav.EAV;
+import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+
+/**
+ * An iterator over all domains in a given order, reading the domains lazily from the database a page at a time.
+ * <p>
+ * A page is selected with a keyset condition, that is the rows following the last domain of the previous page in the
+ * order, so the database does the ordering and every page costs the same however far the iteration has come. The
+ * seedlists, passwords, configurations, owner info and history of all the domains of a page are then read with one
+ * query each. Only the current page is kept in memory, and no connection is held between pages.
+ * <p>
+ * Domains with invalid names are skipped, as they cannot be read by {@link DomainDAO#read(String)} either.
+ *
+ * @see HarvesterSettings#DOMAIN_ITERATOR_PAGE_SIZE
+ */
+class DomainPageIterator implements Iterator<Domain> {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(DomainPageIterator.class);
+
+    /**
+     * The orders in which domains can be iterated. Each order ends with the domain name, which is unique, so the last
+     * domain of a page tells exactly where the next page starts.
+     */
+    enum DomainOrder {
+        /** All domains, by name. */
+        NAME("", "domains.name > ?", "domains.name"),
+        /** The domains whose default configuration has attributes, by name. */
+        WITH_ATTRIBUTES(" AND EXISTS (SELECT 1 FROM eav_attribute"
+                + " WHERE eav_attribute.entity_id = configurations.config_id)", "domains.name > ?", "domains.name"),
+        /** The domains whose default configuration has no attributes, by template, byte limit descending and name. */
+        SNAPSHOT_WITHOUT_ATTRIBUTES(" AND NOT EXISTS (SELECT 1 FROM eav_attribute"
+                + " WHERE eav_attribute.entity_id = configurations.config_id)", "(ordertemplates.name > ?"
+                + " OR (ordertemplates.name = ? AND (configurations.maxbytes < ?"
+                + " OR (configurations.maxbytes = ? AND domains.name > ?))))",
+                "ordertemplates.name, configurations.maxbytes DESC, domains.name");
+
+        /** The condition selecting the domains, appended to the WHERE clause. */
+        private final String filter;
+
+        /** The condition selecting the domains following a given domain in this order. */
+        private final String keyset;
+
+        /** The ORDER BY clause of this order. */
+        private final String orderBy;
+
+        /**
+         * @param filter The condition selecting the domains, appended to the WHERE clause.
+         * @param keyset The condition selecting the domains following a given domain in this order.
+         * @param orderBy The ORDER BY clause of this order.
+         */
+        DomainOrder(String filter, String keyset, String orderBy) {
+            this.filter = filter;
+            this.keyset = keyset;
+            this.orderBy = orderBy;
+        }
+
+        /**
+         * Set the parameters of the keyset condition to select the domains following a given domain.
+         *
+         * @param s The statement.
+         * @param last The domain to start after.
+         * @throws SQLException If a parameter cannot be set.
+         */
+        void setKeyset(PreparedStatement s, DomainRow last) throws SQLException {
+            if (this == SNAPSHOT_WITHOUT_ATTRIBUTES) {
+                s.setString(1, last.templateName);
+                s.setString(2, last.templateName);
+                s.setLong(3, last.maxBytes);
+                s.setLong(4, last.maxBytes);
+                s.setString(5, last.name);
+            } else {
+                s.setString(1, last.name);
+            }
+        }
+    }
+
+    /** The columns of a row of the domains table, with the default configuration values used for ordering. */
+    private static final class DomainRow {
+        private long id;
+        private String name;
+        private String comments;
+        private String crawlertraps;
+        private long edition;
+        private String defaultConfigName;
+        private String templateName;
+        private long maxBytes;
+        private String alias;
+        private Date lastAliasUpdate;
+    }
+
+    /** The order of the iteration. */
+    private final DomainOrder order;
+
+    /** The maximum number of domains read at a time. */
+    private final int pageSize;
+
+    /** The domains of the current page not yet returned. */
+    private Iterator<Domain> page = Collections.<Domain>emptyList().iterator();
+
+    /** The last domain of the last page read, or null if no page has been read. */
+    private DomainRow last;
+
+    /** Whether the last page has been read. */
+    private boolean lastPageRead;
+
+    /**
+     * Create an iterator over all domains in the given order. No domains are read until {@link #hasNext()} or
+     * {@link #next()} is called.
+     *
+     * @param order The order of the iteration.
+     */
+    DomainPageIterator(DomainOrder order) {
+        this.order = order;
+        this.pageSize = Settings.getInt(HarvesterSettings.DOMAIN_ITERATOR_PAGE_SIZE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !lastPageRead) {
+            page = readNextPage().iterator();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public Domain next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more domains");
+        }
+        return page.next();
+    }
+
+    /**
+     * Read the next page of domains. The page may be empty even if there are more pages, if all its domains have
+     * invalid names.
+     *
+     * @return the domains of the next page, in order.
+     * @throws IOFailure on database errors or inconsistencies.
+     */
+    private List<Domain> readNextPage() {
+        Connection c = HarvestDBConnection.get();
+        try {
+            List<DomainRow> rows = readDomainRows(c);
+            if (rows.size() < pageSize) {
+                lastPageRead = true;
+            }
+            if (rows.isEmpty()) {
+                return Collections.emptyList();
+            }
+            last = rows.get(rows.size() - 1);
+
+            Map<Long, Domain> domains = new LinkedHashMap<Long, Domain>();
+            for (DomainRow row : rows) {
+                if (DomainUtils.isValidDomainName(row.name)) {
+                    domains.put(row.id, DomainDBDAO.newDomain(row.name, row.id, row.comments, row.crawlertraps,
+                            row.edition, row.alias, row.lastAliasUpdate));
+                } else {
+                    log.debug("Skipping domain with invalid name '{}'", row.name);
+                }
+            }
+            if (domains.isEmpty()) {
+                return Collections.emptyList();
+            }
+            readSeedlists(c, domains);
+            readPasswords(c, domains);
+            readConfigurations(c, domains);
+            for (DomainRow row : rows) {
+                Domain d = domains.get(row.id);
+                if (d != null) {
+                    // Now that configs are in, we can set the default
+                    d.setDefaultConfiguration(row.defaultConfigName);
+                }
+            }
+            readOwnerInfo(c, domains);
+            readHistoryInfo(c, domains);
+            log.debug("Read a page of {} domains", domains.size());
+            return new ArrayList<Domain>(domains.values());
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading a page of domains" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /**
+     * Read the rows of the domains following the last domain read, together with their default configuration.
+     *
+     * @param c A connection to the database
+     * @return at most a page of rows, in order.
+     * @throws SQLException If database errors occur.
+     */
+    private List<DomainRow> readDomainRows(Connection c) throws SQLException {
+        String sql = "SELECT domains.domain_id, domains.name, domains.comments, domains.crawlertraps,"
+                + " domains.edition, configurations.name, ordertemplates.name, configurations.maxbytes,"
+                + " aliasdomains.name, domains.lastaliasupdate"
+                + " FROM domains"
+                + " JOIN configurations ON domains.defaultconfig = configurations.config_id"
+                + " JOIN ordertemplates ON configurations.template_id = ordertemplates.template_id"
+                + " LEFT OUTER JOIN domains AS aliasdomains ON aliasdomains.domain_id = domains.alias"
+                + " WHERE " + (last == null ? "1 = 1" : order.keyset) + order.filter
+                + " ORDER BY " + order.orderBy + " "
+                + DBSpecifics.getInstance().getOrderByLimitAndOffsetSubClause(pageSize, 0);
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement(sql);
+            if (last != null) {
+                order.setKeyset(s, last);
+            }
+            ResultSet res = s.executeQuery();
+            List<DomainRow> rows = new ArrayList<DomainRow>(pageSize);
+            while (res.next()) {
+                DomainRow row = new DomainRow();
+                row.id = res.getLong(1);
+                row.name = res.getString(2);
+                row.comments = res.getString(3);
+                row.crawlertraps = res.getString(4);
+                row.edition = res.getLong(5);
+                row.defaultConfigName = res.getString(6);
+                row.templateName = res.getString(7);
+                row.maxBytes = res.getLong(8);
+                row.alias = res.getString(9);
+                row.lastAliasUpdate = DBUtils.getDateMaybeNull(res, 10);
+                rows.add(row);
+            }
+            return rows;
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    /**
+     * Prepare a statement with the ids of the given domains as its parameters, in place of a "domain_id IN" list.
+     *
+     * @param c A connection to the database
+     * @param sql The statement, containing "%s" where the parameter list goes.
+     * @param domains The domains, by id.
+     * @return the prepared statement.
+     * @throws SQLException If database errors occur.
+     */
+    private static PreparedStatement prepareForDomains(Connection c, String sql, Map<Long, Domain> domains)
+            throws SQLException {
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < domains.size(); i++) {
+            parameters.append(i == 0 ? "?" : ", ?");
+        }
+        PreparedStatement s = c.prepareStatement(String.format(sql, parameters));
+        int i = 1;
+        for (Long id : domains.keySet()) {
+            s.setLong(i++, id);
+        }
+        return s;
+    }
+
+    /**
+     * Read the seedlists of the domains.
+     *
+     * @param c A connection to the database
+     * @param domains The domains, by id.
+     * @throws SQLException If database errors occur.
+     * @throws IOFailure If a domain has no seedlists.
+     */
+    private static void readSeedlists(Connection c, Map<Long, Domain> domains) throws SQLException {
+        PreparedStatement s = prepareForDomains(c, "SELECT seedlist_id, name, comments, seeds, domain_id"
+                + " FROM seedlists WHERE domain_id IN (%s)", domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                domains.get(res.getLong(5)).addSeedList(DomainDBDAO.getSeedListFromResultset(res));
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        for (Domain d : domains.values()) {
+            if (!d.getAllSeedLists().hasNext()) {
+                final String msg = "Domain " + d + " loaded with no seedlists";
+                log.warn(msg);
+                throw new IOFailure(msg);
+            }
+        }
+    }
+
+    /**
+     * Read the passwords of the domains.
+     *
+     * @param c A connection to the database
+     * @param domains The domains, by id.
+     * @throws SQLException If database errors occur.
+     */
+    private static void readPasswords(Connection c, Map<Long, Domain> domains) throws SQLException {
+        PreparedStatement s = prepareForDomains(c, "SELECT password_id, name, comments, url, realm, username,"
+                + " password, domain_id FROM passwords WHERE domain_id IN (%s)", domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                final Password pwd = new Password(res.getString(2), res.getString(3), res.getString(4),
+                        res.getString(5), res.getString(6), res.getString(7));
+                pwd.setID(res.getLong(1));
+                domains.get(res.getLong(8)).addPassword(pwd);
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    /**
+     * Read the names of the seedlists or passwords used by each configuration of the domains.
+     *
+     * @param c A connection to the database
+     * @param sql The query, selecting config id and name, with "%s" where the domain ids go.
+     * @param domains The domains, by id.
+     * @return the names by config id.
+     * @throws SQLException If database errors occur.
+     */
+    private static Map<Long, List<String>> readNamesByConfig(Connection c, String sql, Map<Long, Domain> domains)
+            throws SQLException {
+        Map<Long, List<String>> namesByConfig = new HashMap<Long, List<String>>();
+        PreparedStatement s = prepareForDomains(c, sql, domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                long configId = res.getLong(1);
+                List<String> names = namesByConfig.get(configId);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    namesByConfig.put(configId, names);
+                }
+                names.add(res.getString(2));
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        return namesByConfig;
+    }
+
+    /**
+     * Read the configurations of the domains. This should not be called until after passwords and seedlists are read.
+     *
+     * @param c A connection to the database
+     * @param domains The domains, by id.
+     * @throws SQLException If database errors occur.
+     * @throws IOFailure If a configuration has no seedlists, or a domain no configurations.
+     */
+    private static void readConfigurations(Connection c, Map<Long, Domain> domains) throws SQLException {
+        Map<Long, List<String>> seedlistsByConfig = readNamesByConfig(c, "SELECT config_seedlists.config_id,"
+                + " seedlists.name FROM config_seedlists"
+                + " JOIN seedlists ON config_seedlists.seedlist_id = seedlists.seedlist_id"
+                + " WHERE seedlists.domain_id IN (%s)", domains);
+        Map<Long, List<String>> passwordsByConfig = readNamesByConfig(c, "SELECT config_passwords.config_id,"
+                + " passwords.name FROM config_passwords"
+                + " JOIN passwords ON config_passwords.password_id = passwords.password_id"
+                + " WHERE passwords.domain_id IN (%s)", domains);
+
+        PreparedStatement s = prepareForDomains(c, "SELECT configurations.config_id, configurations.name,"
+                + " configurations.comments, ordertemplates.name, configurations.maxobjects,"
+                + " configurations.maxrate, configurations.maxbytes, configurations.domain_id"
+                + " FROM configurations"
+                + " JOIN ordertemplates ON configurations.template_id = ordertemplates.template_id"
+                + " WHERE configurations.domain_id IN (%s)", domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                long domainconfigId = res.getLong(1);
+                String domainconfigName = res.getString(2);
+                Domain d = domains.get(res.getLong(8));
+
+                List<SeedList> seedlists = new ArrayList<SeedList>();
+                List<String> seedlistNames = seedlistsByConfig.get(domainconfigId);
+                if (seedlistNames != null) {
+                    for (String name : seedlistNames) {
+                        seedlists.add(d.getSeedList(name));
+                    }
+                }
+                if (seedlists.isEmpty()) {
+                    String message = "Configuration " + domainconfigName + " of " + d + " has no seedlists";
+                    log.warn(message);
+                    throw new IOFailure(message);
+                }
+                List<Password> passwords = new ArrayList<Password>();
+                List<String> passwordNames = passwordsByConfig.get(domainconfigId);
+                if (passwordNames != null) {
+                    for (String name : passwordNames) {
+                        passwords.add(d.getPassword(name));
+                    }
+                }
+
+                DomainConfiguration dc = new DomainConfiguration(domainconfigName, d, seedlists, passwords);
+                dc.setComments(res.getString(3));
+                dc.setOrderXmlName(res.getString(4));
+                dc.setMaxObjects(res.getLong(5));
+                dc.setMaxRequestRate(res.getInt(6));
+                dc.setMaxBytes(res.getLong(7));
+                dc.setID(domainconfigId);
+                d.addConfiguration(dc);
+
+                // EAV
+                List<AttributeAndType> attributesAndTypes = EAV.getInstance().getAttributesAndTypes(
+                        EAV.DOMAIN_TREE_ID, (int) domainconfigId);
+                dc.setAttributesAndTypes(attributesAndTypes);
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        for (Domain d : domains.values()) {
+            if (!d.getAllConfigurations().hasNext()) {
+                String message = "Loaded domain " + d + " with no configurations";
+                log.warn(message);
+                throw new IOFailure(message);
+            }
+        }
+    }
+
+    /**
+     * Read the owner info entries of the domains.
+     *
+     * @param c A connection to the database
+     * @param domains The domains, by id.
+     * @throws SQLException If database errors occur.
+     */
+    private static void readOwnerInfo(Connection c, Map<Long, Domain> domains) throws SQLException {
+        PreparedStatement s = prepareForDomains(c, "SELECT ownerinfo_id, created, info, domain_id"
+                + " FROM ownerinfo WHERE domain_id IN (%s)", domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                final DomainOwnerInfo ownerinfo = new DomainOwnerInfo(new Date(res.getTimestamp(2).getTime()),
+                        res.getString(3));
+                ownerinfo.setID(res.getLong(1));
+                domains.get(res.getLong(4)).addOwnerInfo(ownerinfo);
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    /**
+     * Read the history info entries of the domains.
+     *
+     * @param c A connection to the database
+     * @param domains The domains, by id.
+     * @throws SQLException If database errors occur.
+     */
+    private static void readHistoryInfo(Connection c, Map<Long, Domain> domains) throws SQLException {
+        PreparedStatement s = prepareForDomains(c, "SELECT historyinfo.historyinfo_id, historyinfo.stopreason,"
+                + " historyinfo.objectcount, historyinfo.bytecount, configurations.name, historyinfo.job_id,"
+                + " historyinfo.harvest_id, historyinfo.harvest_time, configurations.domain_id"
+                + " FROM historyinfo"
+                + " JOIN configurations ON historyinfo.config_id = configurations.config_id"
+                + " WHERE configurations.domain_id IN (%s)", domains);
+        try {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                long hiID = res.getLong(1);
+                StopReason stopreason = StopReason.getStopReason(res.getInt(2));
+                long objectCount = res.getLong(3);
+                long byteCount = res.getLong(4);
+                String configName = res.getString(5);
+                Long jobId = res.getLong(6);
+                if (res.wasNull()) {
+                    jobId = null;
+                }
+                long harvestId = res.getLong(7);
+                Date harvestTime = new Date(res.getTimestamp(8).getTime());
+                Domain d = domains.get(res.getLong(9));
+                HarvestInfo hi = new HarvestInfo(harvestId, jobId, d.getName(), configName, harvestTime, byteCount,
+                        objectCount, stopreason);
+                hi.setID(hiID);
+                d.getHistory().addHarvestInfo(hi);
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+}
@@ -82,6 +82,7 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     public final static String METADATA_ITEMS_PLACEHOLDER = "%{METADATA_ITEMS_PLACEHOLDER}";
     public static final String MAX_TIME_SECONDS_PLACEHOLDER = "%{MAX_TIME_SECONDS_PLACEHOLDER}";
     public static final String CRAWLERTRAPS_PLACEHOLDER = "%{CRAWLERTRAPS_PLACEHOLDER}";
+    public static final String MATCHES_LIST_REGEX_DECIDE_RULE = "org.archive.modules.deciderules.MatchesListRegexDecideRule";
 
     public static final Pattern DEDUPLICATION_BEAN_REFERENCE_PATTERN = Pattern.compile(".*ref.*bean.*DeDuplicator.*", Pattern.DOTALL);
 
@@ -476,6 +477,7 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     		return;
     	} else {
     		log.info("Inserting {} crawlertraps into the template", crawlertraps.size());
+    		replaceCrawlerTrapsDecideRule();
     		StringBuilder sb = new StringBuilder();
     		for (String trap: crawlertraps) {
     			sb.append("<value>" + trap + "</value>\n");
@@ -487,6 +489,31 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     	}
  	}
 	
+	/**
+	 * Change the class of the bean holding the crawlertraps placeholder from MatchesListRegexDecideRule to the class
+	 * given by the setting {@link HarvesterSettings#JOBGEN_CRAWLER_TRAPS_DECIDE_RULE}, which matches all the traps at
+	 * once. The bean is left as it is if the setting is empty, or if the bean is of another class.
+	 */
+	private void replaceCrawlerTrapsDecideRule() {
+		String ruleClass = Settings.get(HarvesterSettings.JOBGEN_CRAWLER_TRAPS_DECIDE_RULE).trim();
+		if (ruleClass.isEmpty()) {
+			return;
+		}
+		int beanStart = template.lastIndexOf("<bean ", template.indexOf(CRAWLERTRAPS_PLACEHOLDER));
+		if (beanStart < 0) {
+			return;
+		}
+		int beanTagEnd = template.indexOf('>', beanStart);
+		String oldClassAttribute = "class=\"" + MATCHES_LIST_REGEX_DECIDE_RULE + "\"";
+		int classStart = template.indexOf(oldClassAttribute, beanStart);
+		if (classStart < 0 || classStart > beanTagEnd) {
+			return;
+		}
+		log.info("Using {} instead of {} for the crawlertraps", ruleClass, MATCHES_LIST_REGEX_DECIDE_RULE);
+		this.template = template.substring(0, classStart) + "class=\"" + ruleClass + "\""
+				+ template.substring(classStart + oldClassAttribute.length());
+	}
+
 	public String getMetadataInfo(MetadataInfo info) {
 		String infoStr = null;
 		if(metadataInfoMap.containsKey(info)) {
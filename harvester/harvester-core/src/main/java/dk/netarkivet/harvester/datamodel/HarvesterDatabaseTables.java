@@ -439,6 +439,21 @@ public enum HarvesterDatabaseTables {
             return REQUIRED_VERSION;
         }
 
+        @Override
+        public String getTablename() {
+            return NAME;
+        }
+    },
+    /** The table containing the catalog of files uploaded by jobs. */
+    JOBFILES {
+        static final String NAME = "job_files";
+        static final int REQUIRED_VERSION = 1;
+
+        @Override
+        public int getRequiredVersion() {
+            return REQUIRED_VERSION;
+        }
+
         @Override
         public String getTablename() {
             return NAME;
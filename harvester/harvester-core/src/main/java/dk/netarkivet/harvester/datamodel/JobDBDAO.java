@@ -28,14 +28,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,6 +81,27 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
+    /** The edition of a newly created job. */
+    private static final long INITIAL_EDITION = 1;
+
+    /** Inserts a new job. The parameters are set by {@link #setInsertJobParameters(PreparedStatement, Job)}. */
+    private static final String INSERT_JOB_SQL = "INSERT INTO jobs "
+            + "(job_id, harvest_id, status, channel, forcemaxcount, "
+            + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
+            + "harvest_num, startdate, enddate, submitteddate, creationdate, "
+            + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
+            + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Inserts the job_configs entry of one job, domain name and configuration name. Used for batches of jobs, where
+     * the temporary table of {@link #createJobConfigsEntries(Connection, Job)} cannot be used, as it is only dropped
+     * on commit by some databases.
+     */
+    private static final String INSERT_JOB_CONFIG_SQL = "INSERT INTO job_configs ( job_id, config_id ) "
+            + "SELECT ?, configurations.config_id FROM domains, configurations"
+            + " WHERE domains.domain_id = configurations.domain_id"
+            + "   AND domains.name = ? AND configurations.name = ?";
+
     /**
      * Creates an instance in persistent storage of the given job. 
      * If the job doesn't have an ID (which it shouldn't at this point, one is generated for it.
@@ -118,54 +142,150 @@ public class JobDBDAO extends JobDAO {
         PreparedStatement statement = null;
         try {
             connection.setAutoCommit(false);
-            statement = connection.prepareStatement("INSERT INTO jobs "
-                    + "(job_id, harvest_id, status, channel, forcemaxcount, "
-                    + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
-                    + "harvest_num, startdate, enddate, submitteddate, creationdate, "
-                    + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
-                    + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)");
-
-            statement.setLong(1, job.getJobID());
-            statement.setLong(2, job.getOrigHarvestDefinitionID());
-            statement.setInt(3, job.getStatus().ordinal());
-            statement.setString(4, job.getChannel());
-            statement.setLong(5, job.getForceMaxObjectsPerDomain());
-            statement.setLong(6, job.getMaxBytesPerDomain());
-            statement.setLong(7, job.getMaxJobRunningTime());
-            DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
-                    "order.xml name");
-            final String orderString = job.getOrderXMLdoc().getXML();
-            DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
-            DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
-                    job, "seedlist");
-            statement.setInt(11, job.getHarvestNum());
-            DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
-            DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
-            DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
-            DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
-
-            // The size of the configuration map == number of configurations
-            statement.setInt(16, job.getDomainConfigurationMap().size());
-            long initialEdition = 1;
-            statement.setLong(17, initialEdition);
-            DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
-            statement.setString(19, job.getHarvestFilenamePrefix());
-            statement.setBoolean(20, job.isSnapshot());
+            statement = connection.prepareStatement(INSERT_JOB_SQL);
+            setInsertJobParameters(statement, job);
             statement.executeUpdate();
             createJobConfigsEntries(connection, job);
             connection.commit();
-            job.setEdition(initialEdition);
+            job.setEdition(INITIAL_EDITION);
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
             log.warn(message, e);
             throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(statement);
             DBUtils.rollbackIfNeeded(connection, "create job", job);
             HarvestDBConnection.release(connection);
         }
     }
 
+    /**
+     * Creates instances in persistent storage of the given jobs, all in one transaction. The jobs are given ids in
+     * list order, and are otherwise stored exactly as {@link #create(Job)} would store them one at a time. If storing
+     * any of the jobs fails, none of them are stored.
+     *
+     * @param jobs the jobs to add to persistent storage
+     * @throws ArgumentNotValid If jobs is null or contains null
+     * @throws UnknownID If a job refers to a harvest definition that does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs to persistent storage
+     */
+    @Override
+    public synchronized void create(List<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "List<Job> jobs");
+        if (jobs.isEmpty()) {
+            return;
+        }
+        Set<Long> harvestIds = new HashSet<Long>();
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            Long harvestId = job.getOrigHarvestDefinitionID();
+            if (harvestIds.add(harvestId) && !HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+                throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+            }
+        }
+
+        Connection connection = HarvestDBConnection.get();
+        PreparedStatement jobStatement = null;
+        PreparedStatement configStatement = null;
+        try {
+            connection.setAutoCommit(false);
+            long nextId = generateNextID(connection);
+            for (Job job : jobs) {
+                if (job.getJobID() != null) {
+                    log.warn("The jobId for the job is already set. This should probably never happen.");
+                    nextId = Math.max(nextId, job.getJobID() + 1L);
+                } else {
+                    job.setJobID(nextId++);
+                }
+                job.setDefaultHarvestNamePrefix();
+                if (job.getCreationDate() != null) {
+                    log.warn("The creation time for the job is already set. This should probably never happen.");
+                } else {
+                    job.setCreationDate(new Date());
+                }
+                log.debug("Creating " + job.toString());
+            }
+
+            jobStatement = connection.prepareStatement(INSERT_JOB_SQL);
+            configStatement = connection.prepareStatement(INSERT_JOB_CONFIG_SQL);
+            for (Job job : jobs) {
+                setInsertJobParameters(jobStatement, job);
+                jobStatement.addBatch();
+                for (Map.Entry<String, String> entry : job.getDomainConfigurationMap().entrySet()) {
+                    configStatement.setLong(1, job.getJobID());
+                    configStatement.setString(2, entry.getKey());
+                    configStatement.setString(3, entry.getValue());
+                    configStatement.addBatch();
+                }
+            }
+            jobStatement.executeBatch();
+            int[] configRows = configStatement.executeBatch();
+            connection.commit();
+
+            int configIndex = 0;
+            for (Job job : jobs) {
+                int configs = job.getDomainConfigurationMap().size();
+                int rows = 0;
+                for (int i = configIndex; i < configIndex + configs && i < configRows.length; i++) {
+                    rows += configRows[i] == Statement.SUCCESS_NO_INFO ? 1 : configRows[i];
+                }
+                configIndex += configs;
+                if (rows != configs) {
+                    log.debug("Domain or configuration in table for {} missing: Should have {}, got {}", job,
+                            configs, rows);
+                }
+                job.setEdition(INITIAL_EDITION);
+                job.configsChanged = false;
+            }
+        } catch (SQLException e) {
+            String message = "SQL error creating " + jobs.size() + " jobs in database" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(jobStatement);
+            DBUtils.closeStatementIfOpen(configStatement);
+            DBUtils.rollbackIfNeeded(connection, "create jobs", jobs);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Set the parameters of {@link #INSERT_JOB_SQL} from a job.
+     *
+     * @param statement A statement prepared from {@link #INSERT_JOB_SQL}
+     * @param job The job to insert, with its id and creation date set
+     * @throws SQLException If any of the parameters cannot be set
+     */
+    private void setInsertJobParameters(PreparedStatement statement, Job job) throws SQLException {
+        statement.setLong(1, job.getJobID());
+        statement.setLong(2, job.getOrigHarvestDefinitionID());
+        statement.setInt(3, job.getStatus().ordinal());
+        statement.setString(4, job.getChannel());
+        statement.setLong(5, job.getForceMaxObjectsPerDomain());
+        statement.setLong(6, job.getMaxBytesPerDomain());
+        statement.setLong(7, job.getMaxJobRunningTime());
+        DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
+                "order.xml name");
+        final String orderString = job.getOrderXMLdoc().getXML();
+        DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
+        DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
+                job, "seedlist");
+        statement.setInt(11, job.getHarvestNum());
+        DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
+        DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
+        DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
+        DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
+
+        // The size of the configuration map == number of configurations
+        statement.setInt(16, job.getDomainConfigurationMap().size());
+        statement.setLong(17, INITIAL_EDITION);
+        DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
+        statement.setString(19, job.getHarvestFilenamePrefix());
+        statement.setBoolean(20, job.isSnapshot());
+    }
+
     /**
      * Create the entries in the job_configs table for this job. Since some jobs have up to 10000 configs, this must be
      * optimized. The entries are only created, if job.configsChanged is true.
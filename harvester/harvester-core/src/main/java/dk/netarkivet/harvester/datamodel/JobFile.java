@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
+import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
+import dk.netarkivet.common.utils.cdx.CDXRecord;
+
+/**
+ * An archive file or metadata file uploaded by a job. For a metadata file, the CDX lines of its records are kept, so
+ * the records can be read directly from the archive without searching the metadata file first. This class is
+ * immutable.
+ */
+@SuppressWarnings({"serial"})
+public class JobFile implements Serializable {
+
+    /** The name of the file in the archive. */
+    private final String filename;
+    /** Whether the file is a metadata file. */
+    private final boolean metadata;
+    /** The CDX lines of the records in a metadata file separated by newlines, or null for other files. */
+    private final String cdx;
+
+    /**
+     * Create a job file.
+     *
+     * @param filename The name of the file in the archive.
+     * @param metadata Whether the file is a metadata file.
+     * @param cdx The CDX lines of the records in a metadata file separated by newlines, or null if unknown.
+     * @throws ArgumentNotValid if filename is null or empty, or CDX lines are given for a file which is not a metadata
+     * file.
+     */
+    public JobFile(String filename, boolean metadata, String cdx) {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkTrue(metadata || cdx == null, "Only metadata files may have CDX lines");
+        this.filename = filename;
+        this.metadata = metadata;
+        this.cdx = cdx;
+    }
+
+    /**
+     * Create a job file for an archive file containing harvested data.
+     *
+     * @param filename The name of the file in the archive.
+     * @return The job file.
+     */
+    public static JobFile forArchiveFile(String filename) {
+        return new JobFile(filename, false, null);
+    }
+
+    /**
+     * Create a job file for a metadata file, with the CDX lines of the records in the file. The CDX lines are the same
+     * as the ones generated by running {@link #getMetadataCDXJob()} on the file in the archive.
+     *
+     * @param metadataFile The local metadata file.
+     * @return The job file.
+     * @throws ArgumentNotValid if metadataFile is null or not a file.
+     * @throws IOFailure if the CDX lines could not be generated.
+     */
+    public static JobFile forMetadataFile(File metadataFile) {
+        ArgumentNotValid.checkExistsNormalFile(metadataFile, "File metadataFile");
+        FileBatchJob cdxJob = getMetadataCDXJob();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchLocalFiles(new File[] {metadataFile}).run(cdxJob, out);
+        if (!cdxJob.getExceptions().isEmpty()) {
+            throw new IOFailure("Unable to generate CDX lines for '" + metadataFile + "': "
+                    + cdxJob.getExceptions().get(0).getException());
+        }
+        try {
+            return new JobFile(metadataFile.getName(), true, out.toString("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IOFailure("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Get a batch job which generates the CDX lines of all records in a metadata file, except the warcinfo record.
+     *
+     * @return The batch job.
+     */
+    public static FileBatchJob getMetadataCDXJob() {
+        return new ArchiveExtractCDXJob(false) {
+            @Override
+            public ArchiveBatchFilter getFilter() {
+                return ArchiveBatchFilter.EXCLUDE_NON_WARCINFO_RECORDS;
+            }
+        };
+    }
+
+    /**
+     * @return The name of the file in the archive.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return Whether the file is a metadata file.
+     */
+    public boolean isMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return The CDX lines of the records in a metadata file separated by newlines, or null if unknown.
+     */
+    public String getCDX() {
+        return cdx;
+    }
+
+    /**
+     * Parse the CDX lines of the records in a metadata file.
+     *
+     * @return The CDX records, or an empty list if the CDX lines are unknown.
+     * @throws ArgumentNotValid if a line is not a valid CDX line.
+     */
+    public List<CDXRecord> getCDXRecords() {
+        if (cdx == null) {
+            return Collections.emptyList();
+        }
+        List<CDXRecord> records = new ArrayList<CDXRecord>();
+        for (String line : cdx.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                records.add(new CDXRecord(line.split("\\s+")));
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public String toString() {
+        return (metadata ? "Metadata file " : "Archive file ") + filename;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.util.Collection;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A Data Access Object for the catalog of the files uploaded by each job. The catalog is filled when a harvester
+ * reports the files it has uploaded, so jobs harvested before the catalog existed have no files in it.
+ */
+public abstract class JobFileDAO implements DAO {
+
+    /** The database singleton model. */
+    private static JobFileDAO instance;
+
+    /**
+     * Factory method to return the singleton instance of this class.
+     *
+     * @return the singleton instance of this class.
+     */
+    public static synchronized JobFileDAO getInstance() {
+        if (instance == null) {
+            instance = new JobFileDBDAO();
+        }
+        return instance;
+    }
+
+    /**
+     * Resets the singleton instance of this class. Mostly for testing.
+     */
+    public static void reset() {
+        instance = null;
+    }
+
+    /**
+     * Add files uploaded by a job to the catalog. A file already in the catalog for the job is replaced.
+     *
+     * @param jobID The ID of the job that uploaded the files.
+     * @param files The uploaded files.
+     * @throws ArgumentNotValid if jobID is not positive or files is null.
+     * @throws IOFailure if the files could not be stored.
+     */
+    public abstract void addFiles(long jobID, Collection<JobFile> files);
+
+    /**
+     * Get the files uploaded by a job, sorted by name.
+     *
+     * @param jobID The ID of the job.
+     * @return The files of the job, or an empty list if no files of the job are in the catalog.
+     * @throws ArgumentNotValid if jobID is not positive.
+     * @throws IOFailure if the files could not be read.
+     */
+    public abstract List<JobFile> getFiles(long jobID);
+
+}
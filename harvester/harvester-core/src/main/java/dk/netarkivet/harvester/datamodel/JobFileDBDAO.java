@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+
+/**
+ * A singleton giving access to the catalog of the files uploaded by each job.
+ */
+public class JobFileDBDAO extends JobFileDAO {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JobFileDBDAO.class);
+
+    /**
+     * Maximum size of the CDX lines of a metadata file in the database. Larger CDX lines are not stored, so the QA
+     * pages get them with a batch job instead.
+     */
+    private static final int MAX_CDX_SIZE = 64 * 1024 * 1024;
+
+    /** Statement to delete a file of a job, so it can be inserted again. */
+    private static final String DELETE_FILE_STMT = "DELETE FROM job_files WHERE job_id = ? AND filename = ?";
+
+    /** Statement to insert a file of a job. */
+    private static final String INSERT_FILE_STMT = "INSERT INTO job_files (job_id, filename, ismetadata, cdx) "
+            + "VALUES (?, ?, ?, ?)";
+
+    /** Statement to select the files of a job. */
+    private static final String SELECT_FILES_STMT = "SELECT filename, ismetadata, cdx FROM job_files "
+            + "WHERE job_id = ? ORDER BY filename";
+
+    /** Maximum size of the CDX lines stored by this DAO. */
+    private final int maxCDXSize;
+
+    /**
+     * protected constructor of this class. Checks that the table has the required version before operation starts.
+     */
+    protected JobFileDBDAO() {
+        this(MAX_CDX_SIZE);
+    }
+
+    /**
+     * Constructor with a given maximum size of the CDX lines stored. Checks that the table has the required version
+     * before operation starts.
+     *
+     * @param maxCDXSize The maximum number of characters of the CDX lines of a file to store.
+     */
+    JobFileDBDAO(int maxCDXSize) {
+        ArgumentNotValid.checkPositive(maxCDXSize, "int maxCDXSize");
+        this.maxCDXSize = maxCDXSize;
+        Connection connection = HarvestDBConnection.get();
+        try {
+            HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.JOBFILES);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    @Override
+    public void addFiles(long jobID, Collection<JobFile> files) {
+        ArgumentNotValid.checkPositive(jobID, "long jobID");
+        ArgumentNotValid.checkNotNull(files, "Collection<JobFile> files");
+        if (files.isEmpty()) {
+            return;
+        }
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement delete = null;
+        PreparedStatement insert = null;
+        try {
+            c.setAutoCommit(false);
+            delete = c.prepareStatement(DELETE_FILE_STMT);
+            insert = c.prepareStatement(INSERT_FILE_STMT);
+            for (JobFile file : files) {
+                delete.setLong(1, jobID);
+                delete.setString(2, file.getFilename());
+                delete.executeUpdate();
+                insert.setLong(1, jobID);
+                DBUtils.setStringMaxLength(insert, 2, file.getFilename(), Constants.MAX_NAME_SIZE, file, "filename");
+                insert.setBoolean(3, file.isMetadata());
+                String cdx = file.getCDX();
+                if (cdx != null && cdx.length() > maxCDXSize) {
+                    // A truncated CDX would be served as complete, so store none and let readers use a batch job.
+                    log.warn("The CDX lines of file '{}' of job {} are {} characters long, more than the allowed {}. "
+                            + "They are not stored", file.getFilename(), jobID, cdx.length(), maxCDXSize);
+                    cdx = null;
+                }
+                DBUtils.setClobMaxLength(insert, 4, cdx, maxCDXSize, file, "cdx");
+                insert.executeUpdate();
+            }
+            c.commit();
+            log.debug("Added {} files of job {} to the catalog", files.size(), jobID);
+        } catch (SQLException e) {
+            String message = "SQL error adding files of job " + jobID + " to the catalog\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(delete);
+            DBUtils.closeStatementIfOpen(insert);
+            DBUtils.rollbackIfNeeded(c, "add files of job", jobID);
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    @Override
+    public List<JobFile> getFiles(long jobID) {
+        ArgumentNotValid.checkPositive(jobID, "long jobID");
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement(SELECT_FILES_STMT);
+            s.setLong(1, jobID);
+            ResultSet res = s.executeQuery();
+            boolean useClobs = DBSpecifics.getInstance().supportsClob();
+            List<JobFile> files = new ArrayList<JobFile>();
+            while (res.next()) {
+                String cdx;
+                if (useClobs) {
+                    Clob clob = res.getClob(3);
+                    cdx = clob == null ? null : clob.getSubString(1L, (int) clob.length());
+                } else {
+                    cdx = res.getString(3);
+                }
+                files.add(new JobFile(res.getString(1), res.getBoolean(2), cdx));
+            }
+            return files;
+        } catch (SQLException e) {
+            String message = "SQL error reading files of job " + jobID + " from the catalog\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+    }
+
+}
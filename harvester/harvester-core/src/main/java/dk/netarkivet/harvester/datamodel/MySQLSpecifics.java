@@ -422,4 +422,10 @@ public class MySQLSpecifics extends DBSpecifics {
         HarvestDBConnection.executeSql("mysql", tableName, 1 );
     }
 
+    @Override
+    public void createJobFilesTable(int toVersion) {
+        String tableName = HarvesterDatabaseTables.JOBFILES.getTablename();
+        HarvestDBConnection.executeSql("mysql", tableName, 1);
+    }
+
 }
@@ -364,4 +364,10 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         HarvestDBConnection.executeSql("postgresql", tableName, 1 );
     }
 
+    @Override
+    public void createJobFilesTable(int toVersion) {
+        String tableName = HarvesterDatabaseTables.JOBFILES.getTablename();
+        HarvestDBConnection.executeSql("postgresql", tableName, 1);
+    }
+
 }
@@ -59,15 +59,37 @@ public abstract class RunningJobsInfoDAO implements DAO {
         return instance;
     }
 
+    /**
+     * Stops the background work of the DAO singleton, writes any records not yet written and resets the singleton. The
+     * next call to {@link #getInstance()} creates a new DAO.
+     */
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.cleanup();
+            instance = null;
+        }
+    }
+
     /**
      * Stores a {@link StartedJobInfo} record to the persistent storage. The record is stored in the monitor table, and
      * if the elapsed time since the last history sample is equal or superior to the history sample rate, also to the
-     * history table.
+     * history table. Implementations may defer writing the record, see {@link #flush()}.
      *
      * @param startedJobInfo the record to store.
      */
     public abstract void store(StartedJobInfo startedJobInfo);
 
+    /**
+     * Writes any stored records that have not yet been written to the persistent storage.
+     */
+    public abstract void flush();
+
+    /**
+     * Stops any background work of this DAO and writes the stored records that have not yet been written. The DAO
+     * should not be used afterwards.
+     */
+    public abstract void cleanup();
+
     /**
      * Returns the most recent record for every job, partitioned by harvest definition name.
      *
@@ -31,13 +31,16 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.lifecycle.PeriodicTaskExecutor;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.Settings;
@@ -53,6 +57,7 @@ import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlS
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportFilter;
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
 import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+import dk.netarkivet.harvester.harvesting.monitor.StartedJobHistory;
 import dk.netarkivet.harvester.harvesting.monitor.StartedJobInfo;
 
 /**
@@ -93,12 +98,48 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             }
             return columns.substring(0, columns.lastIndexOf(","));
         }
+
+        /**
+         * Returns the SQL substring that assigns a parameter to every column, in the order of their ordinal.
+         *
+         * @return the SQL substring that assigns parameters to the columns in proper order.
+         */
+        static String getAssignmentsInOrder() {
+            StringBuilder assignments = new StringBuilder();
+            for (HM_COLUMN c : values()) {
+                if (assignments.length() > 0) {
+                    assignments.append(", ");
+                }
+                assignments.append(c.name()).append("=?");
+            }
+            return assignments.toString();
+        }
+
+        /**
+         * Returns the SQL substring listing one parameter placeholder per column.
+         *
+         * @return the SQL substring listing the parameter placeholders.
+         */
+        static String getPlaceholders() {
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < values().length; i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            return placeholders.toString();
+        }
     }
 
-    /**
-     * Date of last history record per job.
-     */
-    private static Map<Long, Long> lastSampleDateByJobId = new HashMap<Long, Long>();
+    /** SQL updating the monitor table row of a job. */
+    private static final String UPDATE_MONITOR_SQL = "UPDATE runningJobsMonitor SET "
+            + HM_COLUMN.getAssignmentsInOrder() + " WHERE jobId=? AND harvestName=?";
+
+    /** SQL inserting a monitor table row for a job. */
+    private static final String INSERT_MONITOR_SQL = "INSERT INTO runningJobsMonitor (" + HM_COLUMN.getColumnsInOrder()
+            + ") VALUES (" + HM_COLUMN.getPlaceholders() + ")";
+
+    /** SQL inserting a history table row for a job. */
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO runningJobsHistory (" + HM_COLUMN.getColumnsInOrder()
+            + ") VALUES (" + HM_COLUMN.getPlaceholders() + ")";
 
     /**
      * Rate in milliseconds at which history records should be sampled for a running job.
@@ -106,9 +147,64 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     private static final long HISTORY_SAMPLE_RATE = 1000 * Settings
             .getLong(HarvesterSettings.HARVEST_MONITOR_HISTORY_SAMPLE_RATE);
 
+    /**
+     * Maximum number of history records kept in memory per running job.
+     */
+    private static final int HISTORY_BUFFER_SIZE = Settings
+            .getInt(HarvesterSettings.HARVEST_MONITOR_HISTORY_BUFFER_SIZE);
+
+    /**
+     * Interval in seconds between writes of the stored records to the DB.
+     */
+    private static final long PERSIST_INTERVAL = Settings.getLong(HarvesterSettings.HARVEST_MONITOR_PERSIST_INTERVAL);
+
+    /**
+     * Date of last history record per job.
+     */
+    private final Map<Long, Long> lastSampleDateByJobId = new ConcurrentHashMap<Long, Long>();
+
+    /**
+     * The most recent record per job, for the jobs that have reported progress since this DAO was created.
+     */
+    private final Map<Long, StartedJobInfo> mostRecentByJobId = new ConcurrentHashMap<Long, StartedJobInfo>();
+
+    /**
+     * The in-memory history per job, for the jobs that have reported progress since this DAO was created. It is seeded
+     * from the history table the first time a job reports progress.
+     */
+    private final ConcurrentMap<Long, StartedJobHistory> historyByJobId =
+            new ConcurrentHashMap<Long, StartedJobHistory>();
+
+    /**
+     * The ids of the jobs known to have a row in the monitor table, so it is updated rather than inserted.
+     */
+    private final Set<Long> jobsInMonitorTable = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * The most recent record per job not yet written to the monitor table. Also guards {@link #unsavedHistoryRecords}
+     * and the in-memory records.
+     */
+    private final Map<Long, StartedJobInfo> unsavedMonitorRecords = new LinkedHashMap<Long, StartedJobInfo>();
+
+    /**
+     * The records sampled for the history table and not yet written to it, in chronological order.
+     */
+    private final List<StartedJobInfo> unsavedHistoryRecords = new ArrayList<StartedJobInfo>();
+
+    /**
+     * Held while writing records to the DB or deleting records from it, so records of a removed job are not written
+     * back.
+     */
+    private final Object persistLock = new Object();
+
+    /** Periodically writes the stored records to the DB. */
+    private final PeriodicTaskExecutor persister;
+
     /**
      * The constructor of RunningJobsInfoDBDAO. Attempts to update/install the necessary database tables, if they need
-     * to be updated.
+     * to be updated, and starts writing stored records to the DB at the configured interval.
+     *
+     * @see HarvesterSettings#HARVEST_MONITOR_PERSIST_INTERVAL
      */
     public RunningJobsInfoDBDAO() {
         Connection connection = HarvestDBConnection.get();
@@ -123,167 +219,223 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         } finally {
             HarvestDBConnection.release(connection);
         }
+
+        persister = new PeriodicTaskExecutor("RunningJobsInfoPersister", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    // Keep the task scheduled, the records are written with the next ones.
+                    log.warn("Failed to write running job infos to the DB", e);
+                }
+            }
+        }, PERSIST_INTERVAL, PERSIST_INTERVAL);
     }
 
     /**
-     * Stores a {@link StartedJobInfo} record to the persistent storage. The record is stored in the monitor table, and
-     * if the elapsed time since the last history sample is equal or superior to the history sample rate, also to the
-     * history table.
+     * Stores a {@link StartedJobInfo} record. The record becomes the most recent record of its job, and if the elapsed
+     * time since the last history sample is equal or superior to the history sample rate, it is also added to the
+     * history of the job. The records are kept in memory and written to the monitor and history tables by a background
+     * task, so storing does not access the DB, except the first time a job is seen.
      *
      * @param startedJobInfo the record to store.
      */
     @Override
-    public synchronized void store(StartedJobInfo startedJobInfo) {
+    public void store(StartedJobInfo startedJobInfo) {
         ArgumentNotValid.checkNotNull(startedJobInfo, "StartedJobInfo startedJobInfo");
+        long jobId = startedJobInfo.getJobId();
+        StartedJobHistory history = getHistory(jobId);
 
-        Connection c = HarvestDBConnection.get();
+        synchronized (unsavedMonitorRecords) {
+            mostRecentByJobId.put(jobId, startedJobInfo);
+            unsavedMonitorRecords.put(jobId, startedJobInfo);
 
-        try {
-            PreparedStatement stm = null;
-
-            // First is there a record in the monitor table?
-            boolean update = false;
-            try {
-                stm = c.prepareStatement("SELECT jobId FROM runningJobsMonitor WHERE jobId=? AND harvestName=?");
-                stm.setLong(1, startedJobInfo.getJobId());
-                stm.setString(2, startedJobInfo.getHarvestName());
+            // Should we store an history record?
+            Long lastHistoryStore = lastSampleDateByJobId.get(jobId);
+            long time = System.currentTimeMillis();
+            if (lastHistoryStore == null || time >= lastHistoryStore + HISTORY_SAMPLE_RATE) {
+                log.debug("Adding history Record for job {}", jobId);
+                history.add(startedJobInfo);
+                unsavedHistoryRecords.add(startedJobInfo);
+                // Remember last sampling date
+                lastSampleDateByJobId.put(jobId, time);
+            }
+        }
+    }
 
-                // One row expected, as per PK definition
-                update = stm.executeQuery().next();
+    /**
+     * Returns the in-memory history of a job, loading it from the DB if the job has not reported progress since this
+     * DAO was created.
+     *
+     * @param jobId the job id.
+     * @return the in-memory history of the job.
+     */
+    private StartedJobHistory getHistory(long jobId) {
+        StartedJobHistory history = historyByJobId.get(jobId);
+        if (history != null) {
+            return history;
+        }
+        history = new StartedJobHistory(HISTORY_BUFFER_SIZE);
+        for (StartedJobInfo sji : readFullJobHistory(jobId)) {
+            history.add(sji);
+        }
+        if (readMostRecentByJobId(jobId) != null) {
+            jobsInMonitorTable.add(jobId);
+        }
+        StartedJobHistory previous = historyByJobId.putIfAbsent(jobId, history);
+        return previous == null ? history : previous;
+    }
 
-            } catch (SQLException e) {
-                String message = "SQL error checking running jobs monitor table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
+    /**
+     * Writes the records stored since the last write to the DB, using batched statements in one transaction. If the
+     * write fails, the records are kept and written with the next ones.
+     */
+    @Override
+    public void flush() {
+        synchronized (persistLock) {
+            List<StartedJobInfo> monitorRecords;
+            List<StartedJobInfo> historyRecords;
+            synchronized (unsavedMonitorRecords) {
+                if (unsavedMonitorRecords.isEmpty() && unsavedHistoryRecords.isEmpty()) {
+                    return;
+                }
+                monitorRecords = new ArrayList<StartedJobInfo>(unsavedMonitorRecords.values());
+                historyRecords = new ArrayList<StartedJobInfo>(unsavedHistoryRecords);
+                unsavedMonitorRecords.clear();
+                unsavedHistoryRecords.clear();
             }
 
+            Connection c = HarvestDBConnection.get();
+            PreparedStatement updateStm = null;
+            PreparedStatement insertStm = null;
+            PreparedStatement historyStm = null;
+            List<Long> insertedJobIds = new ArrayList<Long>();
             try {
-                // Update or insert latest progress information for this job
                 c.setAutoCommit(false);
 
-                StringBuffer sql = new StringBuffer();
-
-                if (update) {
-                    sql.append("UPDATE runningJobsMonitor SET ");
-
-                    StringBuffer columns = new StringBuffer();
-                    // FIXME Seriously, construct an identical SQL string every time and use an enum...?!
-                    for (HM_COLUMN setCol : HM_COLUMN.values()) {
-                        columns.append(setCol.name() + "=?, ");
+                // Update or insert latest progress information for the jobs
+                updateStm = c.prepareStatement(UPDATE_MONITOR_SQL);
+                insertStm = c.prepareStatement(INSERT_MONITOR_SQL);
+                for (StartedJobInfo sji : monitorRecords) {
+                    if (jobsInMonitorTable.contains(sji.getJobId())) {
+                        setColumns(updateStm, sji);
+                        updateStm.setLong(HM_COLUMN.values().length + 1, sji.getJobId());
+                        updateStm.setString(HM_COLUMN.values().length + 2, sji.getHarvestName());
+                        updateStm.addBatch();
+                    } else {
+                        setColumns(insertStm, sji);
+                        insertStm.addBatch();
+                        insertedJobIds.add(sji.getJobId());
                     }
-                    sql.append(columns.substring(0, columns.lastIndexOf(",")));
-                    sql.append(" WHERE jobId=? AND harvestName=?");
-                } else {
-                    sql.append("INSERT INTO runningJobsMonitor (");
-                    sql.append(HM_COLUMN.getColumnsInOrder());
-                    sql.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
                 }
-
-                stm = c.prepareStatement(sql.toString());
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-
-                if (update) {
-                    stm.setLong(HM_COLUMN.values().length + 1, startedJobInfo.getJobId());
-                    stm.setString(HM_COLUMN.values().length + 2, startedJobInfo.getHarvestName());
+                if (insertedJobIds.size() < monitorRecords.size()) {
+                    updateStm.executeBatch();
+                }
+                if (!insertedJobIds.isEmpty()) {
+                    insertStm.executeBatch();
                 }
 
-                stm.executeUpdate();
+                if (!historyRecords.isEmpty()) {
+                    historyStm = c.prepareStatement(INSERT_HISTORY_SQL);
+                    for (StartedJobInfo sji : historyRecords) {
+                        setColumns(historyStm, sji);
+                        historyStm.addBatch();
+                    }
+                    historyStm.executeBatch();
+                }
 
                 c.commit();
+                jobsInMonitorTable.addAll(insertedJobIds);
+                log.debug("Wrote {} monitor records and {} history records", monitorRecords.size(),
+                        historyRecords.size());
             } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in monitor table" + "\n"
+                String message = "SQL error writing " + monitorRecords.size() + " monitor records and "
+                        + historyRecords.size() + " history records, will retry" + "\n"
                         + ExceptionUtils.getSQLExceptionCause(e);
                 log.warn(message, e);
-                throw new IOFailure(message, e);
+                synchronized (unsavedMonitorRecords) {
+                    // Records stored in the meantime are more recent
+                    for (StartedJobInfo sji : monitorRecords) {
+                        if (!unsavedMonitorRecords.containsKey(sji.getJobId())) {
+                            unsavedMonitorRecords.put(sji.getJobId(), sji);
+                        }
+                    }
+                    unsavedHistoryRecords.addAll(0, historyRecords);
+                }
             } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
-            }
-
-            // Should we store an history record?
-            Long lastHistoryStore = lastSampleDateByJobId.get(startedJobInfo.getJobId());
-
-            long time = System.currentTimeMillis();
-            boolean shouldSample = lastHistoryStore == null || time >= lastHistoryStore + HISTORY_SAMPLE_RATE;
-
-            if (!shouldSample) {
-                return; // we're done
+                DBUtils.closeStatementIfOpen(updateStm);
+                DBUtils.closeStatementIfOpen(insertStm);
+                DBUtils.closeStatementIfOpen(historyStm);
+                DBUtils.rollbackIfNeeded(c, "flush running job infos", monitorRecords.size());
+                HarvestDBConnection.release(c);
             }
-            log.debug("Adding history Record for job {} to runningJobsHistory table", startedJobInfo.getJobId());
-            try {
-                c.setAutoCommit(false);
-
-                stm = c.prepareStatement("INSERT INTO runningJobsHistory (" + HM_COLUMN.getColumnsInOrder()
-                        + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-
-                stm.executeUpdate();
+        }
+    }
 
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in history table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
-            }
+    /**
+     * Stops writing stored records to the DB periodically, then writes the records stored since the last write.
+     */
+    @Override
+    public void cleanup() {
+        persister.shutdown();
+        flush();
+    }
 
-            // Remember last sampling date
-            lastSampleDateByJobId.put(startedJobInfo.getJobId(), time);
-        } finally {
-            HarvestDBConnection.release(c);
-        }
+    /**
+     * Sets the columns of a runningJobsMonitor or runningJobsHistory statement from a record.
+     *
+     * @param stm a statement having the columns of {@link HM_COLUMN} as its first parameters.
+     * @param startedJobInfo the record.
+     * @throws SQLException If a parameter cannot be set.
+     */
+    private static void setColumns(PreparedStatement stm, StartedJobInfo startedJobInfo) throws SQLException {
+        stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
+        stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
+        stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
+        stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
+        stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
+        stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
+        stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
+        stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
+        stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
+        stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
+        stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
+        stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
+        stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
+        stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
+        stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(), startedJobInfo.getCurrentProcessedDocsPerSec());
+        stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
+        stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
+        stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
+        stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
     }
 
     /**
-     * Returns an array of all progress records chronologically sorted for the given job ID.
+     * Returns an array of all progress records chronologically sorted for the given job ID. For a job that has reported
+     * progress since this DAO was created, the records are read from memory, where the oldest records of long crawls
+     * are thinned out.
      *
      * @param jobId the job id.
      * @return an array of all progress records chronologically sorted for the given job ID.
      */
     @Override
     public StartedJobInfo[] getFullJobHistory(long jobId) {
+        StartedJobHistory history = historyByJobId.get(jobId);
+        if (history != null) {
+            return history.getAll();
+        }
+        List<StartedJobInfo> infosForJob = readFullJobHistory(jobId);
+        return (StartedJobInfo[]) infosForJob.toArray(new StartedJobInfo[infosForJob.size()]);
+    }
+
+    /**
+     * Reads all progress records for the given job ID from the history table.
+     *
+     * @param jobId the job id.
+     * @return all progress records for the given job ID, chronologically sorted.
+     */
+    private List<StartedJobInfo> readFullJobHistory(long jobId) {
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
@@ -292,10 +444,7 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             stm.setLong(1, jobId);
 
             ResultSet rs = stm.executeQuery();
-            List<StartedJobInfo> infosForJob = listFromResultSet(rs);
-
-            return (StartedJobInfo[]) infosForJob.toArray(new StartedJobInfo[infosForJob.size()]);
-
+            return listFromResultSet(rs);
         } catch (SQLException e) {
             String message = "SQL error querying runningJobsHistory for job ID " + jobId + " from database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -308,55 +457,23 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     }
 
     /**
-     * Returns the most recent record for every job, partitioned by harvest definition name.
+     * Returns the most recent record for every job, partitioned by harvest definition name. The records of the jobs
+     * that have reported progress since this DAO was created are read from memory, the others from the monitor table.
      *
      * @return the full listing of started job information, partitioned by harvest definition name.
      */
     @Override
     public Map<String, List<StartedJobInfo>> getMostRecentByHarvestName() {
-        Connection c = HarvestDBConnection.get();
+        Map<Long, StartedJobInfo> mostRecent = new TreeMap<Long, StartedJobInfo>();
 
-        Map<String, List<StartedJobInfo>> infoMap = new TreeMap<String, List<StartedJobInfo>>();
+        Connection c = HarvestDBConnection.get();
         Statement stm = null;
         try {
             stm = c.createStatement();
             ResultSet rs = stm.executeQuery("SELECT " + HM_COLUMN.getColumnsInOrder() + " FROM runningJobsMonitor");
-
-            while (rs.next()) {
-                long jobId = rs.getLong(HM_COLUMN.jobId.rank());
-                String harvestName = rs.getString(HM_COLUMN.harvestName.rank());
-
-                List<StartedJobInfo> infosForHarvest = infoMap.get(harvestName);
-                if (infosForHarvest == null) {
-                    infosForHarvest = new LinkedList<StartedJobInfo>();
-                    infoMap.put(harvestName, infosForHarvest);
-                }
-
-                StartedJobInfo sji = new StartedJobInfo(harvestName, jobId);
-
-                sji.setElapsedSeconds(rs.getLong(HM_COLUMN.elapsedSeconds.rank()));
-                sji.setHostUrl(rs.getString(HM_COLUMN.hostUrl.rank()));
-                sji.setProgress(rs.getDouble(HM_COLUMN.progress.rank()));
-                sji.setQueuedFilesCount(rs.getLong(HM_COLUMN.queuedFilesCount.rank()));
-                sji.setTotalQueuesCount(rs.getLong(HM_COLUMN.totalQueuesCount.rank()));
-                sji.setActiveQueuesCount(rs.getLong(HM_COLUMN.activeQueuesCount.rank()));
-                sji.setRetiredQueuesCount(rs.getLong(HM_COLUMN.retiredQueuesCount.rank()));
-                sji.setExhaustedQueuesCount(rs.getLong(HM_COLUMN.exhaustedQueuesCount.rank()));
-                sji.setAlertsCount(rs.getLong(HM_COLUMN.alertsCount.rank()));
-                sji.setDownloadedFilesCount(rs.getLong(HM_COLUMN.downloadedFilesCount.rank()));
-                sji.setCurrentProcessedKBPerSec(rs.getLong(HM_COLUMN.currentProcessedKBPerSec.rank()));
-                sji.setProcessedKBPerSec(rs.getLong(HM_COLUMN.processedKBPerSec.rank()));
-                sji.setCurrentProcessedDocsPerSec(rs.getDouble(HM_COLUMN.currentProcessedDocsPerSec.rank()));
-                sji.setProcessedDocsPerSec(rs.getDouble(HM_COLUMN.processedDocsPerSec.rank()));
-                sji.setActiveToeCount(rs.getInt(HM_COLUMN.activeToeCount.rank()));
-                sji.setStatus(CrawlStatus.values()[rs.getInt(HM_COLUMN.status.rank())]);
-                sji.setTimestamp(new Date(rs.getTimestamp(HM_COLUMN.tstamp.rank()).getTime()));
-
-                infosForHarvest.add(sji);
+            for (StartedJobInfo sji : listFromResultSet(rs)) {
+                mostRecent.put(sji.getJobId(), sji);
             }
-
-            return infoMap;
-
         } catch (SQLException e) {
             String message = "SQL error querying runningJobsMonitor" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
             log.warn(message, e);
@@ -365,7 +482,18 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             DBUtils.closeStatementIfOpen(stm);
             HarvestDBConnection.release(c);
         }
+        mostRecent.putAll(mostRecentByJobId);
 
+        Map<String, List<StartedJobInfo>> infoMap = new TreeMap<String, List<StartedJobInfo>>();
+        for (StartedJobInfo sji : mostRecent.values()) {
+            List<StartedJobInfo> infosForHarvest = infoMap.get(sji.getHarvestName());
+            if (infosForHarvest == null) {
+                infosForHarvest = new LinkedList<StartedJobInfo>();
+                infoMap.put(sji.getHarvestName(), infosForHarvest);
+            }
+            infosForHarvest.add(sji);
+        }
+        return infoMap;
     }
 
     /**
@@ -376,7 +504,7 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     @Override
     public Set<Long> getHistoryRecordIds() {
         Connection c = HarvestDBConnection.get();
-        Set<Long> jobIds = new TreeSet<Long>();
+        Set<Long> jobIds = new TreeSet<Long>(mostRecentByJobId.keySet());
         Statement stm = null;
         try {
             stm = c.createStatement();
@@ -415,7 +543,8 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
 
     /**
      * Returns an array of chronologically sorted progress records for the given job ID, starting at a given crawl time,
-     * and limited to a given number of record.
+     * and limited to a given number of record. For a job that has reported progress since this DAO was created, the
+     * records are read from memory.
      *
      * @param jobId the job id.
      * @param startTime the crawl time (in seconds) to begin.
@@ -430,6 +559,11 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         ArgumentNotValid.checkNotNull(startTime, "startTime");
         ArgumentNotValid.checkNotNull(limit, "limit");
 
+        StartedJobHistory history = historyByJobId.get(jobId);
+        if (history != null) {
+            return history.getMostRecent(startTime, limit);
+        }
+
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
@@ -460,41 +594,37 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
      *
      * @param jobId the job id.
      * @return the most recent progress record for the given job ID.
+     * @throws UnknownID if no record exists for the job.
      */
     @Override
     public StartedJobInfo getMostRecentByJobId(long jobId) {
+        StartedJobInfo sji = mostRecentByJobId.get(jobId);
+        if (sji == null) {
+            sji = readMostRecentByJobId(jobId);
+        }
+        if (sji == null) {
+            throw new UnknownID("No running job with ID " + jobId);
+        }
+        log.debug("getMostRecentByJobId for {}:{}", jobId, sji);
+        return sji;
+    }
+
+    /**
+     * Reads the record of the given job ID from the monitor table.
+     *
+     * @param jobId the job id.
+     * @return the record of the given job ID, or null if there is none.
+     */
+    private StartedJobInfo readMostRecentByJobId(long jobId) {
         Connection c = HarvestDBConnection.get();
-        Statement stm = null;
+        PreparedStatement stm = null;
         try {
-            stm = c.createStatement();
-            ResultSet rs = stm.executeQuery("SELECT " + HM_COLUMN.getColumnsInOrder() + " FROM runningJobsMonitor"
-                    + " WHERE jobId=" + jobId);
-
-            if (rs.next()) {
-                String harvestName = rs.getString(HM_COLUMN.harvestName.rank());
-                StartedJobInfo sji = new StartedJobInfo(harvestName, jobId);
-
-                sji.setElapsedSeconds(rs.getLong(HM_COLUMN.elapsedSeconds.rank()));
-                sji.setHostUrl(rs.getString(HM_COLUMN.hostUrl.rank()));
-                sji.setProgress(rs.getDouble(HM_COLUMN.progress.rank()));
-                sji.setQueuedFilesCount(rs.getLong(HM_COLUMN.queuedFilesCount.rank()));
-                sji.setTotalQueuesCount(rs.getLong(HM_COLUMN.totalQueuesCount.rank()));
-                sji.setActiveQueuesCount(rs.getLong(HM_COLUMN.activeQueuesCount.rank()));
-                sji.setRetiredQueuesCount(rs.getLong(HM_COLUMN.retiredQueuesCount.rank()));
-                sji.setExhaustedQueuesCount(rs.getLong(HM_COLUMN.exhaustedQueuesCount.rank()));
-                sji.setAlertsCount(rs.getLong(HM_COLUMN.alertsCount.rank()));
-                sji.setDownloadedFilesCount(rs.getLong(HM_COLUMN.downloadedFilesCount.rank()));
-                sji.setCurrentProcessedKBPerSec(rs.getLong(HM_COLUMN.currentProcessedKBPerSec.rank()));
-                sji.setProcessedKBPerSec(rs.getLong(HM_COLUMN.processedKBPerSec.rank()));
-                sji.setCurrentProcessedDocsPerSec(rs.getDouble(HM_COLUMN.currentProcessedDocsPerSec.rank()));
-                sji.setProcessedDocsPerSec(rs.getDouble(HM_COLUMN.processedDocsPerSec.rank()));
-                sji.setActiveToeCount(rs.getInt(HM_COLUMN.activeToeCount.rank()));
-                sji.setStatus(CrawlStatus.values()[rs.getInt(HM_COLUMN.status.rank())]);
-                sji.setTimestamp(new Date(rs.getTimestamp(HM_COLUMN.tstamp.rank()).getTime()));
-                log.debug("getMostRecentByJobId for {}:{}", jobId, sji);
-                return sji;
-            }
+            stm = c.prepareStatement("SELECT " + HM_COLUMN.getColumnsInOrder() + " FROM runningJobsMonitor"
+                    + " WHERE jobId=?");
+            stm.setLong(1, jobId);
 
+            List<StartedJobInfo> infosForJob = listFromResultSet(stm.executeQuery());
+            return infosForJob.isEmpty() ? null : infosForJob.get(0);
         } catch (SQLException e) {
             String message = "SQL error querying runningJobsMonitor" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
             log.warn(message, e);
@@ -503,12 +633,10 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             DBUtils.closeStatementIfOpen(stm);
             HarvestDBConnection.release(c);
         }
-
-        throw new UnknownID("No running job with ID " + jobId);
     }
 
     /**
-     * Removes all records pertaining to the given job ID from the persistent storage.
+     * Removes all records pertaining to the given job ID from memory and from the persistent storage.
      *
      * @param jobId the job id.
      * @return the number of deleted records.
@@ -517,37 +645,52 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     public int removeInfoForJob(long jobId) {
         ArgumentNotValid.checkNotNull(jobId, "jobId");
 
-        Connection c = HarvestDBConnection.get();
-        PreparedStatement stm = null;
+        synchronized (persistLock) {
+            synchronized (unsavedMonitorRecords) {
+                mostRecentByJobId.remove(jobId);
+                historyByJobId.remove(jobId);
+                lastSampleDateByJobId.remove(jobId);
+                unsavedMonitorRecords.remove(jobId);
+                Iterator<StartedJobInfo> unsaved = unsavedHistoryRecords.iterator();
+                while (unsaved.hasNext()) {
+                    if (unsaved.next().getJobId() == jobId) {
+                        unsaved.remove();
+                    }
+                }
+            }
+            jobsInMonitorTable.remove(jobId);
 
-        int deleteCount = 0;
-        try {
-            // Delete from monitor table
-            c.setAutoCommit(false);
-            stm = c.prepareStatement("DELETE FROM runningJobsMonitor WHERE jobId=?");
-            stm.setLong(1, jobId);
-            deleteCount = stm.executeUpdate();
-            c.commit();
-            stm.close();
-            // Delete from history table
-            c.setAutoCommit(false);
-            stm = c.prepareStatement("DELETE FROM runningJobsHistory WHERE jobId=?");
-            stm.setLong(1, jobId);
-            deleteCount += stm.executeUpdate();
-            c.commit();
-        } catch (SQLException e) {
-            String message = "SQL error deleting from history records for job ID " + jobId + "\n"
-                    + ExceptionUtils.getSQLExceptionCause(e);
-            log.warn(message, e);
-            throw new IOFailure(message, e);
-        } finally {
-            DBUtils.closeStatementIfOpen(stm);
-            DBUtils.rollbackIfNeeded(c, "removeInfoForJob", jobId);
-            HarvestDBConnection.release(c);
-        }
+            Connection c = HarvestDBConnection.get();
+            PreparedStatement stm = null;
 
-        return deleteCount;
+            int deleteCount = 0;
+            try {
+                // Delete from monitor table
+                c.setAutoCommit(false);
+                stm = c.prepareStatement("DELETE FROM runningJobsMonitor WHERE jobId=?");
+                stm.setLong(1, jobId);
+                deleteCount = stm.executeUpdate();
+                c.commit();
+                stm.close();
+                // Delete from history table
+                c.setAutoCommit(false);
+                stm = c.prepareStatement("DELETE FROM runningJobsHistory WHERE jobId=?");
+                stm.setLong(1, jobId);
+                deleteCount += stm.executeUpdate();
+                c.commit();
+            } catch (SQLException e) {
+                String message = "SQL error deleting from history records for job ID " + jobId + "\n"
+                        + ExceptionUtils.getSQLExceptionCause(e);
+                log.warn(message, e);
+                throw new IOFailure(message, e);
+            } finally {
+                DBUtils.closeStatementIfOpen(stm);
+                DBUtils.rollbackIfNeeded(c, "removeInfoForJob", jobId);
+                HarvestDBConnection.release(c);
+            }
 
+            return deleteCount;
+        }
     }
 
     /**
@@ -966,6 +1109,7 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             sji.setQueuedFilesCount(rs.getLong(HM_COLUMN.queuedFilesCount.rank()));
             sji.setTotalQueuesCount(rs.getLong(HM_COLUMN.totalQueuesCount.rank()));
             sji.setActiveQueuesCount(rs.getLong(HM_COLUMN.activeQueuesCount.rank()));
+            sji.setRetiredQueuesCount(rs.getLong(HM_COLUMN.retiredQueuesCount.rank()));
             sji.setExhaustedQueuesCount(rs.getLong(HM_COLUMN.exhaustedQueuesCount.rank()));
             sji.setAlertsCount(rs.getLong(HM_COLUMN.alertsCount.rank()));
             sji.setDownloadedFilesCount(rs.getLong(HM_COLUMN.downloadedFilesCount.rank()));
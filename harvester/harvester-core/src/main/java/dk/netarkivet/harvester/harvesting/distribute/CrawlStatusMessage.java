@@ -24,9 +24,12 @@
 package dk.netarkivet.harvester.harvesting.distribute;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.harvester.datamodel.JobFile;
 import dk.netarkivet.harvester.datamodel.JobStatus;
 import dk.netarkivet.harvester.distribute.HarvesterChannels;
 import dk.netarkivet.harvester.distribute.HarvesterMessage;
@@ -56,6 +59,8 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
     private String uploadErrors;
     /** upload errors encountered with details. */
     private String uploadErrorDetails;
+    /** The files uploaded by the crawl, or null if not known. */
+    private List<JobFile> uploadedFiles;
 
     /**
      * Creates an instance of this class corresponding to a job.
@@ -219,4 +224,24 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
         this.uploadErrorDetails = uploadErrorDetails;
     }
 
+    /**
+     * Get-method for private field uploadedFiles.
+     *
+     * @return the files uploaded by the crawl, or null if not known.
+     */
+    public List<JobFile> getUploadedFiles() {
+        return uploadedFiles;
+    }
+
+    /**
+     * Set-method for private field uploadedFiles.
+     *
+     * @param uploadedFiles The files uploaded by the crawl.
+     * @throws ArgumentNotValid if null argument
+     */
+    public void setUploadedFiles(List<JobFile> uploadedFiles) {
+        ArgumentNotValid.checkNotNull(uploadedFiles, "List<JobFile> uploadedFiles");
+        this.uploadedFiles = new ArrayList<JobFile>(uploadedFiles);
+    }
+
 }
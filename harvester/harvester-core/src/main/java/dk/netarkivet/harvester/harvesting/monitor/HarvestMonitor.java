@@ -96,6 +96,7 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
      */
     public void cleanup() {
         JMSConnectionFactory.getInstance().removeListener(HARVEST_MONITOR_CHANNEL_ID, this);
+        RunningJobsInfoDAO.reset();
 
         for (StartedJobHistoryChartGen chartGen : chartGenByJobId.values()) {
             chartGen.cleanup();
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The progress history of one running job, kept in memory in a ring buffer of fixed capacity.
+ * <p>
+ * Records are expected to be added in chronological order. When the buffer is full, the oldest half of it is thinned
+ * out by dropping every second record. The most recent records are thus always kept at full resolution, while the
+ * start of a long crawl is kept at a coarser and coarser resolution, so the whole crawl can still be charted.
+ * <p>
+ * This class is thread safe.
+ */
+public class StartedJobHistory {
+
+    /** The smallest allowed capacity. */
+    public static final int MIN_CAPACITY = 4;
+
+    /** The records, in chronological order starting at {@link #head}, wrapping around. */
+    private final StartedJobInfo[] records;
+
+    /** The index of the oldest record. */
+    private int head;
+
+    /** The number of records in the buffer. */
+    private int size;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity the maximum number of records to keep, at least {@link #MIN_CAPACITY}.
+     * @throws ArgumentNotValid if the capacity is too small.
+     */
+    public StartedJobHistory(int capacity) {
+        ArgumentNotValid.checkTrue(capacity >= MIN_CAPACITY, "capacity must be at least " + MIN_CAPACITY
+                + ", was " + capacity);
+        this.records = new StartedJobInfo[capacity];
+    }
+
+    /**
+     * Adds a record to the history, thinning out the oldest records first if the history is full.
+     *
+     * @param record the record to add, more recent than all records already added.
+     */
+    public synchronized void add(StartedJobInfo record) {
+        ArgumentNotValid.checkNotNull(record, "StartedJobInfo record");
+        if (size == records.length) {
+            downsample();
+        }
+        records[(head + size) % records.length] = record;
+        size++;
+    }
+
+    /**
+     * Drops every second record of the oldest half of the buffer, always keeping the oldest record, and moves the
+     * remaining records to the start of the buffer.
+     */
+    private void downsample() {
+        StartedJobInfo[] ordered = new StartedJobInfo[size];
+        for (int i = 0; i < size; i++) {
+            ordered[i] = records[(head + i) % records.length];
+        }
+        int oldHalf = size / 2;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (i >= oldHalf || i % 2 == 0) {
+                records[kept++] = ordered[i];
+            }
+        }
+        for (int i = kept; i < records.length; i++) {
+            records[i] = null;
+        }
+        head = 0;
+        size = kept;
+    }
+
+    /**
+     * @return the number of records currently kept.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the most recent record, or null if the history is empty.
+     */
+    public synchronized StartedJobInfo getMostRecent() {
+        if (size == 0) {
+            return null;
+        }
+        return records[(head + size - 1) % records.length];
+    }
+
+    /**
+     * @return all records kept, chronologically sorted.
+     */
+    public synchronized StartedJobInfo[] getAll() {
+        StartedJobInfo[] all = new StartedJobInfo[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = records[(head + i) % records.length];
+        }
+        return all;
+    }
+
+    /**
+     * Returns the most recent records starting at a given crawl time, most recent first.
+     *
+     * @param startTime the crawl time (in seconds) to begin.
+     * @param limit the maximum number of records to return.
+     * @return at most limit records with an elapsed time of at least startTime, in reverse chronological order.
+     */
+    public synchronized StartedJobInfo[] getMostRecent(long startTime, int limit) {
+        List<StartedJobInfo> recent = new ArrayList<StartedJobInfo>(Math.max(0, Math.min(limit, size)));
+        for (int i = size - 1; i >= 0 && recent.size() < limit; i--) {
+            StartedJobInfo record = records[(head + i) % records.length];
+            if (record.getElapsedSeconds() < startTime) {
+                break;
+            }
+            recent.add(record);
+        }
+        return recent.toArray(new StartedJobInfo[recent.size()]);
+    }
+
+}
@@ -22,8 +22,10 @@
  */
 package dk.netarkivet.harvester.harvesting.report;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,8 +37,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
-import dk.netarkivet.harvester.datamodel.Domain;
-import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.DomainConfigurationLimits;
 import dk.netarkivet.harvester.datamodel.DomainDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HarvestInfo;
@@ -102,10 +103,17 @@ public class BnfHarvestReport extends AbstractHarvestReport{
         harvestDomainNames.addAll(getDomainNames());
         harvestDomainNames.retainAll(domConfMap.keySet());
 
+        // Read the limits of all configurations at once instead of reading each domain.
+        Map<String, DomainConfigurationLimits> limitsMap = domDao.getJobConfigurationLimits(job.getJobID());
+        List<HarvestInfo> harvestInfos = new ArrayList<HarvestInfo>(harvestDomainNames.size());
+
         for (String domainName : harvestDomainNames) {
-            Domain domain = domDao.read(domainName);
-            String confName = domConfMap.get(domainName);
-            DomainConfiguration conf = domain.getConfiguration(confName);
+            DomainConfigurationLimits conf = limitsMap.get(domainName);
+            if (conf == null) {
+                LOG.warn("No configuration of domain '{}' found for job {}", domainName, job.getJobID());
+                continue;
+            }
+            String confName = conf.getConfigurationName();
 
             long confByteLimit = conf.getMaxBytes();
             long confObjectLimit = conf.getMaxObjects();
@@ -131,13 +139,12 @@ public class BnfHarvestReport extends AbstractHarvestReport{
             // Create the HarvestInfo object
             HarvestInfo hi = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName, confName,
                     new Date(), actualByteCount, actualObjectCount, finalStopReason);
-
-            // Add HarvestInfo to Domain and make data persistent
-            // by updating DAO
-            domain.getHistory().addHarvestInfo(hi);
-            domDao.update(domain);
+            harvestInfos.add(hi);
         }
 
+        // Make the HarvestInfo objects persistent in one go
+        domDao.addHarvestInfo(job.getJobID(), harvestInfos);
+
         if (LOG.isInfoEnabled()) {
             long time = System.currentTimeMillis() - startTime;
             LOG.info("Finished post-processing of harvest report for job {}, operation took {}", job.getJobID(),
@@ -22,8 +22,10 @@
  */
 package dk.netarkivet.harvester.harvesting.report;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,7 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
-import dk.netarkivet.harvester.datamodel.Domain;
+import dk.netarkivet.harvester.datamodel.DomainConfigurationLimits;
 import dk.netarkivet.harvester.datamodel.DomainDAO;
 import dk.netarkivet.harvester.datamodel.HarvestInfo;
 import dk.netarkivet.harvester.datamodel.Job;
@@ -77,6 +79,8 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
         // For each domain harvested, check if it corresponds to a
         // domain configuration for this Job and if so add a new HarvestInfo
         // to the DomainHistory of the corresponding Domain object.
+        // The HarvestInfo objects are stored together at the end, so the
+        // domains themselves are never read or updated.
         // TODO Information about the domains harvested by the crawler
         // without a domain configuration for this job is deleted!
         // Should this information be saved in some way (perhaps stored
@@ -86,8 +90,14 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
         domainNames.addAll(getDomainNames());
         domainNames.retainAll(configurationMap.keySet());
         final DomainDAO dao = DomainDAO.getInstance();
+        final Map<String, DomainConfigurationLimits> limitsMap = dao.getJobConfigurationLimits(job.getJobID());
+        final List<HarvestInfo> harvestInfos = new ArrayList<HarvestInfo>(domainNames.size());
         for (String domainName : domainNames) {
-            Domain domain = dao.read(domainName);
+            DomainConfigurationLimits limits = limitsMap.get(domainName);
+            if (limits == null) {
+                log.warn("No configuration of domain '{}' found for job {}", domainName, job.getJobID());
+                continue;
+            }
 
             // Retrieve crawl data from log and add it to HarvestInfo
             StopReason stopReason = getStopReason(domainName);
@@ -117,28 +127,27 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
             // result for whether we want to harvest any more.
             if (stopReason == StopReason.SIZE_LIMIT) {
                 long maxBytesPerDomain = job.getMaxBytesPerDomain();
-                long configMaxBytes = domain.getConfiguration(configurationMap.get(domainName)).getMaxBytes();
+                long configMaxBytes = limits.getMaxBytes();
                 if (NumberUtils.compareInf(configMaxBytes, maxBytesPerDomain) <= 0
                         || NumberUtils.compareInf(configMaxBytes, bytesReceived) <= 0) {
                     stopReason = StopReason.CONFIG_SIZE_LIMIT;
                 }
             } else if (stopReason == StopReason.OBJECT_LIMIT) {
                 long maxObjectsPerDomain = job.getMaxObjectsPerDomain();
-                long configMaxObjects = domain.getConfiguration(configurationMap.get(domainName)).getMaxObjects();
+                long configMaxObjects = limits.getMaxObjects();
                 if (NumberUtils.compareInf(configMaxObjects, maxObjectsPerDomain) <= 0) {
                     stopReason = StopReason.CONFIG_OBJECT_LIMIT;
                 }
             }
             // Create the HarvestInfo object
-            HarvestInfo hi = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domain.getName(),
-                    configurationMap.get(domain.getName()), new Date(), bytesReceived, countObjectRetrieved, stopReason);
-
-            // Add HarvestInfo to Domain and make data persistent
-            // by updating DAO
-            domain.getHistory().addHarvestInfo(hi);
-            dao.update(domain);
+            HarvestInfo hi = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName,
+                    limits.getConfigurationName(), new Date(), bytesReceived, countObjectRetrieved, stopReason);
+            harvestInfos.add(hi);
         }
 
+        // Make the HarvestInfo objects persistent in one go
+        dao.addHarvestInfo(job.getJobID(), harvestInfos);
+
         if (log.isInfoEnabled()) {
             long time = System.currentTimeMillis() - startTime;
             log.info("Finished post-processing of harvest report for job {}, operation took {}", job.getJobID(),
@@ -75,6 +75,21 @@ public class CDXOriginCrawlLogIterator extends CrawlLogIterator {
         reader = cdx;
     }
 
+    /**
+     * Create a new CDXOriginCrawlLogIterator from readers of a crawl.log and a CDX index, e.g. ones that are sorted
+     * while they are read.
+     *
+     * @param source A description of where the crawl.log comes from, e.g. its path.
+     * @param crawlLog A reader of a crawl.log sorted by URL (LANG=C sort -k 4b). It is closed by {@link #close()}.
+     * @param cdx A reader of a sorted CDX file. This must be closed after use.
+     */
+    public CDXOriginCrawlLogIterator(String source, BufferedReader crawlLog, BufferedReader cdx) {
+        super(source, crawlLog);
+        ArgumentNotValid.checkNotNull(crawlLog, "BufferedReader crawlLog");
+        ArgumentNotValid.checkNotNull(cdx, "BufferedReader cdx");
+        reader = cdx;
+    }
+
     /**
      * Parse a crawl.log line into a valid CrawlDataItem.
      * <p>
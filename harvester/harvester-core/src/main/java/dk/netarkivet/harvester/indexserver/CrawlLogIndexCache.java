@@ -25,8 +25,8 @@ package dk.netarkivet.harvester.indexserver;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
@@ -60,6 +60,10 @@ import is.hi.bok.deduplicator.DigestIndexer;
  * software: http://deduplicator.sourceforge.net/apidocs/is/hi/bok/deduplicator/DigestIndexer.html Upon combination of
  * underlying files, each file in the Lucene index is gzipped and the compressed versions are stored in the directory
  * given by getCacheFile(). The subclass has to determine in its constructor call which mime types are included.
+ * <p>
+ * The index made for each job is kept in a subdirectory of the cache directory, unless
+ * {@link HarvesterSettings#INDEXSERVER_INDEXING_REUSE_JOB_INDICES} is false. A later combination including the job adds
+ * the kept index instead of indexing the job again, so only jobs that have not been indexed before are indexed.
  */
 public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
@@ -82,6 +86,19 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /** Number to separate logs the different combine tasks. */
     private int indexingJobCount = 0;
 
+    /** The name of the directory in the cache directory holding the index of each job. */
+    private static final String JOB_INDEX_DIR_NAME = "jobindices";
+
+    /** The number of job indices added to the combined index at a time. */
+    private static final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
+
+    /** Whether the index of each job is kept for later combinations. */
+    private final boolean reuseJobIndices = Settings
+            .getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_REUSE_JOB_INDICES);
+
+    /** The directory holding the index of each job. */
+    private final File jobIndexDir;
+
     /**
      * Constructor for the CrawlLogIndexCache class.
      *
@@ -93,10 +110,33 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         super(name, new CrawlLogDataCache());
         useBlacklist = blacklist;
         this.mimeFilter = mimeFilter;
+        jobIndexDir = new File(getCacheDir(), JOB_INDEX_DIR_NAME);
+        if (reuseJobIndices) {
+            FileUtils.createDir(jobIndexDir);
+        }
+    }
+
+    /**
+     * Get the directory a kept index of a job is stored in. The directory only exists when the index is complete.
+     *
+     * @param jobId The ID of a job.
+     * @return The directory for the index of the job.
+     */
+    protected File getJobIndexDir(Long jobId) {
+        return new File(jobIndexDir, jobId + "-index");
+    }
+
+    /**
+     * @param jobId The ID of a job.
+     * @return true if a complete index of the job is kept and may be reused.
+     */
+    private boolean hasJobIndex(Long jobId) {
+        return reuseJobIndices && getJobIndexDir(jobId).isDirectory();
     }
 
     /**
-     * Prepare data for combining. This class overrides prepareCombine to make sure that CDX data is available.
+     * Prepare data for combining. This class overrides prepareCombine to make sure that CDX data is available for the
+     * jobs that must be indexed. Jobs with a kept index need no CDX data.
      *
      * @param ids Set of IDs that will be combined.
      * @return Map of ID->File of data to combine for the IDs where we could find data.
@@ -106,6 +146,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         Map<Long, File> returnMap = super.prepareCombine(ids);
         Set<Long> missing = new HashSet<Long>();
         for (Long id : returnMap.keySet()) {
+            if (hasJobIndex(id)) {
+                continue;
+            }
             Long cached = cdxcache.cache(id);
             if (cached == null) {
                 missing.add(id);
@@ -122,7 +165,8 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
     /**
      * Combine a number of crawl.log files into one Lucene index. This index is placed as gzip files under the directory
-     * returned by getCacheFile().
+     * returned by getCacheFile(). Jobs with a kept index are not indexed again, and the indices of the other jobs are
+     * kept, see {@link #getJobIndexDir(Long)}.
      *
      * @param rawfiles The map from job ID into crawl.log contents. No null values are allowed in this map.
      */
@@ -142,6 +186,7 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             DigestOptions indexingOptions = new DigestOptions(this.useBlacklist, verboseIndexing, this.mimeFilter);
             long count = 0;
             Set<IndexingState> outstandingJobs = new HashSet<IndexingState>();
+            Set<File> keptIndices = new HashSet<File>();
             final int maxThreads = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAXTHREADS);
             executor = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
                     new LinkedBlockingQueue<Runnable>());
@@ -150,9 +195,19 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
             for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
                 Long jobId = entry.getKey();
+                if (hasJobIndex(jobId)) {
+                    keptIndices.add(getJobIndexDir(jobId));
+                    continue;
+                }
                 File crawlLog = entry.getValue();
-                // Generate UUID to ensure a unique filedir for the index.
-                File tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+                // Generate UUID to ensure a unique filedir for the index. An index that is to be kept is made next to
+                // where it is kept, so it can be moved there when complete.
+                File tmpFile;
+                if (reuseJobIndices) {
+                    tmpFile = new File(jobIndexDir, UUID.randomUUID().toString() + ".tmp");
+                } else {
+                    tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+                }
                 tmpfiles.add(tmpFile);
                 String localindexLocation = tmpFile.getAbsolutePath();
                 Long cached = cdxcache.cache(jobId);
@@ -174,9 +229,8 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 Future<Boolean> result = executor.submit(task);
                 outstandingJobs.add(new IndexingState(jobId, localindexLocation, result));
             }
-
-            // wait for all the outstanding subtasks to complete.
-            Set<Directory> subindices = new HashSet<Directory>();
+            log.info("Combine task #{} reuses the kept indices of {} jobs and indexes {} jobs", indexingJobCount,
+                    keptIndices.size(), outstandingJobs.size());
 
             // Deadline for the combine-task
             long combineTimeout = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_TIMEOUT);
@@ -184,12 +238,19 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
             // The indexwriter for the totalindex.
             IndexWriter totalIndex = indexer.getIndex();
-            int subindicesInTotalIndex = 0;
             // Max number of segments in totalindex.
             int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
 
-            final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
+            // Add the kept indices while the other jobs are indexed.
+            Set<Directory> subindices = new HashSet<Directory>();
+            for (File keptIndex : keptIndices) {
+                subindices.add(new SimpleFSDirectory(keptIndex));
+                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
+                    addSubindices(totalIndex, subindices);
+                }
+            }
 
+            // wait for all the outstanding subtasks to complete.
             while (outstandingJobs.size() > 0) {
                 log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
                 Iterator<IndexingState> iterator = outstandingJobs.iterator();
@@ -207,7 +268,8 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                         try {
                             // check, if the indexing failed
                             if (nextResult.get()) {
-                                subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
+                                File subindex = keepJobIndex(next.getJobIdentifier(), new File(next.getIndex()));
+                                subindices.add(new SimpleFSDirectory(subindex));
                             } else {
                                 log.warn("Indexing of job {} failed.", next.getJobIdentifier());
                             }
@@ -223,37 +285,18 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 }
 
                 if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-
-                    log.info(
-                            "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
-                            subindices.size(), maxSegments, indexingJobCount);
-                    totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-                    totalIndex.forceMerge(maxSegments);
-                    totalIndex.commit();
-                    for (Directory luceneDir : subindices) {
-                        luceneDir.close();
-                    }
-                    subindicesInTotalIndex += subindices.size();
-                    log.info(
-                            "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
-                            subindices.size(), subindicesInTotalIndex, indexingJobCount);
-                    subindices.clear();
+                    addSubindices(totalIndex, subindices);
                 } else {
                     sleepAwhile();
                 }
             }
+            addSubindices(totalIndex, subindices);
 
-            log.info("Adding the final {} subindices to main index. "
-                    + "Forcing index to contain max {} files (related to combine task #{})", subindices.size(),
-                    maxSegments, indexingJobCount);
-
-            totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+            // The segments are only merged once, after all subindices are added.
+            log.info("Forcing index to contain max {} files (related to combine task #{})", maxSegments,
+                    indexingJobCount);
             totalIndex.forceMerge(maxSegments);
             totalIndex.commit();
-            for (Directory luceneDir : subindices) {
-                luceneDir.close();
-            }
-            subindices.clear();
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
             long docsInIndex = totalIndex.numDocs();
@@ -281,6 +324,49 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         }
     }
 
+    /**
+     * Add subindices to the combined index and close them.
+     *
+     * @param totalIndex The combined index.
+     * @param subindices The subindices to add. The set is emptied.
+     * @throws IOException If the subindices cannot be added.
+     */
+    private void addSubindices(IndexWriter totalIndex, Set<Directory> subindices) throws IOException {
+        if (subindices.isEmpty()) {
+            return;
+        }
+        log.info("Adding {} subindices to main index (related to combine task #{})", subindices.size(),
+                indexingJobCount);
+        totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+        totalIndex.commit();
+        for (Directory luceneDir : subindices) {
+            luceneDir.close();
+        }
+        log.info("Completed adding {} subindices to main index, now containing {} entries (related to combine task "
+                + "#{})", subindices.size(), totalIndex.numDocs(), indexingJobCount);
+        subindices.clear();
+    }
+
+    /**
+     * Keep the complete index of a job for later combinations, if indices are reused.
+     *
+     * @param jobId The ID of the job.
+     * @param index The temporary directory the index was made in.
+     * @return The directory the index is now in.
+     */
+    private File keepJobIndex(Long jobId, File index) {
+        if (!reuseJobIndices) {
+            return index;
+        }
+        File jobIndex = getJobIndexDir(jobId);
+        // Another combine task may have kept an index of the job in the meantime, then that is used later.
+        if (!jobIndex.exists() && index.renameTo(jobIndex)) {
+            log.debug("Kept the index of job {} in '{}'", jobId, jobIndex);
+            return jobIndex;
+        }
+        return index;
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      *
@@ -322,15 +408,14 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         final String mimefilter = options.getMimeFilter();
         final boolean verbose = options.getVerboseMode();
 
+        // Both files are sorted while they are read, so no sorted copies are written.
         CrawlDataIterator crawlLogIterator = null;
-        File sortedCdxFile = null;
-        File tmpCrawlLog = null;
+        BufferedReader crawlLogBuffer = null;
         BufferedReader cdxBuffer = null;
         try {
-            sortedCdxFile = getSortedCDX(cdxfile);
-            cdxBuffer = new BufferedReader(new FileReader(sortedCdxFile));
-            tmpCrawlLog = getSortedCrawlLog(crawllogfile);
-            crawlLogIterator = new CDXOriginCrawlLogIterator(tmpCrawlLog, cdxBuffer);
+            cdxBuffer = new BufferedReader(new InputStreamReader(FileUtils.openSortedStream(cdxfile, false)));
+            crawlLogBuffer = new BufferedReader(new InputStreamReader(FileUtils.openSortedStream(crawllogfile, true)));
+            crawlLogIterator = new CDXOriginCrawlLogIterator(crawllogfile.getAbsolutePath(), crawlLogBuffer, cdxBuffer);
             indexer.writeToIndex(crawlLogIterator, mimefilter, blacklist, "ERROR", verbose);
         } catch (IOException e) {
             throw new IOFailure("Fatal error indexing " + id, e);
@@ -338,16 +423,12 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             try {
                 if (crawlLogIterator != null) {
                     crawlLogIterator.close();
-                }
-                if (tmpCrawlLog != null) {
-                    FileUtils.remove(tmpCrawlLog);
+                } else if (crawlLogBuffer != null) {
+                    crawlLogBuffer.close();
                 }
                 if (cdxBuffer != null) {
                     cdxBuffer.close();
                 }
-                if (sortedCdxFile != null) {
-                    FileUtils.remove(sortedCdxFile);
-                }
             } catch (IOException e) {
                 log.warn("Error cleaning up after crawl log index cache generation", e);
             }
@@ -22,10 +22,24 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +60,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
+import dk.netarkivet.common.utils.archive.GetFramedMetadataArchiveBatchJob;
 import dk.netarkivet.common.utils.archive.GetMetadataArchiveBatchJob;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
@@ -61,6 +76,10 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
 
     /** A regular expression object that matches everything. */
     public static final Pattern MATCH_ALL_PATTERN = Pattern.compile(".*");
+    /** Matches the url of the duplicationmigration metadata records. */
+    private static final Pattern DUPLICATION_MIGRATION_URL_PATTERN = Pattern.compile(".*duplicationmigration.*");
+    /** Matches the mimetype of the duplicationmigration metadata records. */
+    private static final Pattern DUPLICATION_MIGRATION_MIME_PATTERN = Pattern.compile("text/plain");
     /** The prefix (cache name) that this cache uses. */
     private final String prefix;
     /**
@@ -74,6 +93,14 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
     /** The actual pattern to be used for matching the url in the metadata record */
     private Pattern urlPattern;
 
+    /** The actual pattern to be used for matching the mimetype in the metadata record */
+    private Pattern mimePattern;
+
+    /**
+     * Data extracted for jobs by a bulk extraction, waiting to be moved into the cache by {@link #cacheData(Long)}.
+     */
+    private final ConcurrentMap<Long, File> prefetchedData = new ConcurrentHashMap<Long, File>();
+
     /**
      * Create a new RawMetadataCache. For a given job ID, this will fetch and cache selected content from metadata files
      * (&lt;ID&gt;-metadata-[0-9]+.arc). Any entry in a metadata file that matches both patterns will be returned. The
@@ -101,6 +128,7 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         } else {
             mimeMatcher1 = MATCH_ALL_PATTERN;
         }
+        mimePattern = mimeMatcher1;
         log.info("Metadata cache for '{}' is fetching metadata with urls matching '{}' and mimetype matching '{}'",
                 prefix, urlMatcher1.toString(), mimeMatcher1);
         job = new GetMetadataArchiveBatchJob(urlMatcher1, mimeMatcher1);
@@ -128,6 +156,12 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * @see FileBasedCache#cacheData(Object)
      */
     protected Long cacheData(Long id) {
+        File prefetched = prefetchedData.remove(id);
+        if (prefetched != null) {
+            FileUtils.moveFile(prefetched, getCacheFile(id));
+            log.debug("Cached bulk extracted data for job '{}' for '{}'", id, prefix);
+            return id;
+        }
         final String replicaUsed = Settings.get(CommonSettings.USE_REPLICA_ID);
         final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
         log.debug("Extract using a batchjob of type '{}' cachedata from files matching '{}{}' on replica '{}'", job
@@ -182,9 +216,9 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      */
     private void migrateDuplicates(Long id, String replicaUsed, String specifiedPattern, BatchStatus originalBatchJob) {
         File cacheFileName = getCacheFile(id);
-        Pattern duplicatePattern = Pattern.compile(".*duplicate:\"([^,]+),([0-9]+).*");
-        if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
-            GetMetadataArchiveBatchJob job2 = new GetMetadataArchiveBatchJob(Pattern.compile(".*duplicationmigration.*"), Pattern.compile("text/plain"));
+        if (isCrawlLogCache()) {
+            GetMetadataArchiveBatchJob job2 = new GetMetadataArchiveBatchJob(DUPLICATION_MIGRATION_URL_PATTERN,
+                    DUPLICATION_MIGRATION_MIME_PATTERN);
             job2.processOnlyFilesMatching(specifiedPattern);
             BatchStatus b2 = arcrep.batch(job2, replicaUsed);
             File migration = null;
@@ -193,69 +227,359 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             } catch (IOException e) {
                 throw new IOFailure("Could not create temporary output file.");
             }
-            if (b2.hasResultFile()) {
-                b2.copyResults(migration);
+            try {
+                if (b2.hasResultFile()) {
+                    b2.copyResults(migration);
+                }
+                boolean doMigration = migration.exists() && migration.length() > 0;
+                if (doMigration) {
+                    File crawllog = null;
+                    try {
+                        crawllog = File.createTempFile("dedup", "txt");
+                    } catch (IOException e) {
+                        throw new IOFailure("Could not create temporary output file.");
+                    }
+                    try {
+                        originalBatchJob.copyResults(crawllog);
+                        migrateCrawlLog(id, crawllog, migration, cacheFileName);
+                    } finally {
+                        crawllog.delete();
+                    }
+                } else {
+                    originalBatchJob.copyResults(cacheFileName);
+                }
+            } finally {
+                migration.delete();
+            }
+        } else {
+            originalBatchJob.copyResults(cacheFileName);
+        }
+        log.debug("Cached data for job '{}' for '{}'", id, prefix);
+    }
+
+    /**
+     * @return true if this cache holds crawl logs, whose duplicate annotations may need migration.
+     */
+    private boolean isCrawlLogCache() {
+        return urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN);
+    }
+
+    /**
+     * Migrate the duplicate annotations of a crawl log using the data of a duplicationmigration metadata record. This
+     * migrates filename/offset pairs from uncompressed to compressed (w)arc files.
+     *
+     * @param id the id of the job
+     * @param crawllog the crawl log to migrate
+     * @param migration the duplicationmigration data, lines of filename, old offset and new offset
+     * @param destination the file to append the migrated crawl log to
+     */
+    private void migrateCrawlLog(Long id, File crawllog, File migration, File destination) {
+        Pattern duplicatePattern = Pattern.compile(".*duplicate:\"([^,]+),([0-9]+).*");
+        Hashtable<Pair<String, Long>, Long> lookup = new Hashtable<>();
+        log.info("Doing migration for {}", id);
+        try {
+            final List<String> migrationLines = org.apache.commons.io.FileUtils.readLines(migration);
+            log.info("{} migration records found for job {}", migrationLines.size(), id);
+            for (String line : migrationLines) {
+                String[] splitLine = StringUtils.split(line);
+                lookup.put(new Pair<String, Long>(splitLine[0], Long.parseLong(splitLine[1])),
+                        Long.parseLong(splitLine[2]));
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read " + migration.getAbsolutePath());
+        }
+        try {
+            int matches = 0;
+            int errors = 0;
+            for (String line :  org.apache.commons.io.FileUtils.readLines(crawllog)) {
+                Matcher m = duplicatePattern.matcher(line);
+                if (m.matches()) {
+                    matches++;
+                    Long newOffset = lookup.get(new Pair<String, Long>(m.group(1), Long.parseLong(m.group(2))));
+                    if (newOffset == null) {
+                        log.warn("Could not migrate duplicate in " + line);
+                        FileUtils.appendToFile(destination, line);
+                        errors++;
+                    } else {
+                        String newLine = line.substring(0, m.start(2)) + newOffset + line.substring(m.end(2));
+                        newLine = newLine.replace(m.group(1), m.group(1) + ".gz");
+                        FileUtils.appendToFile(destination, newLine);
+                    }
+                } else {
+                    FileUtils.appendToFile(destination, line);
+                }
             }
-            boolean doMigration =  migration.exists() && migration.length() > 0;
-            Hashtable<Pair<String, Long>, Long> lookup = new Hashtable<>();
-            if (doMigration) {
-                log.info("Doing migration for {}", id);
-                try {
-                    final List<String> migrationLines = org.apache.commons.io.FileUtils.readLines(migration);
-                    log.info("{} migration records found for job {}", migrationLines.size(), id);
-                    for (String line : migrationLines) {
-                        String[] splitLine = StringUtils.split(line);
-                        lookup.put(new Pair<String, Long>(splitLine[0], Long.parseLong(splitLine[1])),
-                                Long.parseLong(splitLine[2]));
+            log.info("Found and migrated {} duplicate lines for job {} with {} errors", matches, id, errors); 
+        } catch (IOException e) {
+            throw new IOFailure("Could not read " + crawllog.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Get the raw data files for a set of job IDs. Jobs that are not cached yet are first extracted in bulk, with one
+     * batch job covering the metadata files of up to {@link HarvesterSettings#INDEXSERVER_INDEXING_BULK_METADATA_JOBS}
+     * jobs at a time. The jobs that the bulk extraction found no data for are then cached one at a time as usual.
+     *
+     * @param ids Set of job IDs to get data for.
+     * @return Map of ID to file containing data for that ID, or to null if data could not be found.
+     */
+    @Override
+    public Map<Long, File> get(Set<Long> ids) {
+        ArgumentNotValid.checkNotNull(ids, "Set<Long> ids");
+        int bulkSize = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_BULK_METADATA_JOBS);
+        try {
+            if (bulkSize > 1) {
+                List<Long> uncached = new ArrayList<Long>();
+                for (Long id : ids) {
+                    if (!getCacheFile(id).exists()) {
+                        uncached.add(id);
+                    }
+                }
+                for (int i = 0; i < uncached.size(); i += bulkSize) {
+                    List<Long> bulk = uncached.subList(i, Math.min(i + bulkSize, uncached.size()));
+                    if (bulk.size() > 1) {
+                        prefetch(bulk);
                     }
-                } catch (IOException e) {
-                    throw new IOFailure("Could not read " + migration.getAbsolutePath());
-                } finally {
-                    migration.delete();
                 }
             }
-            if (doMigration) {
-                File crawllog = null;
-                try {
-                    crawllog = File.createTempFile("dedup", "txt");
-                } catch (IOException e) {
-                    throw new IOFailure("Could not create temporary output file.");
+            return super.get(ids);
+        } finally {
+            // Remove data that was not used, e.g. because the job was cached by someone else meanwhile.
+            for (Long id : ids) {
+                File unused = prefetchedData.remove(id);
+                if (unused != null) {
+                    FileUtils.remove(unused);
                 }
-                originalBatchJob.copyResults(crawllog);
-                try {
-                    int matches = 0;
-                    int errors = 0;
-                    for (String line :  org.apache.commons.io.FileUtils.readLines(crawllog)) {
-                        Matcher m = duplicatePattern.matcher(line);
-                        if (m.matches()) {
-                            matches++;
-                            Long newOffset = lookup.get(new Pair<String, Long>(m.group(1), Long.parseLong(m.group(2))));
-                            if (newOffset == null) {
-                                log.warn("Could not migrate duplicate in " + line);
-                                FileUtils.appendToFile(cacheFileName, line);
-                                errors++;
-                            } else {
-                                String newLine = line.substring(0, m.start(2)) + newOffset + line.substring(m.end(2));
-                                newLine = newLine.replace(m.group(1), m.group(1) + ".gz");
-                                FileUtils.appendToFile(cacheFileName, newLine);
-                            }
-                        } else {
-                            FileUtils.appendToFile(cacheFileName, line);
+            }
+        }
+    }
+
+    /**
+     * Extract the data of several jobs with one batch job on the replica in use, and keep the data of each job that
+     * any data was found for until it is cached by {@link #cacheData(Long)}. Failures are logged, and leave the jobs
+     * to be cached one at a time.
+     *
+     * @param ids The jobs to extract data for.
+     */
+    private void prefetch(List<Long> ids) {
+        final String replicaUsed = Settings.get(CommonSettings.USE_REPLICA_ID);
+        final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
+        // Match the union of the files matched by the patterns used for single jobs.
+        final String bulkPattern = ".*(" + StringUtils.join(ids, "|") + ").*" + metadataFilePatternSuffix;
+        Map<Long, Pattern> jobPatterns = new HashMap<Long, Pattern>();
+        for (Long id : ids) {
+            jobPatterns.put(id, Pattern.compile(".*" + id + ".*" + metadataFilePatternSuffix));
+        }
+        log.info("Extracting data for '{}' from the metadata files of {} jobs with one batchjob on replica '{}'",
+                prefix, ids.size(), replicaUsed);
+        Map<Long, File> data = new HashMap<Long, File>();
+        Map<Long, File> migrations = new HashMap<Long, File>();
+        try {
+            GetFramedMetadataArchiveBatchJob bulkJob = new GetFramedMetadataArchiveBatchJob(urlPattern, mimePattern);
+            bulkJob.processOnlyFilesMatching(bulkPattern);
+            data = extractPerJob(bulkJob, replicaUsed, jobPatterns, "bulk", new HashSet<Long>());
+            if (isCrawlLogCache() && !data.isEmpty()) {
+                GetFramedMetadataArchiveBatchJob migrationJob = new GetFramedMetadataArchiveBatchJob(
+                        DUPLICATION_MIGRATION_URL_PATTERN, DUPLICATION_MIGRATION_MIME_PATTERN);
+                migrationJob.processOnlyFilesMatching(bulkPattern);
+                Set<Long> migrationFailed = new HashSet<Long>();
+                migrations = extractPerJob(migrationJob, replicaUsed, jobPatterns, "migration", migrationFailed);
+                // Without their migration data, the crawl logs of these jobs cannot be migrated here.
+                for (Long id : migrationFailed) {
+                    File crawllog = data.remove(id);
+                    if (crawllog != null) {
+                        FileUtils.remove(crawllog);
+                    }
+                }
+                for (Map.Entry<Long, File> entry : migrations.entrySet()) {
+                    Long id = entry.getKey();
+                    File crawllog = data.get(id);
+                    if (crawllog != null && entry.getValue().length() > 0) {
+                        File migrated = File.createTempFile(prefix + "-" + id + "-", ".migrated", getCacheDir());
+                        data.put(id, migrated);
+                        try {
+                            migrateCrawlLog(id, crawllog, entry.getValue(), migrated);
+                        } finally {
+                            FileUtils.remove(crawllog);
                         }
                     }
-                    log.info("Found and migrated {} duplicate lines for job {} with {} errors", matches, id, errors); 
-                } catch (IOException e) {
-                    throw new IOFailure("Could not read " + crawllog.getAbsolutePath());
-                } finally {
-                    crawllog.delete();
                 }
-            } else {
-                originalBatchJob.copyResults(cacheFileName);
             }
-        } else {
-            originalBatchJob.copyResults(cacheFileName);
+            for (Map.Entry<Long, File> entry : data.entrySet()) {
+                File replaced = prefetchedData.put(entry.getKey(), entry.getValue());
+                if (replaced != null) {
+                    FileUtils.remove(replaced);
+                }
+            }
+            log.info("Bulk extraction found data for '{}' for {} of {} jobs", prefix, data.size(), ids.size());
+            data.clear();
+        } catch (Exception e) {
+            log.warn("Bulk extraction of data for '{}' for {} jobs failed. The jobs will be extracted one at a time",
+                    prefix, ids.size(), e);
+        } finally {
+            for (File f : data.values()) {
+                FileUtils.remove(f);
+            }
+            for (File f : migrations.values()) {
+                FileUtils.remove(f);
+            }
+        }
+    }
+
+    /**
+     * Run a batch job with framed output, and split the output into one file per job. Data from a metadata file goes to
+     * every job whose single job pattern matches its name. Jobs that had any file fail in the batch job are left out,
+     * since their data may be incomplete, and are added to the given set of failed jobs.
+     *
+     * @param batchJob The batch job to run.
+     * @param replicaId The replica to run it on.
+     * @param jobPatterns The pattern matching the metadata files of each job.
+     * @param kind A name for the kind of data, used for temporary file names.
+     * @param failedJobs The jobs that had any file fail are added to this set.
+     * @return The files with data for each job that any data was found for and that had no file fail.
+     * @throws IOException If the output cannot be read or written.
+     */
+    private Map<Long, File> extractPerJob(GetFramedMetadataArchiveBatchJob batchJob, String replicaId,
+            Map<Long, Pattern> jobPatterns, String kind, Set<Long> failedJobs) throws IOException {
+        BatchStatus status = arcrep.batch(batchJob, replicaId);
+        Map<Long, File> result = new HashMap<Long, File>();
+        Set<Long> incomplete = new HashSet<Long>();
+        for (File failed : status.getFilesFailed()) {
+            incomplete.addAll(jobsOfFile(failed.getName(), jobPatterns));
+        }
+        failedJobs.addAll(incomplete);
+        if (!status.hasResultFile()) {
+            return result;
+        }
+        File framed = File.createTempFile(prefix + "-", ".framed", getCacheDir());
+        try {
+            status.copyResults(framed);
+            demultiplex(framed, jobPatterns, kind, result);
+        } catch (IOException | RuntimeException e) {
+            for (File f : result.values()) {
+                FileUtils.remove(f);
+            }
+            throw e;
+        } finally {
+            FileUtils.remove(framed);
+        }
+        for (Long id : incomplete) {
+            File f = result.remove(id);
+            if (f != null) {
+                FileUtils.remove(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Split framed batch job output into one file per job.
+     *
+     * @param framed The output of a {@link GetFramedMetadataArchiveBatchJob}.
+     * @param jobPatterns The pattern matching the metadata files of each job.
+     * @param kind A name for the kind of data, used for temporary file names.
+     * @param result The map to add the file of each job to, as soon as it is created.
+     * @throws IOException If the output cannot be read or written.
+     */
+    private void demultiplex(File framed, Map<Long, Pattern> jobPatterns, String kind, Map<Long, File> result)
+            throws IOException {
+        Map<String, List<Long>> jobsByFilename = new HashMap<String, List<Long>>();
+        List<OutputStream> outputs = new ArrayList<OutputStream>();
+        String currentFilename = null;
+        byte[] buf = new byte[Constants.IO_BUFFER_SIZE];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(framed)))) {
+            String header;
+            while ((header = readFrameHeader(in)) != null) {
+                int space = header.lastIndexOf(' ');
+                if (space <= 0) {
+                    throw new IOFailure("Malformed frame header '" + header + "' in " + framed);
+                }
+                String filename = header.substring(0, space);
+                int length = Integer.parseInt(header.substring(space + 1));
+                if (length > buf.length) {
+                    buf = new byte[length];
+                }
+                in.readFully(buf, 0, length);
+                // Frames of one file follow each other, so only the outputs of the current file need to be open.
+                if (!filename.equals(currentFilename)) {
+                    closeAll(outputs);
+                    currentFilename = filename;
+                    List<Long> jobs = jobsByFilename.get(filename);
+                    if (jobs == null) {
+                        jobs = jobsOfFile(filename, jobPatterns);
+                        jobsByFilename.put(filename, jobs);
+                    }
+                    for (Long id : jobs) {
+                        File f = result.get(id);
+                        if (f == null) {
+                            f = File.createTempFile(prefix + "-" + id + "-", "." + kind, getCacheDir());
+                            result.put(id, f);
+                        }
+                        outputs.add(new FileOutputStream(f, true));
+                    }
+                }
+                for (OutputStream out : outputs) {
+                    out.write(buf, 0, length);
+                }
+            }
+        } finally {
+            closeAll(outputs);
+        }
+    }
+
+    /**
+     * Read a frame header line.
+     *
+     * @param in The framed output.
+     * @return The header without the newline, or null at the end of the output.
+     * @throws IOException If the output cannot be read, or ends within a header.
+     */
+    private static String readFrameHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (header.size() == 0) {
+                    return null;
+                }
+                throw new IOException("Framed output ends within a frame header");
+            }
+            header.write(b);
+        }
+        return new String(header.toByteArray(), GetFramedMetadataArchiveBatchJob.HEADER_CHARSET);
+    }
+
+    /**
+     * Find the jobs whose metadata files a file belongs to, using the same patterns as when caching single jobs.
+     *
+     * @param filename The name of a metadata file.
+     * @param jobPatterns The pattern matching the metadata files of each job.
+     * @return The jobs the file belongs to.
+     */
+    private static List<Long> jobsOfFile(String filename, Map<Long, Pattern> jobPatterns) {
+        List<Long> jobs = new ArrayList<Long>(1);
+        for (Map.Entry<Long, Pattern> entry : jobPatterns.entrySet()) {
+            if (entry.getValue().matcher(filename).matches()) {
+                jobs.add(entry.getKey());
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Close and forget a list of output streams.
+     *
+     * @param outputs The streams to close.
+     * @throws IOException If a stream cannot be closed.
+     */
+    private static void closeAll(List<OutputStream> outputs) throws IOException {
+        try {
+            for (OutputStream out : outputs) {
+                out.close();
+            }
+        } finally {
+            outputs.clear();
         }
-        log.debug("Cached data for job '{}' for '{}'", id, prefix);
     }
 
 }
@@ -0,0 +1,864 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * An on-disk index of the crawl log of a job, used by the QA pages to search the crawl log without running a batch job
+ * for every search. The index of a job is made the first time the crawl log of the job is searched, and is kept in the
+ * directory given by {@link HarvesterSettings#CRAWL_LOG_INDEX_DIR} until it is evicted because the crawl logs of
+ * {@link HarvesterSettings#CRAWL_LOG_INDEX_MAX_JOBS} other jobs have been searched more recently.
+ * <p>
+ * The index of a job is a directory containing:
+ * <ul>
+ * <li>the crawl log sorted on timestamp,</li>
+ * <li>the offsets of the lines of each domain in the crawl log, so the lines of a domain are read without reading the
+ * rest of the crawl log,</li>
+ * <li>a filter of the trigrams found in each block of the crawl log, so a regular expression search only reads the
+ * blocks containing all trigrams of the literal text the expression requires.</li>
+ * </ul>
+ * The lines found are the same as the ones found by the {@link HarvestedUrlsForDomainBatchJob} and
+ * {@link CrawlLogLinesMatchingRegexp} batch jobs.
+ * <p>
+ * An index is in use from {@link #getInstance(long)} until it is closed, and is not evicted while it is in use.
+ */
+public class CrawlLogIndex implements Closeable {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogIndex.class);
+
+    /** The name of the file with the crawl log sorted on timestamp. */
+    private static final String CRAWL_LOG_FILENAME = "crawl.log";
+    /** The name of the file listing each domain with the first entry and number of entries of it in the offsets file. */
+    private static final String DOMAINS_FILENAME = "domains";
+    /** The name of the file with the offsets of the lines of each domain in the crawl log. */
+    private static final String OFFSETS_FILENAME = "offsets";
+    /** The name of the file with the start, end and trigram filter of each block of the crawl log. */
+    private static final String BLOCKS_FILENAME = "blocks";
+
+    /** The number of bytes of crawl log lines in a block, after which a new block is started. */
+    private static final int BLOCK_SIZE = 128 * 1024;
+    /** The number of bits in the trigram filter of a block, as a power of two. */
+    private static final int FILTER_BITS_LOG2 = 16;
+    /** The number of longs holding the trigram filter of a block. */
+    private static final int FILTER_LONGS = (1 << FILTER_BITS_LOG2) / 64;
+
+    /** The index of the URL in a crawl log line. */
+    private static final int URL_PART_INDEX = 3;
+    /** The index of the discovery URL in a crawl log line. */
+    private static final int DISCOVERY_URL_PART_INDEX = 5;
+
+    /** Locks held while making the index of a job, so each index is only made once. */
+    private static final Map<Long, Object> jobLocks = new HashMap<Long, Object>();
+    /** The number of users of the index of each job in use. Guarded by the CrawlLogIndex class. */
+    private static final Map<Long, Integer> indexUsers = new HashMap<Long, Integer>();
+    /** Whether indices left behind by an interrupted indexing have been removed. */
+    private static boolean unfinishedIndicesRemoved = false;
+
+    /** The job of the crawl log. */
+    private final long jobid;
+    /** The directory of the index, or null if the crawl log of the job is empty. */
+    private final File dir;
+    /** Whether the index has been closed. */
+    private boolean closed = false;
+
+    /**
+     * Create an index of the crawl log of a job.
+     *
+     * @param jobid The job of the crawl log.
+     * @param dir The directory of the index, or null if the crawl log of the job is empty.
+     */
+    private CrawlLogIndex(long jobid, File dir) {
+        this.jobid = jobid;
+        this.dir = dir;
+    }
+
+    /**
+     * Check whether the crawl logs of jobs are searched using an index.
+     *
+     * @return true if {@link HarvesterSettings#CRAWL_LOG_INDEX_MAX_JOBS} is positive.
+     */
+    public static boolean isEnabled() {
+        return Settings.getInt(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS) > 0;
+    }
+
+    /**
+     * Get the index of the crawl log of a job. If the job is not indexed already, its crawl log is fetched and indexed,
+     * and the indices of the jobs used least recently are evicted. The index is in use until it is closed.
+     *
+     * @param jobid The job to get the index of.
+     * @return The index, or null if the crawl log of the job could not be fetched completely.
+     * @throws ArgumentNotValid If jobid is 0 or negative.
+     * @throws IOFailure On trouble fetching or indexing the crawl log.
+     */
+    public static CrawlLogIndex getInstance(long jobid) {
+        ArgumentNotValid.checkPositive(jobid, "jobid");
+        File baseDir = new File(Settings.get(HarvesterSettings.CRAWL_LOG_INDEX_DIR));
+        synchronized (CrawlLogIndex.class) {
+            FileUtils.createDir(baseDir);
+            if (!unfinishedIndicesRemoved) {
+                removeUnfinishedIndices(baseDir);
+                unfinishedIndicesRemoved = true;
+            }
+        }
+        Object jobLock;
+        synchronized (jobLocks) {
+            jobLock = jobLocks.get(jobid);
+            if (jobLock == null) {
+                jobLock = new Object();
+                jobLocks.put(jobid, jobLock);
+            }
+        }
+        File dir = new File(baseDir, Long.toString(jobid));
+        synchronized (jobLock) {
+            if (!useIndex(jobid, dir)) {
+                File crawlLog = Reporting.getCrawlLogForJob(jobid);
+                if (crawlLog == null) {
+                    log.warn("The crawl log of job {} could not be fetched completely, so it is not indexed", jobid);
+                    return null;
+                }
+                try {
+                    if (crawlLog.length() == 0) {
+                        // Nothing is kept, as the job may not have been harvested yet.
+                        return new CrawlLogIndex(jobid, null);
+                    }
+                    createIndex(jobid, crawlLog, baseDir, dir);
+                } finally {
+                    FileUtils.remove(crawlLog);
+                }
+                if (!useIndex(jobid, dir)) {
+                    throw new IOFailure("The crawl log index '" + dir + "' was removed right after it was made");
+                }
+            }
+        }
+        synchronized (CrawlLogIndex.class) {
+            evict(baseDir);
+        }
+        return new CrawlLogIndex(jobid, dir);
+    }
+
+    /**
+     * Register one more user of the index of a job, and mark it as the index used most recently, if it exists.
+     *
+     * @param jobid The job of the index.
+     * @param dir The directory of the index.
+     * @return true if the index exists.
+     */
+    private static synchronized boolean useIndex(long jobid, File dir) {
+        if (!dir.isDirectory()) {
+            return false;
+        }
+        Integer users = indexUsers.get(jobid);
+        indexUsers.put(jobid, users == null ? 1 : users + 1);
+        dir.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stop using this index, so it may be evicted.
+     */
+    @Override
+    public void close() {
+        if (dir == null) {
+            return;
+        }
+        synchronized (CrawlLogIndex.class) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Integer users = indexUsers.get(jobid);
+            if (users == null || users <= 1) {
+                indexUsers.remove(jobid);
+            } else {
+                indexUsers.put(jobid, users - 1);
+            }
+        }
+    }
+
+    /**
+     * Get the crawl log lines of a domain. A line belongs to a domain if its URL or discovery URL is in the domain.
+     *
+     * @param domain The domain to get crawl log lines for.
+     * @return A file containing the lines sorted on timestamp. This file is temporary, and should be deleted after use.
+     * @throws ArgumentNotValid If domain is null or the empty string.
+     * @throws IOFailure On trouble reading the index.
+     */
+    public File getCrawlLogForDomain(String domain) {
+        ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
+        File result = Reporting.createTempResultFile();
+        if (dir == null) {
+            return result;
+        }
+        long[] entries = findDomain(domain);
+        if (entries == null) {
+            return result;
+        }
+        DataInputStream offsets = null;
+        CrawlLogReader reader = null;
+        OutputStream os = null;
+        try {
+            FileInputStream offsetsIn = new FileInputStream(new File(dir, OFFSETS_FILENAME));
+            offsetsIn.getChannel().position(entries[0] * 8);
+            offsets = new DataInputStream(new BufferedInputStream(offsetsIn));
+            reader = new CrawlLogReader(new File(dir, CRAWL_LOG_FILENAME));
+            os = new BufferedOutputStream(new FileOutputStream(result));
+            for (long i = 0; i < entries[1]; i++) {
+                reader.skipTo(offsets.readLong());
+                reader.readLine();
+                os.write(reader.line, 0, reader.length);
+                os.write('\n');
+            }
+        } catch (IOException e) {
+            FileUtils.remove(result);
+            throw new IOFailure("Unable to read the crawl log lines of domain '" + domain + "' in job " + jobid, e);
+        } finally {
+            IOUtils.closeQuietly(offsets);
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(os);
+        }
+        return result;
+    }
+
+    /**
+     * Get the crawl log lines matching a regular expression. Only the blocks of the crawl log containing all trigrams of
+     * the literal text required by the expression are read.
+     *
+     * @param regexp A regular expression, which must match a whole line.
+     * @return A file containing the lines sorted on timestamp. This file is temporary, and should be deleted after use.
+     * @throws ArgumentNotValid If regexp is null, the empty string or not a valid regular expression.
+     * @throws IOFailure On trouble reading the index.
+     */
+    public File getCrawlLogLinesMatchingRegexp(String regexp) {
+        ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regexp);
+        } catch (PatternSyntaxException e) {
+            throw new ArgumentNotValid("Invalid regular expression '" + regexp + "'", e);
+        }
+        File result = Reporting.createTempResultFile();
+        if (dir == null) {
+            return result;
+        }
+        int[] requiredBits = getRequiredFilterBits(regexp);
+        DataInputStream blocks = null;
+        CrawlLogReader reader = null;
+        OutputStream os = null;
+        long[] filter = new long[FILTER_LONGS];
+        int blocksRead = 0;
+        try {
+            File blocksFile = new File(dir, BLOCKS_FILENAME);
+            blocks = new DataInputStream(new BufferedInputStream(new FileInputStream(blocksFile)));
+            reader = new CrawlLogReader(new File(dir, CRAWL_LOG_FILENAME));
+            os = new BufferedOutputStream(new FileOutputStream(result));
+            long blockCount = blocksFile.length() / ((2 + FILTER_LONGS) * 8);
+            for (long block = 0; block < blockCount; block++) {
+                long start = blocks.readLong();
+                long end = blocks.readLong();
+                for (int i = 0; i < FILTER_LONGS; i++) {
+                    filter[i] = blocks.readLong();
+                }
+                if (!containsAll(filter, requiredBits)) {
+                    continue;
+                }
+                blocksRead++;
+                reader.skipTo(start);
+                while (reader.position < end && reader.readLine()) {
+                    String line = new String(reader.line, 0, reader.length, StandardCharsets.UTF_8);
+                    if (pattern.matcher(line).matches()) {
+                        os.write(reader.line, 0, reader.length);
+                        os.write('\n');
+                    }
+                }
+            }
+            log.debug("Searched {} of {} blocks of the crawl log of job {} for '{}'", blocksRead, blockCount, jobid,
+                    regexp);
+        } catch (IOException e) {
+            FileUtils.remove(result);
+            throw new IOFailure("Unable to search the crawl log of job " + jobid + " for '" + regexp + "'", e);
+        } finally {
+            IOUtils.closeQuietly(blocks);
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(os);
+        }
+        return result;
+    }
+
+    /**
+     * Find the entries of a domain in the offsets file.
+     *
+     * @param domain The domain.
+     * @return The first entry and the number of entries, or null if the domain is not in the crawl log.
+     * @throws IOFailure On trouble reading the domains file.
+     */
+    private long[] findDomain(String domain) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(dir, DOMAINS_FILENAME)),
+                    StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals(domain)) {
+                    return new long[] {Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read the domains of the crawl log of job " + jobid, e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Index a crawl log into a new directory. The index is made in a temporary directory, which is renamed when the
+     * index is complete.
+     *
+     * @param jobid The job of the crawl log.
+     * @param crawlLog The crawl log sorted on timestamp.
+     * @param baseDir The directory of all indices.
+     * @param dir The directory of the index.
+     * @throws IOFailure On trouble indexing the crawl log.
+     */
+    private static void createIndex(long jobid, File crawlLog, File baseDir, File dir) {
+        log.info("Indexing the crawl log of job {}", jobid);
+        File tempDir = FileUtils.createUniqueTempDir(baseDir, "job" + jobid + "-");
+        try {
+            File unsortedDomains = new File(tempDir, DOMAINS_FILENAME + ".unsorted");
+            writeCrawlLogAndBlocks(crawlLog, tempDir, unsortedDomains);
+            File sortedDomains = new File(tempDir, DOMAINS_FILENAME + ".sorted");
+            FileUtils.sortFile(unsortedDomains, sortedDomains);
+            FileUtils.remove(unsortedDomains);
+            writeDomains(sortedDomains, tempDir);
+            FileUtils.remove(sortedDomains);
+        } catch (IOException e) {
+            FileUtils.removeRecursively(tempDir);
+            throw new IOFailure("Unable to index the crawl log of job " + jobid, e);
+        } catch (RuntimeException e) {
+            FileUtils.removeRecursively(tempDir);
+            throw e;
+        }
+        if (!tempDir.renameTo(dir)) {
+            FileUtils.removeRecursively(tempDir);
+            throw new IOFailure("Unable to rename '" + tempDir + "' to '" + dir + "'");
+        }
+        log.info("Indexed the crawl log of job {} in '{}'", jobid, dir);
+    }
+
+    /**
+     * Copy the crawl log into the index, while writing the trigram filter of each block and a line for each domain of
+     * each crawl log line. The domain lines consist of the domain and the offset of the crawl log line as a fixed width
+     * hexadecimal number, so sorting them groups the offsets by domain in ascending order.
+     *
+     * @param crawlLog The crawl log sorted on timestamp.
+     * @param dir The directory of the index.
+     * @param domainsFile The file to write the domain lines to.
+     * @throws IOException On trouble reading or writing the files.
+     */
+    private static void writeCrawlLogAndBlocks(File crawlLog, File dir, File domainsFile) throws IOException {
+        CrawlLogReader reader = null;
+        OutputStream crawlLogOut = null;
+        DataOutputStream blocksOut = null;
+        Writer domainsOut = null;
+        try {
+            reader = new CrawlLogReader(crawlLog);
+            crawlLogOut = new BufferedOutputStream(new FileOutputStream(new File(dir, CRAWL_LOG_FILENAME)));
+            blocksOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir,
+                    BLOCKS_FILENAME))));
+            domainsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(domainsFile),
+                    StandardCharsets.UTF_8));
+            long[] filter = new long[FILTER_LONGS];
+            long offset = 0;
+            long blockStart = 0;
+            while (reader.readLine()) {
+                crawlLogOut.write(reader.line, 0, reader.length);
+                crawlLogOut.write('\n');
+                for (int i = 0; i + 2 < reader.length; i++) {
+                    setBit(filter, getTrigramBit(reader.line, i));
+                }
+                String line = new String(reader.line, 0, reader.length, StandardCharsets.UTF_8);
+                for (String domain : getDomains(line)) {
+                    domainsOut.write(domain + " " + String.format("%016x", offset) + "\n");
+                }
+                offset += reader.length + 1;
+                if (offset - blockStart >= BLOCK_SIZE) {
+                    writeBlock(blocksOut, blockStart, offset, filter);
+                    blockStart = offset;
+                    Arrays.fill(filter, 0L);
+                }
+            }
+            if (offset > blockStart) {
+                writeBlock(blocksOut, blockStart, offset, filter);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(crawlLogOut);
+            IOUtils.closeQuietly(blocksOut);
+            IOUtils.closeQuietly(domainsOut);
+        }
+    }
+
+    /**
+     * Write the start, end and trigram filter of a block.
+     *
+     * @param out The blocks file.
+     * @param start The offset of the first line of the block.
+     * @param end The offset after the last line of the block.
+     * @param filter The trigram filter of the block.
+     * @throws IOException On trouble writing the block.
+     */
+    private static void writeBlock(DataOutputStream out, long start, long end, long[] filter) throws IOException {
+        out.writeLong(start);
+        out.writeLong(end);
+        for (long bits : filter) {
+            out.writeLong(bits);
+        }
+    }
+
+    /**
+     * Write the domains file and the offsets file from the sorted domain lines.
+     *
+     * @param sortedDomains The domain lines sorted on domain and offset.
+     * @param dir The directory of the index.
+     * @throws IOException On trouble reading or writing the files.
+     */
+    private static void writeDomains(File sortedDomains, File dir) throws IOException {
+        BufferedReader reader = null;
+        Writer domainsOut = null;
+        DataOutputStream offsetsOut = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(sortedDomains),
+                    StandardCharsets.UTF_8));
+            domainsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir,
+                    DOMAINS_FILENAME)), StandardCharsets.UTF_8));
+            offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir,
+                    OFFSETS_FILENAME))));
+            String domain = null;
+            long first = 0;
+            long entries = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int separator = line.lastIndexOf(' ');
+                String lineDomain = line.substring(0, separator);
+                if (!lineDomain.equals(domain)) {
+                    if (domain != null) {
+                        domainsOut.write(domain + " " + first + " " + (entries - first) + "\n");
+                    }
+                    domain = lineDomain;
+                    first = entries;
+                }
+                offsetsOut.writeLong(Long.parseLong(line.substring(separator + 1), 16));
+                entries++;
+            }
+            if (domain != null) {
+                domainsOut.write(domain + " " + first + " " + (entries - first) + "\n");
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(domainsOut);
+            IOUtils.closeQuietly(offsetsOut);
+        }
+    }
+
+    /**
+     * Get the domains of a crawl log line, in the same way as {@link HarvestedUrlsForDomainBatchJob#accept(String)}.
+     *
+     * @param line A line of a crawl log.
+     * @return The domains of the URL and the discovery URL of the line.
+     */
+    static Set<String> getDomains(String line) {
+        String[] parts = line.split("\\s+");
+        Set<String> domains = new LinkedHashSet<String>();
+        if (parts.length > URL_PART_INDEX) {
+            domains.add(HarvestedUrlsForDomainBatchJob.getDomainFromUrlPart(parts[URL_PART_INDEX]));
+        }
+        if (parts.length > DISCOVERY_URL_PART_INDEX && !parts[DISCOVERY_URL_PART_INDEX].equals("-")) {
+            domains.add(HarvestedUrlsForDomainBatchJob.getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX]));
+        }
+        domains.remove("");
+        return domains;
+    }
+
+    /**
+     * Get the bits of the trigram filter which must be set in a block containing a line matching a regular expression.
+     *
+     * @param regexp The regular expression.
+     * @return The bits of the trigrams of the literal text required by the expression.
+     */
+    private static int[] getRequiredFilterBits(String regexp) {
+        Set<Integer> bits = new LinkedHashSet<Integer>();
+        for (String literal : getRequiredLiterals(regexp)) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                bits.add(getTrigramBit(bytes, i));
+            }
+        }
+        int[] result = new int[bits.size()];
+        int i = 0;
+        for (Integer bit : bits) {
+            result[i++] = bit;
+        }
+        return result;
+    }
+
+    /**
+     * Find literal text which must be part of any line matched by a regular expression. The expression is only
+     * analysed as far as needed to find such text for common expressions: no text is found in expressions using
+     * alternatives, flags, quoting, back references or escapes with arguments, and nothing inside groups and character
+     * classes is used.
+     *
+     * @param regexp The regular expression.
+     * @return The literal text found, possibly none.
+     */
+    static List<String> getRequiredLiterals(String regexp) {
+        List<String> literals = new ArrayList<String>();
+        if (regexp.contains("|") || regexp.contains("(?") || regexp.contains("\\Q")) {
+            return literals;
+        }
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i < regexp.length()) {
+            char c = regexp.charAt(i);
+            if (c == '\\' && i + 1 < regexp.length()) {
+                char escaped = regexp.charAt(i + 1);
+                i += 2;
+                if (Character.isLetterOrDigit(escaped)) {
+                    // Escapes with arguments, like \x41 or \p{Lu}, and back references are not skipped, so they give
+                    // up. Other escapes, like \d or \b, are a single non-literal construct.
+                    if ("xupPNkc".indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                        literals.clear();
+                        return literals;
+                    }
+                    addLiteral(literals, current);
+                    continue;
+                }
+                current.append(escaped);
+            } else if (c == '[') {
+                addLiteral(literals, current);
+                i = skipCharacterClass(regexp, i);
+                continue;
+            } else if (c == '(') {
+                addLiteral(literals, current);
+                i = skipGroup(regexp, i);
+                continue;
+            } else if (".^$)?*+{\\".indexOf(c) >= 0) {
+                addLiteral(literals, current);
+                i = c == '{' ? skipRepetition(regexp, i) : i + 1;
+                continue;
+            } else {
+                current.append(c);
+                i++;
+            }
+            if (i < regexp.length()) {
+                char quantifier = regexp.charAt(i);
+                if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                    // The last character may be left out.
+                    current.setLength(current.length() - 1);
+                    addLiteral(literals, current);
+                } else if (quantifier == '+') {
+                    addLiteral(literals, current);
+                }
+            }
+        }
+        addLiteral(literals, current);
+        return literals;
+    }
+
+    /**
+     * Add literal text to a list, if it is long enough to contain a trigram, and clear it.
+     *
+     * @param literals The list.
+     * @param literal The literal text.
+     */
+    private static void addLiteral(List<String> literals, StringBuilder literal) {
+        if (literal.length() >= 3) {
+            literals.add(literal.toString());
+        }
+        literal.setLength(0);
+    }
+
+    /**
+     * Find the end of a character class in a regular expression.
+     *
+     * @param regexp The regular expression.
+     * @param start The index of the opening bracket.
+     * @return The index after the closing bracket, or the length of the expression if the end is not certain.
+     */
+    private static int skipCharacterClass(String regexp, int start) {
+        int first = start + 1;
+        if (first < regexp.length() && regexp.charAt(first) == '^') {
+            first++;
+        }
+        if (first < regexp.length() && regexp.charAt(first) == ']') {
+            return regexp.length();
+        }
+        int depth = 0;
+        for (int i = start; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regexp.length();
+    }
+
+    /**
+     * Find the end of a group in a regular expression.
+     *
+     * @param regexp The regular expression.
+     * @param start The index of the opening parenthesis.
+     * @return The index after the closing parenthesis, or the length of the expression if there is none.
+     */
+    private static int skipGroup(String regexp, int start) {
+        int depth = 0;
+        for (int i = start; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipCharacterClass(regexp, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regexp.length();
+    }
+
+    /**
+     * Find the end of a repetition like {2,5} in a regular expression.
+     *
+     * @param regexp The regular expression.
+     * @param start The index of the opening brace.
+     * @return The index after the closing brace, or the length of the expression if there is none.
+     */
+    private static int skipRepetition(String regexp, int start) {
+        int end = regexp.indexOf('}', start);
+        return end < 0 ? regexp.length() : end + 1;
+    }
+
+    /**
+     * Get the bit of the trigram filter for a trigram.
+     *
+     * @param bytes The bytes containing the trigram.
+     * @param index The index of the first byte of the trigram.
+     * @return The bit.
+     */
+    private static int getTrigramBit(byte[] bytes, int index) {
+        int trigram = (bytes[index] & 0xff) << 16 | (bytes[index + 1] & 0xff) << 8 | (bytes[index + 2] & 0xff);
+        return (trigram * 0x9E3779B1) >>> (32 - FILTER_BITS_LOG2);
+    }
+
+    /**
+     * Set a bit of a trigram filter.
+     *
+     * @param filter The filter.
+     * @param bit The bit.
+     */
+    private static void setBit(long[] filter, int bit) {
+        filter[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Check whether all the given bits of a trigram filter are set.
+     *
+     * @param filter The filter.
+     * @param bits The bits.
+     * @return true if all bits are set.
+     */
+    private static boolean containsAll(long[] filter, int[] bits) {
+        for (int bit : bits) {
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the directories of indices which were not completed, e.g. because the application was stopped.
+     *
+     * @param baseDir The directory of all indices.
+     */
+    private static void removeUnfinishedIndices(File baseDir) {
+        File[] files = baseDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith("job")) {
+                log.info("Removing the unfinished crawl log index '{}'", file);
+                FileUtils.removeRecursively(file);
+            }
+        }
+    }
+
+    /**
+     * Remove the indices of the jobs used least recently, so only {@link HarvesterSettings#CRAWL_LOG_INDEX_MAX_JOBS}
+     * are kept. Indices in use are not removed. Must be called while holding the lock of the CrawlLogIndex class.
+     *
+     * @param baseDir The directory of all indices.
+     */
+    private static void evict(File baseDir) {
+        File[] files = baseDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> indices = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().matches("[0-9]+")) {
+                indices.add(file);
+            }
+        }
+        Collections.sort(indices, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file2.lastModified(), file1.lastModified());
+            }
+        });
+        int maxJobs = Settings.getInt(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS);
+        for (File index : indices.subList(Math.min(maxJobs, indices.size()), indices.size())) {
+            if (indexUsers.containsKey(Long.valueOf(index.getName()))) {
+                log.debug("Not evicting the crawl log index '{}', as it is in use", index);
+                continue;
+            }
+            log.info("Evicting the crawl log index '{}'", index);
+            FileUtils.removeRecursively(index);
+        }
+    }
+
+    /**
+     * A buffered reader of the lines of a crawl log as bytes, which keeps track of the offset of the lines.
+     */
+    private static class CrawlLogReader implements Closeable {
+        /** The crawl log. */
+        private final InputStream in;
+        /** The offset in the crawl log of the next line. */
+        private long position = 0;
+        /** The bytes of the line read, without the newline. */
+        private byte[] line = new byte[1024];
+        /** The number of bytes of the line read. */
+        private int length = 0;
+
+        /**
+         * Open a crawl log.
+         *
+         * @param crawlLog The crawl log.
+         * @throws IOException If the crawl log could not be opened.
+         */
+        CrawlLogReader(File crawlLog) throws IOException {
+            in = new BufferedInputStream(new FileInputStream(crawlLog), 64 * 1024);
+        }
+
+        /**
+         * Skip forward to an offset in the crawl log.
+         *
+         * @param offset The offset, which must not be before the current position.
+         * @throws IOException If the offset is before the current position or after the end of the crawl log.
+         */
+        void skipTo(long offset) throws IOException {
+            if (offset < position) {
+                throw new IOException("Cannot skip back from offset " + position + " to " + offset);
+            }
+            while (position < offset) {
+                long skipped = in.skip(offset - position);
+                if (skipped <= 0) {
+                    throw new IOException("Unexpected end of crawl log before offset " + offset);
+                }
+                position += skipped;
+            }
+        }
+
+        /**
+         * Read the next line into {@link #line}.
+         *
+         * @return false if the end of the crawl log has been reached.
+         * @throws IOException On trouble reading the crawl log.
+         */
+        boolean readLine() throws IOException {
+            length = 0;
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            while (b >= 0 && b != '\n') {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = (byte) b;
+                b = in.read();
+            }
+            position += length + (b < 0 ? 0 : 1);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
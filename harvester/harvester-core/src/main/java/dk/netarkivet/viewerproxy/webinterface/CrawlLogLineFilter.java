@@ -0,0 +1,39 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+/**
+ * A selection of crawl log lines. It is used both by the batch jobs extracting the lines from metadata files, and when
+ * the lines are extracted from crawl log records read directly from the archive.
+ */
+public interface CrawlLogLineFilter {
+
+    /**
+     * Check whether a crawl log line is selected.
+     *
+     * @param line A line of a crawl log.
+     * @return true if the line is selected.
+     */
+    boolean accept(String line);
+
+}
@@ -45,7 +45,7 @@ import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
  * on metadata files for a specific job only, using the {@link #processOnlyFilesMatching(String)} construct.
  */
 @SuppressWarnings({"serial"})
-public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob {
+public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob implements CrawlLogLineFilter {
 
     /** The logger. */
     //private final Log log = LogFactory.getLog(getClass().getName());
@@ -111,7 +111,7 @@ public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob {
         BufferedReader arcreader = new BufferedReader(new InputStreamReader(record.getInputStream()));
         try {
             for (String line = arcreader.readLine(); line != null; line = arcreader.readLine()) {
-                if (line.matches(regexp)) {
+                if (accept(line)) {
                     os.write(line.getBytes("UTF-8"));
                     os.write('\n');
                 }
@@ -128,6 +128,17 @@ public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob {
         }
     }
 
+    /**
+     * Check whether a crawl log line matches the regular expression.
+     *
+     * @param line A line of a crawl log.
+     * @return true if the whole line matches the regular expression.
+     */
+    @Override
+    public boolean accept(String line) {
+        return line.matches(regexp);
+    }
+
     /**
      * Does nothing, no finishing is needed.
      *
@@ -47,7 +47,7 @@ import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
  * run on metadata files for a specific job only, using the {@link #processOnlyFilesMatching(String)} construct.
  */
 @SuppressWarnings({"serial"})
-public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
+public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob implements CrawlLogLineFilter {
 
     // logger
     //private final Log log = LogFactory.getLog(getClass().getName());
@@ -119,33 +119,10 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
         String line = null;
         try {
             for (line = arcreader.readLine(); line != null; line = arcreader.readLine()) {
-
-                // Parse a single crawl-log line into parts
-                // The parts are here separated by white space.
-                // part 4 of the crawl-line is the url component
-                // part 6 of the crawl-line is the discovery url component
-                // Cf. "http://crawler.archive.org/articles/user_manual
-                // /analysis.html#logs"
-
-                String[] parts = line.split("\\s+");
-                final int URL_PART_INDEX = 3;
-                final int DISCOVERY_URL_PART_INDEX = 5;
-                // The current crawl.log line is written to the outstream
-                // in two cases:
-                // A. If it has a URL component (4th component) and
-                // this URL belongs to the domain in question
-                // B. If it has a Discovery URL (6th component) and
-                // this URL belongs to the domain in question
-                if (parts.length > 3 && getDomainFromUrlPart(parts[URL_PART_INDEX]).equals(domain)) {
-                    os.write(line.getBytes("UTF-8"));
-                    os.write('\n');
-
-                } else if (parts.length > 5 && !parts[5].equals("-")
-                        && getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX]).equals(domain)) {
+                if (accept(line)) {
                     os.write(line.getBytes("UTF-8"));
                     os.write('\n');
                 }
-
             }
         } catch (IOException e) {
             throw new IOFailure("Unable to process (w)arc record", e);
@@ -162,12 +139,43 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
     }
 
     /**
-     * Return domain from urlpart, if feasibly. Return empty string otherwise.
+     * Check whether a crawl log line concerns the given domain.
+     *
+     * @param line A line of a crawl log.
+     * @return true if the URL or the discovery URL of the line belongs to the domain.
+     */
+    @Override
+    public boolean accept(String line) {
+        // Parse a single crawl-log line into parts
+        // The parts are here separated by white space.
+        // part 4 of the crawl-line is the url component
+        // part 6 of the crawl-line is the discovery url component
+        // Cf. "http://crawler.archive.org/articles/user_manual
+        // /analysis.html#logs"
+
+        String[] parts = line.split("\\s+");
+        final int URL_PART_INDEX = 3;
+        final int DISCOVERY_URL_PART_INDEX = 5;
+        // The current crawl.log line is accepted in two cases:
+        // A. If it has a URL component (4th component) and
+        // this URL belongs to the domain in question
+        // B. If it has a Discovery URL (6th component) and
+        // this URL belongs to the domain in question
+        if (parts.length > 3 && getDomainFromUrlPart(parts[URL_PART_INDEX]).equals(domain)) {
+            return true;
+        }
+        return parts.length > 5 && !parts[5].equals("-")
+                && getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX]).equals(domain);
+    }
+
+    /**
+     * Return domain from urlpart, if feasibly. Return empty string otherwise. Also used by {@link CrawlLogIndex} to
+     * index crawl log lines by domain.
      *
      * @param urlpart One of the URL part of the crawllog-line.
      * @return domain from urlpart, if feasibly. Return empty string otherwise
      */
-    private String getDomainFromUrlPart(String urlpart) {
+    static String getDomainFromUrlPart(String urlpart) {
         String domain = null;
         try {
             domain = DomainUtils.domainNameFromHostname(new FixedUURI(urlpart, true).getReferencedHost());
@@ -22,10 +22,14 @@
  */
 package dk.netarkivet.viewerproxy.webinterface;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -34,25 +38,36 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
-import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
-import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.JobFile;
+import dk.netarkivet.harvester.datamodel.JobFileDAO;
 
 /**
- * Methods for generating the batch results needed by the QA pages.
+ * Methods for generating the batch results needed by the QA pages. If the files of a job are in the catalog of job
+ * files, the results are made from the catalog and from records read directly from the archive instead.
  */
-@SuppressWarnings({"serial"})
 public class Reporting {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(Reporting.class);
+
+    /** Format of the metadata URL for crawl logs, with the organization as argument. */
+    private static final String CRAWL_LOG_URL_FORMAT = "metadata://%s/crawl/logs/crawl.log";
     /**
      * Utility class, do not initialise.
      */
@@ -66,7 +81,46 @@ public class Reporting {
     static final String metadatafile_suffix = "-metadata-[0-9]+\\.(w)?arc(\\.gz)?";
 
     /**
-     * Submit a batch job to list all files for a job, and report result in a sorted list.
+     * Get the files of a job from the catalog of job files.
+     *
+     * @param jobid The job to get files for.
+     * @return The files of the job, or null if the catalog is not used or the job is not in it.
+     */
+    private static List<JobFile> getCatalogedFiles(long jobid) {
+        if (!Settings.getBoolean(HarvesterSettings.USE_JOB_FILE_CATALOG)) {
+            return null;
+        }
+        List<JobFile> files = JobFileDAO.getInstance().getFiles(jobid);
+        return files.isEmpty() ? null : files;
+    }
+
+    /**
+     * Get the metadata files of a job with their CDX lines from the catalog of job files.
+     *
+     * @param jobid The job to get metadata files for.
+     * @return The metadata files of the job, or null if the catalog is not used, or it has no metadata files of the
+     * job, or the CDX lines of a metadata file are unknown.
+     */
+    private static List<JobFile> getCatalogedMetadataFiles(long jobid) {
+        List<JobFile> files = getCatalogedFiles(jobid);
+        if (files == null) {
+            return null;
+        }
+        List<JobFile> metadataFiles = new ArrayList<JobFile>();
+        for (JobFile file : files) {
+            if (file.isMetadata()) {
+                if (file.getCDX() == null) {
+                    return null;
+                }
+                metadataFiles.add(file);
+            }
+        }
+        return metadataFiles.isEmpty() ? null : metadataFiles;
+    }
+
+    /**
+     * Submit a batch job to list all files for a job, and report result in a sorted list. If the job is in the catalog
+     * of job files, the files are listed from the catalog instead.
      *
      * @param jobid The job to get files for.
      * @param harvestprefix The harvestprefix for the files produced by heritrix
@@ -76,6 +130,15 @@ public class Reporting {
      */
     public static List<String> getFilesForJob(int jobid, String harvestprefix) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
+        List<JobFile> jobFiles = getCatalogedFiles(jobid);
+        if (jobFiles != null) {
+            List<String> filenames = new ArrayList<String>();
+            for (JobFile jobFile : jobFiles) {
+                filenames.add(jobFile.getFilename());
+            }
+            Collections.sort(filenames);
+            return filenames;
+        }
         FileBatchJob fileListJob = new FileListJob();
         List<String> acceptedPatterns = new ArrayList<String>();
         acceptedPatterns.add(".*" + jobid + ".*" + metadatafile_suffix);
@@ -102,7 +165,8 @@ public class Reporting {
     }
 
     /**
-     * Submit a batch job to generate cdx for all metadata files for a job, and report result in a list.
+     * Submit a batch job to generate cdx for all metadata files for a job, and report result in a list. If the metadata
+     * files of the job are in the catalog of job files, the cdx is taken from the catalog instead.
      *
      * @param jobid The job to get cdx for.
      * @return A list of cdx records.
@@ -111,12 +175,15 @@ public class Reporting {
      */
     public static List<CDXRecord> getMetadataCDXRecordsForJob(long jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
-        FileBatchJob cdxJob = new ArchiveExtractCDXJob(false) {
-            @Override
-            public ArchiveBatchFilter getFilter() {
-                return ArchiveBatchFilter.EXCLUDE_NON_WARCINFO_RECORDS;
+        List<JobFile> metadataFiles = getCatalogedMetadataFiles(jobid);
+        if (metadataFiles != null) {
+            List<CDXRecord> records = new ArrayList<CDXRecord>();
+            for (JobFile metadataFile : metadataFiles) {
+                records.addAll(metadataFile.getCDXRecords());
             }
-        };
+            return records;
+        }
+        FileBatchJob cdxJob = JobFile.getMetadataCDXJob();
         cdxJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
 
         File f;
@@ -148,7 +215,10 @@ public class Reporting {
     }
 
     /**
-     * Submit a batch job to extract the part of a crawl log that is associated with the given domain and job.
+     * Submit a batch job to extract the part of a crawl log that is associated with the given domain and job. If the
+     * crawl log index is enabled, the lines are found in the index of the job instead, see {@link CrawlLogIndex},
+     * unless the crawl log could not be fetched completely for indexing. If the metadata files of the job are in the
+     * catalog of job files, the crawl log is read directly from the archive instead of by a batch job.
      *
      * @param domain The domain to get crawl.log-lines for.
      * @param jobid The jobid to get the crawl.log-lines for.
@@ -158,11 +228,103 @@ public class Reporting {
     public static File getCrawlLogForDomainInJob(String domain, int jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
-        FileBatchJob urlsForDomainBatchJob = new HarvestedUrlsForDomainBatchJob(domain);
+        if (CrawlLogIndex.isEnabled()) {
+            CrawlLogIndex index = CrawlLogIndex.getInstance(jobid);
+            if (index != null) {
+                try {
+                    return index.getCrawlLogForDomain(domain);
+                } finally {
+                    index.close();
+                }
+            }
+        }
+        HarvestedUrlsForDomainBatchJob urlsForDomainBatchJob = new HarvestedUrlsForDomainBatchJob(domain);
+        File result = getCatalogedCrawlLogLines(jobid, urlsForDomainBatchJob);
+        if (result != null) {
+            return result;
+        }
         urlsForDomainBatchJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
         return getResultFile(urlsForDomainBatchJob);
     }
 
+    /**
+     * Get the whole crawl log of a job, for indexing it in a {@link CrawlLogIndex}. If the metadata files of the job are
+     * in the catalog of job files, the crawl log is read directly from the archive, otherwise it is extracted with a
+     * batch job.
+     *
+     * @param jobid The job to get the crawl log for.
+     * @return A file containing the crawl log sorted on timestamp, or null if the batch job failed on any file. This
+     * file is temporary, and should be deleted after use.
+     */
+    static File getCrawlLogForJob(long jobid) {
+        CrawlLogLinesMatchingRegexp allLinesBatchJob = new CrawlLogLinesMatchingRegexp("(?s).*");
+        File result = getCatalogedCrawlLogLines(jobid, allLinesBatchJob);
+        if (result != null) {
+            return result;
+        }
+        allLinesBatchJob.processOnlyFilesMatching(".*" + jobid + ".*" + metadatafile_suffix);
+        return getResultFile(allLinesBatchJob, true);
+    }
+
+    /**
+     * Extract the crawl log lines of a job accepted by a filter, by reading the crawl log records listed in the
+     * catalog of job files directly from the archive.
+     *
+     * @param jobid The job to get crawl log lines for.
+     * @param filter The filter selecting the lines.
+     * @return a file with the lines sorted on timestamp, or null if the metadata files of the job are not in the
+     * catalog, or a crawl log record could not be read.
+     */
+    private static File getCatalogedCrawlLogLines(long jobid, CrawlLogLineFilter filter) {
+        List<JobFile> metadataFiles = getCatalogedMetadataFiles(jobid);
+        if (metadataFiles == null) {
+            return null;
+        }
+        String crawlLogUrl = String.format(CRAWL_LOG_URL_FORMAT, Settings.get(CommonSettings.ORGANIZATION));
+        List<CDXRecord> crawlLogRecords = new ArrayList<CDXRecord>();
+        for (JobFile metadataFile : metadataFiles) {
+            for (CDXRecord record : metadataFile.getCDXRecords()) {
+                if (record.getURL().startsWith(crawlLogUrl)) {
+                    crawlLogRecords.add(record);
+                }
+            }
+        }
+
+        File f = createTempResultFile();
+        ViewerArcRepositoryClient client = ArcRepositoryClientFactory.getViewerInstance();
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(f));
+            for (CDXRecord crawlLogRecord : crawlLogRecords) {
+                BitarchiveRecord record = client.get(crawlLogRecord.getArcfile(), crawlLogRecord.getOffset());
+                if (record == null) {
+                    log.warn("Unable to read the crawl log of job {} at offset {} in '{}'. Searching with a batch job "
+                            + "instead", jobid, crawlLogRecord.getOffset(), crawlLogRecord.getArcfile());
+                    IOUtils.closeQuietly(os);
+                    FileUtils.remove(f);
+                    return null;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(record.getData()));
+                try {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        if (filter.accept(line)) {
+                            os.write(line.getBytes("UTF-8"));
+                            os.write('\n');
+                        }
+                    }
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                }
+            }
+        } catch (IOException e) {
+            FileUtils.remove(f);
+            throw new IOFailure("Unable to extract the crawl log lines of job " + jobid, e);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+        return sortCrawlLog(f);
+    }
+
     /**
      * Helper method to get result from a batchjob.
      *
@@ -170,27 +332,74 @@ public class Reporting {
      * @return a file with the result.
      */
     private static File getResultFile(FileBatchJob batchJob) {
-        File f;
-        File fsorted;
+        return getResultFile(batchJob, false);
+    }
+
+    /**
+     * Helper method to get result from a batchjob. Files the batch job failed on are logged.
+     *
+     * @param batchJob a certain FileBatchJob
+     * @param complete Whether to give no result if the batch job failed on any file.
+     * @return a file with the result, or null if complete is true and the batch job failed on any file.
+     */
+    private static File getResultFile(FileBatchJob batchJob, boolean complete) {
+        BatchStatus status = ArcRepositoryClientFactory.getViewerInstance().batch(batchJob,
+                Settings.get(CommonSettings.USE_REPLICA_ID));
+        if (!status.getFilesFailed().isEmpty()) {
+            log.warn("The batch job {} failed on the files {}", batchJob, status.getFilesFailed());
+            if (complete) {
+                if (status.hasResultFile()) {
+                    status.getResultFile().cleanup();
+                }
+                return null;
+            }
+        }
+        File f = createTempResultFile();
+        status.getResultFile().copyTo(f);
+        return sortCrawlLog(f);
+    }
+
+    /**
+     * Create a temporary file for crawl log lines.
+     *
+     * @return the file, which is deleted on exit.
+     */
+    static File createTempResultFile() {
         try {
-            final String uuid = UUID.randomUUID().toString();
-            f = File.createTempFile("temp", uuid + ".txt", FileUtils.getTempDir());
+            File f = File.createTempFile("temp", UUID.randomUUID().toString() + ".txt", FileUtils.getTempDir());
             f.deleteOnExit();
-            fsorted = File.createTempFile("temp", uuid + "-sorted.txt", FileUtils.getTempDir());
+            return f;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to create temporary file", e);
+        }
+    }
+
+    /**
+     * Sort a file of crawl log lines on timestamp. The unsorted file is removed.
+     *
+     * @param f a file with crawl log lines.
+     * @return a temporary file with the sorted lines.
+     */
+    private static File sortCrawlLog(File f) {
+        File fsorted;
+        try {
+            fsorted = File.createTempFile("temp", UUID.randomUUID().toString() + "-sorted.txt",
+                    FileUtils.getTempDir());
             fsorted.deleteOnExit();
         } catch (IOException e) {
+            FileUtils.remove(f);
             throw new IOFailure("Unable to create temporary file", e);
         }
-        BatchStatus status = ArcRepositoryClientFactory.getViewerInstance().batch(batchJob,
-                Settings.get(CommonSettings.USE_REPLICA_ID));
-        status.getResultFile().copyTo(f);
         FileUtils.sortCrawlLogOnTimestamp(f, fsorted);
         FileUtils.remove(f);
         return fsorted;
     }
 
     /**
-     * Return any crawllog lines for a given jobid matching the given regular expression.
+     * Return any crawllog lines for a given jobid matching the given regular expression. If the crawl log index is
+     * enabled, the lines are found in the index of the job, see {@link CrawlLogIndex}, unless the crawl log could not
+     * be fetched completely for indexing. Otherwise, if the metadata files of the job are in the catalog of job files,
+     * the crawl log is read directly from the archive, and else it is searched with a batch job.
      *
      * @param jobid The jobid
      * @param regexp A regular expression
@@ -199,7 +408,21 @@ public class Reporting {
     public static File getCrawlLoglinesMatchingRegexp(int jobid, String regexp) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
-        FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
+        if (CrawlLogIndex.isEnabled()) {
+            CrawlLogIndex index = CrawlLogIndex.getInstance(jobid);
+            if (index != null) {
+                try {
+                    return index.getCrawlLogLinesMatchingRegexp(regexp);
+                } finally {
+                    index.close();
+                }
+            }
+        }
+        CrawlLogLinesMatchingRegexp crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
+        File result = getCatalogedCrawlLogLines(jobid, crawlLogBatchJob);
+        if (result != null) {
+            return result;
+        }
         crawlLogBatchJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
         return getResultFile(crawlLogBatchJob);
     }
@@ -2,9 +2,11 @@ package dk.netarkivet.harvester.datamodel;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -66,6 +68,25 @@ public class H3HeritrixTemplateTester {
 			fail("Shouldn't have thrown IllegalState with placeholder available");
 		}
 	}
+	@Test
+	public void testInsertCrawlerTraps() throws IOException {
+		URL url = this.getClass().getClassLoader().getResource("heritrix3");
+	    File basedir = new File(url.getFile());
+	    File beansWithPlaceholders = new File(basedir, correctTemplateName);
+		H3HeritrixTemplate template = new H3HeritrixTemplate(100L, FileUtils.readFile(beansWithPlaceholders));
+		template.insertCrawlerTraps("global", Arrays.asList(".*calendar.*", ".*example\\.dk/.*"));
+		template.insertCrawlerTraps("domain", Arrays.asList(".*sort=.*"));
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		template.writeTemplate(os);
+		String result = os.toString("UTF-8");
+		assertTrue("The traps should be inserted", result.contains("<value>.*calendar.*</value>")
+				&& result.contains("<value>.*sort=.*</value>"));
+		assertTrue("The traps should be matched by the decide rule for crawler traps",
+				result.contains("<bean class=\"dk.netarkivet.harvester.harvesting.CrawlerTrapsDecideRule\">"));
+		assertFalse("The MatchesListRegexDecideRule should be replaced",
+				result.contains(H3HeritrixTemplate.MATCHES_LIST_REGEX_DECIDE_RULE));
+	}
+
 	@Test
 	public void test() {
 		URL url = this.getClass().getClassLoader().getResource("heritrix3");
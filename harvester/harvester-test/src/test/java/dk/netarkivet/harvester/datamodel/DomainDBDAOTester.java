@@ -34,7 +34,9 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -47,8 +49,12 @@ import org.junit.experimental.categories.Category;
 
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.Named;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedField;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDAO;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDBDAO;
@@ -160,6 +166,70 @@ public class DomainDBDAOTester extends DataModelTestCase {
         dao.update(d2);
     }
 
+    /** Check that iterating in small pages gives the same domains, in the same order, as reading them one by one. */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetAllDomainsInPages() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Settings.set(HarvesterSettings.DOMAIN_ITERATOR_PAGE_SIZE, "1000");
+        List<String> namesInOnePage = names(dao.getAllDomainsInSnapshotHarvestOrder());
+
+        for (String pageSize : new String[] {"1", "3"}) {
+            Settings.set(HarvesterSettings.DOMAIN_ITERATOR_PAGE_SIZE, pageSize);
+            assertEquals("Snapshot order should not depend on page size " + pageSize, namesInOnePage,
+                    names(dao.getAllDomainsInSnapshotHarvestOrder()));
+
+            Iterator<Domain> domains = dao.getAllDomains();
+            String previousName = null;
+            int domainCount = 0;
+            while (domains.hasNext()) {
+                Domain paged = domains.next();
+                Domain read = dao.read(paged.getName());
+                assertTrue("Domains should be ordered by name", previousName == null
+                        || previousName.compareTo(paged.getName()) < 0);
+                assertEquals(read.getID(), paged.getID());
+                assertEquals(read.getEdition(), paged.getEdition());
+                assertEquals(read.getComments(), paged.getComments());
+                assertEquals(read.getCrawlerTraps(), paged.getCrawlerTraps());
+                assertEquals(read.getDefaultConfiguration().getName(), paged.getDefaultConfiguration().getName());
+                assertEquals(read.getDefaultConfiguration().getMaxBytes(),
+                        paged.getDefaultConfiguration().getMaxBytes());
+                assertEquals(count(read.getAllConfigurations()), count(paged.getAllConfigurations()));
+                assertEquals(new HashSet<String>(names(read.getAllSeedLists())),
+                        new HashSet<String>(names(paged.getAllSeedLists())));
+                assertEquals(count(read.getHistory().getHarvestInfo()), count(paged.getHistory().getHarvestInfo()));
+                previousName = paged.getName();
+                domainCount++;
+            }
+            assertEquals("Should iterate all domains with page size " + pageSize, dao.getCountDomains(), domainCount);
+        }
+    }
+
+    /**
+     * @param iterator An iterator.
+     * @return the number of elements left in the iterator.
+     */
+    private static int count(Iterator<?> iterator) {
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param named An iterator of named objects.
+     * @return the names, in order.
+     */
+    private static List<String> names(Iterator<? extends Named> named) {
+        List<String> names = new ArrayList<String>();
+        while (named.hasNext()) {
+            names.add(named.next().getName());
+        }
+        return names;
+    }
+
     /** This stresstests the DB DAOs by running several updates in parallel. */
     // Failing: Causes all subsequent test using the database to fail.
     @Category(SlowTest.class)
@@ -503,6 +573,50 @@ public class DomainDBDAOTester extends DataModelTestCase {
 
     }
 
+    /**
+     * Checks that the configuration limits of a job are read, and that harvest info added in bulk ends up in the
+     * history of the domains.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testAddHarvestInfo() {
+        Job job = JobDAOTester.createDefaultJobInDB(0);
+        DomainDAO dao = DomainDAO.getInstance();
+        Map<String, DomainConfigurationLimits> limitsMap = dao.getJobConfigurationLimits(job.getJobID());
+        assertEquals("All domains of the job should have limits", job.getDomainConfigurationMap().keySet(),
+                limitsMap.keySet());
+
+        List<HarvestInfo> harvestInfos = new ArrayList<HarvestInfo>();
+        for (Map.Entry<String, String> entry : job.getDomainConfigurationMap().entrySet()) {
+            String domainName = entry.getKey();
+            DomainConfiguration dc = dao.getDomainConfiguration(domainName, entry.getValue());
+            DomainConfigurationLimits limits = limitsMap.get(domainName);
+            assertEquals(dc.getName(), limits.getConfigurationName());
+            assertEquals(dc.getMaxBytes(), limits.getMaxBytes());
+            assertEquals(dc.getMaxObjects(), limits.getMaxObjects());
+            harvestInfos.add(new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName,
+                    entry.getValue(), new Date(), 10000L, 64L, StopReason.DOWNLOAD_COMPLETE));
+        }
+        dao.addHarvestInfo(job.getJobID(), harvestInfos);
+
+        for (HarvestInfo hi : harvestInfos) {
+            HarvestInfo stored = dao.getDomainJobInfo(job, hi.getDomainName(), hi.getDomainConfigurationName());
+            assertNotNull("Harvest info should have been added for " + hi.getDomainName(), stored);
+            assertEquals(10000L, stored.getSizeDataRetrieved());
+            assertEquals(64L, stored.getCountObjectRetrieved());
+            assertEquals(StopReason.DOWNLOAD_COMPLETE, stored.getStopReason());
+        }
+
+        HarvestInfo unknown = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), "netarkivet.dk",
+                "no_such_config", new Date(), 1L, 1L, StopReason.DOWNLOAD_COMPLETE);
+        try {
+            dao.addHarvestInfo(job.getJobID(), Collections.singletonList(unknown));
+            fail("Harvest info for a configuration not in the job should not be accepted");
+        } catch (UnknownID e) {
+            // expected
+        }
+    }
+
     // Copied from DomainDBDAO for local testing
     private void insertHarvestInfo(Connection c, HarvestInfo harvestInfo, long configId) {
         PreparedStatement s = null;
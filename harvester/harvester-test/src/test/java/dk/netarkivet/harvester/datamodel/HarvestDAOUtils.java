@@ -38,5 +38,6 @@ public class HarvestDAOUtils {
         ScheduleDAOTester.resetDAO();
         JobDAOTester.resetDAO();
         GlobalCrawlerTrapListDBDAO.reset();
+        JobFileDAO.reset();
     }
 }
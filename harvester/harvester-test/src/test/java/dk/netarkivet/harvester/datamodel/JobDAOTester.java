@@ -148,6 +148,33 @@ public class JobDAOTester extends DataModelTestCase {
         jobDAO.create(job);
     }
 
+    /**
+     * Creates several jobs in one batch and reads them back again. Verifies that the jobs get consecutive ids and are
+     * stored like jobs created one at a time.
+     */
+    @Test
+    public void testCreateJobsInBatch() {
+        Job job1 = createDefaultJob(0);
+        Job job2 = createDefaultJob(1);
+        HarvestDefinitionDAOTester.ensureHarvestDefinitionExists(TestInfo.HARVESTID);
+        jobDAO.create(Arrays.asList(job1, job2));
+
+        assertNotNull("Batch created job should have an id", job1.getJobID());
+        assertEquals("Batch created jobs should get ids in list order", job1.getJobID() + 1L,
+                job2.getJobID().longValue());
+        assertEquals(2, jobDAO.getCountJobs());
+        for (Job job : Arrays.asList(job1, job2)) {
+            assertEquals("Batch created job should have the initial edition", 1L, job.getEdition());
+            Job readJob = jobDAO.read(job.getJobID());
+            assertEquals("Harvest number of read Job should equal that of original Job", job.getHarvestNum(),
+                    readJob.getHarvestNum());
+            assertEquals("DomainConfigurationMap of read Job should equal that of original Job",
+                    job.getDomainConfigurationMap(), readJob.getDomainConfigurationMap());
+            assertEquals("harvestnamePrefix of read Job should equal that of original Job",
+                    job.getHarvestFilenamePrefix(), readJob.getHarvestFilenamePrefix());
+        }
+    }
+
     @Test
     public void testJobUpdate() throws SQLException {
         DomainConfiguration domainConfiguration =
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Unit tests for the class JobFileDBDAO.
+ */
+public class JobFileDBDAOTester extends DataModelTestCase {
+
+    /** Two CDX lines of a metadata file. */
+    private static final String CDX = "metadata://netarkivet.dk/crawl/setup/order.xml?heritrixVersion=3.3.0&harvestid=1"
+            + "&jobid=1 130.225.27.140 20080601120000 text/xml 2350 1-metadata-1.warc 1024\n"
+            + "metadata://netarkivet.dk/crawl/logs/crawl.log?heritrixVersion=3.3.0&harvestid=1&jobid=1 130.225.27.140 "
+            + "20080601120000 text/plain 4711 1-metadata-1.warc 3400\n";
+
+    /**
+     * Checks that the files of a job are stored and read back in order, and that a file added again is replaced.
+     */
+    @Test
+    public void testAddAndGetFiles() {
+        JobFileDAO dao = JobFileDAO.getInstance();
+        assertTrue("No files should be known of the job", dao.getFiles(1L).isEmpty());
+
+        dao.addFiles(1L, Arrays.asList(JobFile.forArchiveFile("1-1-20080601120000-00001-dev.warc"),
+                new JobFile("1-metadata-1.warc", true, CDX),
+                JobFile.forArchiveFile("1-1-20080601120000-00000-dev.warc")));
+        dao.addFiles(2L, Arrays.asList(JobFile.forArchiveFile("2-1-20080601120000-00000-dev.warc")));
+
+        List<JobFile> files = dao.getFiles(1L);
+        assertEquals("All files of the job should be returned", 3, files.size());
+        assertEquals("Files should be sorted by name", "1-1-20080601120000-00000-dev.warc", files.get(0).getFilename());
+        assertEquals("1-1-20080601120000-00001-dev.warc", files.get(1).getFilename());
+        assertFalse("An archive file is not a metadata file", files.get(1).isMetadata());
+        assertNull("An archive file has no CDX lines", files.get(1).getCDX());
+        JobFile metadataFile = files.get(2);
+        assertTrue("The metadata file should be marked as such", metadataFile.isMetadata());
+        assertEquals("The CDX lines should be kept", CDX, metadataFile.getCDX());
+        assertEquals("The CDX lines should be parsable", 3400L, metadataFile.getCDXRecords().get(1).getOffset());
+
+        // The harvester reports the metadata file again after a failed upload is retried.
+        dao.addFiles(1L, Arrays.asList(new JobFile("1-metadata-1.warc", true, null)));
+        files = dao.getFiles(1L);
+        assertEquals("The file should have been replaced", 3, files.size());
+        assertNull("The file should have been replaced", files.get(2).getCDX());
+        assertEquals("The other job should be unchanged", 1, dao.getFiles(2L).size());
+    }
+
+    /**
+     * Checks that CDX lines longer than allowed are not stored, rather than truncated, so readers fall back to a batch
+     * job instead of getting an incomplete CDX.
+     */
+    @Test
+    public void testTooLargeCDXIsNotStored() {
+        JobFileDAO dao = new JobFileDBDAO(CDX.length() - 1);
+        dao.addFiles(1L, Arrays.asList(new JobFile("1-metadata-1.warc", true, CDX)));
+        List<JobFile> files = dao.getFiles(1L);
+        assertEquals("The file should be stored", 1, files.size());
+        assertTrue("The file should be stored as a metadata file", files.get(0).isMetadata());
+        assertNull("The CDX lines should not be stored", files.get(0).getCDX());
+
+        dao = new JobFileDBDAO(CDX.length());
+        dao.addFiles(1L, Arrays.asList(new JobFile("1-metadata-1.warc", true, CDX)));
+        assertEquals("CDX lines of the allowed size should be stored", CDX, dao.getFiles(1L).get(0).getCDX());
+    }
+
+    /**
+     * Checks that invalid job IDs are rejected.
+     */
+    @Test(expected = ArgumentNotValid.class)
+    public void testGetFilesOfInvalidJob() {
+        JobFileDAO.getInstance().getFiles(0L);
+    }
+
+}
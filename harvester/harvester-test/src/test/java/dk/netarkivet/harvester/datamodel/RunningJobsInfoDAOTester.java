@@ -22,6 +22,8 @@
  */
 package dk.netarkivet.harvester.datamodel;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.Set;
 
 import org.junit.After;
@@ -42,6 +44,7 @@ public class RunningJobsInfoDAOTester extends DataModelTestCase {
 
     @After
     public void tearDown() throws Exception {
+        RunningJobsInfoDAO.reset();
         super.tearDown();
     }
 
@@ -60,4 +63,49 @@ public class RunningJobsInfoDAOTester extends DataModelTestCase {
         dao.removeInfoForJob(42L);
         // jobDAO.storeFrontierReport(filterId, report);
     }
+
+    @Category(SlowTest.class)
+    @Test
+    public void testStoredRecordsAreWrittenOnFlush() {
+        RunningJobsInfoDAO dao = RunningJobsInfoDAO.getInstance();
+        StartedJobInfo first = new StartedJobInfo("harvest", 43L);
+        first.setElapsedSeconds(10L);
+        first.setProgress(10.0);
+        dao.store(first);
+        StartedJobInfo second = new StartedJobInfo("harvest", 43L);
+        second.setElapsedSeconds(20L);
+        second.setProgress(20.0);
+        dao.store(second);
+
+        // Served from memory before being written
+        assertEquals(20.0, dao.getMostRecentByJobId(43L).getProgress(), 0.0);
+        assertEquals(1, dao.getFullJobHistory(43L).length);
+
+        dao.flush();
+        RunningJobsInfoDAO otherDao = new RunningJobsInfoDBDAO();
+        assertEquals(20.0, otherDao.getMostRecentByJobId(43L).getProgress(), 0.0);
+        assertEquals(1, otherDao.getFullJobHistory(43L).length);
+        assertEquals(10.0, otherDao.getFullJobHistory(43L)[0].getProgress(), 0.0);
+        assertEquals(1, otherDao.getMostRecentByHarvestName().get("harvest").size());
+        otherDao.cleanup();
+
+        assertEquals(2, dao.removeInfoForJob(43L));
+        assertEquals(0, dao.getFullJobHistory(43L).length);
+    }
+
+    @Category(SlowTest.class)
+    @Test
+    public void testStoredRecordsAreWrittenOnReset() {
+        StartedJobInfo sji = new StartedJobInfo("harvest", 44L);
+        sji.setProgress(30.0);
+        RunningJobsInfoDAO.getInstance().store(sji);
+
+        // The persister runs at a far longer interval, so the record is written by the reset.
+        RunningJobsInfoDAO.reset();
+        RunningJobsInfoDAO otherDao = new RunningJobsInfoDBDAO();
+        assertEquals(30.0, otherDao.getMostRecentByJobId(44L).getProgress(), 0.0);
+        assertEquals(1, otherDao.getFullJobHistory(44L).length);
+        otherDao.removeInfoForJob(44L);
+        otherDao.cleanup();
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+public class StartedJobHistoryTester {
+
+    private static StartedJobInfo record(long elapsedSeconds) {
+        StartedJobInfo sji = new StartedJobInfo("harvest", 1L);
+        sji.setElapsedSeconds(elapsedSeconds);
+        return sji;
+    }
+
+    private static long[] elapsedSeconds(StartedJobInfo[] records) {
+        long[] seconds = new long[records.length];
+        for (int i = 0; i < records.length; i++) {
+            seconds[i] = records[i].getElapsedSeconds();
+        }
+        return seconds;
+    }
+
+    private static void assertSeconds(long[] expected, StartedJobInfo[] records) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(elapsedSeconds(records)));
+    }
+
+    @Test
+    public void testEmptyHistory() {
+        StartedJobHistory history = new StartedJobHistory(4);
+        assertEquals(0, history.size());
+        assertNull(history.getMostRecent());
+        assertEquals(0, history.getAll().length);
+        assertEquals(0, history.getMostRecent(0, 10).length);
+    }
+
+    @Test
+    public void testKeepsRecordsInOrderUntilFull() {
+        StartedJobHistory history = new StartedJobHistory(4);
+        for (int i = 0; i < 4; i++) {
+            history.add(record(i * 10));
+        }
+        assertEquals(4, history.size());
+        assertSeconds(new long[] {0, 10, 20, 30}, history.getAll());
+        assertEquals(30, history.getMostRecent().getElapsedSeconds());
+    }
+
+    @Test
+    public void testThinsOutOldestHalfWhenFull() {
+        StartedJobHistory history = new StartedJobHistory(8);
+        for (int i = 0; i < 9; i++) {
+            history.add(record(i));
+        }
+        // 0..7 filled the buffer, 1 and 3 were dropped from the oldest half to make room for 8.
+        assertSeconds(new long[] {0, 2, 4, 5, 6, 7, 8}, history.getAll());
+
+        history.add(record(9));
+        // Full again: 2 and 5 are dropped from the oldest half to make room for 10.
+        history.add(record(10));
+        history.add(record(11));
+        assertSeconds(new long[] {0, 4, 6, 7, 8, 9, 10, 11}, history.getAll());
+        assertEquals(11, history.getMostRecent().getElapsedSeconds());
+    }
+
+    @Test
+    public void testGetMostRecent() {
+        StartedJobHistory history = new StartedJobHistory(10);
+        for (int i = 0; i < 6; i++) {
+            history.add(record(i * 10));
+        }
+        assertSeconds(new long[] {50, 40, 30}, history.getMostRecent(0, 3));
+        assertSeconds(new long[] {50, 40}, history.getMostRecent(35, 10));
+        assertEquals(0, history.getMostRecent(60, 10).length);
+        assertEquals(0, history.getMostRecent(0, 0).length);
+    }
+
+    @Test(expected = ArgumentNotValid.class)
+    public void testTooSmallCapacity() {
+        new StartedJobHistory(StartedJobHistory.MIN_CAPACITY - 1);
+    }
+
+}
@@ -32,6 +32,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -266,4 +267,34 @@ public class CDXOriginCrawlLogIteratorTester {
                 .getOrigin().equals(correctOrigin));
 
     }
+
+    /**
+     * Checks that the crawl.log and CDX files may be sorted while they are read, without sorted copies on disk.
+     */
+    @Test
+    public void testSortedStreams() throws Exception {
+        File unsortedCrawlLogFile = new File(TestInfo.CRAWLLOGS_DIR, "crawl-680.log");
+        File unsortedCDXFile = new File(TestInfo.CDXDATACACHE_DIR, "cdxdata-680");
+
+        BufferedReader crawlLog = new BufferedReader(new InputStreamReader(FileUtils.openSortedStream(
+                unsortedCrawlLogFile, true)));
+        BufferedReader cdx = new BufferedReader(new InputStreamReader(FileUtils.openSortedStream(unsortedCDXFile,
+                false)));
+        CDXOriginCrawlLogIterator it = new CDXOriginCrawlLogIterator(unsortedCrawlLogFile.getAbsolutePath(),
+                crawlLog, cdx);
+
+        String privateUrl = "http://www.kaarefc.dk/private/";
+        CrawlDataItem item = null;
+        while (it.hasNext()) {
+            item = it.next();
+            if (item.getURL().equals(privateUrl)) {
+                break;
+            }
+        }
+        it.close();
+        cdx.close();
+        assertNotNull("Must contain at least one item", item);
+        assertEquals("Should have found the private url", privateUrl, item.getURL());
+        assertEquals("1-1-20071206233504-00000-dhcppc1.arc,10204,20071206233508000", item.getOrigin());
+    }
 }
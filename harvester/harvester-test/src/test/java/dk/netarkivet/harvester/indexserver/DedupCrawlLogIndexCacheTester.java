@@ -113,19 +113,7 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
         assertTrue("Result file should have contents after combining", resultFile.length() > 0);
         assertFalse("Should not have left an unzipped lucene index",
                 new File(resultFile.getAbsolutePath().substring(0, resultFile.getAbsolutePath().length() - 4)).exists());
-        File unzipDir = new File(TestInfo.WORKING_DIR, "luceneindex");
-        if (!unzipDir.mkdir()) {
-            fail("Unable to create unzipDir '" + unzipDir.getAbsolutePath() + "' for luceneindex: ");
-        }
-        File[] resultFiles = resultFile.listFiles();
-        for (File f : resultFiles) {
-            if (f.getName().endsWith(".gz")) {
-                InputStream in = new GZIPInputStream(new FileInputStream(f));
-                FileUtils.writeStreamToFile(in,
-                        new File(unzipDir, f.getName().substring(0, f.getName().length() - ".gz".length())));
-                in.close();
-            }
-        }
+        File unzipDir = unzipIndex(resultFile, "luceneindex");
 
         Directory luceneDirectory = new MMapDirectory(unzipDir);
         IndexReader reader = DirectoryReader.open(luceneDirectory);
@@ -158,6 +146,62 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
                 origins.isEmpty());
     }
 
+    @Test
+    public void testCombineReusesJobIndices() throws Exception {
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(1L, TestInfo.CRAWL_LOG_1);
+        files.put(4L, TestInfo.CRAWL_LOG_4);
+        DedupCrawlLogIndexCache cache = new DedupCrawlLogIndexCache();
+        cache.combine(files);
+        assertTrue("The index of job 1 should be kept", cache.getJobIndexDir(1L).isDirectory());
+        assertTrue("The index of job 4 should be kept", cache.getJobIndexDir(4L).isDirectory());
+
+        // The crawl logs are not read again, as the kept indices are used.
+        FileUtils.removeRecursively(cache.getCacheFile(files.keySet()));
+        files.put(1L, new File(TestInfo.WORKING_DIR, "no-such-crawl-log"));
+        files.put(4L, new File(TestInfo.WORKING_DIR, "no-such-crawl-log"));
+        cache.combine(files);
+
+        Map<String, String> origins = new HashMap<String, String>();
+        origins.put("http://www.kb.dk/bevarbogen/images/menu_03.gif",
+                "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,92248220,20050506114818000");
+        origins.put("http://www.kb.dk/clear.gif",
+                "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,55983420,20050506114732000");
+        File unzipDir = unzipIndex(cache.getCacheFile(files.keySet()), "reusedindex");
+        IndexReader reader = DirectoryReader.open(new MMapDirectory(unzipDir));
+        try {
+            verifySearchResult(origins, new IndexSearcher(reader));
+        } finally {
+            reader.close();
+        }
+        assertTrue("Should have found all origins, but have still " + origins.size() + " left: " + origins,
+                origins.isEmpty());
+    }
+
+    /**
+     * Unzip the gzipped files of a combined index.
+     *
+     * @param resultFile The directory of the combined index.
+     * @param name The name of the directory to unzip to.
+     * @return The directory with the unzipped index.
+     */
+    private File unzipIndex(File resultFile, String name) throws IOException {
+        File unzipDir = new File(TestInfo.WORKING_DIR, name);
+        if (!unzipDir.mkdir()) {
+            fail("Unable to create unzipDir '" + unzipDir.getAbsolutePath() + "' for luceneindex: ");
+        }
+        File[] resultFiles = resultFile.listFiles();
+        for (File f : resultFiles) {
+            if (f.getName().endsWith(".gz")) {
+                InputStream in = new GZIPInputStream(new FileInputStream(f));
+                FileUtils.writeStreamToFile(in,
+                        new File(unzipDir, f.getName().substring(0, f.getName().length() - ".gz".length())));
+                in.close();
+            }
+        }
+        return unzipDir;
+    }
+
     private void verifySearchResult(Map<String, String> origins, IndexSearcher index) throws IOException {
         Set<String> urls = new HashSet<String>(origins.keySet());
         List<String> errors = new ArrayList<String>();
@@ -28,7 +28,14 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.junit.After;
@@ -36,8 +43,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import dk.netarkivet.common.arcrepository.TestArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
+import dk.netarkivet.common.utils.archive.GetFramedMetadataArchiveBatchJob;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
 import dk.netarkivet.testutils.FileAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
@@ -196,4 +206,97 @@ public class RawMetadataCacheTester extends CacheTestCase {
         arcrepfield.set(rmc, tarc);
         rmc.cache(4L);
     }
+
+    /**
+     * Check that getting several jobs at a time extracts them with one batch job, and gives the same data as caching
+     * the jobs one at a time, also when duplicate annotations are migrated.
+     */
+    @Test
+    public void testBulkGetMatchesSingleJobs() throws Exception {
+        TestArcRepositoryClient tarc = new TestArcRepositoryClient(new File(TestInfo.WORKING_DIR, "arcfiles"));
+        Field arcrepfield = ReflectUtils.getPrivateField(RawMetadataCache.class, "arcrep");
+        Set<Long> ids = new HashSet<Long>(Arrays.asList(3L, 4L, 5L, 30L));
+
+        String[] patterns = {".*index/cdx.*", MetadataFile.CRAWL_LOG_PATTERN};
+        for (int i = 0; i < patterns.length; i++) {
+            Pattern urlPattern = Pattern.compile(patterns[i]);
+            RawMetadataCache single = new RawMetadataCache("single" + i, urlPattern, null);
+            arcrepfield.set(single, tarc);
+            RawMetadataCache bulk = new RawMetadataCache("bulk" + i, urlPattern, null);
+            arcrepfield.set(bulk, tarc);
+
+            Map<Long, File> bulkFiles = bulk.get(ids);
+            for (Long id : ids) {
+                Long cached = single.cache(id);
+                if (cached == null) {
+                    assertNull("Job " + id + " has no data for " + urlPattern, bulkFiles.get(id));
+                } else {
+                    assertNotNull("Job " + id + " should have data for " + urlPattern, bulkFiles.get(id));
+                    assertEquals("Bulk data for job " + id + " should be the same as when cached alone",
+                            FileUtils.readFile(single.getCacheFile(id)), FileUtils.readFile(bulkFiles.get(id)));
+                }
+            }
+            File[] leftovers = bulk.getCacheDir().listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return !name.endsWith("-cache") && !name.endsWith(".working");
+                }
+            });
+            assertEquals("Should leave no temporary files", 0, leftovers.length);
+        }
+    }
+
+    /**
+     * Check that getting two jobs at a time extracts them with one batch job.
+     */
+    @Test
+    public void testBulkGetUsesOneBatchJob() throws Exception {
+        TestArcRepositoryClient tarc = new TestArcRepositoryClient(new File(TestInfo.WORKING_DIR, "arcfiles"));
+        Field arcrepfield = ReflectUtils.getPrivateField(RawMetadataCache.class, "arcrep");
+        RawMetadataCache rmc = new RawMetadataCache("test9", Pattern.compile(".*index/cdx.*"), null);
+        arcrepfield.set(rmc, tarc);
+        int prevNumCalls = tarc.batchCounter;
+        Map<Long, File> files = rmc.get(new HashSet<Long>(Arrays.asList(4L, 3L)));
+        FileAsserts.assertFileContains("Should have two entries in the result",
+                "file 4 block 1\nmetadata file 4 block 2", files.get(4L));
+        assertNotNull("Should have data for job 3", files.get(3L));
+        assertEquals("Should extract both jobs with one batch job", prevNumCalls + 1, tarc.batchCounter);
+    }
+
+    /**
+     * Check that a job whose metadata file fails in the bulk extraction of duplicationmigration records is not given
+     * the unmigrated crawl log, but is extracted on its own.
+     */
+    @Test
+    public void testBulkGetWithFailedMigration() throws Exception {
+        TestArcRepositoryClient tarc = new TestArcRepositoryClient(new File(TestInfo.WORKING_DIR, "arcfiles")) {
+            @Override
+            public BatchStatus batch(FileBatchJob job, String replicaId, String... args) {
+                BatchStatus status = super.batch(job, replicaId, args);
+                if (job instanceof GetFramedMetadataArchiveBatchJob && job.toString().contains("duplicationmigration")) {
+                    List<File> failed = new ArrayList<File>(status.getFilesFailed());
+                    failed.add(new File(arcDir, "30-metadata-4.arc"));
+                    return new BatchStatus(status.getBitArchiveAppId(), failed, status.getNoOfFilesProcessed(),
+                            status.getResultFile(), status.getExceptions());
+                }
+                return status;
+            }
+        };
+        Field arcrepfield = ReflectUtils.getPrivateField(RawMetadataCache.class, "arcrep");
+        Pattern urlPattern = Pattern.compile(MetadataFile.CRAWL_LOG_PATTERN);
+        RawMetadataCache single = new RawMetadataCache("single30", urlPattern, null);
+        arcrepfield.set(single, new TestArcRepositoryClient(new File(TestInfo.WORKING_DIR, "arcfiles")));
+        RawMetadataCache bulk = new RawMetadataCache("bulk30", urlPattern, null);
+        arcrepfield.set(bulk, tarc);
+
+        Map<Long, File> bulkFiles = bulk.get(new HashSet<Long>(Arrays.asList(4L, 30L)));
+        assertEquals("Job 30 should have its migrated crawl log", (Long) 30L, single.cache(30L));
+        assertEquals("Job 30 should be extracted on its own with migrated data",
+                FileUtils.readFile(single.getCacheFile(30L)), FileUtils.readFile(bulkFiles.get(30L)));
+        File[] leftovers = bulk.getCacheDir().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return !name.endsWith("-cache") && !name.endsWith(".working");
+            }
+        });
+        assertEquals("Should leave no temporary files", 0, leftovers.length);
+    }
 }
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.arcrepository.TrivialArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.testutils.ReflectUtils;
+import dk.netarkivet.testutils.TestFileUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Unit tests for the CrawlLogIndex class.
+ */
+public class CrawlLogIndexTester {
+    private UseTestRemoteFile utrf = new UseTestRemoteFile();
+    private ReloadSettings rs = new ReloadSettings();
+    private TrivialArcRepositoryClient tarc;
+    private File working = new File("tests/dk/netarkivet/viewerproxy/data/working");
+    private File tempdir = new File(working, "commontempdir");
+    private File indexdir = new File(working, "crawllogindex");
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        utrf.setUp();
+        working.mkdirs();
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempdir.getAbsolutePath());
+        Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT, TrivialArcRepositoryClient.class.getName());
+        Settings.set(HarvesterSettings.USE_JOB_FILE_CATALOG, "false");
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_DIR, indexdir.getAbsolutePath());
+        ReflectUtils.getPrivateField(CrawlLogIndex.class, "unfinishedIndicesRemoved").set(null, false);
+        ArcRepositoryClientFactory.getViewerInstance().close();
+        tarc = (TrivialArcRepositoryClient) ArcRepositoryClientFactory.getViewerInstance();
+        dir = (File) ReflectUtils.getPrivateField(TrivialArcRepositoryClient.class, "dir").get(tarc);
+
+        // Copy the two files "2-1-20080601120000-00000-dev.arc", "2-metadata-1.arc" to our local
+        // archive accessed using a TrivalArcRepositoryClient
+        TestFileUtils.copyDirectoryNonCVS(TestInfo.ORIGINALS_DIR, dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (tarc != null) {
+            tarc.close();
+        }
+        if (dir != null && dir.isDirectory()) {
+            FileUtils.removeRecursively(dir);
+        }
+        FileUtils.removeRecursively(working);
+        utrf.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Checks that the lines found in the index are the same as the ones found by batch jobs.
+     */
+    @Test
+    public void testSameResultsAsBatchJobs() throws Exception {
+        List<String> domains = Arrays.asList("netarkivet.dk", "kaarefc.dk", "doesnotexist.dk");
+        List<String> regexps = Arrays.asList(".*netarkivet\\.dk.*", ".*", "^.*dns:.*$", ".*text/html.*kaarefc.*",
+                ".*(netarkivet|kaarefc)\\.dk.*", ".*doesnotexist\\.dk.*");
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "0");
+        List<List<String>> batchResults = getResults(domains, regexps);
+        assertFalse("The index should not be used", indexdir.exists());
+
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "2");
+        assertEquals("The index should give the same lines as the batch jobs", batchResults,
+                getResults(domains, regexps));
+        assertTrue("Job 2 should be indexed", new File(indexdir, "2").isDirectory());
+        assertEquals("A second search should give the same lines", batchResults, getResults(domains, regexps));
+        assertTrue("Some crawl log lines should have been found", batchResults.get(0).size() > 0);
+
+        assertEquals("Job 4 is not harvested, no lines should be found", Collections.emptyList(),
+                FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob("netarkivet.dk", 4)));
+        assertFalse("Job 4 should not be indexed, as its crawl log is empty", new File(indexdir, "4").exists());
+    }
+
+    /**
+     * Checks that the indices of the jobs searched least recently are removed, and that unfinished indices are removed.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "1");
+        File oldIndex = new File(indexdir, "7");
+        oldIndex.mkdirs();
+        oldIndex.setLastModified(System.currentTimeMillis() - 60 * 1000);
+        File unfinishedIndex = new File(indexdir, "job3-1234.tmp");
+        unfinishedIndex.mkdirs();
+
+        Reporting.getCrawlLoglinesMatchingRegexp(2, ".*netarkivet\\.dk.*");
+        assertTrue("Job 2 should be indexed", new File(indexdir, "2").isDirectory());
+        assertFalse("The index searched least recently should be removed", oldIndex.exists());
+        assertFalse("The unfinished index should be removed", unfinishedIndex.exists());
+    }
+
+    /**
+     * Checks that an invalid regular expression is rejected.
+     */
+    @Test(expected = ArgumentNotValid.class)
+    public void testInvalidRegexp() {
+        CrawlLogIndex index = CrawlLogIndex.getInstance(2);
+        try {
+            index.getCrawlLogLinesMatchingRegexp(".*(netarkivet.*");
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Checks that an index in use is not evicted, and is evicted once it is closed.
+     */
+    @Test
+    public void testIndexInUseNotEvicted() throws Exception {
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "1");
+        CrawlLogIndex index = CrawlLogIndex.getInstance(2);
+        File indexOf2 = new File(indexdir, "2");
+        indexOf2.setLastModified(System.currentTimeMillis() - 60 * 1000);
+        new File(indexdir, "7").mkdirs();
+
+        CrawlLogIndex.getInstance(7).close();
+        assertTrue("The index in use should not be evicted", indexOf2.isDirectory());
+        File f = index.getCrawlLogForDomain("netarkivet.dk");
+        assertTrue("The index in use should still be searchable", FileUtils.readListFromFile(f).size() > 0);
+        FileUtils.remove(f);
+
+        index.close();
+        CrawlLogIndex.getInstance(7).close();
+        assertFalse("The closed index should be evicted", indexOf2.exists());
+    }
+
+    /**
+     * Checks that a crawl log is not indexed when the batch job fetching it fails on a file, and that it is searched
+     * by a batch job instead.
+     */
+    @Test
+    public void testIncompleteCrawlLogNotIndexed() throws Exception {
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "0");
+        File expected = Reporting.getCrawlLoglinesMatchingRegexp(2, ".*netarkivet\\.dk.*");
+        List<String> expectedLines = FileUtils.readListFromFile(expected);
+        FileUtils.remove(expected);
+
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "2");
+        Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT, FailingArcRepositoryClient.class.getName());
+        File f = Reporting.getCrawlLoglinesMatchingRegexp(2, ".*netarkivet\\.dk.*");
+        assertEquals("The lines should be found by a batch job", expectedLines, FileUtils.readListFromFile(f));
+        FileUtils.remove(f);
+        assertFalse("Job 2 should not be indexed", new File(indexdir, "2").exists());
+    }
+
+    /**
+     * Checks the literal text found in regular expressions, which is used to skip blocks of the crawl log.
+     */
+    @Test
+    public void testGetRequiredLiterals() {
+        assertEquals(Arrays.asList("netarkivet.dk"), CrawlLogIndex.getRequiredLiterals(".*netarkivet\\.dk.*"));
+        assertEquals(Arrays.asList("abc"), CrawlLogIndex.getRequiredLiterals("abcd?ef"));
+        assertEquals(Arrays.asList("xyz", "text"), CrawlLogIndex.getRequiredLiterals(".*[a-z]+xyz\\d{2}text.*"));
+        assertEquals(Arrays.asList("foo", "bar"), CrawlLogIndex.getRequiredLiterals("foo+bar"));
+        assertEquals(Arrays.asList("after"), CrawlLogIndex.getRequiredLiterals("(group)?[cla(ss]*after"));
+        assertEquals("Alternatives are not analysed", Collections.emptyList(),
+                CrawlLogIndex.getRequiredLiterals(".*(foo|bar)baz.*"));
+        assertEquals("Flags are not analysed", Collections.emptyList(),
+                CrawlLogIndex.getRequiredLiterals("(?i).*netarkivet.*"));
+        for (String regexp : new String[] {"abc\\x41def", "abc\\u0041def", "abc\\cAdef", "abc\\0101def",
+                "abc\\p{Lu}def", "abc\\P{Lu}def", "(abc)\\1def", "(?<n>abc)\\k<n>def", "abc\\N{SPACE}def"}) {
+            assertEquals("Escapes with arguments are not analysed: " + regexp, Collections.emptyList(),
+                    CrawlLogIndex.getRequiredLiterals(regexp));
+        }
+        assertEquals(Arrays.asList("abc", "def"), CrawlLogIndex.getRequiredLiterals("abc\\ddef"));
+    }
+
+    /**
+     * Checks the domains of crawl log lines.
+     */
+    @Test
+    public void testGetDomains() {
+        assertEquals(Arrays.asList("netarkivet.dk", "kaarefc.dk"), Arrays.asList(CrawlLogIndex.getDomains(
+                "2008-06-01T12:00:00.000Z 200 1234 http://www.netarkivet.dk/ L http://kaarefc.dk/ text/html #1 -")
+                .toArray()));
+        assertEquals(Arrays.asList("netarkivet.dk"), Arrays.asList(CrawlLogIndex.getDomains(
+                "2008-06-01T12:00:00.000Z 1 52 dns:www.netarkivet.dk P - text/dns #1 -").toArray()));
+        assertEquals(Collections.emptyList(), Arrays.asList(CrawlLogIndex.getDomains("too short").toArray()));
+    }
+
+    /**
+     * An arc repository client whose batch jobs report a failed file.
+     */
+    public static class FailingArcRepositoryClient extends TrivialArcRepositoryClient {
+        @Override
+        public BatchStatus batch(FileBatchJob job, String replicaId, String... args) {
+            BatchStatus status = super.batch(job, replicaId, args);
+            return new BatchStatus(replicaId, Arrays.asList(new File("2-metadata-1.arc")),
+                    status.getNoOfFilesProcessed(), status.getResultFile(), status.getExceptions());
+        }
+    }
+
+    /**
+     * Get the crawl log lines of job 2 for some domains and regular expressions.
+     *
+     * @param domains The domains.
+     * @param regexps The regular expressions.
+     * @return The lines found for each domain followed by the lines found for each regular expression.
+     */
+    private List<List<String>> getResults(List<String> domains, List<String> regexps) {
+        List<List<String>> results = new ArrayList<List<String>>();
+        for (String domain : domains) {
+            File f = Reporting.getCrawlLogForDomainInJob(domain, 2);
+            results.add(FileUtils.readListFromFile(f));
+            FileUtils.remove(f);
+        }
+        for (String regexp : regexps) {
+            File f = Reporting.getCrawlLoglinesMatchingRegexp(2, regexp);
+            results.add(FileUtils.readListFromFile(f));
+            FileUtils.remove(f);
+        }
+        return results;
+    }
+
+}
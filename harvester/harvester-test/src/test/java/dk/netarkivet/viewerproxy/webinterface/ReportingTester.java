@@ -27,6 +27,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.After;
@@ -40,6 +43,9 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.JobFile;
+import dk.netarkivet.harvester.datamodel.JobFileDAO;
 import dk.netarkivet.testutils.CollectionAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.StringAsserts;
@@ -65,6 +71,8 @@ public class ReportingTester {
         working.mkdirs();
         Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempdir.getAbsolutePath());
         Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT, TrivialArcRepositoryClient.class.getName());
+        Settings.set(HarvesterSettings.USE_JOB_FILE_CATALOG, "false");
+        Settings.set(HarvesterSettings.CRAWL_LOG_INDEX_MAX_JOBS, "0");
         ArcRepositoryClientFactory.getViewerInstance().close();
         tarc = (TrivialArcRepositoryClient) ArcRepositoryClientFactory.getViewerInstance();
         dir = (File) ReflectUtils.getPrivateField(TrivialArcRepositoryClient.class, "dir").get(tarc);
@@ -83,6 +91,7 @@ public class ReportingTester {
             FileUtils.removeRecursively(dir);
         }
         FileUtils.removeRecursively(working);
+        JobFileDAO.reset();
         utrf.tearDown();
         rs.tearDown();
     }
@@ -193,4 +202,49 @@ public class ReportingTester {
         assertEquals("Should be empty, no job 4", 0, lines.size());
     }
 
+    /**
+     * Checks that the results for a job in the catalog of job files are the same as the ones found by batch jobs, and
+     * that jobs which are not in the catalog are still searched by batch jobs.
+     */
+    @Test
+    public void testGetResultsFromCatalog() throws Exception {
+        List<String> files = Reporting.getFilesForJob(2, "2-1");
+        List<CDXRecord> records = Reporting.getMetadataCDXRecordsForJob(2);
+        List<String> domainLines = FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob("kaarefc.dk", 2));
+        List<String> regexpLines = FileUtils.readListFromFile(Reporting.getCrawlLoglinesMatchingRegexp(2,
+                ".*netarkivet\\.dk.*"));
+
+        final List<JobFile> jobFiles = Arrays.asList(JobFile.forArchiveFile("2-1-20080601120000-00000-dev.arc"),
+                JobFile.forMetadataFile(new File(dir, "2-metadata-1.arc")));
+        ReflectUtils.getPrivateField(JobFileDAO.class, "instance").set(null, new JobFileDAO() {
+            @Override
+            public void addFiles(long jobID, Collection<JobFile> files) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<JobFile> getFiles(long jobID) {
+                return jobID == 2 ? jobFiles : Collections.<JobFile>emptyList();
+            }
+        });
+        Settings.set(HarvesterSettings.USE_JOB_FILE_CATALOG, "true");
+
+        assertEquals("The files should be listed from the catalog", files, Reporting.getFilesForJob(2, "2-1"));
+        List<CDXRecord> catalogRecords = Reporting.getMetadataCDXRecordsForJob(2);
+        assertEquals("The records should be listed from the catalog", records.size(), catalogRecords.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(records.get(i).getURL(), catalogRecords.get(i).getURL());
+            assertEquals(records.get(i).getOffset(), catalogRecords.get(i).getOffset());
+            assertEquals(records.get(i).getLength(), catalogRecords.get(i).getLength());
+        }
+        assertEquals("The crawl log lines of the domain should be the same", domainLines,
+                FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob("kaarefc.dk", 2)));
+        assertEquals("The crawl log lines matching the regexp should be the same", regexpLines,
+                FileUtils.readListFromFile(Reporting.getCrawlLoglinesMatchingRegexp(2, ".*netarkivet\\.dk.*")));
+        assertTrue("Some crawl log lines should have been found", domainLines.size() > 0 && regexpLines.size() > 0);
+
+        CollectionAsserts.assertListEquals("Job 4 is not in the catalog, and not harvested",
+                Reporting.getFilesForJob(4, "4-2"));
+    }
+
 }
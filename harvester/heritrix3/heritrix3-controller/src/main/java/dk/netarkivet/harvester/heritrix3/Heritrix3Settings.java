@@ -172,4 +172,18 @@ public class Heritrix3Settings {
      * @see HarvestDocumentation#documentHarvest(dk.netarkivet.harvester.harvesting.IngestableFiles)
      */
     public static String METADATA_ARCHIVE_FILES_REPORT_HEADER = "settings.harvester.harvesting.metadata.archiveFilesReport.fileHeader";
+
+    /**
+     * <b>settings.harvester.harvesting.upload.parallelism</b>: <br>
+     * The number of archive files uploaded to the archive at the same time after a harvest. The metadata files are
+     * uploaded after all the other archive files. Default value is 1, which uploads one file at a time.
+     */
+    public static String UPLOAD_PARALLELISM = "settings.harvester.harvesting.upload.parallelism";
+
+    /**
+     * <b>settings.harvester.harvesting.upload.maxBytesInFlight</b>: <br>
+     * If {@link #UPLOAD_PARALLELISM} is larger than 1, the maximum total size in bytes of the archive files being
+     * uploaded at the same time. A file larger than this is uploaded alone. Default value is 4294967296 (4 GB).
+     */
+    public static String UPLOAD_MAX_BYTES_IN_FLIGHT = "settings.harvester.harvesting.upload.maxBytesInFlight";
 }
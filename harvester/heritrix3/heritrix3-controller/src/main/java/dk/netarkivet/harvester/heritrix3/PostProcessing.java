@@ -24,7 +24,14 @@ package dk.netarkivet.harvester.heritrix3;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +46,7 @@ import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.JobFile;
 import dk.netarkivet.harvester.datamodel.JobStatus;
 import dk.netarkivet.harvester.harvesting.PersistentJobData;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlStatusMessage;
@@ -153,12 +161,13 @@ public class PostProcessing {
         StringBuilder errorMessage = new StringBuilder();
         HarvestReport dhr = null;
         List<File> failedFiles = new ArrayList<File>();
+        List<JobFile> uploadedFiles = new ArrayList<JobFile>();
 
         Heritrix3Files files = Heritrix3Files.getH3HeritrixFiles(crawlDir, harvestInfo);
         
         try {
             log.info("Store files in directory '{}' " + "from jobID: {}.", crawlDir, jobID);
-            dhr = storeFiles(files, errorMessage, failedFiles);
+            dhr = storeFiles(files, errorMessage, failedFiles, uploadedFiles);
         } catch (Exception e) {
             String msg = "Trouble occurred during postprocessing (including upload of files) in '" + crawlDir.getAbsolutePath() + "'";
             log.warn(msg, e);
@@ -181,6 +190,7 @@ public class PostProcessing {
                 csm = new CrawlStatusMessage(jobID, JobStatus.FAILED, dhr);
                 setErrorMessages(csm, crawlException, errorMessage.toString(), dhr == null, failedFiles.size());
             }
+            csm.setUploadedFiles(uploadedFiles);
             
             try { // TODO What kind of errors are we actually catching here if any
             	if (jmsConnection != null) {
@@ -241,18 +251,21 @@ public class PostProcessing {
      * which is sent along in the crawlstatusmessage.
      * <p>
      * Additionally, any leftover open ARC files are closed and harvest documentation is extracted before upload starts.
+     * The files that were uploaded are added to uploadedFiles, for the scheduler to add to the catalog of job files.
      *
      * @param files The HeritrixFiles object for this crawl. Not Null.
      * @param errorMessage A place where error messages accumulate. Not Null.
      * @param failedFiles List of files that failed to upload. Not Null.
+     * @param uploadedFiles List of the files that were uploaded. Not Null.
      * @return An object containing info about the domains harvested.
      * @throws ArgumentNotValid if an argument isn't valid.
      */
-    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles)
-            throws ArgumentNotValid {
+    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles,
+            List<JobFile> uploadedFiles) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
         ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
         ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
+        ArgumentNotValid.checkNotNull(uploadedFiles, "List<JobFile> uploadedFiles");
         long jobID = files.getJobID();
         log.info("Store the files from harvest in '{}'", files.getCrawlDir());
         try {
@@ -262,27 +275,49 @@ public class PostProcessing {
             // Create a metadata archive file
             HarvestDocumentation.documentHarvest(inf);
             // Upload all files 
+            // The files are listed before the upload, as uploaded files are deleted.
+            List<File> arcFiles = inf.getArcFiles();
+            List<File> warcFiles = inf.getWarcFiles();
 
             // Check, if arcsdir or warcsdir is empty
             // Send a notification, if this is the case
-            if (inf.getArcFiles().isEmpty() && inf.getWarcFiles().isEmpty()) {
+            if (arcFiles.isEmpty() && warcFiles.isEmpty()) {
                 String errMsg = "Probable error in Heritrix job setup. "
                         + "No arcfiles or warcfiles generated by Heritrix for job " + jobID;
                 log.warn(errMsg);
                 NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
             } else {
-                if (!inf.getArcFiles().isEmpty()) {
-                    uploadFiles(inf.getArcFiles(), errorMessage, failedFiles);
+                if (!arcFiles.isEmpty()) {
+                    uploadFiles(arcFiles, errorMessage, failedFiles);
                 }
-                if (!inf.getWarcFiles().isEmpty()) {
-                    uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
+                if (!warcFiles.isEmpty()) {
+                    uploadFiles(warcFiles, errorMessage, failedFiles);
                 }
             }
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
+            // The catalog entries of the metadata files are made before the upload for the same reason.
+            List<JobFile> metadataFiles = getMetadataJobFiles(inf.getMetadataArcFiles());
             uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
-            
+
+            Set<String> failedFilenames = new HashSet<String>();
+            for (File f : failedFiles) {
+                failedFilenames.add(f.getName());
+            }
+            List<File> archiveFiles = new ArrayList<File>(arcFiles);
+            archiveFiles.addAll(warcFiles);
+            for (File f : archiveFiles) {
+                if (!failedFilenames.contains(f.getName())) {
+                    uploadedFiles.add(JobFile.forArchiveFile(f.getName()));
+                }
+            }
+            for (JobFile metadataFile : metadataFiles) {
+                if (!failedFilenames.contains(metadataFile.getFilename())) {
+                    uploadedFiles.add(metadataFile);
+                }
+            }
+
             // Make the harvestReport ready for transfer back to the scheduler 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
             		 
@@ -295,7 +330,29 @@ public class PostProcessing {
     }
 
     /**
-     * Upload given files to the archive repository.
+     * Make the catalog entries of metadata files, with the CDX lines of their records. If the CDX lines of a file cannot
+     * be generated, the entry is made without them, and the QA pages will search the file in the archive instead.
+     *
+     * @param metadataFiles The metadata files.
+     * @return The catalog entries of the files.
+     */
+    private List<JobFile> getMetadataJobFiles(List<File> metadataFiles) {
+        List<JobFile> result = new ArrayList<JobFile>();
+        for (File f : metadataFiles) {
+            try {
+                result.add(JobFile.forMetadataFile(f));
+            } catch (Exception e) {
+                log.warn("Unable to generate the CDX lines of metadata file '{}'", f.getName(), e);
+                result.add(new JobFile(f.getName(), true, null));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Upload given files to the archive repository. If {@link Heritrix3Settings#UPLOAD_PARALLELISM} is larger than 1,
+     * several files are uploaded at the same time. In any case, the method returns when all files have been attempted
+     * uploaded.
      *
      * @param files List of (ARC/WARC) files to upload.
      * @param errorMessage Accumulator for error messages.
@@ -304,20 +361,96 @@ public class PostProcessing {
     private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
         // Upload all archive files
         if (files != null) {
-            for (File f : files) {
+            int parallelism = Settings.getInt(Heritrix3Settings.UPLOAD_PARALLELISM);
+            if (parallelism > 1 && files.size() > 1) {
+                uploadFilesConcurrently(files, Math.min(parallelism, files.size()), errorMessage, failedFiles);
+            } else {
+                for (File f : files) {
+                    uploadFile(f, errorMessage, failedFiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Upload given files to the archive repository using a number of threads. The total size of the files being
+     * uploaded at the same time is bounded by {@link Heritrix3Settings#UPLOAD_MAX_BYTES_IN_FLIGHT}. The uploads are
+     * started in the order of the list.
+     *
+     * @param files List of (ARC/WARC) files to upload.
+     * @param parallelism The number of files to upload at the same time.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     * @throws IOFailure If interrupted while uploading.
+     */
+    private void uploadFilesConcurrently(List<File> files, int parallelism, final StringBuilder errorMessage,
+            final List<File> failedFiles) {
+        long maxBytesInFlight = Settings.getLong(Heritrix3Settings.UPLOAD_MAX_BYTES_IN_FLIGHT);
+        // The budget is counted in kilobytes to fit the permits of a semaphore.
+        final int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytesInFlight / 1024));
+        final Semaphore bytesInFlight = new Semaphore(budget, true);
+        log.info("Uploading {} files to arcrepository, {} at a time and at most {} bytes in flight.", files.size(),
+                parallelism, maxBytesInFlight);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Future<?>> uploads = new ArrayList<Future<?>>();
+        try {
+            for (final File f : files) {
+                // A file larger than the budget takes all of it, and is uploaded alone.
+                final int permits = (int) Math.max(1, Math.min(budget, f.length() / 1024));
+                bytesInFlight.acquire(permits);
                 try {
-                    log.info("Uploading file '{}' to arcrepository.", f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
-                            + oldJobsDir.getAbsolutePath() + "'";
-                    errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
+                    uploads.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                uploadFile(f, errorMessage, failedFiles);
+                            } finally {
+                                bytesInFlight.release(permits);
+                            }
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    bytesInFlight.release(permits);
+                    throw e;
                 }
             }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while uploading files to the arcrepository", e);
+        } catch (ExecutionException e) {
+            // uploadFile catches all exceptions, so this is not expected.
+            throw new IOFailure("Unexpected error while uploading files to the arcrepository", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Upload a file to the archive repository. If the upload fails, the file is added to the failed files and left
+     * for the cleanup to move to the oldjobs directory. Safe to call from several threads at the same time.
+     *
+     * @param f The (ARC/WARC) file to upload.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     */
+    private void uploadFile(File f, StringBuilder errorMessage, List<File> failedFiles) {
+        try {
+            log.info("Uploading file '{}' to arcrepository.", f.getName());
+            arcRepController.store(f);
+            log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
+        } catch (Exception e) {
+            File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+            String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
+                    + oldJobsDir.getAbsolutePath() + "'";
+            log.warn(errorMsg, e);
+            synchronized (errorMessage) {
+                errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
+                failedFiles.add(f);
+            }
         }
     }
 
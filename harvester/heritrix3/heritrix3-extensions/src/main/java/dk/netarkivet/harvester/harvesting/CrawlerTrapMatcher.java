@@ -0,0 +1,418 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches strings against a list of crawler trap regular expressions at once.
+ * <p>
+ * Trying each expression in turn on every URI is expensive when there are thousands of traps. Instead, a literal
+ * string that every match of an expression must contain is extracted from each expression, e.g.
+ * <code>example.dk/cal</code> from <code>.*example\.dk/cal.*</code>. All these literals are found in a single pass
+ * over the URI with an Aho-Corasick automaton, and only the expressions whose literal occurs in the URI are tried.
+ * Expressions without a usable literal, e.g. because of alternation or inline flags, are always tried.
+ * <p>
+ * An expression matches when it matches the whole string, as in <code>MatchesListRegexDecideRule</code>. Instances
+ * are immutable and can be used by several threads at once.
+ */
+public class CrawlerTrapMatcher {
+
+    /** Literals shorter than this are too common in URIs to be worth prefiltering on. */
+    static final int MIN_LITERAL_LENGTH = 3;
+
+    /** The expressions, in the order given. */
+    private final Pattern[] patterns;
+
+    /** Indices of the expressions that are tried for every string. */
+    private final int[] unfiltered;
+
+    /** The characters of the transitions out of each state of the automaton, sorted. */
+    private final char[][] transitionChars;
+
+    /** The target states of the transitions out of each state of the automaton. */
+    private final int[][] transitionTargets;
+
+    /** The failure link of each state of the automaton. */
+    private final int[] failures;
+
+    /** The indices of the expressions whose literal ends in each state of the automaton. */
+    private final int[][] outputs;
+
+    /**
+     * Compile the given expressions.
+     *
+     * @param regexes The regular expressions to match against.
+     * @throws java.util.regex.PatternSyntaxException If one of the expressions is invalid.
+     */
+    public CrawlerTrapMatcher(Collection<String> regexes) {
+        patterns = new Pattern[regexes.size()];
+        List<Integer> unfilteredList = new ArrayList<Integer>();
+        List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+        List<List<Integer>> trieOutputs = new ArrayList<List<Integer>>();
+        trie.add(new TreeMap<Character, Integer>());
+        trieOutputs.add(new ArrayList<Integer>());
+
+        int i = 0;
+        for (String regex : regexes) {
+            patterns[i] = Pattern.compile(regex);
+            String literal = getRequiredLiteral(regex);
+            if (literal == null) {
+                unfilteredList.add(i);
+            } else {
+                int state = 0;
+                for (int pos = 0; pos < literal.length(); pos++) {
+                    Integer next = trie.get(state).get(literal.charAt(pos));
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<Character, Integer>());
+                        trieOutputs.add(new ArrayList<Integer>());
+                        trie.get(state).put(literal.charAt(pos), next);
+                    }
+                    state = next;
+                }
+                trieOutputs.get(state).add(i);
+            }
+            i++;
+        }
+
+        unfiltered = new int[unfilteredList.size()];
+        for (int j = 0; j < unfiltered.length; j++) {
+            unfiltered[j] = unfilteredList.get(j);
+        }
+
+        int stateCount = trie.size();
+        transitionChars = new char[stateCount][];
+        transitionTargets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            Map<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionTargets[state] = new int[transitions.size()];
+            int j = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][j] = transition.getKey();
+                transitionTargets[state][j] = transition.getValue();
+                j++;
+            }
+        }
+
+        // Compute the failure links breadth first, so the links of shorter prefixes are known, and let each state
+        // also output the literals ending in the state of its failure link.
+        failures = new int[stateCount];
+        outputs = new int[stateCount][];
+        outputs[0] = new int[0];
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        for (int target : transitionTargets[0]) {
+            failures[target] = 0;
+            outputs[target] = toArray(trieOutputs.get(target), outputs[0]);
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int j = 0; j < transitionChars[state].length; j++) {
+                char c = transitionChars[state][j];
+                int target = transitionTargets[state][j];
+                int failure = failures[state];
+                int next;
+                while ((next = getTransition(failure, c)) < 0 && failure != 0) {
+                    failure = failures[failure];
+                }
+                failures[target] = next < 0 ? 0 : next;
+                outputs[target] = toArray(trieOutputs.get(target), outputs[failures[target]]);
+                queue.add(target);
+            }
+        }
+    }
+
+    /**
+     * Concatenate a list of indices and an array of indices.
+     *
+     * @param first A list of indices.
+     * @param second An array of indices.
+     * @return The indices of both in one array.
+     */
+    private static int[] toArray(List<Integer> first, int[] second) {
+        int[] result = Arrays.copyOf(second, first.size() + second.length);
+        for (int j = 0; j < first.size(); j++) {
+            result[second.length + j] = first.get(j);
+        }
+        return result;
+    }
+
+    /**
+     * Look up a transition in the automaton.
+     *
+     * @param state The state to go from.
+     * @param c The character to go by.
+     * @return The target state, or -1 if there is no such transition.
+     */
+    private int getTransition(int state, char c) {
+        int index = Arrays.binarySearch(transitionChars[state], c);
+        return index < 0 ? -1 : transitionTargets[state][index];
+    }
+
+    /**
+     * Check whether any of the expressions matches the whole of the given string.
+     *
+     * @param s A string, usually a URI.
+     * @return true if at least one expression matches the string.
+     */
+    public boolean matches(String s) {
+        for (int index : unfiltered) {
+            if (patterns[index].matcher(s).matches()) {
+                return true;
+            }
+        }
+        BitSet tried = null;
+        int state = 0;
+        for (int pos = 0; pos < s.length(); pos++) {
+            char c = s.charAt(pos);
+            int next;
+            while ((next = getTransition(state, c)) < 0 && state != 0) {
+                state = failures[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (int index : outputs[state]) {
+                if (tried == null) {
+                    tried = new BitSet(patterns.length);
+                }
+                if (!tried.get(index)) {
+                    tried.set(index);
+                    if (patterns[index].matcher(s).matches()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether all of the expressions match the whole of the given string. As every expression must be tried,
+     * no prefiltering is done.
+     *
+     * @param s A string, usually a URI.
+     * @return true if there is at least one expression, and all of them match the string.
+     */
+    public boolean matchesAll(String s) {
+        for (Pattern pattern : patterns) {
+            if (!pattern.matcher(s).matches()) {
+                return false;
+            }
+        }
+        return patterns.length > 0;
+    }
+
+    /**
+     * @return The number of expressions.
+     */
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * @return The number of expressions that are tried for every string, as no literal could be found for them.
+     */
+    public int getUnfilteredPatternCount() {
+        return unfiltered.length;
+    }
+
+    /**
+     * Find the longest literal string that any string matched by a regular expression must contain. Only the top
+     * level of the expression is examined; groups, character classes and other constructs just end the current run of
+     * literal characters. Constructs that change what a literal character matches, or that are hard to skip reliably,
+     * give no literal at all.
+     *
+     * @param regex A valid regular expression.
+     * @return The literal, or null if no literal of at least {@link #MIN_LITERAL_LENGTH} characters was found.
+     */
+    static String getRequiredLiteral(String regex) {
+        if (regex.contains("\\Q")) {
+            return null;
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int pos = 0;
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            int literal = -1;
+            if (c == '\\') {
+                if (pos + 1 >= regex.length()) {
+                    return null;
+                }
+                char escaped = regex.charAt(pos + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // Escapes like \d or \b are a single non-literal construct. Escapes with arguments are not
+                    // skipped, so they give up.
+                    if ("xupPNkc".indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                        return null;
+                    }
+                } else {
+                    literal = escaped;
+                }
+                pos += 2;
+            } else if (c == '[') {
+                pos = skipCharacterClass(regex, pos);
+            } else if (c == '(') {
+                if (regex.startsWith("(?", pos) && pos + 2 < regex.length()
+                        && (Character.isLetter(regex.charAt(pos + 2)) || regex.charAt(pos + 2) == '-')) {
+                    // Inline flags, like (?i), may change how the rest of the expression matches.
+                    return null;
+                }
+                pos = skipGroup(regex, pos);
+            } else if (c == '|' || c == ')') {
+                return null;
+            } else if (c == '.' || c == '^' || c == '$' || c == '*' || c == '+' || c == '?' || c == '{') {
+                pos++;
+            } else {
+                literal = c;
+                pos++;
+            }
+            if (pos < 0) {
+                return null;
+            }
+
+            // Look at the quantifiers of the construct, if any. A quantifier that requires at least one repetition
+            // still ends the run, as the repetitions come between the literal and what follows.
+            int minCount = 1;
+            while (pos < regex.length()) {
+                char q = regex.charAt(pos);
+                if (q == '?' || q == '*') {
+                    minCount = 0;
+                    pos++;
+                } else if (q == '+') {
+                    minCount = minCount == 0 ? 0 : 2;
+                    pos++;
+                } else if (q == '{') {
+                    int end = regex.indexOf('}', pos);
+                    if (end < 0) {
+                        return null;
+                    }
+                    String bounds = regex.substring(pos + 1, end);
+                    minCount = minCount == 0 || bounds.startsWith("0") || bounds.startsWith(",") ? 0 : 2;
+                    pos = end + 1;
+                } else {
+                    break;
+                }
+                if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+                    // Reluctant or possessive quantifier
+                    pos++;
+                }
+            }
+
+            if (literal >= 0 && minCount > 0) {
+                run.append((char) literal);
+            }
+            if (literal < 0 || minCount != 1) {
+                if (run.length() > best.length()) {
+                    best = run.toString();
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > best.length()) {
+            best = run.toString();
+        }
+        return best.length() >= MIN_LITERAL_LENGTH ? best : null;
+    }
+
+    /**
+     * Skip a character class, which may contain nested classes.
+     *
+     * @param regex A regular expression.
+     * @param start The position of the '[' starting the class.
+     * @return The position after the class, or -1 if the class could not be skipped reliably.
+     */
+    private static int skipCharacterClass(String regex, int start) {
+        int pos = start + 1;
+        if (regex.startsWith("^", pos)) {
+            pos++;
+        }
+        if (regex.startsWith("]", pos)) {
+            // Whether a leading ']' is literal is not worth guessing.
+            return -1;
+        }
+        int depth = 1;
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return pos + 1;
+                }
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /**
+     * Skip a group, which may contain nested groups and character classes.
+     *
+     * @param regex A regular expression.
+     * @param start The position of the '(' starting the group.
+     * @return The position after the group, or -1 if the group could not be skipped reliably.
+     */
+    private static int skipGroup(String regex, int start) {
+        int pos = start + 1;
+        int depth = 1;
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+            } else if (c == '[') {
+                pos = skipCharacterClass(regex, pos);
+                if (pos < 0) {
+                    return -1;
+                }
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                    if (depth == 0) {
+                        return pos + 1;
+                    }
+                }
+                pos++;
+            }
+        }
+        return -1;
+    }
+
+}
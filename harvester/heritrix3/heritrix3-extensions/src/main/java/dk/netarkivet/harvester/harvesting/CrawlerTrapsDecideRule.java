@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.PredicatedDecideRule;
+
+/**
+ * Drop-in replacement for <code>MatchesListRegexDecideRule</code> meant for long lists of crawler traps.
+ * <p>
+ * <code>MatchesListRegexDecideRule</code> tries every regular expression in turn on every URI. This rule compiles all
+ * the expressions into one {@link CrawlerTrapMatcher}, which only tries the expressions whose required literal occurs
+ * in the URI. It takes the same <code>regexList</code> and <code>listLogicalOr</code> properties, and makes its
+ * decision under the same conditions.
+ */
+public class CrawlerTrapsDecideRule extends PredicatedDecideRule {
+
+    /**
+     * UUID.
+     */
+    private static final long serialVersionUID = -1538367271733652466L;
+
+    /** Logger instance. */
+    private static final Logger logger = Logger.getLogger(CrawlerTrapsDecideRule.class.getName());
+
+    /**
+     * The regular expressions to match URIs against.
+     */
+    protected List<String> regexList = new ArrayList<String>();
+    public List<String> getRegexList() {
+        return regexList;
+    }
+    public void setRegexList(List<String> regexList) {
+        this.regexList = regexList;
+        this.matcher = null;
+    }
+
+    /**
+     * If true, a URI matches if any expression matches it. If false, all expressions must match it.
+     */
+    protected boolean listLogicalOr = true;
+    public boolean getListLogicalOr() {
+        return listLogicalOr;
+    }
+    public void setListLogicalOr(boolean listLogicalOr) {
+        this.listLogicalOr = listLogicalOr;
+    }
+
+    /** The compiled expressions, built on first use. */
+    private transient volatile CrawlerTrapMatcher matcher;
+
+    /**
+     * @return The compiled expressions of the regex list.
+     */
+    protected CrawlerTrapMatcher getMatcher() {
+        CrawlerTrapMatcher result = matcher;
+        if (result == null) {
+            result = new CrawlerTrapMatcher(regexList);
+            logger.info("Compiled " + result.getPatternCount() + " crawler traps, of which "
+                    + result.getUnfilteredPatternCount() + " are tried for every URI");
+            matcher = result;
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean evaluate(CrawlURI uri) {
+        CrawlerTrapMatcher m = getMatcher();
+        String str = uri.toString();
+        if (listLogicalOr) {
+            return m.matches(str);
+        } else {
+            return m.matchesAll(str);
+        }
+    }
+
+}
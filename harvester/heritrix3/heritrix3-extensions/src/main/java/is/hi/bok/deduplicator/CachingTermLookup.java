@@ -0,0 +1,178 @@
+package is.hi.bok.deduplicator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * Looks up the ids of the documents having an exact term in a field of a deduplication index.
+ * <p>
+ * The term is sought directly in the postings of each index segment, so no query is built, no scoring is done and no
+ * stored fields are read. The results, including empty ones, are kept in a bounded least recently used cache shared by
+ * all threads. The cache lives as long as the crawl, since the index does not change during a crawl. Only document ids
+ * are cached, so a digest shared by many documents costs four bytes per document.
+ * <p>
+ * A large cache is split by the hash of the key into segments, each its own least recently used cache with its own lock,
+ * so that the threads of a crawl rarely wait for each other.
+ */
+public class CachingTermLookup {
+
+    /** The index to look up in. */
+    private final IndexReader indexReader;
+
+    /** Returned for terms that are not in the index. */
+    private static final int[] NO_DOCS = new int[0];
+
+    /** The most segments the cache is split into. */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** The fewest lookups cached by each segment, so that a small cache is not split. */
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    /** The segments of the cache from field and term to the ids of the documents found, each guarded by itself. */
+    private final LinkedHashMap<String, int[]>[] segments;
+
+    /** Lookups answered by the cache. */
+    private final LongAdder hits = new LongAdder();
+
+    /** Lookups answered by the index. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param indexReader The index to look up in.
+     * @param cacheSize The maximum number of lookups to cache. Zero disables the cache.
+     */
+    public CachingTermLookup(IndexReader indexReader, final int cacheSize) {
+        if (indexReader == null) {
+            throw new IllegalArgumentException("indexReader must not be null");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+        }
+        this.indexReader = indexReader;
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * MIN_SEGMENT_SIZE <= cacheSize) {
+            segmentCount *= 2;
+        }
+        @SuppressWarnings("unchecked")
+        LinkedHashMap<String, int[]>[] newSegments = new LinkedHashMap[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the remainder so that the segments together hold exactly cacheSize lookups.
+            final int segmentSize = cacheSize / segmentCount + (i < cacheSize % segmentCount ? 1 : 0);
+            newSegments[i] = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                    return size() > segmentSize;
+                }
+            };
+        }
+        this.segments = newSegments;
+    }
+
+    /**
+     * Find the ids of the documents having a term in a field.
+     *
+     * @param fieldName The name of the field.
+     * @param value The term.
+     * @return The document ids in index order, usable with the searcher of the index. An empty array if no document has
+     * the term. The array is shared and must not be modified.
+     * @throws IOException If the index cannot be read.
+     */
+    public int[] getDocIds(String fieldName, String value) throws IOException {
+        String key = fieldName + '\u0000' + value;
+        LinkedHashMap<String, int[]> segment = segmentOf(key);
+        int[] docIds;
+        synchronized (segment) {
+            docIds = segment.get(key);
+        }
+        if (docIds != null) {
+            hits.increment();
+            return docIds;
+        }
+        misses.increment();
+        // The index is read outside the lock; threads missing the same key at once may both read it.
+        docIds = readDocIds(new Term(fieldName, value));
+        synchronized (segment) {
+            segment.put(key, docIds);
+        }
+        return docIds;
+    }
+
+    /**
+     * Find the segment of the cache holding a key.
+     *
+     * @param key The key.
+     * @return The segment.
+     */
+    private LinkedHashMap<String, int[]> segmentOf(String key) {
+        int hash = key.hashCode();
+        // Mix the high bits in, as the segment is chosen by the low bits.
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Read the ids of the documents having a term from the index.
+     *
+     * @param term The term.
+     * @return The document ids in index order.
+     * @throws IOException If the index cannot be read.
+     */
+    private int[] readDocIds(Term term) throws IOException {
+        int[] docIds = NO_DOCS;
+        int count = 0;
+        for (AtomicReaderContext leaf : indexReader.leaves()) {
+            // Null if the field or term does not exist in this segment. Deleted documents are skipped.
+            DocsEnum docs = leaf.reader().termDocsEnum(term);
+            if (docs == null) {
+                continue;
+            }
+            int doc;
+            while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if (count == docIds.length) {
+                    docIds = Arrays.copyOf(docIds, Math.max(1, count * 2));
+                }
+                docIds[count++] = leaf.docBase + doc;
+            }
+        }
+        return count == docIds.length ? docIds : Arrays.copyOf(docIds, count);
+    }
+
+    /**
+     * @return The number of lookups answered by the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups answered by the index.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of lookups currently cached.
+     */
+    public int getCacheSize() {
+        int size = 0;
+        for (LinkedHashMap<String, int[]> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+}
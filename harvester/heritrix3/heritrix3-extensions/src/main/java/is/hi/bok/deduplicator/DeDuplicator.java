@@ -31,11 +31,15 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -77,6 +81,8 @@ import dk.netarkivet.common.utils.AllDocsCollector;
  * <!-- DEDUPLICATION_INDEX_LOCATION is replaced by path on harvest-server -->
  * <property name="indexLocation" value="/home/svc/dedupcrawllogindex/empty-cache"/> 
 	<property name="matchingMethod" value="URL"/>  other option: DIGEST
+	<property name="lookupEngine" value="QUERY"/>  other option: TERMS
+	<property name="lookupCacheSize" value="100000"/>  only used by the TERMS engine
     <property name="tryEquivalent" value="true"/> 
        <property name="changeContentSize" value="false"/>
         <property name="mimeFilter" value="^text/.*"/>
@@ -160,6 +166,42 @@ public class DeDuplicator extends Processor implements InitializingBean {
     public void setMatchingMethod(MatchingMethod method) {
     	kp.put(ATTR_MATCHING_METHOD, method);
     }
+
+    /* How lookups by either matching method are done in the index. */
+    private final static String ATTR_LOOKUP_ENGINE = "lookup-engine";
+
+    public enum LookupEngine {
+        /** Run a Lucene query and collect all hits for each lookup. */
+        QUERY,
+        /** Seek the term directly in the index postings, and cache the results for the rest of the crawl. */
+        TERMS
+    }
+
+    {
+        setLookupEngine(LookupEngine.QUERY);
+    }
+    public LookupEngine getLookupEngine() {
+        return (LookupEngine) kp.get(ATTR_LOOKUP_ENGINE);
+    }
+
+    /** SETTER used by Spring */
+    public void setLookupEngine(LookupEngine engine) {
+        kp.put(ATTR_LOOKUP_ENGINE, engine);
+    }
+
+    /* The maximum number of lookups cached by the TERMS lookup engine. Both hits and misses are cached. */
+    private final static String ATTR_LOOKUP_CACHE_SIZE = "lookup-cache-size";
+    {
+        setLookupCacheSize(100000);
+    }
+    public Integer getLookupCacheSize() {
+        return (Integer) kp.get(ATTR_LOOKUP_CACHE_SIZE);
+    }
+
+    /** SETTER used by Spring */
+    public void setLookupCacheSize(Integer lookupCacheSize) {
+        kp.put(ATTR_LOOKUP_CACHE_SIZE, lookupCacheSize);
+    }
     
     /* On duplicate, should jump to which part of processing chain? 
      *  If not set, nothing is skipped. Otherwise this should be the identity of the processor to jump to.
@@ -345,6 +387,10 @@ public class DeDuplicator extends Processor implements InitializingBean {
     // Member variables.
     protected IndexSearcher indexSearcher = null;
     protected IndexReader indexReader = null;
+    /** The cached term lookups. Null unless the TERMS lookup engine is in use. */
+    protected CachingTermLookup termLookup = null;
+    /** Loads only the digest of a document, when comparing digests of URL hits. */
+    private static final Set<String> DIGEST_FIELD = Collections.singleton(DigestIndexer.FIELD_DIGEST);
     
     
     protected boolean lookupByURL = true;
@@ -355,7 +401,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected boolean useOriginFromIndex = false;
 
     protected Statistics stats = null;
-    protected HashMap<String, Statistics> perHostStats = null;
+    protected ConcurrentMap<String, Statistics> perHostStats = null;
+
+    /** Latencies of index lookups, shared by all threads. */
+    protected LatencyHistogram urlLookupLatency = null;
+    protected LatencyHistogram digestLookupLatency = null;
 
 
     public void afterPropertiesSet() throws Exception {
@@ -381,6 +431,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
         MatchingMethod matchingMethod = getMatchingMethod();
         lookupByURL = matchingMethod == MatchingMethod.URL;
 
+        // Lookup engine
+        if (getLookupEngine() == LookupEngine.TERMS) {
+            termLookup = new CachingTermLookup(indexReader, getLookupCacheSize());
+        }
+
         // Track per host stats
         statsPerHost = getStatsPerHost();
         
@@ -398,8 +453,10 @@ public class DeDuplicator extends Processor implements InitializingBean {
         // Initialize some internal variables:
         stats = new Statistics();
         if (statsPerHost) {
-            perHostStats = new HashMap<String, Statistics>();
+            perHostStats = new ConcurrentHashMap<String, Statistics>();
         }
+        urlLookupLatency = new LatencyHistogram();
+        digestLookupLatency = new LatencyHistogram();
     }
     
 
@@ -494,28 +551,32 @@ public class DeDuplicator extends Processor implements InitializingBean {
         logger.finest("Processing " + curi.toString() + "(" + 
                 curi.getContentType() + ")");
 
-        stats.handledNumber++;
-        stats.totalAmount += curi.getContentSize();
+        stats.handledNumber.increment();
+        stats.totalAmount.add(curi.getContentSize());
         Statistics currHostStats = null;
         if(statsPerHost){
-            synchronized (perHostStats) {
-                String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
-                currHostStats = perHostStats.get(host);
-                if(currHostStats==null){
-                    currHostStats = new Statistics();
-                    perHostStats.put(host,currHostStats);
+            String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
+            currHostStats = perHostStats.get(host);
+            if(currHostStats==null){
+                Statistics newHostStats = new Statistics();
+                currHostStats = perHostStats.putIfAbsent(host, newHostStats);
+                if (currHostStats == null) {
+                    currHostStats = newHostStats;
                 }
             }
-            currHostStats.handledNumber++;
-            currHostStats.totalAmount += curi.getContentSize();
+            currHostStats.handledNumber.increment();
+            currHostStats.totalAmount.add(curi.getContentSize());
         }
         
         Document duplicate = null; 
         
+        long lookupStart = System.nanoTime();
         if(lookupByURL){
             duplicate = lookupByURL(curi,currHostStats);
+            urlLookupLatency.record(System.nanoTime() - lookupStart);
         } else {
             duplicate = lookupByDigest(curi,currHostStats);
+            digestLookupLatency.record(System.nanoTime() - lookupStart);
         }
 
         if (duplicate != null){
@@ -542,11 +603,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
 
 
             // Increment statistics counters
-            stats.duplicateAmount += curi.getContentSize();
-            stats.duplicateNumber++;
+            stats.duplicateAmount.add(curi.getContentSize());
+            stats.duplicateNumber.increment();
             if(statsPerHost){ 
-                currHostStats.duplicateAmount+=curi.getContentSize();
-                currHostStats.duplicateNumber++;
+                currHostStats.duplicateAmount.add(curi.getContentSize());
+                currHostStats.duplicateNumber.increment();
             }
 
             String jumpTo = getJumpTo(); 
@@ -608,28 +669,22 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected Document lookupByURL(CrawlURI curi, Statistics currHostStats) {
         // Look the CrawlURI's URL up in the index.
         try {
-            Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            int[] hits = findDocIds(DigestIndexer.FIELD_URL, curi.toString());
             Document doc = null;
             String currentDigest = getDigestAsString(curi);
-            if (hits != null && hits.size() > 0) {
+            if (hits.length > 0) {
                 // Typically there should only be one it, but we'll allow for
                 // multiple hits.
-                for (ScoreDoc hit : hits) {
-                    // for(int i=0 ; i < hits.size() ; i++){
+                for (int docId : hits) {
                     // Multiple hits on same exact URL should be rare
                     // See if any have matching content digests
-                    int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
-                    String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
+                    String oldDigest = indexSearcher.doc(docId, DIGEST_FIELD).get(DigestIndexer.FIELD_DIGEST);
 
                     if (oldDigest.equalsIgnoreCase(currentDigest)) {
-                        stats.exactURLDuplicates++;
+                        doc = indexSearcher.doc(docId);
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
 
                         logger.finest("Found exact match for " + curi.toString());
@@ -642,25 +697,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
             if (getTryEquivalent()) {
                 // No exact hits. Let's try lenient matching.
                 String normalizedURL = DigestIndexer.stripURL(curi.toString());
-                query = queryField(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
-                collectAllCollector.reset(); // reset collector
-                indexSearcher.search(query, collectAllCollector);
-                hits = collectAllCollector.getHits();
+                hits = findDocIds(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
 
-                for (ScoreDoc hit : hits) {
-                    // int i=0 ; i < hits.length ; i++){
-
-                    int docId = hit.doc;
-                    Document doc1 = indexSearcher.doc(docId);
-                    String indexDigest = doc1.get(DigestIndexer.FIELD_DIGEST);
+                for (int docId : hits) {
+                    String indexDigest = indexSearcher.doc(docId, DIGEST_FIELD).get(DigestIndexer.FIELD_DIGEST);
                     if (indexDigest.equals(currentDigest)) {
+                        Document doc1 = indexSearcher.doc(docId);
                         // Make note in log
                         String equivURL = doc1.get(DigestIndexer.FIELD_URL);
                         curi.getAnnotations().add("equivalentURL:\"" + equivURL + "\"");
                         // Increment statistics counters
-                        stats.equivalentURLDuplicates++;
+                        stats.equivalentURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.equivalentURLDuplicates++;
+                            currHostStats.equivalentURLDuplicates.increment();
                         }
                         logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
                                 + normalizedURL + ". Equivalent to: " + equivURL);
@@ -696,32 +745,26 @@ public class DeDuplicator extends Processor implements InitializingBean {
             return null;
         }
 
-        Query query = queryField(DigestIndexer.FIELD_DIGEST, currentDigest);
         try {
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            int[] hits = findDocIds(DigestIndexer.FIELD_DIGEST, currentDigest);
 
             StringBuffer mirrors = new StringBuffer();
             mirrors.append("mirrors: ");
-            if (hits != null && hits.size() > 0) {
+            if (hits.length > 0) {
                 // Can definitely be more then one
                 // Note: We may find an equivalent match before we find an
                 // (existing) exact match.
                 // TODO: Ensure that an exact match is recorded if it exists.
-                Iterator<ScoreDoc> hitsIterator = hits.iterator();
-                while (hitsIterator.hasNext() && duplicate == null) {
-                    ScoreDoc hit = hitsIterator.next();
-                    int docId = hit.doc;
+                for (int i = 0; i < hits.length && duplicate == null; i++) {
+                    int docId = hits[i];
                     Document doc = indexSearcher.doc(docId);
                     String indexURL = doc.get(DigestIndexer.FIELD_URL);
                     // See if the current hit is an exact match.
                     if (curi.toString().equals(indexURL)) {
                         duplicate = doc;
-                        stats.exactURLDuplicates++;
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
                         logger.finest("Found exact match for " + curi.toString());
                     }
@@ -733,9 +776,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                         String indexNormalURL = doc.get(DigestIndexer.FIELD_URL_NORMALIZED);
                         if (normalURL.equals(indexNormalURL)) {
                             duplicate = doc;
-                            stats.equivalentURLDuplicates++;
+                            stats.equivalentURLDuplicates.increment();
                             if (statsPerHost) {
-                                currHostStats.equivalentURLDuplicates++;
+                                currHostStats.equivalentURLDuplicates.increment();
                             }
                             curi.getAnnotations().add("equivalentURL:\"" + indexURL + "\"");
                             logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
@@ -750,9 +793,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                     }
                 }
                 if (duplicate == null) {
-                    stats.mirrorNumber++;
+                    stats.mirrorNumber.increment();
                     if (statsPerHost) {
-                        currHostStats.mirrorNumber++;
+                        currHostStats.mirrorNumber.increment();
                     }
                     logger.log(Level.FINEST, "Found mirror URLs for " + curi.toString() + ". " + mirrors);
                 }
@@ -773,33 +816,44 @@ public class DeDuplicator extends Processor implements InitializingBean {
             return ret.toString();
         }
         ret.append("                     - Lookup by " + 
-        		(lookupByURL?"url":"digest") + " in use\n");
-        ret.append("  Total handled:     " + stats.handledNumber + "\n");
-        ret.append("  Duplicates found:  " + stats.duplicateNumber + " " + 
-        		getPercentage(stats.duplicateNumber,stats.handledNumber) + "\n");
-        ret.append("  Bytes total:       " + stats.totalAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount) + ")\n");
-        ret.append("  Bytes discarded:   " + stats.duplicateAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount) + ") " + 
-        		getPercentage(stats.duplicateAmount, stats.totalAmount) + "\n");
+        		(lookupByURL?"url":"digest") + (termLookup != null ? " (cached term lookups)" : "") + " in use\n");
+        ret.append("  Total handled:     " + stats.handledNumber.sum() + "\n");
+        ret.append("  Duplicates found:  " + stats.duplicateNumber.sum() + " " + 
+        		getPercentage(stats.duplicateNumber.sum(),stats.handledNumber.sum()) + "\n");
+        ret.append("  Bytes total:       " + stats.totalAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount.sum()) + ")\n");
+        ret.append("  Bytes discarded:   " + stats.duplicateAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount.sum()) + ") " + 
+        		getPercentage(stats.duplicateAmount.sum(), stats.totalAmount.sum()) + "\n");
         
-    	ret.append("  New (no hits):     " + (stats.handledNumber-
-    			(stats.mirrorNumber+stats.exactURLDuplicates+stats.equivalentURLDuplicates)) + "\n");
-    	ret.append("  Exact hits:        " + stats.exactURLDuplicates + "\n");
-    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates + "\n");
+    	ret.append("  New (no hits):     " + (stats.handledNumber.sum()-
+    			(stats.mirrorNumber.sum()+stats.exactURLDuplicates.sum()+stats.equivalentURLDuplicates.sum())) + "\n");
+    	ret.append("  Exact hits:        " + stats.exactURLDuplicates.sum() + "\n");
+    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates.sum() + "\n");
         if(lookupByURL==false){
-        	ret.append("  Mirror hits:       " + stats.mirrorNumber + "\n");
+        	ret.append("  Mirror hits:       " + stats.mirrorNumber.sum() + "\n");
         }
         
         if(getAnalyzeTimestamp()){
         	ret.append("  Timestamp predicts: (Where exact URL existed in the index)\n");
-        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect + "\n");
-        	ret.append("  Change falsely:     " + stats.timestampChangeFalse + "\n");
-        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect + "\n");
-        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse + "\n");
-        	ret.append("  Missing timpestamp:" + stats.timestampMissing + "\n");
+        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect.sum() + "\n");
+        	ret.append("  Change falsely:     " + stats.timestampChangeFalse.sum() + "\n");
+        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect.sum() + "\n");
+        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse.sum() + "\n");
+        	ret.append("  Missing timpestamp:" + stats.timestampMissing.sum() + "\n");
         	
         }
+
+        if (lookupByURL) {
+            urlLookupLatency.report(ret, "URL lookup");
+        } else {
+            digestLookupLatency.report(ret, "Digest lookup");
+        }
+        if (termLookup != null) {
+            long cacheHits = termLookup.getHits();
+            ret.append("  Lookup cache:      " + termLookup.getCacheSize() + " entries, " + cacheHits + " hits " +
+                    getPercentage(cacheHits, cacheHits + termLookup.getMisses()) + "\n");
+        }
         
         if(statsPerHost){
             ret.append("  [Host] [total] [duplicates] [bytes] " +
@@ -813,48 +867,46 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 ret.append(" [no timestamp]");
             }
             ret.append("\n");
-            synchronized (perHostStats) {
-                Iterator<String> it = perHostStats.keySet().iterator();
-                while(it.hasNext()){
-                    String key = it.next();
-                    Statistics curr = perHostStats.get(key);
-                    ret.append("  " +key);
-                    ret.append(" ");
-                    ret.append(curr.handledNumber);
+            // Weakly consistent: hosts added while reporting may or may not be included.
+            for (Map.Entry<String, Statistics> entry : perHostStats.entrySet()) {
+                String key = entry.getKey();
+                Statistics curr = entry.getValue();
+                ret.append("  " +key);
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateNumber.sum());
+                ret.append(" ");
+                ret.append(curr.totalAmount.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateAmount.sum());
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum()-
+                        (curr.mirrorNumber.sum()+
+                         curr.exactURLDuplicates.sum()+
+                         curr.equivalentURLDuplicates.sum()));
+                ret.append(" ");
+                ret.append(curr.exactURLDuplicates.sum());
+                ret.append(" ");
+                ret.append(curr.equivalentURLDuplicates.sum());
+
+                if(lookupByURL==false){
                     ret.append(" ");
-                    ret.append(curr.duplicateNumber);
+                    ret.append(curr.mirrorNumber.sum());
+                }    
+                if(getAnalyzeTimestamp()){
                     ret.append(" ");
-                    ret.append(curr.totalAmount);
+                    ret.append(curr.timestampChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.duplicateAmount);
+                    ret.append(curr.timestampChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.handledNumber-
-                            (curr.mirrorNumber+
-                             curr.exactURLDuplicates+
-                             curr.equivalentURLDuplicates));
+                    ret.append(curr.timestampNoChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.exactURLDuplicates);
+                    ret.append(curr.timestampNoChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.equivalentURLDuplicates);
-
-                    if(lookupByURL==false){
-                        ret.append(" ");
-                        ret.append(curr.mirrorNumber);
-                    }    
-                    if(getAnalyzeTimestamp()){
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampMissing);
-                    }
-                    ret.append("\n");
+                    ret.append(curr.timestampMissing.sum());
                 }
+                ret.append("\n");
             }
         }
         
@@ -887,19 +939,15 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	protected void doAnalysis(CrawlURI curi, Statistics currHostStats,
             boolean isDuplicate) {
 		try{
-    		Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-			indexSearcher.search(query, collectAllCollector);
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            int[] hits = findDocIds(DigestIndexer.FIELD_URL, curi.toString());
 
             Document doc = null;
     	
-            if(hits != null && hits.size() > 0){
+            if(hits.length > 0){
                 // If there are multiple hits, use the one with the most
                 // recent date.
                 Document docToEval = null;
-                for (ScoreDoc hit : hits) {
-                    int docId = hit.doc;
+                for (int docId : hits) {
                     doc = indexSearcher.doc(docId);
                     // The format of the timestamp ("yyyyMMddHHmmssSSS") allows
                     // us to do a greater then (later) or lesser than (earlier)
@@ -938,9 +986,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 				return;
 			}
         } else {
-            stats.timestampMissing++;
+            stats.timestampMissing.increment();
             if (statsPerHost) {
-                currHostStats.timestampMissing++;
+                currHostStats.timestampMissing.increment();
                 logger.finest("Missing timestamp on " + curi.toString());
             }
         	return;
@@ -961,16 +1009,16 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header predicts change
 			if(isDuplicate){
 				// But the DeDuplicator did not notice a change.
-                stats.timestampChangeFalse++;
+                stats.timestampChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeFalse++;
+                    currHostStats.timestampChangeFalse.increment();
                 }
                 logger.finest("Last-modified falsly predicts change on " + 
                         curi.toString());
 			} else {
-                stats.timestampChangeCorrect++;
+                stats.timestampChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeCorrect++;
+                    currHostStats.timestampChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts change on " + 
                         curi.toString());
@@ -979,9 +1027,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header does not predict change.
 			if(isDuplicate){
 				// And the DeDuplicator verifies that no change had occurred
-                stats.timestampNoChangeCorrect++;
+                stats.timestampNoChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeCorrect++;
+                    currHostStats.timestampNoChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts no-change on " + 
                         curi.toString());
@@ -991,15 +1039,38 @@ public class DeDuplicator extends Processor implements InitializingBean {
 						"no-change on " + curi.toString() + " " + 
 						curi.getContentType() + ". last-modified: " + 
                         lastModified + ". Last fetched: " + lastFetch);
-                stats.timestampNoChangeFalse++;
+                stats.timestampNoChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeFalse++;
+                    currHostStats.timestampNoChangeFalse.increment();
                 }
 			}
 		}
         
 	}
 
+    /**
+     * Find the ids of the documents having a value in a field, using the configured lookup engine.
+     *
+     * @param fieldName name of the field to look in.
+     * @param value The value to look for
+     * @return The ids of the documents found, usable with the index searcher. An empty array if none is found. The
+     * array must not be modified.
+     * @throws IOException If the index cannot be read.
+     */
+    protected int[] findDocIds(String fieldName, String value) throws IOException {
+        if (termLookup != null) {
+            return termLookup.getDocIds(fieldName, value);
+        }
+        AllDocsCollector collectAllCollector = new AllDocsCollector();
+        indexSearcher.search(queryField(fieldName, value), collectAllCollector);
+        List<ScoreDoc> hits = collectAllCollector.getHits();
+        int[] docIds = new int[hits.size()];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = hits.get(i).doc;
+        }
+        return docIds;
+    }
+
     /** Run a simple Lucene query for a single term in a single field.
      *
      * @param fieldName name of the field to look in.
@@ -1027,51 +1098,51 @@ class Statistics{
     /** Number of URIs that make it through the processors exclusion rules
      *  and are processed by it.
      */
-    long handledNumber = 0;
+    final LongAdder handledNumber = new LongAdder();
     
     /** Number of URIs that are deemed duplicates and further processing is
      *  aborted
      */
-    long duplicateNumber = 0;
+    final LongAdder duplicateNumber = new LongAdder();
     
     /** Then number of URIs that turned out to have exact URL and content 
      *  digest matches.
      */
-    long exactURLDuplicates = 0;
+    final LongAdder exactURLDuplicates = new LongAdder();
     
     /** The number of URIs that turned out to have equivalent URL and content
      *  digest matches.
      */
-    long equivalentURLDuplicates = 0;
+    final LongAdder equivalentURLDuplicates = new LongAdder();
     
     /** The number of URIs that, while having no exact or equivalent matches,  
      *  do have exact content digest matches against non-equivalent URIs.
      */
-    long mirrorNumber = 0;
+    final LongAdder mirrorNumber = new LongAdder();
     
     /** The total amount of data represented by the documents who were deemed
      *  duplicates and excluded from further processing.
      */
-    long duplicateAmount = 0;
+    final LongAdder duplicateAmount = new LongAdder();
     
     /** The total amount of data represented by all the documents processed **/
-    long totalAmount = 0;
+    final LongAdder totalAmount = new LongAdder();
     
     // Timestamp analysis
     
-    long timestampChangeCorrect = 0;
-    long timestampChangeFalse = 0;
-    long timestampNoChangeCorrect = 0;
-    long timestampNoChangeFalse = 0;
-    long timestampMissing = 0;
+    final LongAdder timestampChangeCorrect = new LongAdder();
+    final LongAdder timestampChangeFalse = new LongAdder();
+    final LongAdder timestampNoChangeCorrect = new LongAdder();
+    final LongAdder timestampNoChangeFalse = new LongAdder();
+    final LongAdder timestampMissing = new LongAdder();
 
     // ETag analysis;
     
-    long ETagChangeCorrect = 0;
-    long ETagChangeFalse = 0;
-    long ETagNoChangeCorrect = 0;
-    long ETagNoChangeFalse = 0;
-    long ETagMissingIndex = 0;
-    long ETagMissingCURI = 0;
+    final LongAdder ETagChangeCorrect = new LongAdder();
+    final LongAdder ETagChangeFalse = new LongAdder();
+    final LongAdder ETagNoChangeCorrect = new LongAdder();
+    final LongAdder ETagNoChangeFalse = new LongAdder();
+    final LongAdder ETagMissingIndex = new LongAdder();
+    final LongAdder ETagMissingCURI = new LongAdder();
 }
 
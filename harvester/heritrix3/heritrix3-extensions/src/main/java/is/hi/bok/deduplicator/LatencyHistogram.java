@@ -0,0 +1,116 @@
+package is.hi.bok.deduplicator;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, safe for concurrent recording from many threads.
+ * <p>
+ * Latencies are counted in buckets of powers of two microseconds, so bucket <code>i</code> holds latencies from
+ * 2^(i-1) up to 2^i microseconds. Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    /** The number of buckets. The last bucket holds everything above 2^(BUCKETS-2) microseconds (about 35 minutes). */
+    private static final int BUCKETS = 32;
+
+    /** The counts of each bucket. */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /** The total of all recorded latencies in nanoseconds. */
+    private final LongAdder totalNanos = new LongAdder();
+
+    /** The largest recorded latency in nanoseconds. */
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return The number of recorded latencies.
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return The mean recorded latency in microseconds, or 0 if nothing is recorded.
+     */
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * @return The largest recorded latency in microseconds.
+     */
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * Estimate a percentile of the recorded latencies.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in microseconds of the bucket containing the percentile, or 0 if nothing is recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? getMaxMicros() : 1L << i;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Append a one line summary of the histogram to a report.
+     *
+     * @param ret The report to append to.
+     * @param name The name of the latency measured.
+     */
+    public void report(StringBuffer ret, String name) {
+        ret.append("  " + name + " latency (us): count " + getCount());
+        ret.append(", mean " + Math.round(getMeanMicros()));
+        ret.append(", p50 <" + getPercentileMicros(50));
+        ret.append(", p90 <" + getPercentileMicros(90));
+        ret.append(", p99 <" + getPercentileMicros(99));
+        ret.append(", max " + getMaxMicros() + "\n");
+    }
+
+}
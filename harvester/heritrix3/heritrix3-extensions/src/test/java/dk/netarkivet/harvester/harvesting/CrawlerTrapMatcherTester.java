@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Unit tests for the classes CrawlerTrapMatcher and CrawlerTrapsDecideRule.
+ */
+public class CrawlerTrapMatcherTester {
+
+    /**
+     * Checks which literals are found in different kinds of expressions.
+     */
+    @Test
+    public void testGetRequiredLiteral() {
+        assertEquals("example.dk/cal", CrawlerTrapMatcher.getRequiredLiteral(".*example\\.dk/cal.*"));
+        assertEquals("/calendar?", CrawlerTrapMatcher.getRequiredLiteral(".*/[0-9]+/calendar\\?.?day=.*"));
+        assertEquals("An optional character should end the literal", "sort",
+                CrawlerTrapMatcher.getRequiredLiteral(".*sorts?=.*"));
+        assertEquals("Groups should be skipped", "index.php",
+                CrawlerTrapMatcher.getRequiredLiteral(".*(/[^/]+){3}.*index\\.php.*"));
+        assertNull("Alternation should give no literal", CrawlerTrapMatcher.getRequiredLiteral(".*abcd.*|.*efgh.*"));
+        assertNull("Back references should give no literal", CrawlerTrapMatcher.getRequiredLiteral(".*(/abc)\\1.*"));
+        assertNull("Inline flags should give no literal", CrawlerTrapMatcher.getRequiredLiteral("(?i).*example.*"));
+        assertNull("Short literals should not be used", CrawlerTrapMatcher.getRequiredLiteral(".*a/.*b.*"));
+    }
+
+    /**
+     * Checks that the matcher matches the same strings as trying each expression in turn.
+     */
+    @Test
+    public void testMatches() {
+        List<String> traps = Arrays.asList(".*example\\.dk/.*calendar.*", ".*(/[^/]+)\\1\\1.*", ".*sort=.*",
+                ".*EXAMPLE.*|.*\\.iso", "http://www\\.example\\.org/[a-z]+\\.html");
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(traps);
+        assertEquals(5, matcher.getPatternCount());
+        assertEquals(2, matcher.getUnfilteredPatternCount());
+
+        assertTrue(matcher.matches("http://www.example.dk/events/calendar/2017"));
+        assertTrue(matcher.matches("http://www.example.dk/a/b/b/b/c"));
+        assertTrue(matcher.matches("http://www.example.com/list?sort=date"));
+        assertTrue(matcher.matches("http://download.example.com/image.iso"));
+        assertTrue(matcher.matches("http://www.example.org/index.html"));
+        assertFalse(matcher.matches("http://www.example.dk/events/"));
+        assertFalse("Expressions should match the whole URI",
+                matcher.matches("http://www.example.org/index.html?calendar"));
+        assertFalse(new CrawlerTrapMatcher(new ArrayList<String>()).matches("http://www.example.dk/"));
+
+        assertTrue(new CrawlerTrapMatcher(Arrays.asList(".*example.*", ".*calendar.*"))
+                .matchesAll("http://www.example.dk/calendar"));
+        assertFalse(matcher.matchesAll("http://www.example.dk/events/calendar/2017"));
+    }
+
+    /**
+     * Checks that the decide rule evaluates URIs like MatchesListRegexDecideRule.
+     */
+    @Test
+    public void testDecideRule() throws Exception {
+        CrawlerTrapsDecideRule rule = new CrawlerTrapsDecideRule();
+        rule.setRegexList(Arrays.asList(".*calendar.*", ".*example\\.dk.*"));
+        CrawlURI calendar = new CrawlURI(UURIFactory.getInstance("http://www.example.dk/calendar/"));
+        CrawlURI other = new CrawlURI(UURIFactory.getInstance("http://www.example.com/"));
+        assertTrue(rule.evaluate(calendar));
+        assertFalse(rule.evaluate(other));
+
+        rule.setListLogicalOr(false);
+        assertTrue(rule.evaluate(calendar));
+        assertFalse(rule.evaluate(new CrawlURI(UURIFactory.getInstance("http://www.example.dk/"))));
+    }
+
+    /**
+     * Compares the time taken to match URIs against a few thousand traps with the matcher and by trying each trap in
+     * turn, as MatchesListRegexDecideRule does. The results must be the same.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testBenchmarkAgainstRegexList() {
+        Random random = new Random(42);
+        List<String> traps = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            switch (i % 3) {
+            case 0:
+                traps.add(".*domain" + i + "\\.dk/.*calendar.*");
+                break;
+            case 1:
+                traps.add("https?://www\\.domain" + i + "\\.dk/.*\\?.*sort=.*");
+                break;
+            default:
+                traps.add(".*/cgi-bin/script" + i + "\\.cgi.*");
+            }
+        }
+        traps.add(".*(/[^/]+)\\1\\1.*");
+        List<String> uris = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            int domain = random.nextInt(6000);
+            uris.add("http://www.domain" + domain + ".dk/" + (random.nextBoolean() ? "calendar/" : "news/")
+                    + random.nextInt(1000) + (random.nextBoolean() ? "?sort=date" : ""));
+        }
+
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String trap : traps) {
+            patterns.add(Pattern.compile(trap));
+        }
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(traps);
+
+        long start = System.nanoTime();
+        int regexListMatches = 0;
+        for (String uri : uris) {
+            for (Pattern p : patterns) {
+                if (p.matcher(uri).matches()) {
+                    regexListMatches++;
+                    break;
+                }
+            }
+        }
+        long regexListNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int matcherMatches = 0;
+        for (String uri : uris) {
+            if (matcher.matches(uri)) {
+                matcherMatches++;
+            }
+        }
+        long matcherNanos = System.nanoTime() - start;
+
+        System.out.println("Matching " + uris.size() + " URIs against " + traps.size() + " traps took "
+                + regexListNanos / 1000000 + " ms trying each trap in turn and " + matcherNanos / 1000000
+                + " ms with CrawlerTrapMatcher");
+        assertEquals("Both ways should match the same URIs", regexListMatches, matcherMatches);
+        assertTrue("Some URIs should be matched", matcherMatches > 0);
+    }
+
+}
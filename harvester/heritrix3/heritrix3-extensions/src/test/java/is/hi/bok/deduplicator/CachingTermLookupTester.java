@@ -0,0 +1,130 @@
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingTermLookupTester {
+
+    private RAMDirectory directory;
+    private DirectoryReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_44,
+                new WhitespaceAnalyzer(Version.LUCENE_44)));
+        writer.addDocument(document("http://a.example/", "DIGEST1"));
+        writer.addDocument(document("http://b.example/", "DIGEST2"));
+        // Commit to put the following documents in a second segment.
+        writer.commit();
+        writer.addDocument(document("http://a.example/", "DIGEST3"));
+        writer.addDocument(document("http://c.example/", "DIGEST1"));
+        writer.addDocument(document("http://d.example/", "DIGEST4"));
+        writer.deleteDocuments(new Term(DigestIndexer.FIELD_URL, "http://d.example/"));
+        writer.close();
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    private static Document document(String url, String digest) {
+        Document doc = new Document();
+        doc.add(new Field(DigestIndexer.FIELD_URL, url, StringField.TYPE_STORED));
+        doc.add(new Field(DigestIndexer.FIELD_DIGEST, digest, StringField.TYPE_STORED));
+        return doc;
+    }
+
+    @Test
+    public void testFindsDocumentsInAllSegments() throws IOException {
+        CachingTermLookup lookup = new CachingTermLookup(reader, 10);
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        int[] docIds = lookup.getDocIds(DigestIndexer.FIELD_URL, "http://a.example/");
+        assertEquals(2, docIds.length);
+        assertEquals("DIGEST1", searcher.doc(docIds[0]).get(DigestIndexer.FIELD_DIGEST));
+        assertEquals("DIGEST3", searcher.doc(docIds[1]).get(DigestIndexer.FIELD_DIGEST));
+
+        docIds = lookup.getDocIds(DigestIndexer.FIELD_DIGEST, "DIGEST1");
+        assertEquals(2, docIds.length);
+        assertEquals("http://c.example/", searcher.doc(docIds[1]).get(DigestIndexer.FIELD_URL));
+    }
+
+    @Test
+    public void testMissingAndDeletedTerms() throws IOException {
+        CachingTermLookup lookup = new CachingTermLookup(reader, 10);
+        assertEquals(0, lookup.getDocIds(DigestIndexer.FIELD_URL, "http://unknown.example/").length);
+        assertEquals(0, lookup.getDocIds(DigestIndexer.FIELD_URL, "http://d.example/").length);
+        assertEquals(0, lookup.getDocIds("nosuchfield", "http://a.example/").length);
+    }
+
+    @Test
+    public void testCachesHitsAndMisses() throws IOException {
+        CachingTermLookup lookup = new CachingTermLookup(reader, 2);
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://a.example/");
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://unknown.example/");
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://a.example/");
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://unknown.example/");
+        assertEquals(2, lookup.getHits());
+        assertEquals(2, lookup.getMisses());
+        assertEquals(2, lookup.getCacheSize());
+
+        // The same term in another field is another lookup.
+        lookup.getDocIds(DigestIndexer.FIELD_DIGEST, "http://a.example/");
+        assertEquals(3, lookup.getMisses());
+
+        // The least recently used entry has been evicted.
+        assertEquals(2, lookup.getCacheSize());
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://a.example/");
+        assertEquals(4, lookup.getMisses());
+    }
+
+    @Test
+    public void testSegmentedCacheKeepsItsSize() throws IOException {
+        CachingTermLookup lookup = new CachingTermLookup(reader, 1000);
+        for (int i = 0; i < 4000; i++) {
+            lookup.getDocIds(DigestIndexer.FIELD_URL, "http://unknown" + i + ".example/");
+        }
+        assertEquals(1000, lookup.getCacheSize());
+        assertEquals(4000, lookup.getMisses());
+
+        // The most recently used lookups are still cached.
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://unknown3999.example/");
+        assertEquals(1, lookup.getHits());
+        assertEquals(1, lookup.getDocIds(DigestIndexer.FIELD_URL, "http://b.example/").length);
+    }
+
+    @Test
+    public void testDisabledCache() throws IOException {
+        CachingTermLookup lookup = new CachingTermLookup(reader, 0);
+        lookup.getDocIds(DigestIndexer.FIELD_URL, "http://a.example/");
+        assertEquals(1, lookup.getDocIds(DigestIndexer.FIELD_URL, "http://b.example/").length);
+        assertEquals(0, lookup.getHits());
+        assertEquals(0, lookup.getCacheSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCacheSize() {
+        new CachingTermLookup(reader, -1);
+    }
+
+}
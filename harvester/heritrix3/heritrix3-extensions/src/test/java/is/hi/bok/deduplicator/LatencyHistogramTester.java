@@ -0,0 +1,40 @@
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTester {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(0.0, histogram.getMeanMicros(), 0.0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90 lookups of 3 microseconds and 10 of 1000 microseconds.
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1000000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals("The median is in the bucket up to 4 us", 4, histogram.getPercentileMicros(50));
+        assertEquals("The 90th percentile is in the bucket up to 4 us", 4, histogram.getPercentileMicros(90));
+        assertEquals("The 99th percentile is in the bucket up to 1024 us", 1024, histogram.getPercentileMicros(99));
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(102.7, histogram.getMeanMicros(), 0.01);
+
+        StringBuffer report = new StringBuffer();
+        histogram.report(report, "URL lookup");
+        assertTrue("Report should name the lookup: " + report, report.toString().contains("URL lookup latency"));
+    }
+
+}
@@ -24,20 +24,20 @@
 package dk.netarkivet.wayback.aggregator;
 
 import java.io.File;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.ExternalSorter;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
 
 /**
- * Encapsulates the functionality for sorting and merging index files. Uses the Unix sort cmd for optimized sorting and
- * file merging. Operations in this class are synchronized to avoid multiple jobs running at the same time (by the same
- * object at least).
+ * Encapsulates the functionality for sorting and merging index files. Sorts and merges inside the JVM with an
+ * {@link ExternalSorter}, in the same order as the Unix sort command with LC_ALL=C. Operations in this class are
+ * synchronized to avoid multiple jobs running at the same time (by the same object at least).
  */
 public class IndexAggregator {
     /** The logger for this class. */
@@ -53,7 +53,7 @@ public class IndexAggregator {
      * @param outputFile Name of the output file. In case of a empty filesNames array no outputFiles will be generated
      */
     public void sortAndMergeFiles(File[] files, File outputFile) {
-        processFiles(files, outputFile, null);
+        processFiles(files, outputFile, false);
     }
 
     /**
@@ -65,66 +65,39 @@ public class IndexAggregator {
      */
 
     public void mergeFiles(File[] files, File outputFile) {
-        List<String> args = new LinkedList<String>();
-        args.add("-m");
-        processFiles(files, outputFile, args);
+        processFiles(files, outputFile, true);
     }
 
     /**
-     * Calls the Unix sort command with the options <code>$filesNames -o
-     * $outputfile -T WaybackSettings#WAYBACK_AGGREGATOR_TEMP_DIR.
-     * <p>
-     * Sets the LC_ALL environment variable before making the call.
+     * Sorts or merges the files into the output file, storing temporary files in
+     * WaybackSettings#WAYBACK_AGGREGATOR_TEMP_DIR. Failures are logged, not thrown.
      *
      * @param files The files to merge and sort
      * @param outputFile The resulting sorted file
-     * @param additionalArgs A list af extra arguments, which (if different from null) are added to the sort call.<p>
-     * Note: If any of the args contain a whitespace the call will fail.
+     * @param alreadySorted Whether the files are sorted already, so they only need to be merged, like sort -m.
      */
-    private void processFiles(File[] files, File outputFile, List<String> additionalArgs) {
+    private void processFiles(File[] files, File outputFile, boolean alreadySorted) {
         if (files.length == 0) {
-            // Empty file list will cause sort to wait for further input,
-            // and the call will therefore never return
+            // Nothing to sort, so no output file is generated
             return;
         }
 
-        Process p = null;
-
         try {
-            List<String> inputFileList = new LinkedList<String>();
+            List<File> inputFileList = new ArrayList<File>();
             for (int i = 0; i < files.length; i++) {
                 if (files[i].exists() && files[i].isFile()) {
-                    inputFileList.add(files[i].getCanonicalPath());
+                    inputFileList.add(files[i].getCanonicalFile());
                 } else {
                     log.warn("File " + files[i] + " doesn't exist or isn't a regular file, "
                             + "dropping from list of files to " + "sort and merge");
                 }
             }
-            List<String> cmd = new LinkedList<String>();
-            // Prepare to run the unix sort command, see sort manual page for
-            // details
-            cmd.add("sort");
-            cmd.addAll(inputFileList);
-            cmd.add("-o");
-            cmd.add(outputFile.getCanonicalPath());
-            cmd.add("-T");
-            cmd.add(Settings.get(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR));
-            if (additionalArgs != null && !additionalArgs.isEmpty()) {
-                for (String argument : additionalArgs) {
-                    ArgumentNotValid.checkTrue(argument.indexOf(' ') == -1, "The argument '" + argument
-                            + "' contains spaces, this isn't allowed ");
-                }
-                cmd.addAll(additionalArgs);
-            }
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            // Reset all locale definitions
-            pb.environment().put("LC_ALL", "C");
-            // Run the command in the user.dir directory
-            pb.directory(new File(System.getProperty("user.dir")));
-            p = pb.start();
-            p.waitFor();
-            if (p.exitValue() != 0) {
-                log.error("Failed to sort index files, sort exited with " + "return code " + p.exitValue());
+            File tempDir = Settings.getFile(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR);
+            ExternalSorter sorter = ExternalSorter.fromSettings(ExternalSorter.LINE_ORDER, tempDir);
+            if (alreadySorted) {
+                sorter.merge(inputFileList, outputFile);
+            } else {
+                sorter.sort(inputFileList, outputFile);
             }
         } catch (Exception e) {
             log.error("Failed to aggregate indexes ", e);
@@ -23,6 +23,8 @@
 package dk.netarkivet.wayback;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -36,8 +38,10 @@ import dk.netarkivet.common.utils.Settings;
  * An LRU cache, based on <code>LinkedHashMap</code>.
  * <p>
  * <p>
- * This cache has a fixed maximum number of elements (<code>cacheSize</code>). If the cache is full and another entry is
- * added, the LRU (least recently used) entry is dropped.
+ * This cache has a fixed maximum number of elements (<code>cacheSize</code>) and optionally a maximum total size in
+ * bytes of the cached files (<code>maxBytes</code>). If the cache is full and another entry is added, LRU (least
+ * recently used) entries are dropped and their files deleted until the cache is within both limits again. The most
+ * recently added entry is never dropped, even if its file alone is larger than the byte limit.
  * <p>
  * <p>
  * This class is thread-safe. All methods of this class are synchronized.
@@ -51,12 +55,20 @@ import dk.netarkivet.common.utils.Settings;
 public class LRUCache {
     /** The hashtable loadfactor used here. */
     private static final float hashTableLoadFactor = 0.75f;
+    /** The suffix of files being downloaded into the cache dir. They are not part of the cache. */
+    public static final String PARTIAL_FILE_SUFFIX = ".part";
     /** The instance of this class. */
     private static LRUCache instance = null;
     /** The map containing pointers to the cache itself. */
     private LinkedHashMap<String, File> map;
+    /** The size of each cached file when it was added. */
+    private Map<String, Long> fileSizes = new HashMap<String, Long>();
     /** The size of the cache. */
     private int cacheSize;
+    /** The maximum total size of the cached files in bytes, or 0 for no limit. */
+    private long maxBytes;
+    /** The total size of the cached files in bytes. */
+    private long usedBytes;
     /** The cache containing the files. */
     private File cacheDir;
 
@@ -70,47 +82,58 @@ public class LRUCache {
      * @param cacheSize the maximum number of entries that will be kept in this cache.
      */
     public LRUCache(File dir, int cacheSize) {
+        this(dir, cacheSize, 0L);
+    }
+
+    /**
+     * Creates a new LRU cache. Using filename as the key, and the cached file as the value.
+     *
+     * @param dir The directory where the file is stored.
+     * @param cacheSize the maximum number of entries that will be kept in this cache.
+     * @param maxBytes the maximum total size in bytes of the files kept in this cache, or 0 for no limit.
+     */
+    public LRUCache(File dir, int cacheSize, long maxBytes) {
         // Validate args
         ArgumentNotValid.checkPositive(cacheSize, "int cacheSize");
+        ArgumentNotValid.checkNotNegative(maxBytes, "long maxBytes");
         ArgumentNotValid.checkNotNull(dir, "File dir");
         dir.mkdirs();
         ArgumentNotValid.checkTrue(dir.exists(), "Cachedir '" + dir.getAbsolutePath() + "' does not exist");
 
         this.cacheSize = cacheSize;
+        this.maxBytes = maxBytes;
         this.cacheDir = dir;
 
         int hashTableCapacity = (int) Math.ceil(cacheSize / hashTableLoadFactor) + 1;
-        map = new LinkedHashMap<String, File>(hashTableCapacity, hashTableLoadFactor, true) {
-            // (an anonymous inner class)
-            private static final long serialVersionUID = 1;
-
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
-                boolean removeEldest = size() > LRUCache.this.cacheSize;
-                if (removeEldest) {
-                    logger.info("Deleting file '" + eldest.getValue().getAbsolutePath() + "' from cache.");
-                    boolean deleted = eldest.getValue().delete();
-                    if (!deleted) {
-                        logger.warn("Unable to deleted LRU file from cache: " + eldest.getValue());
-                    }
-                }
-                return removeEldest;
-            }
-        };
+        map = new LinkedHashMap<String, File>(hashTableCapacity, hashTableLoadFactor, true);
 
         // fill up the map with the contents in cachedir
         // if the contents in cachedir exceeds the given cachesize,
         // change the size of the cache
         String[] cachedirFiles = cacheDir.list();
         logger.info("Initializing the cache with the contents of the cachedir '" + cacheDir.getAbsolutePath() + "'");
-        if (cachedirFiles.length > this.cacheSize) {
-            logger.warn("Changed the cachesize from " + cacheSize + " to " + cachedirFiles.length);
-            this.cacheSize = cachedirFiles.length;
-        }
         for (String cachefile : cachedirFiles) {
-            map.put(cachefile, new File(cacheDir, cachefile));
+            File file = new File(cacheDir, cachefile);
+            if (cachefile.endsWith(PARTIAL_FILE_SUFFIX)) {
+                // Left over from a download that was interrupted.
+                logger.info("Deleting partially downloaded file '" + file.getAbsolutePath() + "' from cache.");
+                file.delete();
+                continue;
+            }
+            map.put(cachefile, file);
+            fileSizes.put(cachefile, file.length());
+            usedBytes += file.length();
+        }
+        if (map.size() > this.cacheSize) {
+            logger.warn("Changed the cachesize from " + cacheSize + " to " + map.size());
+            this.cacheSize = map.size();
         }
-        logger.info("The contents of the cache is now " + map.size() + " files");
+        if (maxBytes > 0 && usedBytes > maxBytes) {
+            logger.warn("The contents of the cachedir is " + usedBytes + " bytes, which exceeds the limit of "
+                    + maxBytes + " bytes. Changed the limit to " + usedBytes + " bytes");
+            this.maxBytes = usedBytes;
+        }
+        logger.info("The contents of the cache is now " + map.size() + " files of " + usedBytes + " bytes");
     }
 
     /**
@@ -118,7 +141,8 @@ public class LRUCache {
      */
     public LRUCache() {
         this(new File(Settings.get(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_DIR)), Settings
-                .getInt(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXFILES));
+                .getInt(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXFILES), Settings
+                .getLong(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXBYTES));
     }
 
     /**
@@ -144,14 +168,36 @@ public class LRUCache {
 
     /**
      * Adds an entry to this cache. The new entry becomes the MRU (most recently used) entry. If an entry with the
-     * specified key already exists in the cache, it is replaced by the new entry. If the cache is full, the LRU (least
-     * recently used) entry is removed from the cache.
+     * specified key already exists in the cache, it is replaced by the new entry. If the cache is full, LRU (least
+     * recently used) entries are removed from the cache and their files deleted.
      *
      * @param key the key with which the specified value is to be associated.
-     * @param value a value to be associated with the specified key.
+     * @param value a value to be associated with the specified key. The file must be complete, as its size is counted
+     * when it is added.
      */
     public synchronized void put(String key, File value) {
         map.put(key, value);
+        long size = value.length();
+        Long oldSize = fileSizes.put(key, size);
+        usedBytes += size - (oldSize == null ? 0 : oldSize);
+        evict();
+    }
+
+    /**
+     * Remove LRU entries and delete their files until the cache is within its limits, keeping at least the MRU entry.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, File>> eldest = map.entrySet().iterator();
+        while (map.size() > 1 && (map.size() > cacheSize || (maxBytes > 0 && usedBytes > maxBytes))) {
+            Map.Entry<String, File> entry = eldest.next();
+            logger.info("Deleting file '" + entry.getValue().getAbsolutePath() + "' from cache.");
+            boolean deleted = entry.getValue().delete();
+            if (!deleted) {
+                logger.warn("Unable to deleted LRU file from cache: " + entry.getValue());
+            }
+            usedBytes -= fileSizes.remove(entry.getKey());
+            eldest.remove();
+        }
     }
 
     /**
@@ -159,6 +205,8 @@ public class LRUCache {
      */
     public synchronized void clear() {
         map.clear();
+        fileSizes.clear();
+        usedBytes = 0;
     }
 
     /**
@@ -170,6 +218,15 @@ public class LRUCache {
         return map.size();
     }
 
+    /**
+     * Returns the total size of the files in the cache.
+     *
+     * @return the number of bytes currently in the cache.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
     /**
      * @return the cacheDir
      */
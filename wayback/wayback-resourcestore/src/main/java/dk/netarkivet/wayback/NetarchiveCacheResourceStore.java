@@ -24,6 +24,12 @@ package dk.netarkivet.wayback;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,11 +43,17 @@ import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 
 /**
  * This is the connector between netarchivesuite and wayback. And is based on the NetarchiveResourceStore, and the
  * implementations of ResourceStore distributed with wayback-1.4.2.
+ * <p>
+ * Files are downloaded into the cache without holding a lock on the cache, so requests for cached files and for other
+ * files are served while a file is downloaded. Concurrent requests for the same uncached file share one download.
+ * If {@link WaybackSettings#WAYBACK_RESOURCESTORE_PARTIAL_FETCH} is true, uncached files are not downloaded; only the
+ * requested record is fetched, like {@link NetarchiveResourceStore} does.
  */
 public class NetarchiveCacheResourceStore implements ResourceStore {
 
@@ -54,6 +66,10 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
     private LRUCache fileCache;
     /** The replica being used by this class. */
     private Replica replicaUsed;
+    /** The downloads in progress, by filename. */
+    private final ConcurrentMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+    /** Fetches single records of files that are not cached, or null to download whole files into the cache. */
+    private NetarchiveResourceStore recordStore;
 
     /**
      * Constructor. Initiates the caching mechanism.
@@ -62,6 +78,9 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
         fileCache = LRUCache.getInstance();
         client = ArcRepositoryClientFactory.getViewerInstance();
         replicaUsed = Replica.getReplicaFromId(Settings.get(CommonSettings.USE_REPLICA_ID));
+        if (Settings.getBoolean(WaybackSettings.WAYBACK_RESOURCESTORE_PARTIAL_FETCH)) {
+            recordStore = new NetarchiveResourceStore(client);
+        }
     }
 
     /**
@@ -79,32 +98,97 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
 
         logger.info("Received request for resource from file '" + arcfile + "' at offset '" + offset + "'");
 
-        // Try to lookup the file in the cache
-        // make synchronized to disallow more than one using
-        // the cache at any one time
-        synchronized (fileCache) {
+        try {
             File wantedFile = fileCache.get(arcfile);
-            try {
-                if (wantedFile != null && wantedFile.exists()) {
-                    logger.debug("Found the file '" + arcfile + "' in the cache. ");
+            if (wantedFile != null && wantedFile.exists()) {
+                logger.debug("Found the file '" + arcfile + "' in the cache. ");
+                try {
                     return ResourceFactory.getResource(wantedFile, offset);
-                } else {
-                    logger.debug("The file '" + arcfile + "' was not found in the cache. ");
-                    // Get file from bitarchive, and place it in the cachedir
-                    // directory
-                    File fileFromBitarchive = new File(fileCache.getCacheDir(), arcfile);
-                    client.getFile(arcfile, replicaUsed, fileFromBitarchive);
-                    // put into the cache
-                    fileCache.put(arcfile, fileFromBitarchive);
-                    logger.info("File '" + arcfile + "' downloaded from archive and put into the cache '"
-                            + fileCache.getCacheDir().getAbsolutePath() + "'.");
-                    return ResourceFactory.getResource(fileFromBitarchive, offset);
+                } catch (IOException e) {
+                    // The file may have been evicted by another request after it was found.
+                    if (wantedFile.exists()) {
+                        throw e;
+                    }
+                    logger.debug("The file '" + arcfile + "' was evicted from the cache before it was read. ");
                 }
+            }
+            logger.debug("The file '" + arcfile + "' was not found in the cache. ");
+            if (recordStore != null) {
+                return recordStore.retrieveResource(captureSearchResult);
+            }
+            File downloadedFile = download(arcfile);
+            try {
+                return ResourceFactory.getResource(downloadedFile, offset);
             } catch (IOException e) {
-                logger.error("Error looking for non existing resource", e);
-                throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
-                        + "CaptureResult given from Wayback.");
+                // Files downloaded by other requests may have made the cache evict the file before it was opened.
+                if (downloadedFile.exists()) {
+                    throw e;
+                }
+                logger.debug("The file '" + arcfile + "' was evicted from the cache before it was read, "
+                        + "downloading it again. ");
+                return ResourceFactory.getResource(download(arcfile), offset);
+            }
+        } catch (IOException e) {
+            logger.error("Error looking for non existing resource", e);
+            throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
+                    + "CaptureResult given from Wayback.");
+        }
+    }
+
+    /**
+     * Download a file into the cache, or wait for the download if another request is downloading it already.
+     *
+     * @param arcfile The name of the file.
+     * @return The cached file.
+     * @throws IOException If the file could not be downloaded.
+     */
+    private File download(final String arcfile) throws IOException {
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() {
+                // The file may have been cached by a download that ended after the cache was checked.
+                File cachedFile = fileCache.get(arcfile);
+                if (cachedFile != null && cachedFile.exists()) {
+                    return cachedFile;
+                }
+                // Get file from bitarchive into a temporary file in the cachedir directory, and move it in place
+                // when complete, so a partial file is never served.
+                File partialFile = new File(fileCache.getCacheDir(), arcfile + "." + UUID.randomUUID()
+                        + LRUCache.PARTIAL_FILE_SUFFIX);
+                File fileFromBitarchive = new File(fileCache.getCacheDir(), arcfile);
+                try {
+                    client.getFile(arcfile, replicaUsed, partialFile);
+                    if (!partialFile.renameTo(fileFromBitarchive)) {
+                        throw new IOFailure("Unable to move '" + partialFile + "' to '" + fileFromBitarchive + "'");
+                    }
+                } finally {
+                    partialFile.delete();
+                }
+                // put into the cache
+                fileCache.put(arcfile, fileFromBitarchive);
+                logger.info("File '" + arcfile + "' downloaded from archive and put into the cache '"
+                        + fileCache.getCacheDir().getAbsolutePath() + "'.");
+                return fileFromBitarchive;
+            }
+        });
+        FutureTask<File> download = downloads.putIfAbsent(arcfile, task);
+        if (download == null) {
+            download = task;
+            try {
+                task.run();
+            } finally {
+                downloads.remove(arcfile, task);
             }
+        } else {
+            logger.debug("Waiting for the download of the file '" + arcfile + "' by another request.");
+        }
+        try {
+            return download.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to download the file '" + arcfile + "'", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the file '" + arcfile + "'", e);
         }
     }
 
@@ -66,7 +66,16 @@ public class NetarchiveResourceStore implements ResourceStore {
      * Constructor.
      */
     public NetarchiveResourceStore() {
-        client = ArcRepositoryClientFactory.getViewerInstance();
+        this(ArcRepositoryClientFactory.getViewerInstance());
+    }
+
+    /**
+     * Constructor for a store sharing the client of another store.
+     *
+     * @param client The client to fetch records with.
+     */
+    NetarchiveResourceStore(ViewerArcRepositoryClient client) {
+        this.client = client;
     }
 
     /**
@@ -160,4 +160,17 @@ public class WaybackSettings {
     /** The cachedirectory. */
     public static String WAYBACK_RESOURCESTORE_CACHE_DIR = "settings.wayback.resourcestore.cachedir";
 
+    /**
+     * The maximum total size in bytes of the files in the resourcestore cache. The least recently used files are
+     * deleted when the cache grows larger. A value of 0 means no limit besides the number of files. The default is
+     * 107374182400 (100 GB).
+     */
+    public static String WAYBACK_RESOURCESTORE_CACHE_MAXBYTES = "settings.wayback.resourcestore.maxbytes";
+
+    /**
+     * Whether the resourcestore cache fetches only the requested record from the archive when the file is not cached,
+     * instead of downloading the whole file into the cache. The default is false.
+     */
+    public static String WAYBACK_RESOURCESTORE_PARTIAL_FETCH = "settings.wayback.resourcestore.partialFetch";
+
 }
@@ -22,13 +22,93 @@
  */
 package dk.netarkivet.wayback;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import dk.netarkivet.common.utils.FileUtils;
+
 /** TODO complete unittests. */
 @SuppressWarnings({"unused"})
 public class LRUCacheTester {
 
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("lrucache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    private File makeFile(String name, long length) throws IOException {
+        File file = new File(dir, name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.close();
+        return file;
+    }
+
+    @Test
+    public void testEvictsByBytes() throws IOException {
+        LRUCache cache = new LRUCache(dir, 10, 100);
+        File a = makeFile("a", 40);
+        cache.put("a", a);
+        File b = makeFile("b", 40);
+        cache.put("b", b);
+        assertEquals(80, cache.usedBytes());
+        // Make b the least recently used.
+        cache.get("a");
+        File c = makeFile("c", 40);
+        cache.put("c", c);
+        assertNull("The least recently used file should be evicted", cache.get("b"));
+        assertFalse("The evicted file should be deleted", b.exists());
+        assertEquals(2, cache.usedEntries());
+        assertEquals(80, cache.usedBytes());
+
+        // A file larger than the limit is kept alone.
+        File d = makeFile("d", 200);
+        cache.put("d", d);
+        assertEquals(1, cache.usedEntries());
+        assertEquals(200, cache.usedBytes());
+        assertTrue(d.exists());
+    }
+
+    @Test
+    public void testEvictsByCount() throws IOException {
+        LRUCache cache = new LRUCache(dir, 2, 0);
+        cache.put("a", makeFile("a", 1));
+        cache.put("b", makeFile("b", 1));
+        cache.put("c", makeFile("c", 1));
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.usedEntries());
+    }
+
+    @Test
+    public void testInitializesFromCacheDir() throws IOException {
+        makeFile("a", 10);
+        makeFile("b", 20);
+        File partial = makeFile("c" + LRUCache.PARTIAL_FILE_SUFFIX, 5);
+        LRUCache cache = new LRUCache(dir, 10, 1000);
+        assertEquals(2, cache.usedEntries());
+        assertEquals(30, cache.usedBytes());
+        assertFalse("Partial downloads should be deleted", partial.exists());
+    }
+
     @Test
     @Ignore
     public void testConstructor() {